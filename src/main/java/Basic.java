@@ -1,9 +1,28 @@
+import compiler.Engine;
+import compiler.LintFinding;
+import compiler.OptimizationLevel;
+import compiler.PassManager;
+import compiler.PassStatistics;
+import compiler.PerformanceLint;
+import interpreter.ExecutionEngine;
+import interpreter.ExecutionProfile;
 import interpreter.Interpreter;
+import interpreter.Trace;
+import interpreter.TracingInterpreter;
 import lexer.Lexer;
 import lexer.Token;
 import node.ProgramNode;
 import parser.Parser;
+import vm.DispatchBenchmark;
+import vm.JarCompiler;
+import vm.JavaMachine;
+import vm.TierTransition;
+import vm.TieredEngine;
 
+import javax.lang.model.SourceVersion;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -23,10 +42,16 @@ public class Basic {
 
         // Validate that exactly one argument (filename) is provided
         if (args.length < 1) {
-            System.out.println("Usage: java -jar app.jar [filename] [-interactive] [-i] [-debug] [-d]");
+            System.out.println("Usage: java -jar app.jar [filename] [-interactive] [-i] [-debug] [-d] [-O0|-O1|-O2] [--verify-passes] [--profile-out file] [--profile-in file] [--stack-limit n] [--perf-lint] [--engine ast|specializing|stack-vm|register-vm|closure|jit|java|tiered|tracing] [--tier interpreter|jit] [--tier-threshold n] [--osr-threshold n] [--tier-stats] [--trace-threshold n] [--trace-stats] [--emit-java file] [--benchmark runs] [--benchmark-input line,...]");
+            System.out.println("       java -jar app.jar compile [filename] -o [jar] [-O0|-O1|-O2]");
             System.exit(1); //  Exiting with an error status
         }
 
+        if (args[0].equals("compile")) {
+            compileJar(args);
+            return;
+        }
+
         Set<String> arguments = new HashSet<>(List.of(args));
         if (arguments.contains("-interactive") || arguments.contains("-i")) {
             Shell shell = new Shell();
@@ -61,8 +86,276 @@ public class Basic {
             printBanner();
         }
 
-        Interpreter interpreter = new Interpreter(program);
-        interpreter.interpret();
+        if (arguments.contains("--perf-lint")) {
+            // Report the slow constructs instead of running the program
+            List<LintFinding> findings = PerformanceLint.lint(program, parser.getLineNumbers());
+            for (LintFinding finding : findings) {
+                System.out.println(args[0] + ":" + finding);
+            }
+            System.out.printf("%d finding(s)%n", findings.size());
+            return;
+        }
+
+        String profileOut = optionValue(args, "--profile-out");
+        String profileIn = optionValue(args, "--profile-in");
+        if (profileOut != null && profileIn != null) {
+            // A profile is keyed by the statements as parsed, which an optimized program no longer matches
+            System.out.println("--profile-out and --profile-in cannot be used together");
+            System.exit(1);
+        }
+        OptimizationLevel level = optimizationLevel(args);
+        if (profileOut != null && level != OptimizationLevel.O0) {
+            System.out.println("--profile-out records the program as parsed and cannot be combined with -O1 or -O2");
+            System.exit(1);
+        }
+        if (profileIn != null && level == OptimizationLevel.O0) {
+            System.out.println("--profile-in guides the -O1 and -O2 passes and has no effect at -O0");
+            System.exit(1);
+        }
+        Engine engine = Engine.AST;
+        String engineName = optionValue(args, "--engine");
+        if (engineName != null) {
+            engine = Engine.fromName(engineName);
+            if (engine == null) {
+                System.out.println("Unknown --engine: " + engineName);
+                System.exit(1);
+            }
+        }
+        if (profileOut != null && engine != Engine.AST) {
+            // Only the Interpreter sees the statements one at a time to count them
+            System.out.println("--profile-out records the program as it is interpreted and needs --engine ast");
+            System.exit(1);
+        }
+        optimize(program, level, profileIn == null ? null : loadProfile(program, profileIn), arguments.contains("--verify-passes"));
+
+        String emitJava = optionValue(args, "--emit-java");
+        if (emitJava != null) {
+            writeJavaSource(program, emitJava);
+        }
+
+        String benchmarkRuns = optionValue(args, "--benchmark");
+        if (benchmarkRuns != null) {
+            // Compare the VMs on the program instead of running it once; its INPUT statements read the given lines
+            String benchmarkInput = optionValue(args, "--benchmark-input");
+            List<String> input = benchmarkInput == null ? List.of() : List.of(benchmarkInput.split(","));
+            for (DispatchBenchmark.Result result : DispatchBenchmark.run(program, input, Integer.parseInt(benchmarkRuns))) {
+                System.out.println(result);
+            }
+            return;
+        }
+
+        ExecutionEngine executionEngine = engine.create(program);
+        String stackLimit = optionValue(args, "--stack-limit");
+        if (stackLimit != null) {
+            try {
+                executionEngine.setStackLimit(Integer.parseInt(stackLimit));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid --stack-limit: " + stackLimit);
+                System.exit(1);
+            }
+        }
+        TieredEngine tieredEngine = configureTiers(executionEngine, args);
+        TracingInterpreter tracingInterpreter = configureTracing(executionEngine, args);
+        if (profileOut == null) {
+            try {
+                executionEngine.interpret();
+            } finally {
+                if (tieredEngine != null && arguments.contains("--tier-stats")) {
+                    printTierStatistics(tieredEngine);
+                }
+                if (tracingInterpreter != null && arguments.contains("--trace-stats")) {
+                    printTraceStatistics(tracingInterpreter);
+                }
+            }
+            return;
+        }
+        Interpreter interpreter = (Interpreter) executionEngine;
+        ExecutionProfile profile = new ExecutionProfile(program);
+        interpreter.setProfile(profile);
+        try {
+            interpreter.interpret();
+        } finally {
+            writeProfile(profile, profileOut);
+        }
+    }
+
+    // Applies the --tier options, which only the tiered engine takes; returns the engine if it is tiered
+    private static TieredEngine configureTiers(ExecutionEngine executionEngine, String[] args) {
+        String tierName = optionValue(args, "--tier");
+        String threshold = optionValue(args, "--tier-threshold");
+        String osrThreshold = optionValue(args, "--osr-threshold");
+        boolean tierOptions = tierName != null || threshold != null || osrThreshold != null
+                || List.of(args).contains("--tier-stats");
+        if (!(executionEngine instanceof TieredEngine)) {
+            if (tierOptions) {
+                System.out.println("--tier, --tier-threshold, --osr-threshold and --tier-stats need --engine tiered");
+                System.exit(1);
+            }
+            return null;
+        }
+        TieredEngine tieredEngine = (TieredEngine) executionEngine;
+        if (tierName != null) {
+            TieredEngine.Tier tier = TieredEngine.Tier.fromName(tierName);
+            if (tier == null) {
+                System.out.println("Unknown --tier: " + tierName);
+                System.exit(1);
+            }
+            tieredEngine.setForcedTier(tier);
+        }
+        if (threshold != null) {
+            try {
+                tieredEngine.setThreshold(Integer.parseInt(threshold));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid --tier-threshold: " + threshold);
+                System.exit(1);
+            }
+        }
+        if (osrThreshold != null) {
+            try {
+                tieredEngine.setOsrThreshold(Integer.parseInt(osrThreshold));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid --osr-threshold: " + osrThreshold);
+                System.exit(1);
+            }
+        }
+        return tieredEngine;
+    }
+
+    private static void printTierStatistics(TieredEngine tieredEngine) {
+        printBanner();
+        System.out.println("TIERS");
+        printBanner();
+        for (TierTransition transition : tieredEngine.getTransitions()) {
+            System.out.println(transition);
+        }
+        if (tieredEngine.getCompileFailure() != null) {
+            System.out.println("Stayed in the interpreter: " + tieredEngine.getCompileFailure().getMessage());
+        }
+        System.out.println("Ended in tier " + tieredEngine.getTier().getName());
+    }
+
+    // Applies the --trace options, which only the tracing engine takes; returns the engine if it is tracing
+    private static TracingInterpreter configureTracing(ExecutionEngine executionEngine, String[] args) {
+        String threshold = optionValue(args, "--trace-threshold");
+        if (!(executionEngine instanceof TracingInterpreter)) {
+            if (threshold != null || List.of(args).contains("--trace-stats")) {
+                System.out.println("--trace-threshold and --trace-stats need --engine tracing");
+                System.exit(1);
+            }
+            return null;
+        }
+        TracingInterpreter tracingInterpreter = (TracingInterpreter) executionEngine;
+        if (threshold != null) {
+            try {
+                tracingInterpreter.setThreshold(Integer.parseInt(threshold));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid --trace-threshold: " + threshold);
+                System.exit(1);
+            }
+        }
+        return tracingInterpreter;
+    }
+
+    private static void printTraceStatistics(TracingInterpreter tracingInterpreter) {
+        printBanner();
+        System.out.println("TRACES");
+        printBanner();
+        for (Trace trace : tracingInterpreter.getTraces()) {
+            System.out.println(trace);
+        }
+        for (String aborted : tracingInterpreter.getAbortedTraces()) {
+            System.out.println("Not traced: " + aborted);
+        }
+    }
+
+    // Returns the argument following the option, or null if the option is absent
+    private static String optionValue(String[] args, String option) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(option)) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+
+    // The last -O flag given, or O0
+    private static OptimizationLevel optimizationLevel(String[] args) {
+        OptimizationLevel level = OptimizationLevel.O0;
+        for (String argument : args) {
+            if (OptimizationLevel.fromFlag(argument) != null) {
+                level = OptimizationLevel.fromFlag(argument);
+            }
+        }
+        return level;
+    }
+
+    // Compiles the program named after "compile" into an executable jar that runs it without parsing it again
+    private static void compileJar(String[] args) {
+        String jar = optionValue(args, "-o");
+        if (args.length < 2 || args[1].startsWith("-") || jar == null) {
+            System.out.println("Usage: java -jar app.jar compile [filename] -o [jar] [-O0|-O1|-O2]");
+            System.exit(1);
+        }
+        ProgramNode program = new Parser(new Lexer().lex(args[1])).parse();
+        optimize(program, optimizationLevel(args), null, List.of(args).contains("--verify-passes"));
+        try {
+            List<String> classes = JarCompiler.compile(program, Path.of(jar));
+            System.out.printf("Wrote %s: %d classes, %d bytes%n", jar, classes.size(), Files.size(Path.of(jar)));
+        } catch (IOException e) {
+            System.out.println("Cannot write jar: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalStateException e) {
+            System.out.println("Cannot compile " + args[1] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static ExecutionProfile loadProfile(ProgramNode program, String file) {
+        try {
+            return ExecutionProfile.read(Path.of(file), program);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Cannot load profile: " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    private static void optimize(ProgramNode program, OptimizationLevel level, ExecutionProfile profile, boolean verify) {
+        PassManager passManager = PassManager.forLevel(level, profile);
+        passManager.setVerify(verify);
+        passManager.run(program);
+        if (DEBUG && !passManager.getStatistics().isEmpty()) {
+            printBanner();
+            System.out.println("OPTIMIZATION " + level);
+            printBanner();
+            for (PassStatistics statistics : passManager.getStatistics()) {
+                System.out.println(statistics);
+            }
+        }
+    }
+
+    private static void writeProfile(ExecutionProfile profile, String file) {
+        try {
+            profile.write(Path.of(file));
+        } catch (IOException e) {
+            System.out.println("Cannot write profile: " + e.getMessage());
+        }
+    }
+
+    // Writes the Java source the java engine compiles the program to, as a class named after the file
+    private static void writeJavaSource(ProgramNode program, String file) {
+        Path path = Path.of(file);
+        String className = path.getFileName().toString().replaceFirst("\\.java$", "");
+        if (!SourceVersion.isName(className)) {
+            System.out.println("--emit-java needs a file named after a Java class, such as Program.java: " + file);
+            System.exit(1);
+        }
+        try {
+            Files.writeString(path, JavaMachine.toJavaSource(program, className));
+        } catch (IOException e) {
+            System.out.println("Cannot write Java source: " + e.getMessage());
+            System.exit(1);
+        }
     }
 
     private static void printBanner() {
@@ -0,0 +1,76 @@
+package compiler;
+
+import node.*;
+
+import java.util.*;
+
+/**
+ * Checks the structural invariants the Interpreter relies on. Statements are linked through their next pointers,
+ * so each statement object may appear only once; labels must be unique for jumps to be unambiguous; a label may
+ * not wrap another label; and every GOTO, GOSUB, IF and WHILE should name a label that exists.
+ *
+ * Parsed programs can already break some of these, a GOTO to a missing label is only an error once it runs, so
+ * the PassManager compares the problems after each pass with those the program had before the pipeline.
+ */
+public final class AstVerifier {
+
+    private AstVerifier() {}
+
+    /**
+     * @return a description of each broken invariant, empty if there are none
+     */
+    public static Set<String> check(ProgramNode programNode) {
+        Set<String> problems = new LinkedHashSet<>();
+        Set<StatementNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<String> labels = new HashSet<>();
+        List<String> targets = new ArrayList<>();
+        List<StatementNode> statements = programNode.getStatements();
+        for (int i = 0; i < statements.size(); i++) {
+            StatementNode statement = statements.get(i);
+            if (statement == null) {
+                problems.add(String.format("statement %d is null", i));
+                continue;
+            }
+            StatementNode inner = statement;
+            if (statement instanceof LabeledStatementNode) {
+                LabeledStatementNode labeled = (LabeledStatementNode) statement;
+                if (!labels.add(labeled.getLabel())) {
+                    problems.add(String.format("label '%s' is defined more than once", labeled.getLabel()));
+                }
+                inner = labeled.getStatementNode();
+                if (inner instanceof LabeledStatementNode) {
+                    problems.add(String.format("label '%s' wraps another label", labeled.getLabel()));
+                }
+            }
+            if (!seen.add(statement) || (inner != statement && inner != null && !seen.add(inner))) {
+                problems.add(String.format("%s appears more than once", inner));
+            }
+            String target = jumpTarget(statement);
+            if (target != null) {
+                targets.add(target);
+            }
+        }
+        for (String target : targets) {
+            if (!labels.contains(target)) {
+                problems.add(String.format("label '%s' is jumped to but never defined", target));
+            }
+        }
+        return problems;
+    }
+
+    private static String jumpTarget(StatementNode statement) {
+        if (statement instanceof GoToNode) {
+            return ((GoToNode) statement).getLabel();
+        }
+        if (statement instanceof GoSubNode) {
+            return ((GoSubNode) statement).getLabel();
+        }
+        if (statement instanceof IfNode) {
+            return ((IfNode) statement).getLabel();
+        }
+        if (statement instanceof WhileNode) {
+            return ((WhileNode) statement).getLabel();
+        }
+        return null;
+    }
+}
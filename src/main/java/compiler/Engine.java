@@ -0,0 +1,84 @@
+package compiler;
+
+import interpreter.ExecutionEngine;
+import interpreter.Interpreter;
+import interpreter.SpecializingInterpreter;
+import interpreter.TracingInterpreter;
+import node.ProgramNode;
+import vm.ClosureMachine;
+import vm.JavaMachine;
+import vm.JitMachine;
+import vm.RegisterMachine;
+import vm.TieredEngine;
+import vm.VirtualMachine;
+
+/**
+ * The ways a program can be run. Every engine prints the same output and fails the same way as the tree-walking
+ * Interpreter; they differ only in how much work they do up front to run the program faster.
+ */
+public enum Engine {
+    // Walk the syntax tree one statement at a time
+    AST("ast"),
+    // Walk the syntax tree, rewriting each expression to a node specialized on the types it observes
+    SPECIALIZING("specializing"),
+    // Compile to bytecode and run it on the stack VM
+    STACK_VM("stack-vm"),
+    // Translate the bytecode to register code and run it on the register VM
+    REGISTER_VM("register-vm"),
+    // Compile the bytecode to a tree of closures, one per basic block
+    CLOSURE("closure"),
+    // Compile the bytecode to a JVM class that HotSpot compiles to machine code
+    JIT("jit"),
+    // Translate the bytecode to Java source and compile it with the JDK's Java compiler
+    JAVA("java"),
+    // Start in the Interpreter and move to the JIT once a loop or subroutine gets hot
+    TIERED("tiered"),
+    // Interpret, but record the path each hot loop takes and run it as a compiled trace while it holds
+    TRACING("tracing");
+
+    private final String name;
+
+    Engine(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Prepares the program to run on this engine
+    public ExecutionEngine create(ProgramNode program) {
+        switch (this) {
+            case SPECIALIZING:
+                return new SpecializingInterpreter(program);
+            case STACK_VM:
+                return new VirtualMachine(program);
+            case REGISTER_VM:
+                return new RegisterMachine(program);
+            case CLOSURE:
+                return new ClosureMachine(program);
+            case JIT:
+                return new JitMachine(program);
+            case JAVA:
+                return new JavaMachine(program);
+            case TIERED:
+                return new TieredEngine(program);
+            case TRACING:
+                return new TracingInterpreter(program);
+            default:
+                return new Interpreter(program);
+        }
+    }
+
+    /**
+     * Returns the engine with the given name as passed to --engine, or null if there is none.
+     */
+    public static Engine fromName(String name) {
+        for (Engine engine : values()) {
+            if (engine.name.equals(name)) {
+                return engine;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,55 @@
+package compiler;
+
+/**
+ * One costly construct found by the PerformanceLint. The estimated cost is the extra work per execution, in
+ * expression nodes the Interpreter evaluates or statements it dispatches, times how often the statement is
+ * expected to run: the product of the trip counts of the loops around it.
+ */
+public class LintFinding {
+
+    private final PerformanceLint.RULE rule;
+    private final int line;
+    private final String message;
+    private final int costPerExecution;
+    private final long executions;
+
+    public LintFinding(PerformanceLint.RULE rule, int line, String message, int costPerExecution, long executions) {
+        this.rule = rule;
+        this.line = line;
+        this.message = message;
+        this.costPerExecution = costPerExecution;
+        this.executions = executions;
+    }
+
+    public PerformanceLint.RULE getRule() {
+        return rule;
+    }
+
+    // The 1-based source line of the statement, or -1 if it is not known
+    public int getLine() {
+        return line;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public int getCostPerExecution() {
+        return costPerExecution;
+    }
+
+    // How many times the statement is expected to run
+    public long getExecutions() {
+        return executions;
+    }
+
+    public long getEstimatedCost() {
+        return costPerExecution * executions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("line %s: %s: %s (estimated cost %d: %d per execution x %d)", line < 0 ? "?" : line,
+                rule, message, getEstimatedCost(), costPerExecution, executions);
+    }
+}
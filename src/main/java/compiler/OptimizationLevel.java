@@ -0,0 +1,26 @@
+package compiler;
+
+/**
+ * How much optimization to do before a program runs. Higher levels spend more startup time to make long-running
+ * programs faster.
+ */
+public enum OptimizationLevel {
+    // Run the program as parsed
+    O0,
+    // Cheap local rewrites that pay off even for short scripts
+    O1,
+    // Every pass, including the loop and subroutine transformations and ahead-of-time evaluation
+    O2;
+
+    /**
+     * Returns the level named by a command line switch such as -O2, or null if the argument is not one.
+     */
+    public static OptimizationLevel fromFlag(String argument) {
+        for (OptimizationLevel level : values()) {
+            if (argument.equals("-" + level.name())) {
+                return level;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,141 @@
+package compiler;
+
+import interpreter.ExecutionProfile;
+import node.LabeledStatementNode;
+import node.ProgramNode;
+import node.StatementNode;
+import optimizer.*;
+
+import java.util.*;
+
+/**
+ * Runs an ordered pipeline of optimization passes over a program and records what each one did. In verify mode
+ * the program is checked with the AstVerifier after every pass, so a pass that breaks an invariant is named
+ * instead of surfacing later as a confusing runtime failure.
+ */
+public class PassManager {
+
+    private final List<OptimizationPass> passes = new ArrayList<>();
+    private final List<PassStatistics> statistics = new ArrayList<>();
+    private boolean verify = false;
+
+    public static PassManager forLevel(OptimizationLevel level) {
+        return forLevel(level, null);
+    }
+
+    /**
+     * Builds the pipeline for an optimization level. With a profile from an earlier run, subroutine inlining and
+     * loop unrolling are guided by it, and O1 runs them too; O0 still runs no passes.
+     *
+     * @param profile execution counts for the program as parsed, or null
+     */
+    public static PassManager forLevel(OptimizationLevel level, ExecutionProfile profile) {
+        PassManager manager = new PassManager();
+        switch (level) {
+            case O2:
+                manager.add(inlining(profile))
+                        .add(new TailGoSubElimination())
+                        .add(new SparseConditionalConstantPropagation())
+                        .add(new CopyPropagation())
+                        .add(new DeadStoreElimination())
+                        .add(new IfGotoLoopConversion())
+                        .add(unrolling(profile))
+                        .add(new LoopInvariantCodeMotion())
+                        .add(new StrengthReduction())
+                        .add(new PartialEvaluation());
+                break;
+            case O1:
+                if (profile != null) {
+                    manager.add(inlining(profile)).add(unrolling(profile));
+                }
+                manager.add(new StrengthReduction())
+                        .add(new TailGoSubElimination());
+                break;
+            default:
+                return manager;
+        }
+        // Passes that rebuild statements turn superinstructions back into plain ones, so fusion comes last
+        manager.add(new Superinstructions());
+        return manager;
+    }
+
+    private static GoSubInlining inlining(ExecutionProfile profile) {
+        GoSubInlining inlining = new GoSubInlining();
+        inlining.setProfile(profile);
+        return inlining;
+    }
+
+    private static LoopUnrolling unrolling(ExecutionProfile profile) {
+        LoopUnrolling unrolling = new LoopUnrolling();
+        unrolling.setProfile(profile);
+        return unrolling;
+    }
+
+    public PassManager add(OptimizationPass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public List<OptimizationPass> getPasses() {
+        return Collections.unmodifiableList(passes);
+    }
+
+    // Checks the program's invariants after every pass
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    // One entry per pass run by the last call to run(), in pipeline order
+    public List<PassStatistics> getStatistics() {
+        return Collections.unmodifiableList(statistics);
+    }
+
+    /**
+     * Runs every pass in order.
+     *
+     * @return true if any pass changed the program
+     * @throws IllegalStateException in verify mode, if a pass leaves the program with a problem it did not have
+     */
+    public boolean run(ProgramNode programNode) {
+        statistics.clear();
+        Set<String> baseline = verify ? AstVerifier.check(programNode) : Set.of();
+        boolean changed = false;
+        for (OptimizationPass pass : passes) {
+            Set<StatementNode> before = statementsOf(programNode);
+            long start = System.nanoTime();
+            boolean passChanged = pass.run(programNode);
+            long nanos = System.nanoTime() - start;
+            Set<StatementNode> after = statementsOf(programNode);
+
+            int kept = 0;
+            for (StatementNode statement : after) {
+                kept += before.contains(statement) ? 1 : 0;
+            }
+            statistics.add(new PassStatistics(pass.getName(), nanos, before.size(), after.size(),
+                    before.size() - kept, after.size() - kept, passChanged));
+            changed |= passChanged;
+
+            if (verify) {
+                Set<String> problems = AstVerifier.check(programNode);
+                problems.removeAll(baseline);
+                if (!problems.isEmpty()) {
+                    throw new IllegalStateException(String.format("Pass '%s' broke the program: %s", pass.getName(),
+                            String.join("; ", problems)));
+                }
+            }
+        }
+        return changed;
+    }
+
+    // Every statement object in the program, counting the statements wrapped in labels
+    private static Set<StatementNode> statementsOf(ProgramNode programNode) {
+        Set<StatementNode> statements = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (StatementNode statement : programNode.getStatements()) {
+            statements.add(statement);
+            if (statement instanceof LabeledStatementNode && ((LabeledStatementNode) statement).getStatementNode() != null) {
+                statements.add(((LabeledStatementNode) statement).getStatementNode());
+            }
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,64 @@
+package compiler;
+
+/**
+ * What one optimization pass did to a program: how long it took, how many statements it took out of the program
+ * and put into it, and whether it reported a change. A statement a pass rewrites counts as one removed and one
+ * added, since passes replace statements rather than edit them.
+ */
+public class PassStatistics {
+
+    private final String name;
+    private final long nanos;
+    private final int statementsBefore;
+    private final int statementsAfter;
+    private final int removed;
+    private final int added;
+    private final boolean changed;
+
+    public PassStatistics(String name, long nanos, int statementsBefore, int statementsAfter, int removed, int added, boolean changed) {
+        this.name = name;
+        this.nanos = nanos;
+        this.statementsBefore = statementsBefore;
+        this.statementsAfter = statementsAfter;
+        this.removed = removed;
+        this.added = added;
+        this.changed = changed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Wall time the pass took, in nanoseconds
+    public long getNanos() {
+        return nanos;
+    }
+
+    public int getStatementsBefore() {
+        return statementsBefore;
+    }
+
+    public int getStatementsAfter() {
+        return statementsAfter;
+    }
+
+    // Statements present before the pass and gone after it
+    public int getRemoved() {
+        return removed;
+    }
+
+    // Statements present after the pass that it created
+    public int getAdded() {
+        return added;
+    }
+
+    public boolean isChanged() {
+        return changed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-28s %9.3f ms  %5d -> %-5d  -%d +%d%s", name, nanos / 1_000_000.0, statementsBefore,
+                statementsAfter, removed, added, changed ? "" : "  (unchanged)");
+    }
+}
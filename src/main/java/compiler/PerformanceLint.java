@@ -0,0 +1,400 @@
+package compiler;
+
+import ir.BasicBlock;
+import ir.ControlFlowGraph;
+import node.*;
+import optimizer.Expressions;
+import optimizer.ProgramIndex;
+
+import java.util.*;
+
+/**
+ * Walks a program as parsed and reports constructs that are slow in the Interpreter, each with the source line it
+ * starts on and an estimated cost. Costs count the extra expression nodes evaluated or statements dispatched per
+ * execution, and are multiplied by the trip counts of the surrounding loops: a FOR loop with literal bounds runs a
+ * known number of times, any other loop is assumed to run DEFAULT_TRIPS times. Statements no run can reach are
+ * only reported as an UNREACHABLE_LABEL; they never run, so nothing in them costs anything. Messages quote
+ * expressions the way they are written in source.
+ */
+public final class PerformanceLint {
+
+    public enum RULE {
+        // INT(x / n) = x / n used as a divisibility test, which is always true when x and n are integers
+        MODULO_IDIOM,
+        // POW or POW% with a small literal exponent
+        SMALL_POWER,
+        // A GOSUB inside a FOR loop body
+        GOSUB_IN_LOOP,
+        // A loop written as a backward IF or GOTO
+        IF_GOTO_LOOP,
+        // INT, FLOAT or TRUNCF of a value the loop does not change
+        CONVERSION_IN_LOOP,
+        // A label some jump targets but which no run can reach
+        UNREACHABLE_LABEL
+    }
+
+    public static final int DEFAULT_TRIPS = 10;
+
+    // Keeps the product of nested trip counts from overflowing
+    private static final long MAX_EXECUTIONS = 1_000_000_000_000L;
+
+    private final ProgramIndex index;
+    private final Map<StatementNode, Integer> lines;
+    // The control flow graph, or null if labeled control statements leave reachability unknown
+    private final ControlFlowGraph graph;
+    private final Set<Integer> unreachable = new HashSet<>();
+    private final List<Loop> loops = new ArrayList<>();
+    private final List<LintFinding> findings = new ArrayList<>();
+
+    private PerformanceLint(ProgramNode programNode, Map<StatementNode, Integer> lines) {
+        this.index = new ProgramIndex(programNode.getStatements());
+        this.lines = lines;
+        this.graph = controlFlowGraph(programNode);
+        if (graph == null) {
+            return;
+        }
+        for (BasicBlock block : graph.getBlocks()) {
+            if (!block.isReachable() && block.getSourceStart() >= 0) {
+                for (int i = block.getSourceStart(); i <= block.getSourceEnd(); i++) {
+                    unreachable.add(i);
+                }
+            }
+        }
+    }
+
+    private static ControlFlowGraph controlFlowGraph(ProgramNode programNode) {
+        try {
+            return ControlFlowGraph.build(programNode);
+        } catch (IllegalArgumentException e) {
+            // Labeled control statements leave reachability unknown, so every statement counts as reachable
+            return null;
+        }
+    }
+
+    /**
+     * Lints a program.
+     *
+     * @param lines the source line of each statement, as recorded by the Parser; may be empty
+     * @return the findings, most expensive first
+     */
+    public static List<LintFinding> lint(ProgramNode programNode, Map<StatementNode, Integer> lines) {
+        PerformanceLint lint = new PerformanceLint(programNode, lines);
+        lint.findLoops();
+        for (int i = 0; i < lint.index.size(); i++) {
+            if (!lint.unreachable.contains(i)) {
+                lint.checkStatement(i);
+            }
+        }
+        lint.checkUnreachableLabels();
+        lint.findings.sort(Comparator.comparingLong(LintFinding::getEstimatedCost).reversed()
+                .thenComparingInt(LintFinding::getLine));
+        return lint.findings;
+    }
+
+    // A loop as a range of top-level statements, from its header or target label to its NEXT, end label or jump
+    private static final class Loop {
+        private final int start;
+        private final int end;
+        private final long trips;
+        private final boolean counted;
+        private final Set<String> assigned = new HashSet<>();
+
+        private Loop(int start, int end, long trips, boolean counted) {
+            this.start = start;
+            this.end = end;
+            this.trips = trips;
+            this.counted = counted;
+        }
+
+        private boolean contains(int i) {
+            return i >= start && i <= end;
+        }
+    }
+
+    private void findLoops() {
+        for (int i = 0; i < index.size(); i++) {
+            StatementNode statement = index.get(i);
+            if (unreachable.contains(i)) {
+                continue;
+            } else if (statement instanceof ForNode && index.forExit(i) > 0) {
+                addLoop(new Loop(i, index.forExit(i) - 1, forTrips((ForNode) statement), true));
+            } else if (statement instanceof WhileNode && index.whileEnd(i) > 0) {
+                addLoop(new Loop(i, index.whileEnd(i), DEFAULT_TRIPS, false));
+            } else if (statement instanceof GoToNode || statement instanceof IfNode) {
+                // Labeled jumps never jump, so only top-level ones form loops
+                int target = index.indexOf(ProgramIndex.jumpLabel(statement));
+                if (target >= 0 && target <= i) {
+                    addLoop(new Loop(target, i, DEFAULT_TRIPS, false));
+                    add(RULE.IF_GOTO_LOOP, i, String.format("loop written with %s %s; a FOR or WHILE loop avoids "
+                                    + "the label lookup on every iteration and lets -O2 optimize it",
+                            statement instanceof IfNode ? "IF ... THEN" : "GOTO", ProgramIndex.jumpLabel(statement)), 1);
+                }
+            }
+        }
+    }
+
+    private void addLoop(Loop loop) {
+        for (int i = loop.start; i <= loop.end; i++) {
+            StatementNode statement = index.get(i);
+            loop.assigned.addAll(Expressions.variablesAssigned(statement));
+            if (statement instanceof GoSubNode) {
+                for (int callee : index.subroutineBody(((GoSubNode) statement).getLabel())) {
+                    loop.assigned.addAll(Expressions.variablesAssigned(index.get(callee)));
+                }
+            }
+        }
+        loops.add(loop);
+    }
+
+    // The number of iterations of a FOR loop with literal bounds, or DEFAULT_TRIPS
+    private static long forTrips(ForNode forNode) {
+        Node start = Expressions.unwrap(forNode.getInitialValue());
+        Node limit = Expressions.unwrap(forNode.getLimit());
+        Node step = Expressions.unwrap(forNode.getIncrement());
+        if (!(start instanceof IntegerNode && limit instanceof IntegerNode && step instanceof IntegerNode)
+                || ((IntegerNode) step).getInt() <= 0) {
+            return DEFAULT_TRIPS;
+        }
+        long span = (long) ((IntegerNode) limit).getInt() - ((IntegerNode) start).getInt();
+        return span <= 0 ? 1 : span / ((IntegerNode) step).getInt() + 1;
+    }
+
+    private long executions(int i) {
+        long executions = 1;
+        for (Loop loop : loops) {
+            if (loop.contains(i)) {
+                executions = Math.min(MAX_EXECUTIONS, executions * loop.trips);
+            }
+        }
+        return executions;
+    }
+
+    // The innermost loop around the statement, or null
+    private Loop innermostLoop(int i) {
+        Loop innermost = null;
+        for (Loop loop : loops) {
+            if (loop.contains(i) && (innermost == null || loop.end - loop.start < innermost.end - innermost.start)) {
+                innermost = loop;
+            }
+        }
+        return innermost;
+    }
+
+    private void checkStatement(int i) {
+        StatementNode statement = index.get(i);
+        if (statement instanceof GoSubNode) {
+            for (Loop loop : loops) {
+                if (loop.counted && loop.contains(i)) {
+                    add(RULE.GOSUB_IN_LOOP, i, String.format("GOSUB %s inside a FOR loop pushes and pops a return point "
+                            + "on every iteration; inline the subroutine or run with -O2", ((GoSubNode) statement).getLabel()), 3);
+                    break;
+                }
+            }
+        }
+        StatementNode inner = statement instanceof LabeledStatementNode
+                ? ((LabeledStatementNode) statement).getStatementNode() : statement;
+        if (inner == null) {
+            return;
+        }
+        for (Node expression : Expressions.expressionsOf(inner)) {
+            checkExpression(i, expression);
+        }
+    }
+
+    private void checkExpression(int i, Node node) {
+        node = Expressions.unwrap(node);
+        if (node instanceof FunctionNode) {
+            checkFunction(i, (FunctionNode) node);
+        } else if (node instanceof BooleanExpressionNode) {
+            checkComparison(i, (BooleanExpressionNode) node);
+        }
+        Expressions.mapChildren(node, child -> {
+            checkExpression(i, child);
+            return child;
+        });
+    }
+
+    private void checkFunction(int i, FunctionNode functionNode) {
+        BuiltInFunctions.FUNCTION function = functionNode.getFunctionName();
+        List<Node> parameters = functionNode.getParameters();
+        if ((function == BuiltInFunctions.FUNCTION.POW || function == BuiltInFunctions.FUNCTION.POWF) && parameters.size() == 2) {
+            Node exponent = Expressions.unwrap(parameters.get(1));
+            float value = exponent instanceof IntegerNode ? ((IntegerNode) exponent).getInt()
+                    : exponent instanceof FloatNode ? ((FloatNode) exponent).getFloat() : 0;
+            if (value == 2 || value == 3) {
+                String base = source(parameters.get(0), 2);
+                String product = value == 2 ? base + " * " + base : base + " * " + base + " * " + base;
+                add(RULE.SMALL_POWER, i, String.format("%s calls Math.pow; write %s instead", source(functionNode, 0),
+                        product), 3);
+            }
+        }
+        if ((function == BuiltInFunctions.FUNCTION.FLOAT || function == BuiltInFunctions.FUNCTION.INT
+                || function == BuiltInFunctions.FUNCTION.TRUNCF) && parameters.size() == 1) {
+            Loop loop = innermostLoop(i);
+            Set<String> read = Expressions.variablesRead(parameters.get(0));
+            if (loop != null && !read.isEmpty() && Collections.disjoint(read, loop.assigned)) {
+                add(RULE.CONVERSION_IN_LOOP, i, String.format("%s of %s is converted again on every iteration although "
+                        + "the loop never changes it; convert it once before the loop", source(functionNode, 0),
+                        String.join(", ", new TreeSet<>(read))), 2);
+            }
+        }
+    }
+
+    private void checkComparison(int i, BooleanExpressionNode condition) {
+        if (condition.getOperator() != BooleanExpressionNode.OPERATOR.EQUALS
+                && condition.getOperator() != BooleanExpressionNode.OPERATOR.NOTEQUALS) {
+            return;
+        }
+        MathOpNode quotient = truncatedQuotientOf(condition.getLeft(), condition.getRight());
+        if (quotient == null) {
+            quotient = truncatedQuotientOf(condition.getRight(), condition.getLeft());
+        }
+        if (quotient == null) {
+            return;
+        }
+        String x = source(quotient.getLeft(), 2);
+        String n = source(quotient.getRight(), 3);
+        if (Expressions.typeOf(quotient) == InterpreterDataType.INTEGER) {
+            // Integer division already truncates, so both sides are the same number
+            add(RULE.MODULO_IDIOM, i, String.format("%s is always true because %s / %s already truncates, so it does "
+                    + "not test divisibility; compare %s - %s / %s * %s with 0 instead", source(condition, 0), x, n,
+                    x, x, n, n), 4);
+        } else {
+            add(RULE.MODULO_IDIOM, i, String.format("%s divides in floating point and converts with INT on every "
+                    + "test; if %s and %s only hold whole numbers, keep them in integer variables x and n and compare "
+                    + "x - x / n * n with 0, one integer division and no conversion", source(condition, 0), x, n), 4);
+        }
+    }
+
+    // The division q if the node is INT(q) and q is the same expression as the other side, or null
+    private static MathOpNode truncatedQuotientOf(Node node, Node other) {
+        node = Expressions.unwrap(node);
+        if (!(node instanceof FunctionNode) || ((FunctionNode) node).getFunctionName() != BuiltInFunctions.FUNCTION.INT
+                || ((FunctionNode) node).getParameters().size() != 1) {
+            return null;
+        }
+        Node quotient = normalize(((FunctionNode) node).getParameters().get(0));
+        if (quotient instanceof MathOpNode && ((MathOpNode) quotient).getOperator() == MathOpNode.OPERATION.DIVIDE
+                && quotient.equals(normalize(other))) {
+            return (MathOpNode) quotient;
+        }
+        return null;
+    }
+
+    // Strips every parser wrapper so structurally equal expressions compare equal
+    private static Node normalize(Node node) {
+        return Expressions.rewriteBottomUp(node, Expressions::unwrap);
+    }
+
+    private void checkUnreachableLabels() {
+        if (graph == null) {
+            return;
+        }
+        Set<String> targeted = new HashSet<>();
+        for (StatementNode statement : index.getStatements()) {
+            if (ProgramIndex.jumpLabel(statement) != null) {
+                targeted.add(ProgramIndex.jumpLabel(statement));
+            }
+        }
+        for (BasicBlock block : graph.getBlocks()) {
+            if (!block.isReachable() && block.getLabel() != null && targeted.contains(block.getLabel())) {
+                add(RULE.UNREACHABLE_LABEL, block.getSourceStart(), String.format("label %s is jumped to but no run "
+                        + "reaches it; the jumps to it and the code after it are dead", block.getLabel()), 0);
+            }
+        }
+    }
+
+    /**
+     * Writes the expression as it would appear in source, with only the parentheses it needs.
+     *
+     * @param precedence how tightly the surrounding expression binds the node: 0 for a whole expression, 1 for an
+     *                   operand of + or -, 2 for an operand of * or / and one more for the right operand of - or /.
+     *                   An operation that binds less tightly than that is parenthesized.
+     */
+    private static String source(Node node, int precedence) {
+        node = Expressions.unwrap(node);
+        if (node instanceof IntegerNode) {
+            return Integer.toString(((IntegerNode) node).getInt());
+        } else if (node instanceof FloatNode) {
+            return Float.toString(((FloatNode) node).getFloat());
+        } else if (node instanceof StringNode) {
+            return "\"" + ((StringNode) node).getValue() + "\"";
+        } else if (node instanceof VariableNode) {
+            return ((VariableNode) node).getName();
+        } else if (node instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) node;
+            List<String> parameters = new ArrayList<>();
+            for (Node parameter : functionNode.getParameters()) {
+                parameters.add(source(parameter, 0));
+            }
+            if (functionNode.getFunctionName() == BuiltInFunctions.FUNCTION.TRUNCF) {
+                return "FLOAT(INT(" + String.join(", ", parameters) + "))";
+            }
+            return functionName(functionNode.getFunctionName()) + "(" + String.join(", ", parameters) + ")";
+        } else if (node instanceof BooleanExpressionNode) {
+            BooleanExpressionNode condition = (BooleanExpressionNode) node;
+            return source(condition.getLeft(), 0) + " " + comparison(condition.getOperator()) + " "
+                    + source(condition.getRight(), 0);
+        } else if (node instanceof MathOpNode) {
+            MathOpNode mathOpNode = (MathOpNode) node;
+            MathOpNode.OPERATION operation = mathOpNode.getOperator();
+            // Shifts only come from the optimizer; they get parentheses wherever they appear inside another operation
+            int own = operation == MathOpNode.OPERATION.ADD || operation == MathOpNode.OPERATION.SUBTRACT ? 1
+                    : operation == MathOpNode.OPERATION.MULTIPLY || operation == MathOpNode.OPERATION.DIVIDE ? 2 : 0;
+            boolean ordered = operation == MathOpNode.OPERATION.SUBTRACT || operation == MathOpNode.OPERATION.DIVIDE;
+            String text = source(mathOpNode.getLeft(), own) + " " + operator(operation) + " "
+                    + source(mathOpNode.getRight(), ordered ? own + 1 : own);
+            return own < precedence || own == 0 && precedence > 0 ? "(" + text + ")" : text;
+        }
+        return node.toString();
+    }
+
+    private static String operator(MathOpNode.OPERATION operation) {
+        switch (operation) {
+            case ADD:
+                return "+";
+            case SUBTRACT:
+                return "-";
+            case MULTIPLY:
+                return "*";
+            case DIVIDE:
+                return "/";
+            case SHIFT_LEFT:
+                return "<<";
+            default:
+                return ">>";
+        }
+    }
+
+    // The name a program calls the builtin by, such as POW% for POWF
+    private static String functionName(BuiltInFunctions.FUNCTION function) {
+        for (Map.Entry<String, BuiltInFunctions.FUNCTION> entry : BuiltInFunctions.functionMap.entrySet()) {
+            if (entry.getValue() == function) {
+                return entry.getKey();
+            }
+        }
+        return function.name();
+    }
+
+    private static String comparison(BooleanExpressionNode.OPERATOR operator) {
+        switch (operator) {
+            case GREATERTHAN:
+                return ">";
+            case GREATERTHANEQUALTO:
+                return ">=";
+            case LESSTHAN:
+                return "<";
+            case LESSTHANEQUALTO:
+                return "<=";
+            case NOTEQUALS:
+                return "<>";
+            default:
+                return "=";
+        }
+    }
+
+    private void add(RULE rule, int i, String message, int costPerExecution) {
+        int line = lines.getOrDefault(index.get(i), -1);
+        findings.add(new LintFinding(rule, line, message, costPerExecution, executions(i)));
+    }
+}
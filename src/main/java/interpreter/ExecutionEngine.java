@@ -0,0 +1,34 @@
+package interpreter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Something that can run a parsed program. The tree-walking Interpreter is the reference; every other engine
+ * must print the same output, leave the same variables behind and fail with the same exceptions on the same
+ * programs.
+ */
+public interface ExecutionEngine {
+
+    // The stack limit an engine starts with
+    int DEFAULT_STACK_LIMIT = 100_000;
+
+    // Collects printed values in getOutput() and reads INPUT from setTestInput() instead of the console
+    void setTestMode(boolean testMode);
+
+    void setTestInput(List<String> input);
+
+    List<String> getOutput();
+
+    // The most GOSUB, FOR and WHILE frames a program whose stack depth cannot be bounded may have active at once
+    void setStackLimit(int stackLimit);
+
+    // Runs the program to its end
+    void interpret();
+
+    Map<String, Integer> getIntVariables();
+
+    Map<String, Float> getFloatVariables();
+
+    Map<String, String> getStringVariables();
+}
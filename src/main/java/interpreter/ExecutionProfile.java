@@ -0,0 +1,169 @@
+package interpreter;
+
+import node.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Per-statement execution data gathered by the Interpreter: how often each top-level statement ran, how often
+ * each IF jumped, the value types each assignment, READ and INPUT stored, and so how often each GOSUB call site
+ * was used. Statements are identified by their index in the parsed program, so a profile written by one run can
+ * be loaded against a fresh parse of the same source; a fingerprint of the statements rejects any other program.
+ */
+public class ExecutionProfile {
+
+    private static final String HEADER = "# SimpleBASIC execution profile";
+
+    private final List<StatementNode> statements;
+    private final Map<StatementNode, Integer> indexes = new IdentityHashMap<>();
+    private final String fingerprint;
+    private final long[] counts;
+    private final long[] taken;
+    private final int[] types;
+
+    /**
+     * Creates an empty profile for the program, as parsed and before any optimization pass has run.
+     */
+    public ExecutionProfile(ProgramNode programNode) {
+        this.statements = new ArrayList<>(programNode.getStatements());
+        for (int i = 0; i < statements.size(); i++) {
+            StatementNode statement = statements.get(i);
+            indexes.put(statement, i);
+            // Labeled statements run their inner statement in place, which records against the same index
+            if (statement instanceof LabeledStatementNode && ((LabeledStatementNode) statement).getStatementNode() != null) {
+                indexes.put(((LabeledStatementNode) statement).getStatementNode(), i);
+            }
+        }
+        this.fingerprint = fingerprint(statements);
+        this.counts = new long[statements.size()];
+        this.taken = new long[statements.size()];
+        this.types = new int[statements.size()];
+    }
+
+    private static String fingerprint(List<StatementNode> statements) {
+        CRC32 crc = new CRC32();
+        for (StatementNode statement : statements) {
+            crc.update(statement.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return statements.size() + ":" + Long.toHexString(crc.getValue());
+    }
+
+    void recordExecution(StatementNode statement) {
+        Integer index = indexes.get(statement);
+        if (index != null) {
+            counts[index]++;
+        }
+    }
+
+    void recordBranch(IfNode ifNode, boolean jumped) {
+        Integer index = indexes.get(ifNode);
+        if (index != null && jumped) {
+            taken[index]++;
+        }
+    }
+
+    void recordType(StatementNode statement, InterpreterDataType type) {
+        Integer index = indexes.get(statement);
+        if (index != null) {
+            types[index] |= 1 << type.ordinal();
+        }
+    }
+
+    // True if the statement belongs to the program this profile describes
+    public boolean isProfiled(StatementNode statement) {
+        return indexes.containsKey(statement);
+    }
+
+    // Number of times the statement ran, or 0 for statements the profile does not know, such as copies
+    public long getCount(StatementNode statement) {
+        Integer index = indexes.get(statement);
+        return index == null ? 0 : counts[index];
+    }
+
+    // Fraction of executions of an IF that jumped to its label, or NaN if it never ran
+    public double getTakenRatio(IfNode ifNode) {
+        Integer index = indexes.get(ifNode);
+        return index == null || counts[index] == 0 ? Double.NaN : (double) taken[index] / counts[index];
+    }
+
+    // The types of the values the statement stored
+    public Set<InterpreterDataType> getTypes(StatementNode statement) {
+        Set<InterpreterDataType> observed = EnumSet.noneOf(InterpreterDataType.class);
+        Integer index = indexes.get(statement);
+        if (index != null) {
+            for (InterpreterDataType type : InterpreterDataType.values()) {
+                if ((types[index] & (1 << type.ordinal())) != 0) {
+                    observed.add(type);
+                }
+            }
+        }
+        return observed;
+    }
+
+    // Number of calls made from each GOSUB call site that ran at least once, keyed by the call statement
+    public Map<GoSubNode, Long> getCallSites() {
+        Map<GoSubNode, Long> callSites = new LinkedHashMap<>();
+        for (int i = 0; i < statements.size(); i++) {
+            if (statements.get(i) instanceof GoSubNode && counts[i] > 0) {
+                callSites.put((GoSubNode) statements.get(i), counts[i]);
+            }
+        }
+        return callSites;
+    }
+
+    public void write(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write("program " + fingerprint);
+            writer.newLine();
+            for (int i = 0; i < statements.size(); i++) {
+                if (counts[i] > 0) {
+                    writer.write(String.format("%d %d %d %d", i, counts[i], taken[i], types[i]));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a profile written by {@link #write(Path)} against a fresh parse of the same program.
+     *
+     * @throws IllegalArgumentException if the profile is malformed or was recorded for a different program
+     */
+    public static ExecutionProfile read(Path path, ProgramNode programNode) throws IOException {
+        ExecutionProfile profile = new ExecutionProfile(programNode);
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                throw new IllegalArgumentException(String.format("'%s' is not an execution profile", path));
+            }
+            line = reader.readLine();
+            if (line == null || !line.equals("program " + profile.fingerprint)) {
+                throw new IllegalArgumentException(String.format("Profile '%s' was recorded for a different program", path));
+            }
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] fields = line.trim().split(" ");
+                try {
+                    int index = Integer.parseInt(fields[0]);
+                    profile.counts[index] = Long.parseLong(fields[1]);
+                    profile.taken[index] = Long.parseLong(fields[2]);
+                    profile.types[index] = Integer.parseInt(fields[3]);
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException(String.format("Malformed profile line '%s' in '%s'", line, path), e);
+                }
+            }
+        }
+        return profile;
+    }
+}
@@ -0,0 +1,58 @@
+package interpreter;
+
+/**
+ * The place one expression of the program is evaluated from. It holds the node currently standing in for the
+ * expression, which rewrites itself through the site: from uninitialized to a node specialized on the types it
+ * observed, and from there back to a generic node if a guard ever fails.
+ */
+final class ExpressionSite {
+
+    private final SpecializingInterpreter interpreter;
+    private SpecializedExpression expression;
+
+    ExpressionSite(SpecializingInterpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    SpecializingInterpreter getInterpreter() {
+        return interpreter;
+    }
+
+    SpecializedExpression getExpression() {
+        return expression;
+    }
+
+    void initialize(SpecializedExpression expression) {
+        this.expression = expression;
+    }
+
+    // Replaces an uninitialized node with the one its first evaluation chose
+    void specialize(SpecializedExpression expression) {
+        this.expression = expression;
+        if (!expression.isGeneric()) {
+            interpreter.recordSpecialization();
+        }
+    }
+
+    // Replaces a specialized node whose guard failed with the generic node for the same expression
+    void deoptimize(SpecializedExpression expression) {
+        this.expression = expression;
+        interpreter.recordDeoptimization();
+    }
+
+    Object execute() {
+        return expression.execute();
+    }
+
+    int executeInt() throws UnexpectedTypeException {
+        return expression.executeInt();
+    }
+
+    float executeFloat() throws UnexpectedTypeException {
+        return expression.executeFloat();
+    }
+
+    boolean executeBoolean() {
+        return expression.executeBoolean();
+    }
+}
@@ -1,16 +1,19 @@
 package interpreter;
 
+import ir.CallGraph;
 import node.*;
+import optimizer.Temporaries;
 
 import java.util.*;
 
 
-public class Interpreter implements StatementVisitor {
+public class Interpreter implements StatementVisitor, ExecutionEngine {
     private final ProgramNode programNode;
     private final Map<String, LabeledStatementNode> labels = new HashMap<>();
     private final Queue<Node> dataQueue = new LinkedList<>();
 
-    private final Stack<StatementNode> stack = new Stack<>();
+    private int stackLimit = DEFAULT_STACK_LIMIT;
+    private ReturnStack stack = ReturnStack.limited(DEFAULT_STACK_LIMIT);
 
     private final Map<String, Integer> intVariables = new HashMap<>();
     private final Map<String, String> stringVariables = new HashMap<>();
@@ -25,6 +28,9 @@ public class Interpreter implements StatementVisitor {
     private final List<String> output = new ArrayList<>();
 
     private boolean isDone = false;
+    private StatementNode current;
+
+    private ExecutionProfile profile;
 
     public Interpreter(ProgramNode programNode) {
         this.programNode = programNode;
@@ -46,7 +52,32 @@ public class Interpreter implements StatementVisitor {
         return output;
     }
 
+    // Records execution counts, branch outcomes and stored types into the profile while the program runs
+    public void setProfile(ExecutionProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Sets the most GOSUB, FOR and WHILE frames a program may have active at once. It only applies to programs
+     * whose stack depth the call graph cannot bound, such as recursive ones; going past it stops the program
+     * with an error.
+     */
+    public void setStackLimit(int stackLimit) {
+        if (stackLimit < 1) {
+            throw new IllegalArgumentException("Stack limit must be at least 1");
+        }
+        this.stackLimit = stackLimit;
+    }
+
+    // True if the program was proven to need no more stack than was allocated for it
+    public boolean hasBoundedStack() {
+        return stack.isBounded();
+    }
+
     private void visitStatements() {
+        int maxStackDepth = CallGraph.maxStackDepth(programNode);
+        stack = maxStackDepth >= 0 ? ReturnStack.bounded(maxStackDepth) : ReturnStack.limited(stackLimit);
+
         List<StatementNode> statements = programNode.getStatements();
         StatementNode prev = null;
         for (StatementNode curr : statements) {
@@ -70,12 +101,72 @@ public class Interpreter implements StatementVisitor {
 
         StatementNode curr = programNode.getStatements().get(0);
         StatementNode next;
+        if (profile != null) {
+            while (!isDone && curr != null) {
+                profile.recordExecution(curr);
+                curr = curr.interpret(this);
+            }
+            return;
+        }
         while (!isDone && curr != null) {
             next = curr.interpret(this);
             curr = next;
         }
     }
 
+    // Links the statements, collects labels and queues DATA so the program can be run one statement at a time
+    public void start() {
+        visitStatements();
+        current = programNode.getStatements().isEmpty() ? null : programNode.getStatements().get(0);
+    }
+
+    public boolean isRunning() {
+        return !isDone && current != null;
+    }
+
+    // The statement the next step runs, or null once the program has fallen off its end
+    public StatementNode getCurrent() {
+        return current;
+    }
+
+    // Runs the current statement; only valid after start() while the program is running
+    public void step() {
+        current = current.interpret(this);
+    }
+
+    public int getStackDepth() {
+        return stack.size();
+    }
+
+    // The active GOSUB return points and FOR and WHILE statements, bottom first
+    public List<StatementNode> getFrames() {
+        return stack.toList();
+    }
+
+    // The console reader, which an engine taking the program over must keep reading so no buffered input is lost
+    public Scanner getScanner() {
+        return scanner;
+    }
+
+    // Continues the program at the statement, or ends it if that is null, after a subclass ran part of it itself
+    void setCurrent(StatementNode current) {
+        this.current = current;
+    }
+
+    // The live stack, which code running the program on the Interpreter's behalf pushes and pops directly
+    ReturnStack getStack() {
+        return stack;
+    }
+
+    boolean isTestMode() {
+        return testMode;
+    }
+
+    // True if the label ends a WHILE loop, so reaching it pops the loop's frame and goes round again
+    boolean isWhileLabel(String label) {
+        return whileLabels.contains(label);
+    }
+
     public StatementNode assignmentStatement(AssignmentNode assignmentNode) {
         String name = assignmentNode.getVariableNode().getName();
         Object value = evaluate(assignmentNode.getValue());
@@ -90,6 +181,9 @@ public class Interpreter implements StatementVisitor {
         } else {
             throw new IllegalArgumentException(String.format("Cannot assign '%s' to variable '%s' with type '%s'", value, name, type));
         }
+        if (profile != null) {
+            profile.recordType(assignmentNode, type);
+        }
         return assignmentNode.getNext();
     }
 
@@ -114,6 +208,9 @@ public class Interpreter implements StatementVisitor {
                     stringVariables.put(name, inputValue);
                     break;
             }
+            if (profile != null) {
+                profile.recordType(inputNode, type);
+            }
         }
         return inputNode.getNext();
     }
@@ -137,6 +234,9 @@ public class Interpreter implements StatementVisitor {
             } else {
                 throw new IllegalArgumentException(String.format("Cannot assign value '%s' to variable '%s' of type '%s'", value, name, type));
             }
+            if (profile != null) {
+                profile.recordType(readNode, type);
+            }
         }
         return readNode.getNext();
     }
@@ -149,24 +249,36 @@ public class Interpreter implements StatementVisitor {
                 System.out.print(evaluate(arg));
             }
         }
-        System.out.println();
+        endLine();
         return printNode.getNext();
     }
 
+    // Ends the line a PRINT wrote, in test mode too; code running a program only for its captured output overrides it
+    protected void endLine() {
+        System.out.println();
+    }
+
     public StatementNode ifStatement(IfNode ifNode) {
         String label = ifNode.getLabel();
 
         // Jump to this statement if any of the conditions are true
         LabeledStatementNode labeledStatement = labels.get(label);
 
-        return evaluateBoolean(ifNode.getCondition()) ? labeledStatement : ifNode.getNext();
+        boolean jump = evaluateBoolean(ifNode.getCondition());
+        if (profile != null) {
+            profile.recordBranch(ifNode, jump);
+        }
+        return jump ? labeledStatement : ifNode.getNext();
     }
 
     public boolean evaluateBoolean(BooleanExpressionNode booleanExpressionNode) {
         Object left = evaluate(booleanExpressionNode.getLeft());
         Object right = evaluate(booleanExpressionNode.getRight());
-        BooleanExpressionNode.OPERATOR operator = booleanExpressionNode.getOperator();
+        return compareValues(booleanExpressionNode.getOperator(), left, right);
+    }
 
+    // Compares two evaluated operands
+    boolean compareValues(BooleanExpressionNode.OPERATOR operator, Object left, Object right) {
         if (!isInteger(left, right) && !isNumeric(left, right)) {
             System.out.println(left.getClass());
             System.out.println(right.getClass());
@@ -252,7 +364,7 @@ public class Interpreter implements StatementVisitor {
     }
 
     public StatementNode nextStatement(NextNode nextNode) {
-        if (stack.empty()) {
+        if (stack.isEmpty()) {
             throw new RuntimeException("NEXT statement must have matching FOR loop declaration");
         }
         if (nextNode.getVariable() == null) {
@@ -329,6 +441,138 @@ public class Interpreter implements StatementVisitor {
         return curr.getNext();
     }
 
+    // Specialized paths for the superinstructions; each must behave exactly like the statement it was fused from
+
+    public StatementNode incrementStatement(IncrementNode incrementNode) {
+        incrementNode.recordFiring();
+        VariableNode variableNode = incrementNode.getVariableNode();
+        String name = variableNode.getName();
+        if (variableNode.getType() == InterpreterDataType.FLOAT) {
+            Float value = floatVariables.get(name);
+            if (value == null) {
+                throw undefinedVariable(name);
+            }
+            floatVariables.put(name, value + (Float) incrementNode.getDelta());
+        } else {
+            Integer value = intVariables.get(name);
+            if (value == null) {
+                throw undefinedVariable(name);
+            }
+            intVariables.put(name, value + (Integer) incrementNode.getDelta());
+        }
+        if (profile != null) {
+            profile.recordType(incrementNode, variableNode.getType());
+        }
+        return incrementNode.getNext();
+    }
+
+    public StatementNode compareBranchStatement(CompareBranchNode compareBranchNode) {
+        compareBranchNode.recordFiring();
+        boolean jump;
+        if (compareBranchNode.isIntegerComparison()) {
+            int left = intOperand(compareBranchNode.getLeftOperand());
+            int right = intOperand(compareBranchNode.getRightOperand());
+            jump = compare(compareBranchNode.getOperator(), left, right);
+        } else {
+            float left = floatOperand(compareBranchNode.getLeftOperand());
+            float right = floatOperand(compareBranchNode.getRightOperand());
+            jump = compare(compareBranchNode.getOperator(), left, right);
+        }
+        if (profile != null) {
+            profile.recordBranch(compareBranchNode, jump);
+        }
+        return jump ? labels.get(compareBranchNode.getLabel()) : compareBranchNode.getNext();
+    }
+
+    public StatementNode conversionAssignmentStatement(ConversionAssignmentNode conversionAssignmentNode) {
+        conversionAssignmentNode.recordFiring();
+        Number value = (Number) variableValue(conversionAssignmentNode.getSource());
+        String name = conversionAssignmentNode.getVariableNode().getName();
+        switch (conversionAssignmentNode.getConversion()) {
+            case INT:
+                intVariables.put(name, BuiltInFunctions.INT(value));
+                break;
+            case FLOAT:
+                floatVariables.put(name, BuiltInFunctions.FLOAT(value));
+                break;
+            default:
+                floatVariables.put(name, BuiltInFunctions.TRUNCF(value));
+                break;
+        }
+        if (profile != null) {
+            profile.recordType(conversionAssignmentNode, conversionAssignmentNode.getVariableNode().getType());
+        }
+        return conversionAssignmentNode.getNext();
+    }
+
+    public StatementNode printVariableStatement(PrintVariableNode printVariableNode) {
+        printVariableNode.recordFiring();
+        Object value = variableValue(printVariableNode.getVariable());
+        if (testMode) {
+            output.add(value.toString());
+        } else {
+            System.out.print(value);
+        }
+        endLine();
+        return printVariableNode.getNext();
+    }
+
+    private int intOperand(Node operand) {
+        if (operand instanceof IntegerNode) {
+            return ((IntegerNode) operand).getInt();
+        }
+        String name = ((VariableNode) operand).getName();
+        Integer value = intVariables.get(name);
+        if (value == null) {
+            throw undefinedVariable(name);
+        }
+        return value;
+    }
+
+    private float floatOperand(Node operand) {
+        if (operand instanceof IntegerNode) {
+            return ((IntegerNode) operand).getInt();
+        }
+        if (operand instanceof FloatNode) {
+            return ((FloatNode) operand).getFloat();
+        }
+        return ((Number) variableValue((VariableNode) operand)).floatValue();
+    }
+
+    static boolean compare(BooleanExpressionNode.OPERATOR operator, int left, int right) {
+        switch (operator) {
+            case LESSTHAN:
+                return left < right;
+            case LESSTHANEQUALTO:
+                return left <= right;
+            case GREATERTHAN:
+                return left > right;
+            case GREATERTHANEQUALTO:
+                return left >= right;
+            case NOTEQUALS:
+                return left != right;
+            default:
+                return left == right;
+        }
+    }
+
+    static boolean compare(BooleanExpressionNode.OPERATOR operator, float left, float right) {
+        switch (operator) {
+            case LESSTHAN:
+                return left < right;
+            case LESSTHANEQUALTO:
+                return left <= right;
+            case GREATERTHAN:
+                return left > right;
+            case GREATERTHANEQUALTO:
+                return left >= right;
+            case NOTEQUALS:
+                return left != right;
+            default:
+                return left == right;
+        }
+    }
+
     public void visit(LabeledStatementNode labeledStatementNode) {
         labels.put(labeledStatementNode.getLabel(), labeledStatementNode);
     }
@@ -341,7 +585,7 @@ public class Interpreter implements StatementVisitor {
         this.whileLabels.add(whileNode.getLabel());
     }
 
-    private Object evaluate(Node node) {
+    Object evaluate(Node node) {
 
         if (node instanceof IntegerNode) {
             IntegerNode integerNode = (IntegerNode) node;
@@ -364,18 +608,7 @@ public class Interpreter implements StatementVisitor {
 
         // Evaluates the variable and returns the value
         if (node instanceof VariableNode) {
-            VariableNode variableNode = (VariableNode) node;
-            String name = variableNode.getName();
-            InterpreterDataType type = variableNode.getType();
-            if (type == InterpreterDataType.INTEGER && intVariables.containsKey(name)) {
-                return intVariables.get(name);
-            } else if (type == InterpreterDataType.FLOAT && floatVariables.containsKey(name)) {
-                return floatVariables.get(name);
-            } else if (type == InterpreterDataType.STRING && stringVariables.containsKey(name)) {
-                return stringVariables.get(name);
-            } else {
-                throw new IllegalArgumentException(String.format("Variable '%s' is not defined", name));
-            }
+            return variableValue((VariableNode) node);
         }
 
         // Evaluates the function and returns the value
@@ -421,6 +654,9 @@ public class Interpreter implements StatementVisitor {
             if (functionName == BuiltInFunctions.FUNCTION.FLOAT) {
                 return _float(parameters);
             }
+            if (functionName == BuiltInFunctions.FUNCTION.TRUNCF) {
+                return truncf(parameters);
+            }
         }
 
         // Evaluates the math operation and returns the value
@@ -428,36 +664,7 @@ public class Interpreter implements StatementVisitor {
             MathOpNode mathOpNode = (MathOpNode) node;
             Object left = evaluate(mathOpNode.getLeft());
             Object right = evaluate(mathOpNode.getRight());
-
-            if (!isNumeric(left, right)) {
-                throw new IllegalArgumentException(String.format("Illegal math operation for arguments: \n%s\n%s\n", left, right));
-            }
-
-            if (mathOpNode.getOperator() == MathOpNode.OPERATION.ADD) {
-                if (isInteger(left, right)) {
-                    return (Integer) left + (Integer) right;
-                } else if (isNumeric(left, right)) {
-                    return ((Number) left).floatValue() + ((Number) right).floatValue();
-                }
-            } else if (mathOpNode.getOperator() == MathOpNode.OPERATION.SUBTRACT) {
-                if (isInteger(left, right)) {
-                    return (Integer) left - (Integer) right;
-                } else if (isNumeric(left, right)) {
-                    return ((Number) left).floatValue() - ((Number) right).floatValue();
-                }
-            } else if (mathOpNode.getOperator() == MathOpNode.OPERATION.MULTIPLY) {
-                if (isInteger(left, right)) {
-                    return (Integer) left * (Integer) right;
-                } else if (isNumeric(left, right)) {
-                    return ((Number) left).floatValue() * ((Number) right).floatValue();
-                }
-            } else if (mathOpNode.getOperator() == MathOpNode.OPERATION.DIVIDE) {
-                if (isInteger(left, right)) {
-                    return (Integer) left / (Integer) right;
-                } else if (isNumeric(left, right)) {
-                    return ((Number) left).floatValue() / ((Number) right).floatValue();
-                }
-            }
+            return calculate(mathOpNode, left, right);
         }
 
         // Evaluates the expression and returns the value
@@ -478,12 +685,58 @@ public class Interpreter implements StatementVisitor {
         throw new RuntimeException(String.format("Unsupported node: %s", node));
     }
 
+    // Applies a math operation to two evaluated operands
+    Object calculate(MathOpNode mathOpNode, Object left, Object right) {
+
+        if (!isNumeric(left, right)) {
+            throw new IllegalArgumentException(String.format("Illegal math operation for arguments: \n%s\n%s\n", left, right));
+        }
+
+        if (mathOpNode.getOperator() == MathOpNode.OPERATION.ADD) {
+            if (isInteger(left, right)) {
+                return (Integer) left + (Integer) right;
+            } else if (isNumeric(left, right)) {
+                return ((Number) left).floatValue() + ((Number) right).floatValue();
+            }
+        } else if (mathOpNode.getOperator() == MathOpNode.OPERATION.SUBTRACT) {
+            if (isInteger(left, right)) {
+                return (Integer) left - (Integer) right;
+            } else if (isNumeric(left, right)) {
+                return ((Number) left).floatValue() - ((Number) right).floatValue();
+            }
+        } else if (mathOpNode.getOperator() == MathOpNode.OPERATION.MULTIPLY) {
+            if (isInteger(left, right)) {
+                return (Integer) left * (Integer) right;
+            } else if (isNumeric(left, right)) {
+                return ((Number) left).floatValue() * ((Number) right).floatValue();
+            }
+        } else if (mathOpNode.getOperator() == MathOpNode.OPERATION.DIVIDE) {
+            if (isInteger(left, right)) {
+                return (Integer) left / (Integer) right;
+            } else if (isNumeric(left, right)) {
+                return ((Number) left).floatValue() / ((Number) right).floatValue();
+            }
+        } else if (mathOpNode.getOperator() == MathOpNode.OPERATION.SHIFT_LEFT) {
+            if (isInteger(left, right)) {
+                return (Integer) left << (Integer) right;
+            }
+        } else if (mathOpNode.getOperator() == MathOpNode.OPERATION.SHIFT_RIGHT) {
+            if (isInteger(left, right)) {
+                // Bias negative values so the shift rounds toward zero like integer division by 2^right
+                int value = (Integer) left;
+                int shift = (Integer) right;
+                return (value + ((value >> 31) >>> (32 - shift))) >> shift;
+            }
+        }
+        throw new RuntimeException(String.format("Unsupported node: %s", mathOpNode));
+    }
+
     private Integer random(List<Node> parameters) {
         if (!parameters.isEmpty() && parameters.size() != 2) {
             throw new RuntimeException("RANDOM() expects zero or two parameters: (min, max)");
         } else if (parameters.size() == 2) {
-            int min = (Integer) evaluate(parameters.get(0));
-            int max = (Integer) evaluate(parameters.get(1));
+            int min = (Integer) argument(parameters, 0);
+            int max = (Integer) argument(parameters, 1);
             return BuiltInFunctions.RANDOM(min, max);
         }
         return BuiltInFunctions.RANDOM();
@@ -493,16 +746,16 @@ public class Interpreter implements StatementVisitor {
         if (!parameters.isEmpty() && parameters.size() != 2) {
             throw new RuntimeException("RANDOMF() expects zero or two parameters: (min, max)");
         } else if (parameters.size() == 2) {
-            float min = (Float) evaluate(parameters.get(0));
-            float max = (Float) evaluate(parameters.get(1));
+            float min = (Float) argument(parameters, 0);
+            float max = (Float) argument(parameters, 1);
             return BuiltInFunctions.RANDOMF(min, max);
         }
         return BuiltInFunctions.RANDOMF();
     }
 
     private String left$(List<Node> parameters) {
-        Object str = evaluate(parameters.get(0));
-        Object n = evaluate(parameters.get(1));
+        Object str = argument(parameters, 0);
+        Object n = argument(parameters, 1);
         if (!(str instanceof String && n instanceof Integer)) {
             throw new RuntimeException(String.format("Cannot use values: %s and %s for builtin function LEFT$(string, integer)", str, n));
         }
@@ -510,8 +763,8 @@ public class Interpreter implements StatementVisitor {
     }
 
     private String right$(List<Node> parameters) {
-        Object str = evaluate(parameters.get(0));
-        Object n = evaluate(parameters.get(1));
+        Object str = argument(parameters, 0);
+        Object n = argument(parameters, 1);
         if (!(str instanceof String && n instanceof Integer)) {
             throw new RuntimeException(String.format("Cannot use values: %s and %s for builtin function RIGHT$(string, integer)", str, n));
         }
@@ -519,9 +772,9 @@ public class Interpreter implements StatementVisitor {
     }
 
     private String mid$(List<Node> parameters) {
-        Object str = evaluate(parameters.get(0));
-        Object start = evaluate(parameters.get(1));
-        Object count = evaluate(parameters.get(2));
+        Object str = argument(parameters, 0);
+        Object start = argument(parameters, 1);
+        Object count = argument(parameters, 2);
         if (!(str instanceof String && start instanceof Integer && count instanceof Integer)) {
             throw new RuntimeException(String.format("Cannot use values: %s, %s, %s for builtin function MID$(string, integer, integer)", str, start, count));
         }
@@ -530,7 +783,7 @@ public class Interpreter implements StatementVisitor {
     }
 
     private String num$(List<Node> parameters) {
-        Object num = evaluate(parameters.get(0));
+        Object num = argument(parameters, 0);
         if (!(num instanceof Number)) {
             throw new RuntimeException(String.format("Cannot use value: %s for builtin function NUM$(integer/float)", num));
         }
@@ -538,7 +791,7 @@ public class Interpreter implements StatementVisitor {
     }
 
     private Integer val(List<Node> parameters) {
-        Object str = evaluate(parameters.get(0));
+        Object str = argument(parameters, 0);
         if (!(str instanceof String)) {
             throw new RuntimeException(String.format("Cannot use value: %s for builtin function: ", str) +  "VAL(string)");
         }
@@ -546,7 +799,7 @@ public class Interpreter implements StatementVisitor {
     }
 
     private Float valf(List<Node> parameters) {
-        Object str = evaluate(parameters.get(0));
+        Object str = argument(parameters, 0);
         if (!(str instanceof String)) {
             throw new RuntimeException(String.format("Cannot use value: %s for builtin function: ", str) +  "VAL%(string)");
         }
@@ -554,8 +807,8 @@ public class Interpreter implements StatementVisitor {
     }
 
     private Integer pow(List<Node> parameters) {
-        Object a = evaluate(parameters.get(0));
-        Object b = evaluate(parameters.get(1));
+        Object a = argument(parameters, 0);
+        Object b = argument(parameters, 1);
         if (!(a instanceof Integer && b instanceof Integer)) {
             throw new RuntimeException(String.format("Cannot use values: %s and %s for builtin function POW$(integer, integer)", a, b));
         }
@@ -563,8 +816,8 @@ public class Interpreter implements StatementVisitor {
     }
 
     private Float powf(List<Node> parameters) {
-        Object a = evaluate(parameters.get(0));
-        Object b = evaluate(parameters.get(1));
+        Object a = argument(parameters, 0);
+        Object b = argument(parameters, 1);
         if (!(a instanceof Float && b instanceof Float)) {
             throw new RuntimeException(String.format("Cannot use values: %s and %s for builtin function POWF(float, float)", a, b));
         }
@@ -572,7 +825,7 @@ public class Interpreter implements StatementVisitor {
     }
 
     private Integer _int(List<Node> parameters) {
-        Object n = evaluate(parameters.get(0));
+        Object n = argument(parameters, 0);
         if (!(n instanceof Number)) {
             throw new RuntimeException(String.format("Cannot use value: %s for builtin INT(int/float)", n));
         }
@@ -580,13 +833,44 @@ public class Interpreter implements StatementVisitor {
     }
 
     private Float _float(List<Node> parameters) {
-        Object n = evaluate(parameters.get(0));
+        Object n = argument(parameters, 0);
         if (!(n instanceof Number)) {
             throw new RuntimeException(String.format("Cannot use value: %s for builtin FLOAT(int/float)", n));
         }
         return BuiltInFunctions.FLOAT((Number) n);
     }
 
+    private Float truncf(List<Node> parameters) {
+        Object n = argument(parameters, 0);
+        if (!(n instanceof Number)) {
+            throw new RuntimeException(String.format("Cannot use value: %s for builtin FLOAT(INT(int/float))", n));
+        }
+        return BuiltInFunctions.TRUNCF((Number) n);
+    }
+
+    // Evaluates a builtin's argument; the builtins take each argument through here, in order and at most once
+    Object argument(List<Node> parameters, int index) {
+        return evaluate(parameters.get(index));
+    }
+
+    Object variableValue(VariableNode variableNode) {
+        String name = variableNode.getName();
+        InterpreterDataType type = variableNode.getType();
+        if (type == InterpreterDataType.INTEGER && intVariables.containsKey(name)) {
+            return intVariables.get(name);
+        } else if (type == InterpreterDataType.FLOAT && floatVariables.containsKey(name)) {
+            return floatVariables.get(name);
+        } else if (type == InterpreterDataType.STRING && stringVariables.containsKey(name)) {
+            return stringVariables.get(name);
+        } else {
+            throw undefinedVariable(name);
+        }
+    }
+
+    static IllegalArgumentException undefinedVariable(String name) {
+        return new IllegalArgumentException(String.format("Variable '%s' is not defined", name));
+    }
+
     // Checks if both arguments are integers
     private boolean isInteger(Object left, Object right) {
         return left instanceof Integer && right instanceof Integer;
@@ -598,18 +882,38 @@ public class Interpreter implements StatementVisitor {
                 (right instanceof Float || right instanceof Integer);
     }
 
+    // The variables the program defined, without the temporaries optimization passes introduce
     public Map<String, Integer> getIntVariables() {
-        return intVariables;
+        return withoutTemporaries(intVariables);
     }
 
     public Map<String, String> getStringVariables() {
-        return stringVariables;
+        return withoutTemporaries(stringVariables);
     }
 
     public Map<String, Float> getFloatVariables() {
+        return withoutTemporaries(floatVariables);
+    }
+
+    // The live maps the program runs on, temporaries included, for engines that read or update them in place
+    public Map<String, Integer> getAllIntVariables() {
+        return intVariables;
+    }
+
+    public Map<String, String> getAllStringVariables() {
+        return stringVariables;
+    }
+
+    public Map<String, Float> getAllFloatVariables() {
         return floatVariables;
     }
 
+    private static <T> Map<String, T> withoutTemporaries(Map<String, T> variables) {
+        Map<String, T> visible = new HashMap<>(variables);
+        visible.keySet().removeIf(Temporaries::isTemporary);
+        return visible;
+    }
+
     public Map<String, LabeledStatementNode> getLabels() {
         return labels;
     }
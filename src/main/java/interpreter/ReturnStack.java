@@ -0,0 +1,86 @@
+package interpreter;
+
+import node.StatementNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.List;
+
+/**
+ * The Interpreter's runtime stack of GOSUB return points and active FOR and WHILE statements, kept in a plain
+ * array. When the call graph proves a bound on its depth, the array is allocated at that size up front and
+ * pushes skip the capacity check; otherwise it grows on demand up to a hard limit and fails clearly past it.
+ */
+final class ReturnStack {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final boolean bounded;
+    private final int limit;
+    private StatementNode[] frames;
+    private int size = 0;
+
+    private ReturnStack(boolean bounded, int capacity, int limit) {
+        this.bounded = bounded;
+        this.limit = limit;
+        this.frames = new StatementNode[capacity];
+    }
+
+    // A stack for a program proven never to hold more than maxDepth frames
+    static ReturnStack bounded(int maxDepth) {
+        return new ReturnStack(true, maxDepth, maxDepth);
+    }
+
+    // A stack that grows as needed but refuses to hold more than limit frames
+    static ReturnStack limited(int limit) {
+        return new ReturnStack(false, Math.min(INITIAL_CAPACITY, limit), limit);
+    }
+
+    boolean isBounded() {
+        return bounded;
+    }
+
+    void push(StatementNode frame) {
+        if (!bounded && size == frames.length) {
+            grow();
+        }
+        frames[size++] = frame;
+    }
+
+    StatementNode pop() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        StatementNode frame = frames[--size];
+        frames[size] = null;
+        return frame;
+    }
+
+    StatementNode peek() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        return frames[size - 1];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    List<StatementNode> toList() {
+        return new ArrayList<>(Arrays.asList(frames).subList(0, size));
+    }
+
+    private void grow() {
+        if (size >= limit) {
+            throw new IllegalStateException(String.format("Stack limit exceeded: more than %d GOSUB, FOR and WHILE "
+                    + "frames are active, the program probably recurses without end", limit));
+        }
+        frames = Arrays.copyOf(frames, (int) Math.min(limit, Math.max(INITIAL_CAPACITY, 2L * frames.length)));
+    }
+}
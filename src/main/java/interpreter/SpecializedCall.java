@@ -0,0 +1,350 @@
+package interpreter;
+
+import node.BuiltInFunctions;
+import node.FunctionNode;
+
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * A builtin call bound directly to the BuiltInFunctions method for the argument types its first call observed.
+ * The arguments are read through the typed entry points; when one turns out to have another type, the call
+ * rewrites itself to the generic call and hands the arguments evaluated so far to the Interpreter, which
+ * evaluates the rest and reports any error exactly as it would have.
+ */
+abstract class SpecializedCall extends SpecializedExpression {
+
+    interface IntIntFunction {
+        Object apply(int a, int b);
+    }
+
+    interface FloatFunction {
+        Object apply(float a);
+    }
+
+    interface FloatFloatFunction {
+        Object apply(float a, float b);
+    }
+
+    interface StringIntFunction {
+        Object apply(String s, int n);
+    }
+
+    final ExpressionSite site;
+    final FunctionNode node;
+    final ExpressionSite[] arguments;
+
+    SpecializedCall(ExpressionSite site, FunctionNode node, ExpressionSite[] arguments) {
+        this.site = site;
+        this.node = node;
+        this.arguments = arguments;
+    }
+
+    // Rewrites the call to the generic call and finishes it with the arguments already evaluated
+    Object deoptimize(Object... evaluated) {
+        SpecializingInterpreter interpreter = site.getInterpreter();
+        site.deoptimize(new GenericCall(interpreter, node));
+        return interpreter.call(node, Arrays.copyOf(evaluated, arguments.length), evaluated.length);
+    }
+
+    // A call that has not run yet; the Interpreter runs it once and records the arguments it evaluated
+    static final class Uninitialized extends SpecializedCall {
+
+        Uninitialized(ExpressionSite site, FunctionNode node, ExpressionSite[] arguments) {
+            super(site, node, arguments);
+        }
+
+        @Override
+        Object execute() {
+            Object[] values = new Object[arguments.length];
+            Object result = site.getInterpreter().call(node, values, 0);
+            site.specialize(specialize(values));
+            return result;
+        }
+
+        private SpecializedExpression specialize(Object[] values) {
+            switch (node.getFunctionName()) {
+                case RANDOM:
+                    if (values.length == 0) {
+                        return new NoArguments(site, node, arguments, BuiltInFunctions::RANDOM);
+                    } else if (isInts(values)) {
+                        return new IntIntArguments(site, node, arguments, BuiltInFunctions::RANDOM);
+                    }
+                    break;
+                case RANDOMF:
+                    if (values.length == 0) {
+                        return new NoArguments(site, node, arguments, BuiltInFunctions::RANDOMF);
+                    } else if (isFloats(values)) {
+                        return new FloatFloatArguments(site, node, arguments, BuiltInFunctions::RANDOMF);
+                    }
+                    break;
+                case LEFT$:
+                    if (isStringInt(values)) {
+                        return new StringIntArguments(site, node, arguments, BuiltInFunctions::LEFT$);
+                    }
+                    break;
+                case RIGHT$:
+                    if (isStringInt(values)) {
+                        return new StringIntArguments(site, node, arguments, BuiltInFunctions::RIGHT$);
+                    }
+                    break;
+                case MID$:
+                    if (values.length == 3 && values[0] instanceof String && values[1] instanceof Integer
+                            && values[2] instanceof Integer) {
+                        return new MidArguments(site, node, arguments);
+                    }
+                    break;
+                case NUM$:
+                    return unary(values, BuiltInFunctions::NUM$, BuiltInFunctions::NUM$);
+                case VAL:
+                    if (values.length == 1 && values[0] instanceof String) {
+                        return new StringArgument(site, node, arguments, BuiltInFunctions::VAL);
+                    }
+                    break;
+                case VALF:
+                    if (values.length == 1 && values[0] instanceof String) {
+                        return new StringArgument(site, node, arguments, BuiltInFunctions::VALF);
+                    }
+                    break;
+                case POW:
+                    if (isInts(values)) {
+                        return new IntIntArguments(site, node, arguments, BuiltInFunctions::POW);
+                    }
+                    break;
+                case POWF:
+                    if (isFloats(values)) {
+                        return new FloatFloatArguments(site, node, arguments, BuiltInFunctions::POWF);
+                    }
+                    break;
+                case INT:
+                    return unary(values, BuiltInFunctions::INT, BuiltInFunctions::INT);
+                case FLOAT:
+                    return unary(values, BuiltInFunctions::FLOAT, BuiltInFunctions::FLOAT);
+                case TRUNCF:
+                    return unary(values, BuiltInFunctions::TRUNCF, BuiltInFunctions::TRUNCF);
+                default:
+                    break;
+            }
+            return new GenericCall(site.getInterpreter(), node);
+        }
+
+        private SpecializedExpression unary(Object[] values, IntFunction<Object> ifInt, FloatFunction ifFloat) {
+            if (values.length == 1 && values[0] instanceof Integer) {
+                return new IntArgument(site, node, arguments, ifInt);
+            } else if (values.length == 1 && values[0] instanceof Float) {
+                return new FloatArgument(site, node, arguments, ifFloat);
+            }
+            return new GenericCall(site.getInterpreter(), node);
+        }
+
+        private static boolean isInts(Object[] values) {
+            return values.length == 2 && values[0] instanceof Integer && values[1] instanceof Integer;
+        }
+
+        private static boolean isFloats(Object[] values) {
+            return values.length == 2 && values[0] instanceof Float && values[1] instanceof Float;
+        }
+
+        private static boolean isStringInt(Object[] values) {
+            return values.length == 2 && values[0] instanceof String && values[1] instanceof Integer;
+        }
+    }
+
+    static final class NoArguments extends SpecializedCall {
+        private final Supplier<Object> function;
+
+        NoArguments(ExpressionSite site, FunctionNode node, ExpressionSite[] arguments, Supplier<Object> function) {
+            super(site, node, arguments);
+            this.function = function;
+        }
+
+        @Override
+        Object execute() {
+            return function.get();
+        }
+    }
+
+    static final class IntArgument extends SpecializedCall {
+        private final IntFunction<Object> function;
+
+        IntArgument(ExpressionSite site, FunctionNode node, ExpressionSite[] arguments, IntFunction<Object> function) {
+            super(site, node, arguments);
+            this.function = function;
+        }
+
+        @Override
+        Object execute() {
+            int a;
+            try {
+                a = arguments[0].executeInt();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(e.getValue());
+            }
+            return function.apply(a);
+        }
+    }
+
+    static final class FloatArgument extends SpecializedCall {
+        private final FloatFunction function;
+
+        FloatArgument(ExpressionSite site, FunctionNode node, ExpressionSite[] arguments, FloatFunction function) {
+            super(site, node, arguments);
+            this.function = function;
+        }
+
+        @Override
+        Object execute() {
+            float a;
+            try {
+                a = arguments[0].executeFloat();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(e.getValue());
+            }
+            return function.apply(a);
+        }
+    }
+
+    static final class StringArgument extends SpecializedCall {
+        private final Function<String, Object> function;
+
+        StringArgument(ExpressionSite site, FunctionNode node, ExpressionSite[] arguments, Function<String, Object> function) {
+            super(site, node, arguments);
+            this.function = function;
+        }
+
+        @Override
+        Object execute() {
+            Object a = arguments[0].execute();
+            if (!(a instanceof String)) {
+                return deoptimize(a);
+            }
+            return function.apply((String) a);
+        }
+    }
+
+    static final class IntIntArguments extends SpecializedCall {
+        private final IntIntFunction function;
+
+        IntIntArguments(ExpressionSite site, FunctionNode node, ExpressionSite[] arguments, IntIntFunction function) {
+            super(site, node, arguments);
+            this.function = function;
+        }
+
+        @Override
+        Object execute() {
+            int a;
+            try {
+                a = arguments[0].executeInt();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(e.getValue());
+            }
+            int b;
+            try {
+                b = arguments[1].executeInt();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(a, e.getValue());
+            }
+            return function.apply(a, b);
+        }
+    }
+
+    static final class FloatFloatArguments extends SpecializedCall {
+        private final FloatFloatFunction function;
+
+        FloatFloatArguments(ExpressionSite site, FunctionNode node, ExpressionSite[] arguments, FloatFloatFunction function) {
+            super(site, node, arguments);
+            this.function = function;
+        }
+
+        @Override
+        Object execute() {
+            float a;
+            try {
+                a = arguments[0].executeFloat();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(e.getValue());
+            }
+            float b;
+            try {
+                b = arguments[1].executeFloat();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(a, e.getValue());
+            }
+            return function.apply(a, b);
+        }
+    }
+
+    static final class StringIntArguments extends SpecializedCall {
+        private final StringIntFunction function;
+
+        StringIntArguments(ExpressionSite site, FunctionNode node, ExpressionSite[] arguments, StringIntFunction function) {
+            super(site, node, arguments);
+            this.function = function;
+        }
+
+        @Override
+        Object execute() {
+            Object a = arguments[0].execute();
+            if (!(a instanceof String)) {
+                return deoptimize(a);
+            }
+            int b;
+            try {
+                b = arguments[1].executeInt();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(a, e.getValue());
+            }
+            return function.apply((String) a, b);
+        }
+    }
+
+    static final class MidArguments extends SpecializedCall {
+
+        MidArguments(ExpressionSite site, FunctionNode node, ExpressionSite[] arguments) {
+            super(site, node, arguments);
+        }
+
+        @Override
+        Object execute() {
+            Object a = arguments[0].execute();
+            if (!(a instanceof String)) {
+                return deoptimize(a);
+            }
+            int b;
+            try {
+                b = arguments[1].executeInt();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(a, e.getValue());
+            }
+            int c;
+            try {
+                c = arguments[2].executeInt();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(a, b, e.getValue());
+            }
+            return BuiltInFunctions.MID$((String) a, b, c);
+        }
+    }
+
+    static final class GenericCall extends SpecializedExpression {
+        private final SpecializingInterpreter interpreter;
+        private final FunctionNode node;
+
+        GenericCall(SpecializingInterpreter interpreter, FunctionNode node) {
+            this.interpreter = interpreter;
+            this.node = node;
+        }
+
+        @Override
+        Object execute() {
+            return interpreter.generic(node);
+        }
+
+        @Override
+        boolean isGeneric() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,688 @@
+package interpreter;
+
+import node.*;
+
+import java.util.Map;
+
+/**
+ * A node of the executable tree a SpecializingInterpreter evaluates expressions with. Every node can produce its
+ * value boxed; the typed entry points let a specialized parent ask for an int or a float without boxing and
+ * throw UnexpectedTypeException, carrying the value computed instead, when the node cannot produce that type.
+ */
+abstract class SpecializedExpression {
+
+    abstract Object execute();
+
+    int executeInt() throws UnexpectedTypeException {
+        return expectInt(execute());
+    }
+
+    float executeFloat() throws UnexpectedTypeException {
+        return expectFloat(execute());
+    }
+
+    boolean executeBoolean() {
+        return (Boolean) execute();
+    }
+
+    // Generic nodes handle every type the Interpreter does, so they never rewrite themselves again
+    boolean isGeneric() {
+        return false;
+    }
+
+    // The name of the node, as the tests and the interpreter report it
+    String describe() {
+        return getClass().getSimpleName();
+    }
+
+    static int expectInt(Object value) throws UnexpectedTypeException {
+        if (value instanceof Integer) {
+            return (Integer) value;
+        }
+        throw new UnexpectedTypeException(value);
+    }
+
+    static float expectFloat(Object value) throws UnexpectedTypeException {
+        if (value instanceof Float) {
+            return (Float) value;
+        }
+        throw new UnexpectedTypeException(value);
+    }
+
+    static final class IntConstant extends SpecializedExpression {
+        private final int value;
+        private final Integer boxed;
+
+        IntConstant(int value) {
+            this.value = value;
+            this.boxed = value;
+        }
+
+        @Override
+        Object execute() {
+            return boxed;
+        }
+
+        @Override
+        int executeInt() {
+            return value;
+        }
+    }
+
+    static final class FloatConstant extends SpecializedExpression {
+        private final float value;
+        private final Float boxed;
+
+        FloatConstant(float value) {
+            this.value = value;
+            this.boxed = value;
+        }
+
+        @Override
+        Object execute() {
+            return boxed;
+        }
+
+        @Override
+        float executeFloat() {
+            return value;
+        }
+    }
+
+    static final class StringConstant extends SpecializedExpression {
+        private final String value;
+
+        StringConstant(String value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute() {
+            return value;
+        }
+    }
+
+    // Falls back to the Interpreter for a node nothing here specializes
+    static final class GenericExpression extends SpecializedExpression {
+        private final SpecializingInterpreter interpreter;
+        private final Node node;
+
+        GenericExpression(SpecializingInterpreter interpreter, Node node) {
+            this.interpreter = interpreter;
+            this.node = node;
+        }
+
+        @Override
+        Object execute() {
+            return interpreter.generic(node);
+        }
+
+        @Override
+        boolean isGeneric() {
+            return true;
+        }
+    }
+
+    // A variable read that has not run yet; its first read picks the map and the type to expect
+    static final class UninitializedVariable extends SpecializedExpression {
+        private final ExpressionSite site;
+        private final VariableNode node;
+
+        UninitializedVariable(ExpressionSite site, VariableNode node) {
+            this.site = site;
+            this.node = node;
+        }
+
+        @Override
+        Object execute() {
+            SpecializingInterpreter interpreter = site.getInterpreter();
+            Object value = interpreter.variableValue(node);
+            InterpreterDataType type = node.getType();
+            if (type == InterpreterDataType.INTEGER && value instanceof Integer) {
+                site.specialize(new IntVariable(site, node, interpreter.getAllIntVariables()));
+            } else if (type == InterpreterDataType.FLOAT && value instanceof Float) {
+                site.specialize(new FloatVariable(site, node, interpreter.getAllFloatVariables()));
+            } else if (type == InterpreterDataType.STRING && value instanceof String) {
+                site.specialize(new StringVariable(site, node, interpreter.getAllStringVariables()));
+            } else {
+                site.specialize(new GenericVariable(interpreter, node));
+            }
+            return value;
+        }
+    }
+
+    // Reads one map directly and guards on the class of what it finds there
+    abstract static class VariableRead extends SpecializedExpression {
+        final ExpressionSite site;
+        final VariableNode node;
+        final String name;
+        final Map<String, ?> variables;
+
+        VariableRead(ExpressionSite site, VariableNode node, Map<String, ?> variables) {
+            this.site = site;
+            this.node = node;
+            this.name = node.getName();
+            this.variables = variables;
+        }
+
+        Object missing(Object value) {
+            if (value == null) {
+                throw Interpreter.undefinedVariable(name);
+            }
+            site.deoptimize(new GenericVariable(site.getInterpreter(), node));
+            return site.getInterpreter().variableValue(node);
+        }
+    }
+
+    static final class IntVariable extends VariableRead {
+        IntVariable(ExpressionSite site, VariableNode node, Map<String, Integer> variables) {
+            super(site, node, variables);
+        }
+
+        @Override
+        Object execute() {
+            Object value = variables.get(name);
+            return value instanceof Integer ? value : missing(value);
+        }
+
+        @Override
+        int executeInt() throws UnexpectedTypeException {
+            Object value = variables.get(name);
+            return value instanceof Integer ? (Integer) value : expectInt(missing(value));
+        }
+    }
+
+    static final class FloatVariable extends VariableRead {
+        FloatVariable(ExpressionSite site, VariableNode node, Map<String, Float> variables) {
+            super(site, node, variables);
+        }
+
+        @Override
+        Object execute() {
+            Object value = variables.get(name);
+            return value instanceof Float ? value : missing(value);
+        }
+
+        @Override
+        float executeFloat() throws UnexpectedTypeException {
+            Object value = variables.get(name);
+            return value instanceof Float ? (Float) value : expectFloat(missing(value));
+        }
+    }
+
+    static final class StringVariable extends VariableRead {
+        StringVariable(ExpressionSite site, VariableNode node, Map<String, String> variables) {
+            super(site, node, variables);
+        }
+
+        @Override
+        Object execute() {
+            Object value = variables.get(name);
+            return value instanceof String ? value : missing(value);
+        }
+    }
+
+    static final class GenericVariable extends SpecializedExpression {
+        private final SpecializingInterpreter interpreter;
+        private final VariableNode node;
+
+        GenericVariable(SpecializingInterpreter interpreter, VariableNode node) {
+            this.interpreter = interpreter;
+            this.node = node;
+        }
+
+        @Override
+        Object execute() {
+            return interpreter.variableValue(node);
+        }
+
+        @Override
+        boolean isGeneric() {
+            return true;
+        }
+    }
+
+    // A math operation that has not run yet; its first operands pick the specialization
+    static final class UninitializedMath extends SpecializedExpression {
+        private final ExpressionSite site;
+        private final MathOpNode node;
+        private final ExpressionSite left;
+        private final ExpressionSite right;
+
+        UninitializedMath(ExpressionSite site, MathOpNode node, ExpressionSite left, ExpressionSite right) {
+            this.site = site;
+            this.node = node;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute() {
+            Object leftValue = left.execute();
+            Object rightValue = right.execute();
+            site.specialize(specialize(leftValue, rightValue));
+            return site.getInterpreter().calculate(node, leftValue, rightValue);
+        }
+
+        private SpecializedExpression specialize(Object leftValue, Object rightValue) {
+            MathOpNode.OPERATION operator = node.getOperator();
+            if (leftValue instanceof Integer && rightValue instanceof Integer) {
+                switch (operator) {
+                    case ADD:
+                        return new IntMath(site, node, left, right) {
+                            @Override
+                            int apply(int a, int b) {
+                                return a + b;
+                            }
+                        };
+                    case SUBTRACT:
+                        return new IntMath(site, node, left, right) {
+                            @Override
+                            int apply(int a, int b) {
+                                return a - b;
+                            }
+                        };
+                    case MULTIPLY:
+                        return new IntMath(site, node, left, right) {
+                            @Override
+                            int apply(int a, int b) {
+                                return a * b;
+                            }
+                        };
+                    case DIVIDE:
+                        return new IntMath(site, node, left, right) {
+                            @Override
+                            int apply(int a, int b) {
+                                return a / b;
+                            }
+                        };
+                    case SHIFT_LEFT:
+                        return new IntMath(site, node, left, right) {
+                            @Override
+                            int apply(int a, int b) {
+                                return a << b;
+                            }
+                        };
+                    case SHIFT_RIGHT:
+                        return new IntMath(site, node, left, right) {
+                            @Override
+                            int apply(int a, int b) {
+                                return (a + ((a >> 31) >>> (32 - b))) >> b;
+                            }
+                        };
+                    default:
+                        break;
+                }
+            } else if (isNumber(leftValue) && isNumber(rightValue)) {
+                boolean leftInt = leftValue instanceof Integer;
+                boolean rightInt = rightValue instanceof Integer;
+                switch (operator) {
+                    case ADD:
+                        return new FloatMath(site, node, left, right, leftInt, rightInt) {
+                            @Override
+                            float apply(float a, float b) {
+                                return a + b;
+                            }
+                        };
+                    case SUBTRACT:
+                        return new FloatMath(site, node, left, right, leftInt, rightInt) {
+                            @Override
+                            float apply(float a, float b) {
+                                return a - b;
+                            }
+                        };
+                    case MULTIPLY:
+                        return new FloatMath(site, node, left, right, leftInt, rightInt) {
+                            @Override
+                            float apply(float a, float b) {
+                                return a * b;
+                            }
+                        };
+                    case DIVIDE:
+                        return new FloatMath(site, node, left, right, leftInt, rightInt) {
+                            @Override
+                            float apply(float a, float b) {
+                                return a / b;
+                            }
+                        };
+                    default:
+                        break;
+                }
+            }
+            return new GenericMath(site.getInterpreter(), node, left, right);
+        }
+    }
+
+    // Integer arithmetic on two operands guarded to be integers
+    abstract static class IntMath extends SpecializedExpression {
+        private final ExpressionSite site;
+        private final MathOpNode node;
+        private final ExpressionSite left;
+        private final ExpressionSite right;
+
+        IntMath(ExpressionSite site, MathOpNode node, ExpressionSite left, ExpressionSite right) {
+            this.site = site;
+            this.node = node;
+            this.left = left;
+            this.right = right;
+        }
+
+        abstract int apply(int a, int b);
+
+        @Override
+        Object execute() {
+            try {
+                return executeInt();
+            } catch (UnexpectedTypeException e) {
+                return e.getValue();
+            }
+        }
+
+        @Override
+        int executeInt() throws UnexpectedTypeException {
+            int a;
+            try {
+                a = left.executeInt();
+            } catch (UnexpectedTypeException e) {
+                return expectInt(deoptimize(e.getValue(), right.execute()));
+            }
+            int b;
+            try {
+                b = right.executeInt();
+            } catch (UnexpectedTypeException e) {
+                return expectInt(deoptimize(a, e.getValue()));
+            }
+            return apply(a, b);
+        }
+
+        private Object deoptimize(Object leftValue, Object rightValue) {
+            SpecializingInterpreter interpreter = site.getInterpreter();
+            site.deoptimize(new GenericMath(interpreter, node, left, right));
+            return interpreter.calculate(node, leftValue, rightValue);
+        }
+
+        @Override
+        String describe() {
+            return "Int" + name(node.getOperator());
+        }
+    }
+
+    // Float arithmetic on two numeric operands, either of which was observed as an integer and is widened
+    abstract static class FloatMath extends SpecializedExpression {
+        private final ExpressionSite site;
+        private final MathOpNode node;
+        private final ExpressionSite left;
+        private final ExpressionSite right;
+        private final boolean leftInt;
+        private final boolean rightInt;
+
+        FloatMath(ExpressionSite site, MathOpNode node, ExpressionSite left, ExpressionSite right,
+                  boolean leftInt, boolean rightInt) {
+            this.site = site;
+            this.node = node;
+            this.left = left;
+            this.right = right;
+            this.leftInt = leftInt;
+            this.rightInt = rightInt;
+        }
+
+        abstract float apply(float a, float b);
+
+        @Override
+        Object execute() {
+            try {
+                return executeFloat();
+            } catch (UnexpectedTypeException e) {
+                return e.getValue();
+            }
+        }
+
+        @Override
+        float executeFloat() throws UnexpectedTypeException {
+            int leftAsInt = 0;
+            float a;
+            try {
+                if (leftInt) {
+                    leftAsInt = left.executeInt();
+                    a = leftAsInt;
+                } else {
+                    a = left.executeFloat();
+                }
+            } catch (UnexpectedTypeException e) {
+                return expectFloat(deoptimize(e.getValue(), right.execute()));
+            }
+            float b;
+            try {
+                b = rightInt ? right.executeInt() : right.executeFloat();
+            } catch (UnexpectedTypeException e) {
+                Object leftValue = leftInt ? (Object) leftAsInt : (Object) a;
+                return expectFloat(deoptimize(leftValue, e.getValue()));
+            }
+            return apply(a, b);
+        }
+
+        private Object deoptimize(Object leftValue, Object rightValue) {
+            SpecializingInterpreter interpreter = site.getInterpreter();
+            site.deoptimize(new GenericMath(interpreter, node, left, right));
+            return interpreter.calculate(node, leftValue, rightValue);
+        }
+
+        @Override
+        String describe() {
+            return "Float" + name(node.getOperator());
+        }
+    }
+
+    static final class GenericMath extends SpecializedExpression {
+        private final SpecializingInterpreter interpreter;
+        private final MathOpNode node;
+        private final ExpressionSite left;
+        private final ExpressionSite right;
+
+        GenericMath(SpecializingInterpreter interpreter, MathOpNode node, ExpressionSite left, ExpressionSite right) {
+            this.interpreter = interpreter;
+            this.node = node;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute() {
+            Object leftValue = left.execute();
+            Object rightValue = right.execute();
+            return interpreter.calculate(node, leftValue, rightValue);
+        }
+
+        @Override
+        boolean isGeneric() {
+            return true;
+        }
+    }
+
+    // A comparison that has not run yet; its first operands pick the specialization
+    static final class UninitializedCompare extends SpecializedExpression {
+        private final ExpressionSite site;
+        private final BooleanExpressionNode node;
+        private final ExpressionSite left;
+        private final ExpressionSite right;
+
+        UninitializedCompare(ExpressionSite site, BooleanExpressionNode node, ExpressionSite left, ExpressionSite right) {
+            this.site = site;
+            this.node = node;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute() {
+            return executeBoolean();
+        }
+
+        @Override
+        boolean executeBoolean() {
+            Object leftValue = left.execute();
+            Object rightValue = right.execute();
+            SpecializingInterpreter interpreter = site.getInterpreter();
+            if (leftValue instanceof Integer && rightValue instanceof Integer) {
+                site.specialize(new IntCompare(site, node, left, right));
+            } else if (isNumber(leftValue) && isNumber(rightValue)) {
+                site.specialize(new FloatCompare(site, node, left, right,
+                        leftValue instanceof Integer, rightValue instanceof Integer));
+            } else {
+                site.specialize(new GenericCompare(interpreter, node, left, right));
+            }
+            return interpreter.compareValues(node.getOperator(), leftValue, rightValue);
+        }
+    }
+
+    static final class IntCompare extends SpecializedExpression {
+        private final ExpressionSite site;
+        private final BooleanExpressionNode node;
+        private final BooleanExpressionNode.OPERATOR operator;
+        private final ExpressionSite left;
+        private final ExpressionSite right;
+
+        IntCompare(ExpressionSite site, BooleanExpressionNode node, ExpressionSite left, ExpressionSite right) {
+            this.site = site;
+            this.node = node;
+            this.operator = node.getOperator();
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute() {
+            return executeBoolean();
+        }
+
+        @Override
+        boolean executeBoolean() {
+            int a;
+            try {
+                a = left.executeInt();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(e.getValue(), right.execute());
+            }
+            int b;
+            try {
+                b = right.executeInt();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(a, e.getValue());
+            }
+            return Interpreter.compare(operator, a, b);
+        }
+
+        private boolean deoptimize(Object leftValue, Object rightValue) {
+            SpecializingInterpreter interpreter = site.getInterpreter();
+            site.deoptimize(new GenericCompare(interpreter, node, left, right));
+            return interpreter.compareValues(operator, leftValue, rightValue);
+        }
+    }
+
+    static final class FloatCompare extends SpecializedExpression {
+        private final ExpressionSite site;
+        private final BooleanExpressionNode node;
+        private final BooleanExpressionNode.OPERATOR operator;
+        private final ExpressionSite left;
+        private final ExpressionSite right;
+        private final boolean leftInt;
+        private final boolean rightInt;
+
+        FloatCompare(ExpressionSite site, BooleanExpressionNode node, ExpressionSite left, ExpressionSite right,
+                     boolean leftInt, boolean rightInt) {
+            this.site = site;
+            this.node = node;
+            this.operator = node.getOperator();
+            this.left = left;
+            this.right = right;
+            this.leftInt = leftInt;
+            this.rightInt = rightInt;
+        }
+
+        @Override
+        Object execute() {
+            return executeBoolean();
+        }
+
+        @Override
+        boolean executeBoolean() {
+            int leftAsInt = 0;
+            float a;
+            try {
+                if (leftInt) {
+                    leftAsInt = left.executeInt();
+                    a = leftAsInt;
+                } else {
+                    a = left.executeFloat();
+                }
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(e.getValue(), right.execute());
+            }
+            float b;
+            try {
+                b = rightInt ? right.executeInt() : right.executeFloat();
+            } catch (UnexpectedTypeException e) {
+                return deoptimize(leftInt ? (Object) leftAsInt : (Object) a, e.getValue());
+            }
+            return Interpreter.compare(operator, a, b);
+        }
+
+        private boolean deoptimize(Object leftValue, Object rightValue) {
+            SpecializingInterpreter interpreter = site.getInterpreter();
+            site.deoptimize(new GenericCompare(interpreter, node, left, right));
+            return interpreter.compareValues(operator, leftValue, rightValue);
+        }
+    }
+
+    static final class GenericCompare extends SpecializedExpression {
+        private final SpecializingInterpreter interpreter;
+        private final BooleanExpressionNode node;
+        private final ExpressionSite left;
+        private final ExpressionSite right;
+
+        GenericCompare(SpecializingInterpreter interpreter, BooleanExpressionNode node, ExpressionSite left, ExpressionSite right) {
+            this.interpreter = interpreter;
+            this.node = node;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute() {
+            return executeBoolean();
+        }
+
+        @Override
+        boolean executeBoolean() {
+            Object leftValue = left.execute();
+            Object rightValue = right.execute();
+            return interpreter.compareValues(node.getOperator(), leftValue, rightValue);
+        }
+
+        @Override
+        boolean isGeneric() {
+            return true;
+        }
+    }
+
+    static boolean isNumber(Object value) {
+        return value instanceof Integer || value instanceof Float;
+    }
+
+    private static String name(MathOpNode.OPERATION operation) {
+        switch (operation) {
+            case ADD:
+                return "Add";
+            case SUBTRACT:
+                return "Subtract";
+            case MULTIPLY:
+                return "Multiply";
+            case DIVIDE:
+                return "Divide";
+            case SHIFT_LEFT:
+                return "ShiftLeft";
+            default:
+                return "ShiftRight";
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package interpreter;
+
+import node.*;
+import optimizer.Expressions;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An Interpreter whose expressions rewrite themselves as they run. Each expression of the program gets a site
+ * holding an executable node that starts out uninitialized; its first evaluation observes the types of its
+ * operands and replaces it with a node specialized to them: integer or float arithmetic and comparisons that
+ * skip the generic type checks, variable reads that go straight to the right map, and builtin calls bound to
+ * the exact BuiltInFunctions method. Each specialized node guards on the types it was built for and, if a guard
+ * fails, rewrites itself back to the generic node and finishes the evaluation with the values it already has.
+ *
+ * Statements run exactly as they do in the Interpreter; only the evaluation of expressions changes.
+ */
+public class SpecializingInterpreter extends Interpreter {
+
+    // Keyed by identity: equal expressions at different places in the program specialize independently
+    private final Map<Node, ExpressionSite> sites = new IdentityHashMap<>();
+
+    private int specializations = 0;
+    private int deoptimizations = 0;
+
+    // The builtin call whose arguments are being recorded or replayed, see call()
+    private List<Node> callParameters;
+    private Object[] callValues;
+    private int callKnown;
+
+    public SpecializingInterpreter(ProgramNode programNode) {
+        super(programNode);
+    }
+
+    // How many nodes rewrote themselves to a specialized node
+    public int getSpecializations() {
+        return specializations;
+    }
+
+    // How many specialized nodes had a guard fail and went back to the generic node
+    public int getDeoptimizations() {
+        return deoptimizations;
+    }
+
+    /**
+     * Returns the name of the node currently standing in for the expression, such as IntAdd or FloatVariable,
+     * or null if the expression has not been evaluated.
+     */
+    public String getSpecialization(Node expression) {
+        ExpressionSite site = sites.get(expression);
+        return site == null ? null : site.getExpression().describe();
+    }
+
+    @Override
+    Object evaluate(Node node) {
+        return site(node).execute();
+    }
+
+    @Override
+    public boolean evaluateBoolean(BooleanExpressionNode booleanExpressionNode) {
+        return site(booleanExpressionNode).executeBoolean();
+    }
+
+    ExpressionSite site(Node node) {
+        ExpressionSite site = sites.get(node);
+        if (site == null) {
+            site = new ExpressionSite(this);
+            site.initialize(uninitialized(Expressions.unwrap(node), site));
+            sites.put(node, site);
+        }
+        return site;
+    }
+
+    private SpecializedExpression uninitialized(Node node, ExpressionSite site) {
+        if (node instanceof IntegerNode) {
+            return new SpecializedExpression.IntConstant(((IntegerNode) node).getInt());
+        } else if (node instanceof FloatNode) {
+            return new SpecializedExpression.FloatConstant(((FloatNode) node).getFloat());
+        } else if (node instanceof StringNode) {
+            return new SpecializedExpression.StringConstant(((StringNode) node).getValue());
+        } else if (node instanceof VariableNode) {
+            return new SpecializedExpression.UninitializedVariable(site, (VariableNode) node);
+        } else if (node instanceof MathOpNode) {
+            MathOpNode mathOpNode = (MathOpNode) node;
+            return new SpecializedExpression.UninitializedMath(site, mathOpNode,
+                    site(mathOpNode.getLeft()), site(mathOpNode.getRight()));
+        } else if (node instanceof BooleanExpressionNode) {
+            BooleanExpressionNode booleanExpressionNode = (BooleanExpressionNode) node;
+            return new SpecializedExpression.UninitializedCompare(site, booleanExpressionNode,
+                    site(booleanExpressionNode.getLeft()), site(booleanExpressionNode.getRight()));
+        } else if (node instanceof FunctionNode && ((FunctionNode) node).getFunctionName() != null) {
+            FunctionNode functionNode = (FunctionNode) node;
+            List<Node> parameters = functionNode.getParameters();
+            ExpressionSite[] arguments = new ExpressionSite[parameters.size()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = site(parameters.get(i));
+            }
+            return new SpecializedCall.Uninitialized(site, functionNode, arguments);
+        }
+        return new SpecializedExpression.GenericExpression(this, node);
+    }
+
+    // Evaluates the node the way the Interpreter does, with its operands still evaluated through their sites
+    Object generic(Node node) {
+        return super.evaluate(node);
+    }
+
+    /**
+     * Runs a builtin call through the Interpreter. The first known arguments are taken from values instead of
+     * being evaluated; the rest are evaluated in order and stored into values, so the caller sees every argument
+     * the call evaluated.
+     */
+    Object call(FunctionNode node, Object[] values, int known) {
+        List<Node> savedParameters = callParameters;
+        Object[] savedValues = callValues;
+        int savedKnown = callKnown;
+        callParameters = node.getParameters();
+        callValues = values;
+        callKnown = known;
+        try {
+            return super.evaluate(node);
+        } finally {
+            callParameters = savedParameters;
+            callValues = savedValues;
+            callKnown = savedKnown;
+        }
+    }
+
+    @Override
+    Object argument(List<Node> parameters, int index) {
+        if (parameters != callParameters) {
+            return evaluate(parameters.get(index));
+        }
+        if (index < callKnown) {
+            return callValues[index];
+        }
+        Object value = evaluate(parameters.get(index));
+        callValues[index] = value;
+        return value;
+    }
+
+    void recordSpecialization() {
+        specializations++;
+    }
+
+    void recordDeoptimization() {
+        deoptimizations++;
+    }
+}
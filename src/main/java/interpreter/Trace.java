@@ -0,0 +1,107 @@
+package interpreter;
+
+import node.StatementNode;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * One compiled trace of a TracingInterpreter: the path one iteration of a hot loop took, from its anchor statement
+ * back round to it, as a line of closures. Running it goes round that path for as long as every guard holds, with
+ * the loop's variables in typed slots, and hands the program back to the Interpreter at the statement a failed
+ * guard would have gone to instead. The counters say how well the path the trace was recorded on predicted the
+ * ones the program went on to take.
+ */
+public final class Trace {
+
+    private final String anchor;
+    private final int length;
+    private final int guards;
+    private final TraceCompiler.Step[] steps;
+    private final StatementNode[] exits;
+    private final BooleanSupplier load;
+    private final Runnable store;
+
+    private long entries = 0;
+    private long iterations = 0;
+    private long sideExits = 0;
+
+    Trace(String anchor, int length, int guards, TraceCompiler.Step[] steps, StatementNode[] exits,
+          BooleanSupplier load, Runnable store) {
+        this.anchor = anchor;
+        this.length = length;
+        this.guards = guards;
+        this.steps = steps;
+        this.exits = exits;
+        this.load = load;
+        this.store = store;
+    }
+
+    // Where the trace starts and ends, such as "label 'loop'" or "statement 4"
+    public String getAnchor() {
+        return anchor;
+    }
+
+    // How many statements the recorded iteration ran, GOTOs included
+    public int getLength() {
+        return length;
+    }
+
+    // How many IF, FOR and WHILE outcomes the trace checks each time round
+    public int getGuards() {
+        return guards;
+    }
+
+    // How many times the program ran the trace instead of interpreting its anchor
+    public long getEntries() {
+        return entries;
+    }
+
+    // How many times the trace went all the way round its path
+    public long getIterations() {
+        return iterations;
+    }
+
+    // How many times a guard failed and the trace handed the program back to the Interpreter
+    public long getSideExits() {
+        return sideExits;
+    }
+
+    /**
+     * Copies the variables the trace uses into its slots, or returns false without entering if one is not defined
+     * yet, so the Interpreter runs the iteration that defines it or fails on it.
+     */
+    boolean enter() {
+        if (!load.getAsBoolean()) {
+            return false;
+        }
+        entries++;
+        return true;
+    }
+
+    /**
+     * Runs the entered trace until a guard fails, stores the variables it wrote and returns the statement the
+     * Interpreter continues at, which is null if the program ends there. A runtime error stores them too, so the
+     * program fails with the same variables the Interpreter would have left.
+     */
+    StatementNode run() {
+        try {
+            while (true) {
+                for (int i = 0; i < steps.length; i++) {
+                    if (!steps[i].run()) {
+                        sideExits++;
+                        return exits[i];
+                    }
+                }
+                iterations++;
+            }
+        } finally {
+            store.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("trace at %s: %d statements, %d guards, entered %d times, %d iterations, %d side exits",
+                anchor, length, guards, entries, iterations, sideExits);
+    }
+}
@@ -0,0 +1,835 @@
+package interpreter;
+
+import node.*;
+import optimizer.Expressions;
+
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Compiles one recorded iteration of a hot loop into a Trace: a straight line of Java closures, one per statement
+ * the iteration ran, in the order it ran them. The jumps that took the Interpreter from one statement to the next
+ * are gone. A GOTO compiles to nothing, a GOSUB to a push of its return point and a RETURN to a pop, since every
+ * frame a trace pops was pushed earlier in the same iteration. An IF, and the test of a FOR or WHILE, becomes a
+ * branch guard: it runs the statement exactly as the Interpreter does and fails if the statement went the other
+ * way than it did while recording, so the trace can side-exit to the statement the Interpreter would run next.
+ *
+ * Variables live in typed slots for as long as the trace runs, and every expression is compiled to closures
+ * specialized to its operand types: an int addition adds two ints and a comparison of an int with a float compares
+ * floats, with no type checks left. A variable's type is fixed by its name, so the types the recorded iteration
+ * stored are the static ones and the specializations only need to agree with them; an expression the Interpreter
+ * would reject, such as arithmetic on a string, makes the loop untraceable. The one type guard left is the one the
+ * trace runs on entry: every variable it uses must already hold a value of its type.
+ */
+final class TraceCompiler {
+
+    // Computes a float without boxing it
+    interface FloatSupplier {
+        float getAsFloat();
+    }
+
+    // Runs one statement of a trace and returns false if it left the path the trace was recorded on
+    interface Step {
+        boolean run();
+    }
+
+    // One statement of the recorded iteration: what ran, where the Interpreter went next and whether it pushed a frame
+    static final class Entry {
+        private final StatementNode statement;
+        private final StatementNode successor;
+        private final boolean pushed;
+
+        Entry(StatementNode statement, StatementNode successor, boolean pushed) {
+            this.statement = statement;
+            this.successor = successor;
+            this.pushed = pushed;
+        }
+    }
+
+    // A compiled expression: exactly one of the closures is set, matching its type
+    private static final class Value {
+        private final InterpreterDataType type;
+        private final IntSupplier intValue;
+        private final FloatSupplier floatValue;
+        private final Supplier<String> stringValue;
+
+        private Value(InterpreterDataType type, IntSupplier intValue, FloatSupplier floatValue,
+                      Supplier<String> stringValue) {
+            this.type = type;
+            this.intValue = intValue;
+            this.floatValue = floatValue;
+            this.stringValue = stringValue;
+        }
+
+        static Value ofInt(IntSupplier value) {
+            return new Value(InterpreterDataType.INTEGER, value, null, null);
+        }
+
+        static Value ofFloat(FloatSupplier value) {
+            return new Value(InterpreterDataType.FLOAT, null, value, null);
+        }
+
+        static Value ofString(Supplier<String> value) {
+            return new Value(InterpreterDataType.STRING, null, null, value);
+        }
+
+        boolean isNumeric() {
+            return type != InterpreterDataType.STRING;
+        }
+
+        // The value as a float, the way the Interpreter widens an int operand mixed with a float
+        FloatSupplier asFloat() {
+            if (floatValue != null) {
+                return floatValue;
+            }
+            IntSupplier value = intValue;
+            return () -> value.getAsInt();
+        }
+
+        // The value boxed as the Interpreter would hold it, for the builtins that take any number
+        Supplier<Number> asNumber() {
+            IntSupplier ints = intValue;
+            FloatSupplier floats = floatValue;
+            if (ints != null) {
+                return () -> ints.getAsInt();
+            }
+            return () -> floats.getAsFloat();
+        }
+
+        // The text the Interpreter prints for the value
+        Supplier<String> asText() {
+            IntSupplier ints = intValue;
+            FloatSupplier floats = floatValue;
+            if (ints != null) {
+                return () -> Integer.toString(ints.getAsInt());
+            } else if (floats != null) {
+                return () -> Float.toString(floats.getAsFloat());
+            }
+            return stringValue;
+        }
+    }
+
+    private final TracingInterpreter interpreter;
+    private final ReturnStack stack;
+    private final Map<String, LabeledStatementNode> labels;
+
+    // The slot of each variable the trace uses, in the array for its type
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<String> intNames = new ArrayList<>();
+    private final List<String> floatNames = new ArrayList<>();
+    private final List<String> stringNames = new ArrayList<>();
+    private final Set<String> written = new HashSet<>();
+    private int[] ints;
+    private float[] floats;
+    private String[] strings;
+    private int guards = 0;
+
+    private TraceCompiler(TracingInterpreter interpreter) {
+        this.interpreter = interpreter;
+        this.stack = interpreter.getStack();
+        this.labels = interpreter.getLabels();
+    }
+
+    /**
+     * Compiles the recorded iteration, which starts at the anchor and leads back to it.
+     *
+     * @throws UntraceableException if the iteration runs a statement or expression a trace cannot reproduce
+     */
+    static Trace compile(TracingInterpreter interpreter, String anchor, List<Entry> entries) throws UntraceableException {
+        return new TraceCompiler(interpreter).compile(anchor, entries);
+    }
+
+    private Trace compile(String anchor, List<Entry> entries) throws UntraceableException {
+        for (Entry entry : entries) {
+            collect(entry.statement);
+        }
+        ints = new int[intNames.size()];
+        floats = new float[floatNames.size()];
+        strings = new String[stringNames.size()];
+
+        List<Step> steps = new ArrayList<>();
+        List<StatementNode> exits = new ArrayList<>();
+        for (Entry entry : entries) {
+            StatementNode[] exit = new StatementNode[1];
+            Step step = statement(entry, exit);
+            if (step != null) {
+                steps.add(step);
+                exits.add(exit[0]);
+            }
+        }
+        return new Trace(anchor, entries.size(), guards, steps.toArray(new Step[0]),
+                exits.toArray(new StatementNode[0]), load(), store());
+    }
+
+    // Gives every variable the statement uses a slot, and notes the ones it writes
+    private void collect(StatementNode statement) {
+        if (statement instanceof LabeledStatementNode) {
+            StatementNode inner = ((LabeledStatementNode) statement).getStatementNode();
+            if (inner != null) {
+                collect(inner);
+            }
+        } else if (statement instanceof ConversionAssignmentNode) {
+            ConversionAssignmentNode conversion = (ConversionAssignmentNode) statement;
+            collectWrite(conversion.getVariableNode());
+            collectRead(conversion.getSource());
+        } else if (statement instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) statement;
+            collectWrite(assignment.getVariableNode());
+            if (!(statement instanceof IncrementNode)) {
+                collectRead(assignment.getValue());
+            }
+        } else if (statement instanceof PrintVariableNode) {
+            collectRead(((PrintVariableNode) statement).getVariable());
+        } else if (statement instanceof PrintNode) {
+            for (Node parameter : ((PrintNode) statement).getParameters()) {
+                collectRead(parameter);
+            }
+        } else if (statement instanceof CompareBranchNode) {
+            collectRead(((CompareBranchNode) statement).getLeftOperand());
+            collectRead(((CompareBranchNode) statement).getRightOperand());
+        } else if (statement instanceof IfNode) {
+            collectRead(((IfNode) statement).getCondition());
+        } else if (statement instanceof WhileNode) {
+            collectRead(((WhileNode) statement).getCondition());
+        } else if (statement instanceof ForNode) {
+            // The initial value is only evaluated by the iteration that defines the counter, which is never traced
+            ForNode forNode = (ForNode) statement;
+            collectWrite(forNode.getVariable());
+            collectRead(forNode.getLimit());
+            collectRead(forNode.getIncrement());
+        }
+    }
+
+    private void collectWrite(VariableNode variable) {
+        slot(variable);
+        written.add(variable.getName());
+    }
+
+    private void collectRead(Node node) {
+        node = Expressions.unwrap(node);
+        if (node instanceof VariableNode) {
+            slot((VariableNode) node);
+        } else if (node instanceof MathOpNode) {
+            collectRead(((MathOpNode) node).getLeft());
+            collectRead(((MathOpNode) node).getRight());
+        } else if (node instanceof BooleanExpressionNode) {
+            collectRead(((BooleanExpressionNode) node).getLeft());
+            collectRead(((BooleanExpressionNode) node).getRight());
+        } else if (node instanceof FunctionNode) {
+            for (Node parameter : ((FunctionNode) node).getParameters()) {
+                collectRead(parameter);
+            }
+        }
+    }
+
+    private int slot(VariableNode variable) {
+        String name = variable.getName();
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            List<String> names = variable.getType() == InterpreterDataType.INTEGER ? intNames
+                    : variable.getType() == InterpreterDataType.FLOAT ? floatNames : stringNames;
+            slot = names.size();
+            names.add(name);
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    // Copies the variables into their slots, or returns false if one of them is not defined yet
+    private BooleanSupplier load() {
+        Map<String, Integer> intVariables = interpreter.getAllIntVariables();
+        Map<String, Float> floatVariables = interpreter.getAllFloatVariables();
+        Map<String, String> stringVariables = interpreter.getAllStringVariables();
+        String[] intNames = this.intNames.toArray(new String[0]);
+        String[] floatNames = this.floatNames.toArray(new String[0]);
+        String[] stringNames = this.stringNames.toArray(new String[0]);
+        int[] ints = this.ints;
+        float[] floats = this.floats;
+        String[] strings = this.strings;
+        return () -> {
+            for (int slot = 0; slot < intNames.length; slot++) {
+                Integer value = intVariables.get(intNames[slot]);
+                if (value == null) {
+                    return false;
+                }
+                ints[slot] = value;
+            }
+            for (int slot = 0; slot < floatNames.length; slot++) {
+                Float value = floatVariables.get(floatNames[slot]);
+                if (value == null) {
+                    return false;
+                }
+                floats[slot] = value;
+            }
+            for (int slot = 0; slot < stringNames.length; slot++) {
+                String value = stringVariables.get(stringNames[slot]);
+                if (value == null) {
+                    return false;
+                }
+                strings[slot] = value;
+            }
+            return true;
+        };
+    }
+
+    // Copies the slots the trace writes back into the Interpreter's variables
+    private Runnable store() {
+        Map<String, Integer> intVariables = interpreter.getAllIntVariables();
+        Map<String, Float> floatVariables = interpreter.getAllFloatVariables();
+        Map<String, String> stringVariables = interpreter.getAllStringVariables();
+        String[] intNames = writtenNames(this.intNames);
+        String[] floatNames = writtenNames(this.floatNames);
+        String[] stringNames = writtenNames(this.stringNames);
+        int[] intSlots = writtenSlots(intNames);
+        int[] floatSlots = writtenSlots(floatNames);
+        int[] stringSlots = writtenSlots(stringNames);
+        int[] ints = this.ints;
+        float[] floats = this.floats;
+        String[] strings = this.strings;
+        return () -> {
+            for (int i = 0; i < intNames.length; i++) {
+                intVariables.put(intNames[i], ints[intSlots[i]]);
+            }
+            for (int i = 0; i < floatNames.length; i++) {
+                floatVariables.put(floatNames[i], floats[floatSlots[i]]);
+            }
+            for (int i = 0; i < stringNames.length; i++) {
+                stringVariables.put(stringNames[i], strings[stringSlots[i]]);
+            }
+        };
+    }
+
+    private String[] writtenNames(List<String> names) {
+        List<String> result = new ArrayList<>();
+        for (String name : names) {
+            if (written.contains(name)) {
+                result.add(name);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    private int[] writtenSlots(String[] names) {
+        int[] result = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            result[i] = slots.get(names[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Compiles one recorded statement, or returns null if it does nothing once its jump is gone. A guard stores
+     * the statement to side-exit to in exit[0].
+     */
+    private Step statement(Entry entry, StatementNode[] exit) throws UntraceableException {
+        StatementNode statement = entry.statement;
+        if (statement instanceof LabeledStatementNode) {
+            LabeledStatementNode labeled = (LabeledStatementNode) statement;
+            if (interpreter.isWhileLabel(labeled.getLabel())) {
+                return pop();
+            }
+            return inPlace(labeled.getStatementNode());
+        } else if (statement instanceof IfNode) {
+            return branch((IfNode) statement, entry.successor, exit);
+        } else if (statement instanceof ForNode) {
+            return forLoop((ForNode) statement, entry.pushed, exit);
+        } else if (statement instanceof WhileNode) {
+            return whileLoop((WhileNode) statement, entry.pushed, exit);
+        } else if (statement instanceof GoSubNode) {
+            StatementNode returnPoint = statement.getNext();
+            return () -> {
+                stack.push(returnPoint);
+                return true;
+            };
+        } else if (statement instanceof ReturnNode || statement instanceof NextNode) {
+            // The frame was pushed earlier in the same iteration, so it is the one the Interpreter checked
+            return pop();
+        } else if (statement instanceof GoToNode || statement instanceof DataNode) {
+            return null;
+        }
+        return simple(statement);
+    }
+
+    private Step pop() {
+        return () -> {
+            stack.pop();
+            return true;
+        };
+    }
+
+    // A statement inside a label runs in place and never transfers control, not even an IF
+    private Step inPlace(StatementNode inner) throws UntraceableException {
+        if (inner == null || inner instanceof DataNode) {
+            return null;
+        } else if (inner instanceof IfNode) {
+            BooleanSupplier condition = condition((IfNode) inner);
+            return () -> {
+                condition.getAsBoolean();
+                return true;
+            };
+        }
+        return simple(inner);
+    }
+
+    private Step branch(IfNode ifNode, StatementNode successor, StatementNode[] exit) throws UntraceableException {
+        BooleanSupplier condition = condition(ifNode);
+        StatementNode target = labels.get(ifNode.getLabel());
+        if (target == ifNode.getNext()) {
+            // Both outcomes lead to the same statement, so there is nothing to guard
+            return () -> {
+                condition.getAsBoolean();
+                return true;
+            };
+        }
+        guards++;
+        if (successor == target) {
+            exit[0] = ifNode.getNext();
+            return condition::getAsBoolean;
+        }
+        exit[0] = target;
+        return () -> !condition.getAsBoolean();
+    }
+
+    private BooleanSupplier condition(IfNode ifNode) throws UntraceableException {
+        if (!(ifNode instanceof CompareBranchNode)) {
+            return compare(ifNode.getCondition());
+        }
+        CompareBranchNode compareBranch = (CompareBranchNode) ifNode;
+        BooleanExpressionNode.OPERATOR operator = compareBranch.getOperator();
+        BooleanSupplier compare;
+        if (compareBranch.isIntegerComparison()) {
+            compare = compareInts(operator, intOperand(compareBranch.getLeftOperand()),
+                    intOperand(compareBranch.getRightOperand()));
+        } else {
+            compare = compareFloats(operator, numericOperand(compareBranch.getLeftOperand()).asFloat(),
+                    numericOperand(compareBranch.getRightOperand()).asFloat());
+        }
+        return () -> {
+            compareBranch.recordFiring();
+            return compare.getAsBoolean();
+        };
+    }
+
+    private IntSupplier intOperand(Node operand) throws UntraceableException {
+        Value value = value(operand);
+        if (value.type != InterpreterDataType.INTEGER) {
+            throw new UntraceableException("an integer comparison has the operand " + operand);
+        }
+        return value.intValue;
+    }
+
+    private Value numericOperand(Node operand) throws UntraceableException {
+        Value value = value(operand);
+        if (!value.isNumeric()) {
+            throw new UntraceableException("a comparison has the string operand " + operand);
+        }
+        return value;
+    }
+
+    private Step forLoop(ForNode forNode, boolean recordedTaken, StatementNode[] exit) throws UntraceableException {
+        VariableNode variable = forNode.getVariable();
+        if (variable.getType() != InterpreterDataType.INTEGER) {
+            throw new UntraceableException("FOR counts with the non-integer variable " + variable.getName());
+        }
+        IntSupplier limit = intOperand(forNode.getLimit());
+        IntSupplier increment = intOperand(forNode.getIncrement());
+        StatementNode after = forNode;
+        while (!(after instanceof NextNode)) {
+            after = after.getNext();
+            if (after == null) {
+                throw new UntraceableException("a FOR loop has no NEXT");
+            }
+        }
+        guards++;
+        exit[0] = recordedTaken ? after.getNext() : forNode.getNext();
+        int slot = slots.get(variable.getName());
+        int[] ints = this.ints;
+        return () -> {
+            int counter = ints[slot];
+            int to = limit.getAsInt();
+            int step = increment.getAsInt();
+            if (counter < to) {
+                stack.push(forNode);
+                ints[slot] = counter + step;
+                return recordedTaken;
+            }
+            return !recordedTaken;
+        };
+    }
+
+    private Step whileLoop(WhileNode whileNode, boolean recordedTaken, StatementNode[] exit) throws UntraceableException {
+        BooleanSupplier condition = compare(whileNode.getCondition());
+        StatementNode end = whileNode;
+        while (!(end instanceof LabeledStatementNode && interpreter.isWhileLabel(((LabeledStatementNode) end).getLabel()))) {
+            end = end.getNext();
+            if (end == null) {
+                throw new UntraceableException("a WHILE loop has no end label");
+            }
+        }
+        guards++;
+        exit[0] = recordedTaken ? end.getNext() : whileNode.getNext();
+        return () -> {
+            if (condition.getAsBoolean()) {
+                stack.push(whileNode);
+                return recordedTaken;
+            }
+            return !recordedTaken;
+        };
+    }
+
+    // Statements that only evaluate expressions, store variables and print
+    private Step simple(StatementNode statement) throws UntraceableException {
+        if (statement instanceof IncrementNode) {
+            return increment((IncrementNode) statement);
+        } else if (statement instanceof ConversionAssignmentNode) {
+            return conversion((ConversionAssignmentNode) statement);
+        } else if (statement instanceof AssignmentNode) {
+            return assignment((AssignmentNode) statement);
+        } else if (statement instanceof PrintVariableNode) {
+            return printVariable((PrintVariableNode) statement);
+        } else if (statement instanceof PrintNode) {
+            return print((PrintNode) statement);
+        }
+        throw new UntraceableException(statement.getClass().getSimpleName() + " cannot be traced");
+    }
+
+    private Step increment(IncrementNode increment) throws UntraceableException {
+        VariableNode variable = increment.getVariableNode();
+        int slot = slots.get(variable.getName());
+        Number delta = increment.getDelta();
+        if (variable.getType() == InterpreterDataType.FLOAT && delta instanceof Float) {
+            float by = (Float) delta;
+            float[] floats = this.floats;
+            return () -> {
+                increment.recordFiring();
+                floats[slot] += by;
+                return true;
+            };
+        } else if (variable.getType() == InterpreterDataType.INTEGER && delta instanceof Integer) {
+            int by = (Integer) delta;
+            int[] ints = this.ints;
+            return () -> {
+                increment.recordFiring();
+                ints[slot] += by;
+                return true;
+            };
+        }
+        throw new UntraceableException("an increment of " + variable.getName() + " has the delta " + delta);
+    }
+
+    private Step conversion(ConversionAssignmentNode conversion) throws UntraceableException {
+        Supplier<Number> source = numericOperand(conversion.getSource()).asNumber();
+        VariableNode variable = conversion.getVariableNode();
+        InterpreterDataType type = conversion.getConversion() == BuiltInFunctions.FUNCTION.INT
+                ? InterpreterDataType.INTEGER : InterpreterDataType.FLOAT;
+        if (variable.getType() != type) {
+            throw new UntraceableException("a conversion stores into " + variable.getName());
+        }
+        int slot = slots.get(variable.getName());
+        int[] ints = this.ints;
+        float[] floats = this.floats;
+        switch (conversion.getConversion()) {
+            case INT:
+                return () -> {
+                    conversion.recordFiring();
+                    ints[slot] = BuiltInFunctions.INT(source.get());
+                    return true;
+                };
+            case FLOAT:
+                return () -> {
+                    conversion.recordFiring();
+                    floats[slot] = BuiltInFunctions.FLOAT(source.get());
+                    return true;
+                };
+            default:
+                return () -> {
+                    conversion.recordFiring();
+                    floats[slot] = BuiltInFunctions.TRUNCF(source.get());
+                    return true;
+                };
+        }
+    }
+
+    private Step assignment(AssignmentNode assignment) throws UntraceableException {
+        VariableNode variable = assignment.getVariableNode();
+        Value value = value(assignment.getValue());
+        if (value.type != variable.getType()) {
+            throw new UntraceableException(String.format("a %s is assigned to %s", value.type, variable.getName()));
+        }
+        int slot = slots.get(variable.getName());
+        switch (value.type) {
+            case INTEGER: {
+                int[] ints = this.ints;
+                IntSupplier intValue = value.intValue;
+                return () -> {
+                    ints[slot] = intValue.getAsInt();
+                    return true;
+                };
+            }
+            case FLOAT: {
+                float[] floats = this.floats;
+                FloatSupplier floatValue = value.floatValue;
+                return () -> {
+                    floats[slot] = floatValue.getAsFloat();
+                    return true;
+                };
+            }
+            default: {
+                String[] strings = this.strings;
+                Supplier<String> stringValue = value.stringValue;
+                return () -> {
+                    strings[slot] = stringValue.get();
+                    return true;
+                };
+            }
+        }
+    }
+
+    private Step print(PrintNode printNode) throws UntraceableException {
+        List<Supplier<String>> arguments = new ArrayList<>();
+        for (Node parameter : printNode.getParameters()) {
+            arguments.add(value(parameter).asText());
+        }
+        if (interpreter.isTestMode()) {
+            List<String> output = interpreter.getOutput();
+            return () -> {
+                for (Supplier<String> argument : arguments) {
+                    output.add(argument.get());
+                }
+                interpreter.endLine();
+                return true;
+            };
+        }
+        return () -> {
+            for (Supplier<String> argument : arguments) {
+                System.out.print(argument.get());
+            }
+            interpreter.endLine();
+            return true;
+        };
+    }
+
+    private Step printVariable(PrintVariableNode printVariable) throws UntraceableException {
+        Supplier<String> text = value(printVariable.getVariable()).asText();
+        if (interpreter.isTestMode()) {
+            List<String> output = interpreter.getOutput();
+            return () -> {
+                printVariable.recordFiring();
+                output.add(text.get());
+                return true;
+            };
+        }
+        return () -> {
+            printVariable.recordFiring();
+            System.out.println(text.get());
+            return true;
+        };
+    }
+
+    private Value value(Node node) throws UntraceableException {
+        node = Expressions.unwrap(node);
+        if (node instanceof IntegerNode) {
+            int constant = ((IntegerNode) node).getInt();
+            return Value.ofInt(() -> constant);
+        } else if (node instanceof FloatNode) {
+            float constant = ((FloatNode) node).getFloat();
+            return Value.ofFloat(() -> constant);
+        } else if (node instanceof StringNode) {
+            String constant = ((StringNode) node).getValue();
+            return Value.ofString(() -> constant);
+        } else if (node instanceof VariableNode) {
+            return variable((VariableNode) node);
+        } else if (node instanceof MathOpNode) {
+            MathOpNode mathOpNode = (MathOpNode) node;
+            return math(mathOpNode.getOperator(), value(mathOpNode.getLeft()), value(mathOpNode.getRight()));
+        } else if (node instanceof FunctionNode) {
+            return call((FunctionNode) node);
+        }
+        throw new UntraceableException("the expression " + node + " cannot be traced");
+    }
+
+    private Value variable(VariableNode variable) {
+        int slot = slots.get(variable.getName());
+        switch (variable.getType()) {
+            case INTEGER: {
+                int[] ints = this.ints;
+                return Value.ofInt(() -> ints[slot]);
+            }
+            case FLOAT: {
+                float[] floats = this.floats;
+                return Value.ofFloat(() -> floats[slot]);
+            }
+            default: {
+                String[] strings = this.strings;
+                return Value.ofString(() -> strings[slot]);
+            }
+        }
+    }
+
+    private Value math(MathOpNode.OPERATION operator, Value left, Value right) throws UntraceableException {
+        if (!left.isNumeric() || !right.isNumeric()) {
+            throw new UntraceableException("arithmetic on a string cannot be traced");
+        }
+        if (left.type == InterpreterDataType.INTEGER && right.type == InterpreterDataType.INTEGER) {
+            IntSupplier l = left.intValue;
+            IntSupplier r = right.intValue;
+            switch (operator) {
+                case ADD:
+                    return Value.ofInt(() -> l.getAsInt() + r.getAsInt());
+                case SUBTRACT:
+                    return Value.ofInt(() -> l.getAsInt() - r.getAsInt());
+                case MULTIPLY:
+                    return Value.ofInt(() -> l.getAsInt() * r.getAsInt());
+                case DIVIDE:
+                    return Value.ofInt(() -> l.getAsInt() / r.getAsInt());
+                case SHIFT_LEFT:
+                    return Value.ofInt(() -> l.getAsInt() << r.getAsInt());
+                case SHIFT_RIGHT:
+                    return Value.ofInt(() -> {
+                        int value = l.getAsInt();
+                        int shift = r.getAsInt();
+                        return (value + ((value >> 31) >>> (32 - shift))) >> shift;
+                    });
+                default:
+                    break;
+            }
+        } else {
+            FloatSupplier l = left.asFloat();
+            FloatSupplier r = right.asFloat();
+            switch (operator) {
+                case ADD:
+                    return Value.ofFloat(() -> l.getAsFloat() + r.getAsFloat());
+                case SUBTRACT:
+                    return Value.ofFloat(() -> l.getAsFloat() - r.getAsFloat());
+                case MULTIPLY:
+                    return Value.ofFloat(() -> l.getAsFloat() * r.getAsFloat());
+                case DIVIDE:
+                    return Value.ofFloat(() -> l.getAsFloat() / r.getAsFloat());
+                default:
+                    break;
+            }
+        }
+        throw new UntraceableException("the operation " + operator + " cannot be traced on its operand types");
+    }
+
+    private BooleanSupplier compare(BooleanExpressionNode condition) throws UntraceableException {
+        Value left = numericOperand(condition.getLeft());
+        Value right = numericOperand(condition.getRight());
+        if (left.type == InterpreterDataType.INTEGER && right.type == InterpreterDataType.INTEGER) {
+            return compareInts(condition.getOperator(), left.intValue, right.intValue);
+        }
+        return compareFloats(condition.getOperator(), left.asFloat(), right.asFloat());
+    }
+
+    private static BooleanSupplier compareInts(BooleanExpressionNode.OPERATOR operator, IntSupplier l, IntSupplier r) {
+        switch (operator) {
+            case LESSTHAN:
+                return () -> l.getAsInt() < r.getAsInt();
+            case LESSTHANEQUALTO:
+                return () -> l.getAsInt() <= r.getAsInt();
+            case GREATERTHAN:
+                return () -> l.getAsInt() > r.getAsInt();
+            case GREATERTHANEQUALTO:
+                return () -> l.getAsInt() >= r.getAsInt();
+            case NOTEQUALS:
+                return () -> l.getAsInt() != r.getAsInt();
+            default:
+                return () -> l.getAsInt() == r.getAsInt();
+        }
+    }
+
+    private static BooleanSupplier compareFloats(BooleanExpressionNode.OPERATOR operator, FloatSupplier l, FloatSupplier r) {
+        switch (operator) {
+            case LESSTHAN:
+                return () -> l.getAsFloat() < r.getAsFloat();
+            case LESSTHANEQUALTO:
+                return () -> l.getAsFloat() <= r.getAsFloat();
+            case GREATERTHAN:
+                return () -> l.getAsFloat() > r.getAsFloat();
+            case GREATERTHANEQUALTO:
+                return () -> l.getAsFloat() >= r.getAsFloat();
+            case NOTEQUALS:
+                return () -> l.getAsFloat() != r.getAsFloat();
+            default:
+                return () -> l.getAsFloat() == r.getAsFloat();
+        }
+    }
+
+    // A builtin call bound to the BuiltInFunctions method, with the arguments the Interpreter evaluates in order
+    private Value call(FunctionNode functionNode) throws UntraceableException {
+        BuiltInFunctions.FUNCTION function = functionNode.getFunctionName();
+        if (function == null || Expressions.typeOf(functionNode) == null) {
+            throw new UntraceableException("the call " + functionNode + " cannot be traced");
+        }
+        List<Node> parameters = functionNode.getParameters();
+        switch (function) {
+            case RANDOM: {
+                if (parameters.isEmpty()) {
+                    return Value.ofInt(BuiltInFunctions::RANDOM);
+                }
+                IntSupplier min = value(parameters.get(0)).intValue;
+                IntSupplier max = value(parameters.get(1)).intValue;
+                return Value.ofInt(() -> BuiltInFunctions.RANDOM(min.getAsInt(), max.getAsInt()));
+            }
+            case RANDOMF: {
+                if (parameters.isEmpty()) {
+                    return Value.ofFloat(BuiltInFunctions::RANDOMF);
+                }
+                FloatSupplier min = value(parameters.get(0)).floatValue;
+                FloatSupplier max = value(parameters.get(1)).floatValue;
+                return Value.ofFloat(() -> BuiltInFunctions.RANDOMF(min.getAsFloat(), max.getAsFloat()));
+            }
+            case LEFT$:
+            case RIGHT$: {
+                Supplier<String> str = value(parameters.get(0)).stringValue;
+                IntSupplier n = value(parameters.get(1)).intValue;
+                if (function == BuiltInFunctions.FUNCTION.LEFT$) {
+                    return Value.ofString(() -> BuiltInFunctions.LEFT$(str.get(), n.getAsInt()));
+                }
+                return Value.ofString(() -> BuiltInFunctions.RIGHT$(str.get(), n.getAsInt()));
+            }
+            case MID$: {
+                Supplier<String> str = value(parameters.get(0)).stringValue;
+                IntSupplier start = value(parameters.get(1)).intValue;
+                IntSupplier count = value(parameters.get(2)).intValue;
+                return Value.ofString(() -> BuiltInFunctions.MID$(str.get(), start.getAsInt(), count.getAsInt()));
+            }
+            case NUM$: {
+                Supplier<Number> n = value(parameters.get(0)).asNumber();
+                return Value.ofString(() -> BuiltInFunctions.NUM$(n.get()));
+            }
+            case VAL: {
+                Supplier<String> str = value(parameters.get(0)).stringValue;
+                return Value.ofInt(() -> BuiltInFunctions.VAL(str.get()));
+            }
+            case VALF: {
+                Supplier<String> str = value(parameters.get(0)).stringValue;
+                return Value.ofFloat(() -> BuiltInFunctions.VALF(str.get()));
+            }
+            case POW: {
+                IntSupplier a = value(parameters.get(0)).intValue;
+                IntSupplier b = value(parameters.get(1)).intValue;
+                return Value.ofInt(() -> BuiltInFunctions.POW(a.getAsInt(), b.getAsInt()));
+            }
+            case POWF: {
+                FloatSupplier a = value(parameters.get(0)).floatValue;
+                FloatSupplier b = value(parameters.get(1)).floatValue;
+                return Value.ofFloat(() -> BuiltInFunctions.POWF(a.getAsFloat(), b.getAsFloat()));
+            }
+            case INT: {
+                Supplier<Number> n = value(parameters.get(0)).asNumber();
+                return Value.ofInt(() -> BuiltInFunctions.INT(n.get()));
+            }
+            case FLOAT: {
+                Supplier<Number> n = value(parameters.get(0)).asNumber();
+                return Value.ofFloat(() -> BuiltInFunctions.FLOAT(n.get()));
+            }
+            default: {
+                Supplier<Number> n = value(parameters.get(0)).asNumber();
+                return Value.ofFloat(() -> BuiltInFunctions.TRUNCF(n.get()));
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package interpreter;
+
+import node.*;
+
+import java.util.*;
+
+/**
+ * An Interpreter that compiles the paths its hot loops actually take. It counts every backward jump: an IF or
+ * GOTO to an earlier label, a NEXT going back to its FOR and a WHILE end label going back to its WHILE. When the
+ * jumps to one statement cross the threshold, that statement becomes the anchor of a trace and the next iteration
+ * is recorded as the Interpreter runs it: each statement, where it went next and whether it pushed a frame. The
+ * iteration ends when the program comes back round to the anchor, and the TraceCompiler turns it into a Trace.
+ * From then on, reaching the anchor runs the trace instead, and the trace hands the program back whenever the
+ * path it takes leaves the recorded one. A trace that leaves its path more often than it goes round it was
+ * recorded on an unusual iteration; it is discarded and the loop recorded again, up to MAX_RECORDINGS times.
+ *
+ * A loop whose source is a tangle of GOTOs, IFs and GOSUBs but which goes the same way each time round becomes one
+ * straight line: the jumps, the label lookups and the dispatch on statements and value types are all gone. A
+ * recording is given up, and the anchor left to the Interpreter for good, if the iteration runs something a trace
+ * cannot reproduce, returns from a subroutine it did not enter, goes round an inner loop, runs longer than
+ * MAX_TRACE_LENGTH statements or ends the program. While recording, a jump backwards is only an inner loop if it
+ * comes back to a statement the iteration already ran; inner loops get hot first and get traces of their own.
+ */
+public class TracingInterpreter extends Interpreter {
+
+    public static final int DEFAULT_THRESHOLD = 50;
+
+    // The most statements one recorded iteration may run
+    public static final int MAX_TRACE_LENGTH = 1000;
+
+    // The most times one loop is recorded, counting the recordings of traces that were discarded for going astray
+    public static final int MAX_RECORDINGS = 4;
+
+    // The iteration being recorded: its anchor, the stack depth it started at and the statements it has run
+    private static final class Recording {
+        private final StatementNode anchor;
+        private final int depth;
+        private final List<TraceCompiler.Entry> entries = new ArrayList<>();
+        private final Set<StatementNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private Recording(StatementNode anchor, int depth) {
+            this.anchor = anchor;
+            this.depth = depth;
+        }
+    }
+
+    private final ProgramNode programNode;
+    private final Map<StatementNode, Integer> index = new IdentityHashMap<>();
+    private final Map<StatementNode, Integer> backwardJumps = new IdentityHashMap<>();
+    private final Map<StatementNode, Integer> recordings = new IdentityHashMap<>();
+    private final Map<StatementNode, Trace> anchors = new IdentityHashMap<>();
+    private final Set<StatementNode> untraceable = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<Trace> traces = new ArrayList<>();
+    private final List<String> abortedTraces = new ArrayList<>();
+    private int threshold = DEFAULT_THRESHOLD;
+
+    public TracingInterpreter(ProgramNode programNode) {
+        super(programNode);
+        this.programNode = programNode;
+    }
+
+    // How many backward jumps to a statement it takes before the next iteration from it is recorded
+    public void setThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Trace threshold must be at least 1");
+        }
+        this.threshold = threshold;
+    }
+
+    // The traces compiled while the program ran, in the order they were recorded, discarded ones included
+    public List<Trace> getTraces() {
+        return traces;
+    }
+
+    // Why each recording that did not become a trace was given up, one line per anchor
+    public List<String> getAbortedTraces() {
+        return abortedTraces;
+    }
+
+    @Override
+    public void interpret() {
+        index.clear();
+        backwardJumps.clear();
+        recordings.clear();
+        anchors.clear();
+        untraceable.clear();
+        traces.clear();
+        abortedTraces.clear();
+        List<StatementNode> statements = programNode.getStatements();
+        for (int i = 0; i < statements.size(); i++) {
+            index.put(statements.get(i), i);
+        }
+
+        start();
+        Recording recording = null;
+        while (isRunning()) {
+            StatementNode current = getCurrent();
+            Trace trace = recording == null ? anchors.get(current) : null;
+            if (trace != null && trace.enter()) {
+                setCurrent(trace.run());
+                if (astray(trace) && recordings.get(current) < MAX_RECORDINGS) {
+                    // The loop has settled on another path; count it afresh and record the path it takes now
+                    anchors.remove(current);
+                    backwardJumps.remove(current);
+                }
+                continue;
+            }
+            boolean definesCounter = recording != null && current instanceof ForNode
+                    && !getAllIntVariables().containsKey(((ForNode) current).getVariable().getName());
+            int depth = getStackDepth();
+            step();
+            StatementNode next = getCurrent();
+            if (recording != null) {
+                recording = record(recording, current, next, depth, definesCounter);
+            } else if (isBackwardJump(current, next) && !anchors.containsKey(next) && !untraceable.contains(next)) {
+                int count = backwardJumps.merge(next, 1, Integer::sum);
+                if (count >= threshold) {
+                    recordings.merge(next, 1, Integer::sum);
+                    recording = new Recording(next, getStackDepth());
+                }
+            }
+        }
+    }
+
+    // Adds the statement just run to the recording; returns the recording, or null once it is compiled or given up
+    private Recording record(Recording recording, StatementNode current, StatementNode next, int depth,
+                             boolean definesCounter) {
+        int after = getStackDepth();
+        if (!index.containsKey(current)) {
+            return abort(recording, "it runs a loop nested in a label");
+        } else if (definesCounter) {
+            return abort(recording, "a FOR defines its counter");
+        } else if (after < recording.depth) {
+            return abort(recording, "it returns from a subroutine it did not enter");
+        } else if (!isRunning()) {
+            return abort(recording, "the program ends");
+        } else if (recording.entries.size() >= MAX_TRACE_LENGTH) {
+            return abort(recording, "it runs more than " + MAX_TRACE_LENGTH + " statements");
+        }
+        recording.entries.add(new TraceCompiler.Entry(current, next, after > depth));
+        recording.visited.add(current);
+        if (next == recording.anchor) {
+            if (after != recording.depth) {
+                return abort(recording, "it leaves frames on the stack");
+            }
+            try {
+                Trace trace = TraceCompiler.compile(this, describe(next), recording.entries);
+                anchors.put(next, trace);
+                traces.add(trace);
+            } catch (UntraceableException e) {
+                return abort(recording, e.getMessage());
+            }
+            return null;
+        } else if (recording.visited.contains(next)) {
+            return abort(recording, "it goes round an inner loop at " + describe(next));
+        }
+        return recording;
+    }
+
+    // True once a trace has left its path at least threshold times, and more often than it went all the way round
+    private boolean astray(Trace trace) {
+        return trace.getSideExits() >= threshold && trace.getSideExits() > trace.getIterations();
+    }
+
+    private Recording abort(Recording recording, String reason) {
+        untraceable.add(recording.anchor);
+        abortedTraces.add(describe(recording.anchor) + ": " + reason);
+        return null;
+    }
+
+    // A jump back to a statement at or before the one that made it; GOSUB and RETURN are calls, not loops
+    private boolean isBackwardJump(StatementNode from, StatementNode to) {
+        if (from instanceof GoSubNode || from instanceof ReturnNode) {
+            return false;
+        }
+        Integer source = index.get(from);
+        Integer target = to == null ? null : index.get(to);
+        return source != null && target != null && target <= source;
+    }
+
+    private String describe(StatementNode statement) {
+        if (statement instanceof LabeledStatementNode) {
+            return "label '" + ((LabeledStatementNode) statement).getLabel() + "'";
+        }
+        return "statement " + index.get(statement);
+    }
+}
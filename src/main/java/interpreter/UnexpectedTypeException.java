@@ -0,0 +1,22 @@
+package interpreter;
+
+/**
+ * Thrown by a specialized expression asked for a typed result it cannot produce: the guard it was built on no
+ * longer holds. It carries the value that was actually computed, so the caller can deoptimize and carry on
+ * without evaluating anything twice. It is thrown only on that slow path and carries no stack trace.
+ */
+final class UnexpectedTypeException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Object value;
+
+    UnexpectedTypeException(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+
+    Object getValue() {
+        return value;
+    }
+}
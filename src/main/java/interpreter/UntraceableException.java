@@ -0,0 +1,15 @@
+package interpreter;
+
+/**
+ * Thrown by the TraceCompiler when a recorded iteration runs something a trace cannot reproduce exactly, such as
+ * INPUT or an expression the Interpreter would reject. The message says what it was; the loop stays interpreted.
+ * It carries no stack trace.
+ */
+final class UntraceableException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    UntraceableException(String message) {
+        super(message, null, false, false);
+    }
+}
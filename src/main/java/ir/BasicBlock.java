@@ -0,0 +1,108 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A maximal run of statements entered only at its first statement: phis, straight-line operations and a
+ * terminator. Blocks are kept in program order because FOR and WHILE find their exits by scanning forward.
+ */
+public class BasicBlock {
+
+    private final int id;
+    private final String label;
+    private final boolean reachable;
+    private final List<Phi> phis = new ArrayList<>();
+    private final List<Operation> operations = new ArrayList<>();
+    private final List<BasicBlock> predecessors = new ArrayList<>();
+    private Terminator terminator;
+    private int sourceStart = -1;
+    private int sourceEnd = -1;
+
+    public BasicBlock(int id, String label, boolean reachable) {
+        this.id = id;
+        this.label = label;
+        this.reachable = reachable;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    // The source label that starts this block, or null
+    public String getLabel() {
+        return label;
+    }
+
+    // Unreachable blocks are kept for lowering but have no edges and take no part in the analyses
+    public boolean isReachable() {
+        return reachable;
+    }
+
+    // Index of the first statement of the source program in this block, or -1 for a block the builder added
+    public int getSourceStart() {
+        return sourceStart;
+    }
+
+    // Index of the last statement of the source program in this block, or -1 for a block the builder added
+    public int getSourceEnd() {
+        return sourceEnd;
+    }
+
+    void setSourceRange(int start, int end) {
+        this.sourceStart = start;
+        this.sourceEnd = end;
+    }
+
+    public List<Phi> getPhis() {
+        return phis;
+    }
+
+    public void addPhi(Phi phi) {
+        phi.setBlock(this);
+        phis.add(phi);
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    public void addOperation(Operation operation) {
+        operation.setBlock(this);
+        operations.add(operation);
+    }
+
+    public Terminator getTerminator() {
+        return terminator;
+    }
+
+    public void setTerminator(Terminator terminator) {
+        terminator.setBlock(this);
+        this.terminator = terminator;
+    }
+
+    public List<BasicBlock> getSuccessors() {
+        return terminator.getSuccessors();
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    // Phis, operations and the terminator in execution order
+    public List<Instruction> getInstructions() {
+        List<Instruction> instructions = new ArrayList<>(phis);
+        instructions.addAll(operations);
+        instructions.add(terminator);
+        return instructions;
+    }
+
+    public String getName() {
+        return "B" + id;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
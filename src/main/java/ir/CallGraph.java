@@ -0,0 +1,178 @@
+package ir;
+
+import node.*;
+import optimizer.ProgramIndex;
+
+import java.util.*;
+
+/**
+ * The GOSUB call graph of a program. Each routine is the main program or a label some GOSUB calls, and its
+ * callees are the labels called by the GOSUBs reachable from its entry without returning. Labeled GOSUBs are
+ * not calls, the Interpreter runs them as no-ops.
+ *
+ * For programs without recursion the graph also bounds the depth of the Interpreter's runtime stack, which
+ * holds FOR and WHILE frames as well as return points. The bound comes from running the stack discipline on
+ * abstract states: a program that leaks no frames never holds the same push site twice, so any state deeper than
+ * the number of push sites proves a leak, such as a GOTO out of a FOR loop that is entered again. Every engine
+ * sizes its stack from the bound before it runs a program, so the search gives up after MAX_BOUND_STATES states
+ * and leaves the depth unknown rather than hold up the run; maxStackDepth() also keeps the bound with the program.
+ */
+public final class CallGraph {
+
+    // The routine that starts at the first statement
+    public static final String MAIN = "<main>";
+
+    // The most stack states the bound explores; each state costs about as much as running a few statements
+    public static final int MAX_BOUND_STATES = 2_000;
+
+    private final Map<String, Set<String>> callees = new LinkedHashMap<>();
+    private final Set<String> recursive = new TreeSet<>();
+    private int maxStackDepth = -1;
+
+    private CallGraph() {}
+
+    /**
+     * The bound getMaxStackDepth() reports, computed once for the program's current statements and kept with the
+     * program, so every engine and every run after the first gets it for free. A pass that changes the statements
+     * makes the program compute it again.
+     */
+    public static int maxStackDepth(ProgramNode programNode) {
+        synchronized (programNode) {
+            Integer cached = programNode.getMaxStackDepth();
+            if (cached != null) {
+                return cached;
+            }
+            // A recursive program leaks frames past the number of push sites, so the bound alone finds it
+            int maxStackDepth = boundStackDepth(new ProgramIndex(programNode.getStatements()));
+            programNode.setMaxStackDepth(maxStackDepth);
+            return maxStackDepth;
+        }
+    }
+
+    public static CallGraph build(ProgramNode programNode) {
+        ProgramIndex index = new ProgramIndex(programNode.getStatements());
+        CallGraph graph = new CallGraph();
+        Deque<String> work = new ArrayDeque<>(List.of(MAIN));
+        while (!work.isEmpty()) {
+            String routine = work.pop();
+            if (graph.callees.containsKey(routine)) {
+                continue;
+            }
+            int entry = routine.equals(MAIN) ? (index.size() == 0 ? -1 : 0) : index.indexOf(routine);
+            Set<String> called = graph.calls(index, entry);
+            graph.callees.put(routine, called);
+            work.addAll(called);
+        }
+        for (String routine : graph.callees.keySet()) {
+            if (graph.reaches(routine, routine)) {
+                graph.recursive.add(routine);
+            }
+        }
+        if (graph.recursive.isEmpty()) {
+            graph.maxStackDepth = boundStackDepth(index);
+        }
+        return graph;
+    }
+
+    // The labels called by GOSUBs reachable from the entry, stepping over each call to its return point
+    private Set<String> calls(ProgramIndex index, int entry) {
+        Set<String> called = new TreeSet<>();
+        Set<Integer> visited = new HashSet<>();
+        Deque<Integer> work = new ArrayDeque<>();
+        if (entry >= 0) {
+            work.push(entry);
+        }
+        while (!work.isEmpty()) {
+            int current = work.pop();
+            if (!visited.add(current)) {
+                continue;
+            }
+            StatementNode statement = index.get(current);
+            if (statement instanceof GoSubNode) {
+                String label = ((GoSubNode) statement).getLabel();
+                // A GOSUB to a missing label ends the program
+                if (index.indexOf(label) >= 0) {
+                    called.add(label);
+                    if (current + 1 < index.size()) {
+                        work.push(current + 1);
+                    }
+                }
+                continue;
+            }
+            for (int successor : index.successors(current)) {
+                // A FOR that exits past the last statement ends the program
+                if (successor < index.size()) {
+                    work.push(successor);
+                }
+            }
+        }
+        return called;
+    }
+
+    private boolean reaches(String from, String to) {
+        Set<String> visited = new HashSet<>();
+        Deque<String> work = new ArrayDeque<>(callees.getOrDefault(from, Set.of()));
+        while (!work.isEmpty()) {
+            String routine = work.pop();
+            if (routine.equals(to)) {
+                return true;
+            }
+            if (visited.add(routine)) {
+                work.addAll(callees.getOrDefault(routine, Set.of()));
+            }
+        }
+        return false;
+    }
+
+    private static int boundStackDepth(ProgramIndex index) {
+        int pushSites = 0;
+        for (StatementNode statement : index.getStatements()) {
+            // A labeled GOSUB, FOR, WHILE, RETURN or NEXT still pushes or pops, but control carries on past it
+            if (statement instanceof LabeledStatementNode && isStackOperation(((LabeledStatementNode) statement).getStatementNode())) {
+                return -1;
+            }
+            if (statement instanceof GoSubNode || statement instanceof ForNode || statement instanceof WhileNode) {
+                pushSites++;
+            }
+        }
+        StackSimulation simulation = new StackSimulation(index, pushSites, MAX_BOUND_STATES);
+        try {
+            simulation.run();
+        } catch (IllegalArgumentException e) {
+            // Too many stack states to explore; leave the depth unknown
+            return -1;
+        }
+        return simulation.isTruncated() ? -1 : simulation.getDeepest();
+    }
+
+    private static boolean isStackOperation(StatementNode statement) {
+        return statement instanceof GoSubNode || statement instanceof ForNode || statement instanceof WhileNode
+                || statement instanceof ReturnNode || statement instanceof NextNode;
+    }
+
+    // Every routine reachable from the main program, starting with MAIN
+    public Set<String> getRoutines() {
+        return Collections.unmodifiableSet(callees.keySet());
+    }
+
+    public Set<String> getCallees(String routine) {
+        return callees.getOrDefault(routine, Set.of());
+    }
+
+    // The routines that can call themselves, directly or through other routines
+    public Set<String> getRecursiveRoutines() {
+        return Collections.unmodifiableSet(recursive);
+    }
+
+    public boolean isRecursive() {
+        return !recursive.isEmpty();
+    }
+
+    /**
+     * @return the most GOSUB, FOR and WHILE frames the runtime stack can hold at once, or -1 if the program
+     * recurses, leaks frames, or is too irregular to bound
+     */
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+}
@@ -0,0 +1,209 @@
+package ir;
+
+import node.*;
+import optimizer.ProgramIndex;
+import optimizer.Statements;
+
+import java.util.*;
+
+/**
+ * A program lowered to basic blocks with explicit edges. Blocks are in program order; the first block is the
+ * entry. Build one with build(), optionally convert it with SsaConstruction, and turn it back into a runnable
+ * ProgramNode with IRLowering.
+ */
+public class ControlFlowGraph {
+
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private boolean ssa = false;
+
+    private ControlFlowGraph() {}
+
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.isEmpty() ? null : blocks.get(0);
+    }
+
+    // True once SsaConstruction has bound every use to a value
+    public boolean isSsa() {
+        return ssa;
+    }
+
+    void setSsa(boolean ssa) {
+        this.ssa = ssa;
+    }
+
+    public List<BasicBlock> getReachableBlocks() {
+        List<BasicBlock> reachable = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            if (block.isReachable()) {
+                reachable.add(block);
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * Recomputes every block's predecessor list from the terminators' successors. Call it after changing edges.
+     */
+    public void linkPredecessors() {
+        for (BasicBlock block : blocks) {
+            block.getPredecessors().clear();
+        }
+        for (BasicBlock block : blocks) {
+            for (BasicBlock successor : block.getSuccessors()) {
+                if (!successor.getPredecessors().contains(block)) {
+                    successor.getPredecessors().add(block);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the program into basic blocks and resolves every control transfer, including the ones decided
+     * by the runtime stack, into edges.
+     *
+     * @throws IllegalArgumentException if a label wraps a control statement other than END, since the
+     *                                  Interpreter runs those for their side effects only and discards the jump
+     */
+    public static ControlFlowGraph build(ProgramNode programNode) {
+        List<StatementNode> statements = programNode.getStatements();
+        ProgramIndex index = new ProgramIndex(statements);
+        for (int i = 0; i < statements.size(); i++) {
+            StatementNode statement = statements.get(i);
+            if (statement instanceof LabeledStatementNode && !index.isWhileLabel(i)) {
+                StatementNode inner = ((LabeledStatementNode) statement).getStatementNode();
+                if (Statements.isControl(inner) && !(inner instanceof EndNode)) {
+                    throw new IllegalArgumentException(String.format("Cannot build a control flow graph for labeled control statement: %s", statement));
+                }
+            }
+        }
+        Map<Integer, Set<Integer>> successors = new StackSimulation(index).run();
+
+        // A block starts at the first statement, every label, every loop header, every jump or resume
+        // target, and after every control statement
+        TreeSet<Integer> leaders = new TreeSet<>();
+        if (!statements.isEmpty()) {
+            leaders.add(0);
+        }
+        for (int i = 0; i < statements.size(); i++) {
+            StatementNode statement = statements.get(i);
+            if (statement instanceof LabeledStatementNode || statement instanceof ForNode || statement instanceof WhileNode) {
+                leaders.add(i);
+            }
+            if (isTerminator(index, i) && i + 1 < statements.size()) {
+                leaders.add(i + 1);
+            }
+            for (int successor : successors.getOrDefault(i, Collections.emptySet())) {
+                if (successor != i + 1) {
+                    leaders.add(successor);
+                }
+            }
+        }
+
+        ControlFlowGraph graph = new ControlFlowGraph();
+        Map<Integer, BasicBlock> blockAt = new HashMap<>();
+        Map<BasicBlock, Integer> lastStatement = new HashMap<>();
+        // Phi placement needs an entry block without predecessors; add an empty one if the first statement is a target
+        BasicBlock preheader = null;
+        if (successors.values().stream().anyMatch(targets -> targets.contains(0))) {
+            preheader = new BasicBlock(0, null, true);
+            preheader.setTerminator(new Terminator(Terminator.KIND.FALLTHROUGH, null));
+            graph.blocks.add(preheader);
+        }
+        for (int leader : leaders) {
+            Integer end = leaders.higher(leader);
+            int last = (end == null ? statements.size() : end) - 1;
+            StatementNode first = statements.get(leader);
+            String label = first instanceof LabeledStatementNode ? ((LabeledStatementNode) first).getLabel() : null;
+            BasicBlock block = new BasicBlock(graph.blocks.size(), label, successors.containsKey(leader));
+            block.setSourceRange(leader, last);
+            for (int i = leader; i <= last; i++) {
+                StatementNode statement = statements.get(i);
+                if (i == last && isTerminator(index, i)) {
+                    block.setTerminator(terminatorFor(index, i));
+                    continue;
+                }
+                if (statement instanceof LabeledStatementNode) {
+                    // Labeled DATA is never queued by the Interpreter, so only a plain statement survives the label
+                    statement = ((LabeledStatementNode) statement).getStatementNode();
+                    if (statement == null || statement instanceof DataNode) {
+                        continue;
+                    }
+                }
+                block.addOperation(new Operation(statement));
+            }
+            if (block.getTerminator() == null) {
+                block.setTerminator(new Terminator(Terminator.KIND.FALLTHROUGH, null));
+            }
+            graph.blocks.add(block);
+            blockAt.put(leader, block);
+            lastStatement.put(block, last);
+        }
+        if (preheader != null) {
+            preheader.getTerminator().getSuccessors().add(blockAt.get(0));
+        }
+
+        for (BasicBlock block : graph.blocks) {
+            Terminator terminator = block.getTerminator();
+            StatementNode statement = terminator.getStatement();
+            String label = ProgramIndex.jumpLabel(statement);
+            if (label != null && index.indexOf(label) >= 0) {
+                terminator.setTarget(blockAt.get(index.indexOf(label)));
+            }
+            if (!block.isReachable() || block == preheader) {
+                continue;
+            }
+            int last = lastStatement.get(block);
+            // Keep the body before the exit so lowering and printing can tell them apart
+            List<Integer> targets = new ArrayList<>(successors.getOrDefault(last, Collections.emptySet()));
+            if (terminator.getKind() == Terminator.KIND.BRANCH || terminator.getKind() == Terminator.KIND.FOR
+                    || terminator.getKind() == Terminator.KIND.WHILE) {
+                targets.sort(Comparator.comparing(target -> target != last + 1));
+                if (terminator.getKind() == Terminator.KIND.BRANCH) {
+                    Collections.reverse(targets);
+                }
+            }
+            for (int target : targets) {
+                terminator.getSuccessors().add(blockAt.get(target));
+            }
+        }
+        graph.linkPredecessors();
+        return graph;
+    }
+
+    private static boolean isTerminator(ProgramIndex index, int i) {
+        StatementNode statement = index.get(i);
+        if (statement instanceof LabeledStatementNode) {
+            return index.isWhileLabel(i) || ((LabeledStatementNode) statement).getStatementNode() instanceof EndNode;
+        }
+        return Statements.isControl(statement);
+    }
+
+    private static Terminator terminatorFor(ProgramIndex index, int i) {
+        StatementNode statement = index.get(i);
+        Terminator.KIND kind;
+        if (index.isWhileLabel(i)) {
+            kind = Terminator.KIND.WHILE_END;
+        } else if (statement instanceof LabeledStatementNode || statement instanceof EndNode) {
+            kind = Terminator.KIND.END;
+        } else if (statement instanceof GoToNode) {
+            kind = Terminator.KIND.JUMP;
+        } else if (statement instanceof IfNode) {
+            kind = Terminator.KIND.BRANCH;
+        } else if (statement instanceof GoSubNode) {
+            kind = Terminator.KIND.GOSUB;
+        } else if (statement instanceof ReturnNode) {
+            kind = Terminator.KIND.RETURN;
+        } else if (statement instanceof NextNode) {
+            kind = Terminator.KIND.NEXT;
+        } else if (statement instanceof ForNode) {
+            kind = Terminator.KIND.FOR;
+        } else {
+            kind = Terminator.KIND.WHILE;
+        }
+        return new Terminator(kind, statement);
+    }
+}
@@ -0,0 +1,136 @@
+package ir;
+
+import java.util.*;
+
+/**
+ * Immediate dominators and dominance frontiers of the reachable blocks, computed with the iterative algorithm
+ * of Cooper, Harvey and Kennedy over a reverse postorder.
+ */
+public class DominatorTree {
+
+    private final List<BasicBlock> reversePostorder = new ArrayList<>();
+    private final Map<BasicBlock, Integer> order = new HashMap<>();
+    private final Map<BasicBlock, BasicBlock> idom = new HashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> children = new HashMap<>();
+    private final Map<BasicBlock, Set<BasicBlock>> frontiers = new HashMap<>();
+
+    public DominatorTree(ControlFlowGraph graph) {
+        BasicBlock entry = graph.getEntry();
+        if (entry == null) {
+            return;
+        }
+        computeReversePostorder(entry);
+        for (int i = 0; i < reversePostorder.size(); i++) {
+            order.put(reversePostorder.get(i), i);
+        }
+
+        idom.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : reversePostorder.subList(1, reversePostorder.size())) {
+                BasicBlock newIdom = null;
+                for (BasicBlock predecessor : block.getPredecessors()) {
+                    if (idom.containsKey(predecessor)) {
+                        newIdom = newIdom == null ? predecessor : intersect(predecessor, newIdom);
+                    }
+                }
+                if (newIdom != idom.get(block)) {
+                    idom.put(block, newIdom);
+                    changed = true;
+                }
+            }
+        }
+
+        for (BasicBlock block : reversePostorder) {
+            children.put(block, new ArrayList<>());
+            frontiers.put(block, new LinkedHashSet<>());
+        }
+        for (BasicBlock block : reversePostorder.subList(1, reversePostorder.size())) {
+            children.get(idom.get(block)).add(block);
+        }
+        for (BasicBlock block : reversePostorder) {
+            if (block.getPredecessors().size() < 2) {
+                continue;
+            }
+            for (BasicBlock predecessor : block.getPredecessors()) {
+                BasicBlock runner = predecessor;
+                while (order.containsKey(runner) && runner != idom.get(block)) {
+                    frontiers.get(runner).add(block);
+                    runner = idom.get(runner);
+                }
+            }
+        }
+    }
+
+    private void computeReversePostorder(BasicBlock entry) {
+        // Iterative depth-first search; long programs would overflow a recursive one
+        Set<BasicBlock> visited = new HashSet<>();
+        Deque<Iterator<BasicBlock>> stack = new ArrayDeque<>();
+        Deque<BasicBlock> path = new ArrayDeque<>();
+        visited.add(entry);
+        stack.push(entry.getSuccessors().iterator());
+        path.push(entry);
+        while (!stack.isEmpty()) {
+            Iterator<BasicBlock> successors = stack.peek();
+            if (successors.hasNext()) {
+                BasicBlock successor = successors.next();
+                if (visited.add(successor)) {
+                    stack.push(successor.getSuccessors().iterator());
+                    path.push(successor);
+                }
+            } else {
+                stack.pop();
+                reversePostorder.add(path.pop());
+            }
+        }
+        Collections.reverse(reversePostorder);
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b) {
+        while (a != b) {
+            while (order.get(a) > order.get(b)) {
+                a = idom.get(a);
+            }
+            while (order.get(b) > order.get(a)) {
+                b = idom.get(b);
+            }
+        }
+        return a;
+    }
+
+    // Blocks reachable from the entry, each one before its successors except along back edges
+    public List<BasicBlock> getReversePostorder() {
+        return reversePostorder;
+    }
+
+    // The immediate dominator, or null for the entry and unreachable blocks
+    public BasicBlock getImmediateDominator(BasicBlock block) {
+        BasicBlock dominator = idom.get(block);
+        return dominator == block ? null : dominator;
+    }
+
+    public List<BasicBlock> getChildren(BasicBlock block) {
+        return children.getOrDefault(block, Collections.emptyList());
+    }
+
+    public Set<BasicBlock> getFrontier(BasicBlock block) {
+        return frontiers.getOrDefault(block, Collections.emptySet());
+    }
+
+    // True if every path from the entry to b passes through a; every block dominates itself
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        if (!order.containsKey(a) || !order.containsKey(b)) {
+            return false;
+        }
+        BasicBlock runner = b;
+        while (runner != a) {
+            BasicBlock next = idom.get(runner);
+            if (next == runner) {
+                return false;
+            }
+            runner = next;
+        }
+        return true;
+    }
+}
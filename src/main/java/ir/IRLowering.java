@@ -0,0 +1,148 @@
+package ir;
+
+import node.*;
+import optimizer.ProgramIndex;
+import optimizer.Statements;
+
+import java.util.*;
+
+/**
+ * Turns a control flow graph back into a ProgramNode the Interpreter can run. Blocks are emitted in program
+ * order, so FOR and WHILE keep finding their exits by scanning forward. Jumps are rebuilt from the terminators'
+ * targets, and a block that does not fall through to the next block in order gets an explicit GOTO.
+ *
+ * SSA versions are erased: every value is stored back into its source variable and phis disappear. That is only
+ * correct while no two versions of a variable are live at once, which holds straight after construction and
+ * for passes that only substitute constants or delete code; lowering checks it and refuses otherwise.
+ */
+public final class IRLowering {
+
+    private static final String BLOCK_LABEL_PREFIX = "_bb";
+
+    private IRLowering() {}
+
+    public static ProgramNode lower(ControlFlowGraph graph) {
+        if (graph.isSsa()) {
+            checkNoInterference(graph);
+        }
+        List<BasicBlock> blocks = graph.getBlocks();
+        Map<BasicBlock, String> labels = new HashMap<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+            if (block.getLabel() != null) {
+                labels.put(block, block.getLabel());
+            }
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            Terminator terminator = blocks.get(i).getTerminator();
+            if (terminator.getTarget() != null) {
+                labels.computeIfAbsent(terminator.getTarget(), IRLowering::blockLabel);
+            }
+            BasicBlock next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            if (terminator.getKind() == Terminator.KIND.FALLTHROUGH && !terminator.getSuccessors().isEmpty()
+                    && terminator.getSuccessors().get(0) != next) {
+                labels.computeIfAbsent(terminator.getSuccessors().get(0), IRLowering::blockLabel);
+            }
+        }
+
+        StatementsNode statements = new StatementsNode();
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+            BasicBlock next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            Terminator terminator = block.getTerminator();
+            if (labels.containsKey(block)) {
+                statements.addStatement(new LabeledStatementNode(labels.get(block), null));
+            }
+            for (Operation operation : block.getOperations()) {
+                statements.addStatement(Statements.copy(operation.getStatement()));
+            }
+            StatementNode statement = terminator.getStatement();
+            switch (terminator.getKind()) {
+                case FALLTHROUGH:
+                    if (!terminator.getSuccessors().isEmpty() && terminator.getSuccessors().get(0) != next) {
+                        statements.addStatement(new GoToNode(labels.get(terminator.getSuccessors().get(0))));
+                    }
+                    break;
+                case JUMP:
+                    statements.addStatement(new GoToNode(targetLabel(terminator, labels)));
+                    break;
+                case BRANCH:
+                    statements.addStatement(new IfNode(((IfNode) statement).getCondition(), targetLabel(terminator, labels)));
+                    break;
+                case GOSUB:
+                    statements.addStatement(new GoSubNode(targetLabel(terminator, labels)));
+                    break;
+                case WHILE_END:
+                    // The block's own label, already emitted, is the WHILE end label
+                    break;
+                case END:
+                    statements.addStatement(new EndNode());
+                    break;
+                default:
+                    statements.addStatement(Statements.copy(statement));
+            }
+        }
+        ProgramNode programNode = new ProgramNode();
+        programNode.addStatements(statements);
+        return programNode;
+    }
+
+    private static String blockLabel(BasicBlock block) {
+        // The lexer never produces a leading underscore, so these cannot clash with source labels
+        return BLOCK_LABEL_PREFIX + block.getId();
+    }
+
+    private static String targetLabel(Terminator terminator, Map<BasicBlock, String> labels) {
+        if (terminator.getTarget() != null) {
+            return labels.get(terminator.getTarget());
+        }
+        // Keep the missing label so the program fails or stops the same way it did before
+        return ProgramIndex.jumpLabel(terminator.getStatement());
+    }
+
+    /**
+     * Checks that erasing SSA versions is safe: no definition or use of a variable may happen while another
+     * version of the same variable is live.
+     *
+     * @throws IllegalStateException naming the first pair of interfering values
+     */
+    public static void checkNoInterference(ControlFlowGraph graph) {
+        Liveness liveness = new Liveness(graph);
+        for (BasicBlock block : graph.getReachableBlocks()) {
+            Map<String, Value> live = new HashMap<>();
+            for (Value value : liveness.getLiveOut(block)) {
+                addLive(live, value, block);
+            }
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                Instruction instruction = instructions.get(i);
+                for (Value def : instruction.getDefs()) {
+                    Value other = live.get(def.getVariable());
+                    if (other != null && other.getDefinition() != instruction) {
+                        throw interference(def, other, block);
+                    }
+                }
+                if (instruction instanceof Phi) {
+                    continue;
+                }
+                for (Value def : instruction.getDefs()) {
+                    live.remove(def.getVariable());
+                }
+                for (Value use : instruction.getUses().values()) {
+                    addLive(live, use, block);
+                }
+            }
+        }
+    }
+
+    private static void addLive(Map<String, Value> live, Value value, BasicBlock block) {
+        Value other = live.putIfAbsent(value.getVariable(), value);
+        if (other != null && other != value) {
+            throw interference(value, other, block);
+        }
+    }
+
+    private static IllegalStateException interference(Value a, Value b, BasicBlock block) {
+        return new IllegalStateException(String.format("Cannot lower SSA form: %s and %s are live at the same time in %s", a, b, block));
+    }
+}
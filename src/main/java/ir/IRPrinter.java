@@ -0,0 +1,235 @@
+package ir;
+
+import node.*;
+import optimizer.Expressions;
+import optimizer.ProgramIndex;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Renders a control flow graph as text for debugging. Each block lists its predecessors and immediate
+ * dominator, then its phis, operations and terminator. In SSA form variables print with their version.
+ *
+ * B1 (loop) <- B0, B2 ; idom B0
+ *   i.2 = phi(B0: i.1, B2: i.3)
+ *   if i.2 < 10 then B2 else B3
+ */
+public final class IRPrinter {
+
+    private IRPrinter() {}
+
+    public static String print(ControlFlowGraph graph) {
+        DominatorTree dominators = new DominatorTree(graph);
+        StringBuilder builder = new StringBuilder();
+        for (BasicBlock block : graph.getBlocks()) {
+            builder.append(block.getName());
+            if (block.getLabel() != null) {
+                builder.append(" (").append(block.getLabel()).append(")");
+            }
+            if (!block.isReachable()) {
+                builder.append(" unreachable");
+            }
+            if (!block.getPredecessors().isEmpty()) {
+                builder.append(" <- ").append(names(block.getPredecessors()));
+            }
+            BasicBlock idom = dominators.getImmediateDominator(block);
+            if (idom != null) {
+                builder.append(" ; idom ").append(idom.getName());
+            }
+            builder.append("\n");
+            for (Instruction instruction : block.getInstructions()) {
+                builder.append("  ").append(format(instruction)).append("\n");
+            }
+        }
+        return builder.toString();
+    }
+
+    public static String format(Instruction instruction) {
+        if (instruction instanceof Phi) {
+            Phi phi = (Phi) instruction;
+            List<String> operands = new ArrayList<>();
+            for (BasicBlock predecessor : phi.getBlock().getPredecessors()) {
+                operands.add(predecessor.getName() + ": " + phi.getOperands().get(predecessor));
+            }
+            return phi.getResult() + " = phi(" + String.join(", ", operands) + ")";
+        }
+        if (instruction instanceof Operation) {
+            return formatOperation((Operation) instruction);
+        }
+        return formatTerminator((Terminator) instruction);
+    }
+
+    private static String formatOperation(Operation operation) {
+        StatementNode statement = operation.getStatement();
+        if (statement instanceof AssignmentNode) {
+            return def(operation, 0) + " = " + format(((AssignmentNode) statement).getValue(), operation);
+        }
+        if (statement instanceof PrintNode) {
+            return "print " + ((PrintNode) statement).getParameters().stream()
+                    .map(parameter -> format(parameter, operation)).collect(Collectors.joining(", "));
+        }
+        if (statement instanceof DataNode) {
+            return "data " + ((DataNode) statement).getData().stream()
+                    .map(value -> format(value, operation)).collect(Collectors.joining(", "));
+        }
+        List<String> targets = new ArrayList<>();
+        List<String> written = operation.variablesWritten();
+        for (int i = 0; i < written.size(); i++) {
+            targets.add(def(operation, i));
+        }
+        if (statement instanceof InputNode) {
+            return "input " + format(((InputNode) statement).getPrompt(), operation) + "; " + String.join(", ", targets);
+        }
+        return "read " + String.join(", ", targets);
+    }
+
+    private static String formatTerminator(Terminator terminator) {
+        StatementNode statement = terminator.getStatement();
+        List<BasicBlock> successors = terminator.getSuccessors();
+        switch (terminator.getKind()) {
+            case FALLTHROUGH:
+                return successors.isEmpty() ? "exit" : "goto " + successors.get(0).getName();
+            case JUMP:
+                return "goto " + target(terminator);
+            case BRANCH: {
+                BasicBlock next = layoutNext(terminator);
+                return "if " + format(((IfNode) statement).getCondition(), terminator) + " then " + target(terminator)
+                        + " else " + (next == null ? "exit" : next.getName());
+            }
+            case GOSUB:
+                return "gosub " + target(terminator);
+            case RETURN:
+                return "return -> " + names(successors);
+            case NEXT: {
+                VariableNode variable = ((NextNode) statement).getVariable();
+                return "next " + (variable == null ? "" : variable.getName()) + " -> " + names(successors);
+            }
+            case FOR: {
+                ForNode forNode = (ForNode) statement;
+                String counter = forNode.getVariable().getName();
+                return def(terminator, 0) + " = for " + use(counter, terminator)
+                        + " from " + format(forNode.getInitialValue(), terminator)
+                        + " to " + format(forNode.getLimit(), terminator)
+                        + " step " + format(forNode.getIncrement(), terminator)
+                        + " -> " + names(successors);
+            }
+            case WHILE:
+                return "while " + format(((WhileNode) statement).getCondition(), terminator) + " -> " + names(successors);
+            case WHILE_END:
+                return "wend " + ((LabeledStatementNode) statement).getLabel() + " -> " + names(successors);
+            default:
+                return "end";
+        }
+    }
+
+    private static String target(Terminator terminator) {
+        if (terminator.getTarget() != null) {
+            return terminator.getTarget().getName();
+        }
+        return "missing " + ProgramIndex.jumpLabel(terminator.getStatement());
+    }
+
+    // Block ids follow program order, so the fall-through successor is the one numbered after this block
+    private static BasicBlock layoutNext(Terminator terminator) {
+        for (BasicBlock successor : terminator.getSuccessors()) {
+            if (successor.getId() == terminator.getBlock().getId() + 1) {
+                return successor;
+            }
+        }
+        return null;
+    }
+
+    private static String names(Collection<BasicBlock> blocks) {
+        if (blocks.isEmpty()) {
+            return "none";
+        }
+        return blocks.stream().map(BasicBlock::getName).collect(Collectors.joining(", "));
+    }
+
+    private static String def(Instruction instruction, int position) {
+        if (position < instruction.getDefs().size()) {
+            return instruction.getDefs().get(position).toString();
+        }
+        return instruction.variablesWritten().get(position);
+    }
+
+    private static String use(String variable, Instruction instruction) {
+        Value value = instruction.getUse(variable);
+        return value == null ? variable : value.toString();
+    }
+
+    /**
+     * Formats an expression in infix notation, printing variables as the SSA values the instruction reads.
+     */
+    public static String format(Node node, Instruction instruction) {
+        node = Expressions.unwrap(node);
+        if (node instanceof VariableNode) {
+            return use(((VariableNode) node).getName(), instruction);
+        }
+        if (node instanceof IntegerNode) {
+            return String.valueOf(((IntegerNode) node).getInt());
+        }
+        if (node instanceof FloatNode) {
+            return String.valueOf(((FloatNode) node).getFloat());
+        }
+        if (node instanceof StringNode) {
+            return "\"" + ((StringNode) node).getValue() + "\"";
+        }
+        if (node instanceof MathOpNode) {
+            MathOpNode mathOpNode = (MathOpNode) node;
+            return operand(mathOpNode.getLeft(), instruction) + " " + symbol(mathOpNode.getOperator()) + " "
+                    + operand(mathOpNode.getRight(), instruction);
+        }
+        if (node instanceof BooleanExpressionNode) {
+            BooleanExpressionNode condition = (BooleanExpressionNode) node;
+            return format(condition.getLeft(), instruction) + " " + symbol(condition.getOperator()) + " "
+                    + format(condition.getRight(), instruction);
+        }
+        if (node instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) node;
+            return functionNode.getFunctionName() + "(" + functionNode.getParameters().stream()
+                    .map(parameter -> format(parameter, instruction)).collect(Collectors.joining(", ")) + ")";
+        }
+        return String.valueOf(node);
+    }
+
+    private static String operand(Node node, Instruction instruction) {
+        String text = format(node, instruction);
+        return Expressions.unwrap(node) instanceof MathOpNode ? "(" + text + ")" : text;
+    }
+
+    private static String symbol(MathOpNode.OPERATION operation) {
+        switch (operation) {
+            case ADD:
+                return "+";
+            case SUBTRACT:
+                return "-";
+            case MULTIPLY:
+                return "*";
+            case DIVIDE:
+                return "/";
+            case SHIFT_LEFT:
+                return "<<";
+            default:
+                return ">>";
+        }
+    }
+
+    private static String symbol(BooleanExpressionNode.OPERATOR operator) {
+        switch (operator) {
+            case LESSTHAN:
+                return "<";
+            case LESSTHANEQUALTO:
+                return "<=";
+            case GREATERTHAN:
+                return ">";
+            case GREATERTHANEQUALTO:
+                return ">=";
+            case NOTEQUALS:
+                return "<>";
+            default:
+                return "=";
+        }
+    }
+}
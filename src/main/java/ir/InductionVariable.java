@@ -0,0 +1,87 @@
+package ir;
+
+import node.*;
+import optimizer.Expressions;
+
+/**
+ * A basic induction variable of a natural loop: an integer variable whose header phi receives, around the back
+ * edge, its own value plus or minus an integer literal.
+ */
+public class InductionVariable {
+
+    private final Phi phi;
+    private final Value initial;
+    private final Value next;
+    private final int step;
+
+    private InductionVariable(Phi phi, Value initial, Value next, int step) {
+        this.phi = phi;
+        this.initial = initial;
+        this.next = next;
+        this.step = step;
+    }
+
+    /**
+     * Matches a header phi against {@code v = v + c} or {@code v = v - c} feeding the back edge from the latch.
+     *
+     * @return the induction variable, or null if the phi is not one
+     */
+    static InductionVariable match(NaturalLoop loop, Phi phi, BasicBlock latch) {
+        Value next = phi.getOperands().get(latch);
+        Value initial = loop.valueOnEntry(phi.getResult());
+        if (phi.getResult().getType() != InterpreterDataType.INTEGER || next == null || initial == null
+                || !(next.getDefinition() instanceof Operation)) {
+            return null;
+        }
+        Operation update = (Operation) next.getDefinition();
+        if (!(update.getStatement() instanceof AssignmentNode) || update.getUse(phi.getVariable()) != phi.getResult()) {
+            return null;
+        }
+        Node value = Expressions.unwrap(((AssignmentNode) update.getStatement()).getValue());
+        if (!(value instanceof MathOpNode)) {
+            return null;
+        }
+        MathOpNode math = (MathOpNode) value;
+        Node left = Expressions.unwrap(math.getLeft());
+        Node right = Expressions.unwrap(math.getRight());
+        boolean leftIsVariable = left instanceof VariableNode && ((VariableNode) left).getName().equals(phi.getVariable());
+        boolean rightIsVariable = right instanceof VariableNode && ((VariableNode) right).getName().equals(phi.getVariable());
+        if (math.getOperator() == MathOpNode.OPERATION.ADD && leftIsVariable && right instanceof IntegerNode) {
+            return new InductionVariable(phi, initial, next, ((IntegerNode) right).getInt());
+        }
+        if (math.getOperator() == MathOpNode.OPERATION.ADD && rightIsVariable && left instanceof IntegerNode) {
+            return new InductionVariable(phi, initial, next, ((IntegerNode) left).getInt());
+        }
+        if (math.getOperator() == MathOpNode.OPERATION.SUBTRACT && leftIsVariable && right instanceof IntegerNode) {
+            return new InductionVariable(phi, initial, next, -((IntegerNode) right).getInt());
+        }
+        return null;
+    }
+
+    public String getVariable() {
+        return phi.getVariable();
+    }
+
+    public Phi getPhi() {
+        return phi;
+    }
+
+    // The value on entry to the loop
+    public Value getInitial() {
+        return initial;
+    }
+
+    // The updated value carried around the back edge
+    public Value getNext() {
+        return next;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s = %s, %s, ... step %d", phi.getResult(), initial, next, step);
+    }
+}
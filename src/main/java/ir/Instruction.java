@@ -0,0 +1,42 @@
+package ir;
+
+import java.util.*;
+
+/**
+ * An instruction inside a basic block. Before SSA construction only the variable names it reads and writes are
+ * known; afterwards every read is bound to the SSA value that reaches it and every write defines a new value.
+ */
+public abstract class Instruction {
+
+    private BasicBlock block;
+    private final Map<String, Value> uses = new LinkedHashMap<>();
+    private final List<Value> defs = new ArrayList<>();
+
+    // Names of the variables the instruction reads
+    public abstract Set<String> variablesRead();
+
+    // Names of the variables the instruction writes, in the order it writes them
+    public abstract List<String> variablesWritten();
+
+    public BasicBlock getBlock() {
+        return block;
+    }
+
+    void setBlock(BasicBlock block) {
+        this.block = block;
+    }
+
+    // Maps each variable read to the SSA value it reads
+    public Map<String, Value> getUses() {
+        return uses;
+    }
+
+    public Value getUse(String variable) {
+        return uses.get(variable);
+    }
+
+    // The SSA values defined, one for each entry of variablesWritten()
+    public List<Value> getDefs() {
+        return defs;
+    }
+}
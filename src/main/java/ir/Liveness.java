@@ -0,0 +1,82 @@
+package ir;
+
+import java.util.*;
+
+/**
+ * Live SSA values at the entry and exit of every reachable block. A phi operand is live at the end of the
+ * predecessor it flows in from, not at the start of the phi's block; a phi result that is used later counts as
+ * live-in to its block.
+ */
+public class Liveness {
+
+    private final Map<BasicBlock, Set<Value>> liveIn = new HashMap<>();
+    private final Map<BasicBlock, Set<Value>> liveOut = new HashMap<>();
+
+    public Liveness(ControlFlowGraph graph) {
+        if (!graph.isSsa()) {
+            throw new IllegalStateException("Liveness needs a control flow graph in SSA form");
+        }
+        List<BasicBlock> blocks = graph.getReachableBlocks();
+        for (BasicBlock block : blocks) {
+            liveIn.put(block, new LinkedHashSet<>());
+            liveOut.put(block, new LinkedHashSet<>());
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            // Visiting in reverse program order converges quickly for mostly forward flow
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                BasicBlock block = blocks.get(i);
+                Set<Value> out = new LinkedHashSet<>();
+                for (BasicBlock successor : block.getSuccessors()) {
+                    for (Value value : liveIn.get(successor)) {
+                        if (!isPhiResultOf(value, successor)) {
+                            out.add(value);
+                        }
+                    }
+                    for (Phi phi : successor.getPhis()) {
+                        Value operand = phi.getOperands().get(block);
+                        if (operand != null) {
+                            out.add(operand);
+                        }
+                    }
+                }
+                Set<Value> in = liveBefore(block, out);
+                if (!out.equals(liveOut.get(block)) || !in.equals(liveIn.get(block))) {
+                    liveOut.put(block, out);
+                    liveIn.put(block, in);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static boolean isPhiResultOf(Value value, BasicBlock block) {
+        return value.getDefinition() instanceof Phi && value.getDefinition().getBlock() == block;
+    }
+
+    /**
+     * Walks a block backwards from the values live at its end and returns the values live just after its phis.
+     */
+    public static Set<Value> liveBefore(BasicBlock block, Set<Value> liveAtEnd) {
+        Set<Value> live = new LinkedHashSet<>(liveAtEnd);
+        List<Instruction> instructions = block.getInstructions();
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            Instruction instruction = instructions.get(i);
+            if (instruction instanceof Phi) {
+                break;
+            }
+            live.removeAll(instruction.getDefs());
+            live.addAll(instruction.getUses().values());
+        }
+        return live;
+    }
+
+    public Set<Value> getLiveIn(BasicBlock block) {
+        return liveIn.getOrDefault(block, Collections.emptySet());
+    }
+
+    public Set<Value> getLiveOut(BasicBlock block) {
+        return liveOut.getOrDefault(block, Collections.emptySet());
+    }
+}
@@ -0,0 +1,272 @@
+package ir;
+
+import node.*;
+import optimizer.Expressions;
+
+import java.util.*;
+
+/**
+ * A natural loop: the header a back edge jumps to, and every block that reaches that back edge without passing
+ * through the header. Back edges are found with the dominator tree, so loops written with IF and GOTO are found
+ * the same way as FOR/NEXT and WHILE loops. Blocks of subroutines called from the body belong to the loop too,
+ * since control only comes back through their RETURN.
+ */
+public class NaturalLoop {
+
+    // Trip counts are found by stepping the induction variable; longer loops count as unknown
+    public static final int MAX_COUNTED_TRIPS = 1 << 20;
+
+    private final BasicBlock header;
+    private final List<BasicBlock> latches = new ArrayList<>();
+    private final Set<BasicBlock> blocks = new TreeSet<>(Comparator.comparingInt(BasicBlock::getId));
+
+    private NaturalLoop(BasicBlock header) {
+        this.header = header;
+    }
+
+    public BasicBlock getHeader() {
+        return header;
+    }
+
+    // The blocks whose back edge jumps to the header
+    public List<BasicBlock> getLatches() {
+        return latches;
+    }
+
+    // Every block of the loop, in program order
+    public Set<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public boolean contains(BasicBlock block) {
+        return blocks.contains(block);
+    }
+
+    /**
+     * Finds the natural loop of every header, merging loops that share a header, innermost loops first.
+     */
+    public static List<NaturalLoop> find(ControlFlowGraph graph, DominatorTree dominators) {
+        Map<BasicBlock, NaturalLoop> loops = new LinkedHashMap<>();
+        for (BasicBlock block : dominators.getReversePostorder()) {
+            for (BasicBlock successor : block.getSuccessors()) {
+                if (dominators.dominates(successor, block)) {
+                    NaturalLoop loop = loops.computeIfAbsent(successor, NaturalLoop::new);
+                    loop.latches.add(block);
+                    loop.collectBody(block);
+                }
+            }
+        }
+        List<NaturalLoop> result = new ArrayList<>(loops.values());
+        result.sort(Comparator.comparingInt((NaturalLoop loop) -> loop.blocks.size()).thenComparingInt(loop -> loop.header.getId()));
+        return result;
+    }
+
+    private void collectBody(BasicBlock latch) {
+        blocks.add(header);
+        Deque<BasicBlock> work = new ArrayDeque<>();
+        work.push(latch);
+        while (!work.isEmpty()) {
+            BasicBlock block = work.pop();
+            if (blocks.add(block)) {
+                for (BasicBlock predecessor : block.getPredecessors()) {
+                    work.push(predecessor);
+                }
+            }
+        }
+    }
+
+    // True if every back edge is an IF or GOTO, i.e. the loop is not a FOR/NEXT or WHILE loop
+    public boolean isIfGotoLoop() {
+        for (BasicBlock latch : latches) {
+            Terminator.KIND kind = latch.getTerminator().getKind();
+            if (kind != Terminator.KIND.BRANCH && kind != Terminator.KIND.JUMP) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The predecessors of the header outside the loop
+    public List<BasicBlock> getEntries() {
+        List<BasicBlock> entries = new ArrayList<>();
+        for (BasicBlock predecessor : header.getPredecessors()) {
+            if (!contains(predecessor)) {
+                entries.add(predecessor);
+            }
+        }
+        return entries;
+    }
+
+    // Blocks of the loop with a successor outside it
+    public List<BasicBlock> getExitingBlocks() {
+        List<BasicBlock> exiting = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            for (BasicBlock successor : block.getSuccessors()) {
+                if (!contains(successor)) {
+                    exiting.add(block);
+                    break;
+                }
+            }
+        }
+        return exiting;
+    }
+
+    /**
+     * Returns the basic induction variables: header phis that every trip around the single back edge
+     * increments by the same integer constant.
+     */
+    public List<InductionVariable> getInductionVariables() {
+        List<InductionVariable> variables = new ArrayList<>();
+        if (latches.size() != 1) {
+            return variables;
+        }
+        for (Phi phi : header.getPhis()) {
+            InductionVariable variable = InductionVariable.match(this, phi, latches.get(0));
+            if (variable != null) {
+                variables.add(variable);
+            }
+        }
+        return variables;
+    }
+
+    /**
+     * Returns the value a variable holds when control first enters the header, given the value a use inside the
+     * loop reads: the phi's incoming value from outside, or the use itself if the loop never redefines it.
+     *
+     * @return the entry value, or null if it differs between entries or cannot be told from SSA form
+     */
+    public Value valueOnEntry(Value use) {
+        for (Phi phi : header.getPhis()) {
+            if (phi.getVariable().equals(use.getVariable())) {
+                Value entry = null;
+                for (BasicBlock predecessor : getEntries()) {
+                    Value operand = phi.getOperands().get(predecessor);
+                    if (entry != null && operand != entry) {
+                        return null;
+                    }
+                    entry = operand;
+                }
+                return entry;
+            }
+        }
+        if (use.isUndefined() || !contains(use.getDefinition().getBlock())) {
+            return use;
+        }
+        // Defined in the loop but dead at the header: the first trip reads whatever was there before
+        return null;
+    }
+
+    /**
+     * Returns how many times the header runs each time the loop is entered, or -1 if unknown. The count is known
+     * when the loop has a single exit, an IF in the header or the latch, that compares a basic induction variable
+     * with a constant, and the induction variable starts from a constant.
+     */
+    public long getTripCount() {
+        List<BasicBlock> exiting = getExitingBlocks();
+        if (latches.size() != 1 || exiting.size() != 1) {
+            return -1;
+        }
+        BasicBlock test = exiting.get(0);
+        if ((test != header && test != latches.get(0)) || test.getTerminator().getKind() != Terminator.KIND.BRANCH) {
+            return -1;
+        }
+        Terminator branch = test.getTerminator();
+        BooleanExpressionNode condition = ((IfNode) branch.getStatement()).getCondition();
+        boolean staysWhenTrue = branch.getTarget() != null && contains(branch.getTarget());
+        for (InductionVariable variable : getInductionVariables()) {
+            Value read = branch.getUse(variable.getVariable());
+            Number initial = variable.getInitial().getConstant();
+            if (read == null || !(initial instanceof Integer)
+                    || (read != variable.getPhi().getResult() && read != variable.getNext())) {
+                continue;
+            }
+            Number[] bound = new Number[1];
+            Boolean ivOnLeft = comparedWithConstant(condition, variable.getVariable(), branch, bound);
+            if (ivOnLeft == null) {
+                continue;
+            }
+            int current = (Integer) initial;
+            for (int trip = 1; trip <= MAX_COUNTED_TRIPS; trip++) {
+                int tested = read == variable.getPhi().getResult() ? current : current + variable.getStep();
+                boolean result = ivOnLeft ? compare(tested, condition.getOperator(), bound[0])
+                        : compare(bound[0], condition.getOperator(), tested);
+                if (result != staysWhenTrue) {
+                    return trip;
+                }
+                current += variable.getStep();
+            }
+            return -1;
+        }
+        return -1;
+    }
+
+    // Returns whether the variable is the left operand, or null unless it is compared with a constant
+    private static Boolean comparedWithConstant(BooleanExpressionNode condition, String variable, Instruction at, Number[] bound) {
+        Node left = Expressions.unwrap(condition.getLeft());
+        Node right = Expressions.unwrap(condition.getRight());
+        if (isVariable(left, variable) && (bound[0] = constantOf(right, at)) != null) {
+            return true;
+        }
+        if (isVariable(right, variable) && (bound[0] = constantOf(left, at)) != null) {
+            return false;
+        }
+        return null;
+    }
+
+    private static boolean isVariable(Node node, String variable) {
+        return node instanceof VariableNode && ((VariableNode) node).getName().equals(variable);
+    }
+
+    private static Number constantOf(Node node, Instruction at) {
+        if (node instanceof IntegerNode) {
+            return ((IntegerNode) node).getInt();
+        }
+        if (node instanceof FloatNode) {
+            return ((FloatNode) node).getFloat();
+        }
+        if (node instanceof VariableNode && at.getUse(((VariableNode) node).getName()) != null) {
+            return at.getUse(((VariableNode) node).getName()).getConstant();
+        }
+        return null;
+    }
+
+    /**
+     * Compares two numbers the way the Interpreter does: as integers if both are, otherwise as floats.
+     */
+    public static boolean compare(Number left, BooleanExpressionNode.OPERATOR operator, Number right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            int a = (Integer) left;
+            int b = (Integer) right;
+            switch (operator) {
+                case LESSTHAN:
+                    return a < b;
+                case LESSTHANEQUALTO:
+                    return a <= b;
+                case GREATERTHAN:
+                    return a > b;
+                case GREATERTHANEQUALTO:
+                    return a >= b;
+                case NOTEQUALS:
+                    return a != b;
+                default:
+                    return a == b;
+            }
+        }
+        float a = left.floatValue();
+        float b = right.floatValue();
+        switch (operator) {
+            case LESSTHAN:
+                return a < b;
+            case LESSTHANEQUALTO:
+                return a <= b;
+            case GREATERTHAN:
+                return a > b;
+            case GREATERTHANEQUALTO:
+                return a >= b;
+            case NOTEQUALS:
+                return a != b;
+            default:
+                return a == b;
+        }
+    }
+}
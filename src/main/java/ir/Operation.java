@@ -0,0 +1,67 @@
+package ir;
+
+import node.*;
+import optimizer.Expressions;
+
+import java.util.*;
+
+/**
+ * A straight-line statement: an assignment, PRINT, READ, INPUT or DATA.
+ */
+public class Operation extends Instruction {
+
+    private StatementNode statement;
+
+    public Operation(StatementNode statement) {
+        if (!isOperation(statement)) {
+            throw new IllegalArgumentException(String.format("Not a straight-line statement: %s", statement));
+        }
+        this.statement = statement;
+    }
+
+    public static boolean isOperation(StatementNode statement) {
+        return statement instanceof AssignmentNode || statement instanceof PrintNode || statement instanceof ReadNode
+                || statement instanceof InputNode || statement instanceof DataNode;
+    }
+
+    public StatementNode getStatement() {
+        return statement;
+    }
+
+    /**
+     * Replaces the statement, e.g. after rewriting its expressions. The uses and defs are left as they are,
+     * so the replacement must read and write the same variables or the caller must update them.
+     */
+    public void setStatement(StatementNode statement) {
+        if (!isOperation(statement)) {
+            throw new IllegalArgumentException(String.format("Not a straight-line statement: %s", statement));
+        }
+        this.statement = statement;
+    }
+
+    @Override
+    public Set<String> variablesRead() {
+        Set<String> names = new LinkedHashSet<>();
+        for (Node expression : Expressions.expressionsOf(statement)) {
+            names.addAll(Expressions.variablesRead(expression));
+        }
+        return names;
+    }
+
+    @Override
+    public List<String> variablesWritten() {
+        List<String> names = new ArrayList<>();
+        if (statement instanceof AssignmentNode) {
+            names.add(((AssignmentNode) statement).getVariableNode().getName());
+        } else if (statement instanceof ReadNode) {
+            for (VariableNode variable : ((ReadNode) statement).getVariables()) {
+                names.add(variable.getName());
+            }
+        } else if (statement instanceof InputNode) {
+            for (VariableNode variable : ((InputNode) statement).getVariables()) {
+                names.add(variable.getName());
+            }
+        }
+        return names;
+    }
+}
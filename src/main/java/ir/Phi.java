@@ -0,0 +1,40 @@
+package ir;
+
+import java.util.*;
+
+/**
+ * Merges the versions of one variable that reach a block along each of its incoming edges.
+ */
+public class Phi extends Instruction {
+
+    private final String variable;
+    private final Map<BasicBlock, Value> operands = new LinkedHashMap<>();
+
+    public Phi(String variable) {
+        this.variable = variable;
+    }
+
+    public String getVariable() {
+        return variable;
+    }
+
+    public Value getResult() {
+        return getDefs().isEmpty() ? null : getDefs().get(0);
+    }
+
+    // The value flowing in from each predecessor block
+    public Map<BasicBlock, Value> getOperands() {
+        return operands;
+    }
+
+    @Override
+    public Set<String> variablesRead() {
+        // Operands are read on the incoming edges, not inside the block
+        return Collections.emptySet();
+    }
+
+    @Override
+    public List<String> variablesWritten() {
+        return List.of(variable);
+    }
+}
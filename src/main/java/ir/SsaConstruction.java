@@ -0,0 +1,148 @@
+package ir;
+
+import java.util.*;
+
+/**
+ * Converts a control flow graph into pruned SSA form (Cytron et al.): phis go on the iterated dominance frontier
+ * of each variable's definitions, but only where the variable is live, and a walk of the dominator tree binds
+ * every use to the single reaching definition.
+ */
+public final class SsaConstruction {
+
+    private SsaConstruction() {}
+
+    public static void construct(ControlFlowGraph graph) {
+        if (graph.isSsa()) {
+            throw new IllegalStateException("Control flow graph is already in SSA form");
+        }
+        if (graph.getEntry() == null) {
+            graph.setSsa(true);
+            return;
+        }
+        DominatorTree dominators = new DominatorTree(graph);
+        List<BasicBlock> blocks = dominators.getReversePostorder();
+        Map<BasicBlock, Set<String>> liveIn = liveVariables(blocks);
+
+        Map<String, Set<BasicBlock>> definitions = new TreeMap<>();
+        for (BasicBlock block : blocks) {
+            for (Instruction instruction : block.getInstructions()) {
+                for (String variable : instruction.variablesWritten()) {
+                    definitions.computeIfAbsent(variable, v -> new LinkedHashSet<>()).add(block);
+                }
+            }
+        }
+        for (Map.Entry<String, Set<BasicBlock>> entry : definitions.entrySet()) {
+            String variable = entry.getKey();
+            Set<BasicBlock> hasPhi = new HashSet<>();
+            Deque<BasicBlock> work = new ArrayDeque<>(entry.getValue());
+            while (!work.isEmpty()) {
+                for (BasicBlock frontier : dominators.getFrontier(work.pop())) {
+                    if (liveIn.get(frontier).contains(variable) && hasPhi.add(frontier)) {
+                        frontier.addPhi(new Phi(variable));
+                        work.push(frontier);
+                    }
+                }
+            }
+        }
+        new Renamer(dominators).rename(graph.getEntry());
+        graph.setSsa(true);
+    }
+
+    // Classic backward liveness over variable names, used to prune phis
+    private static Map<BasicBlock, Set<String>> liveVariables(List<BasicBlock> blocks) {
+        Map<BasicBlock, Set<String>> liveIn = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            liveIn.put(block, new HashSet<>());
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                BasicBlock block = blocks.get(i);
+                Set<String> live = new HashSet<>();
+                for (BasicBlock successor : block.getSuccessors()) {
+                    live.addAll(liveIn.get(successor));
+                }
+                List<Instruction> instructions = block.getInstructions();
+                for (int j = instructions.size() - 1; j >= 0; j--) {
+                    live.removeAll(instructions.get(j).variablesWritten());
+                    live.addAll(instructions.get(j).variablesRead());
+                }
+                if (!live.equals(liveIn.get(block))) {
+                    liveIn.put(block, live);
+                    changed = true;
+                }
+            }
+        }
+        return liveIn;
+    }
+
+    private static final class Renamer {
+        private final DominatorTree dominators;
+        private final Map<String, Deque<Value>> current = new HashMap<>();
+        private final Map<String, Integer> versions = new HashMap<>();
+
+        private Renamer(DominatorTree dominators) {
+            this.dominators = dominators;
+        }
+
+        private void rename(BasicBlock entry) {
+            // Walk the dominator tree without recursion, undoing each block's definitions on the way back up
+            Deque<BasicBlock> blocks = new ArrayDeque<>();
+            Deque<List<String>> pushed = new ArrayDeque<>();
+            Deque<Iterator<BasicBlock>> children = new ArrayDeque<>();
+            pushed.push(renameBlock(entry));
+            blocks.push(entry);
+            children.push(dominators.getChildren(entry).iterator());
+            while (!children.isEmpty()) {
+                if (children.peek().hasNext()) {
+                    BasicBlock child = children.peek().next();
+                    pushed.push(renameBlock(child));
+                    blocks.push(child);
+                    children.push(dominators.getChildren(child).iterator());
+                } else {
+                    children.pop();
+                    blocks.pop();
+                    for (String variable : pushed.pop()) {
+                        current.get(variable).pop();
+                    }
+                }
+            }
+        }
+
+        // Returns the variables defined in the block, once per definition
+        private List<String> renameBlock(BasicBlock block) {
+            List<String> defined = new ArrayList<>();
+            for (Instruction instruction : block.getInstructions()) {
+                if (!(instruction instanceof Phi)) {
+                    instruction.getUses().clear();
+                    for (String variable : instruction.variablesRead()) {
+                        instruction.getUses().put(variable, currentValue(variable));
+                    }
+                }
+                instruction.getDefs().clear();
+                for (String variable : instruction.variablesWritten()) {
+                    Value value = new Value(variable, versions.merge(variable, 1, Integer::sum), instruction);
+                    instruction.getDefs().add(value);
+                    current.computeIfAbsent(variable, v -> new ArrayDeque<>()).push(value);
+                    defined.add(variable);
+                }
+            }
+            for (BasicBlock successor : block.getSuccessors()) {
+                for (Phi phi : successor.getPhis()) {
+                    phi.getOperands().put(block, currentValue(phi.getVariable()));
+                }
+            }
+            return defined;
+        }
+
+        private Value currentValue(String variable) {
+            Deque<Value> stack = current.computeIfAbsent(variable, v -> new ArrayDeque<>());
+            if (stack.isEmpty()) {
+                // Nothing dominating this use defines the variable: it reads the undefined entry value
+                stack.addLast(new Value(variable, 0, null));
+            }
+            return stack.peek();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package ir;
+
+import node.*;
+import optimizer.ProgramIndex;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Finds the statement-level control flow of a program by running the Interpreter's stack discipline on
+ * abstract states. GOSUB, FOR and WHILE push the statement to resume at; RETURN, NEXT and WHILE end labels
+ * pop it. Tracking the stack exactly gives every pop the precise set of places it can resume, including
+ * for programs that leave loops with GOTO or RETURN from inside a FOR.
+ *
+ * Stacks deeper than the depth limit, MAX_DEPTH unless given, forget their bottom frames; popping a forgotten
+ * frame may resume at any push site, which keeps the result sound for unbounded recursion.
+ */
+final class StackSimulation {
+
+    static final int MAX_DEPTH = 16;
+    static final int MAX_STATES = 200_000;
+
+    private static final int HALT = -1;
+
+    private final ProgramIndex index;
+    private final int maxDepth;
+    private final int maxStates;
+    private final Set<Integer> continuations = new TreeSet<>();
+    private final Map<Integer, Set<Integer>> successors = new TreeMap<>();
+
+    private int deepest = 0;
+    private boolean truncated = false;
+
+    StackSimulation(ProgramIndex index) {
+        this(index, MAX_DEPTH, MAX_STATES);
+    }
+
+    // Gives up with an IllegalArgumentException once it has seen more than maxStates states
+    StackSimulation(ProgramIndex index, int maxDepth, int maxStates) {
+        this.index = index;
+        this.maxDepth = maxDepth;
+        this.maxStates = maxStates;
+        for (int i = 0; i < index.size(); i++) {
+            StatementNode statement = index.get(i);
+            if (statement instanceof GoSubNode && i + 1 < index.size()) {
+                continuations.add(i + 1);
+            } else if (statement instanceof ForNode || statement instanceof WhileNode) {
+                continuations.add(i);
+            }
+        }
+    }
+
+    /**
+     * Explores every reachable state from the first statement.
+     *
+     * @return the successors of every reachable statement index
+     */
+    Map<Integer, Set<Integer>> run() {
+        if (index.size() == 0) {
+            return successors;
+        }
+        Set<State> seen = new HashSet<>();
+        Deque<State> work = new ArrayDeque<>();
+        State start = new State(0, Collections.emptyList(), false);
+        seen.add(start);
+        work.push(start);
+        while (!work.isEmpty()) {
+            State state = work.pop();
+            Set<Integer> targets = successors.computeIfAbsent(state.index, i -> new TreeSet<>());
+            for (State next : step(state)) {
+                targets.add(next.index);
+                if (seen.add(next)) {
+                    if (seen.size() > maxStates) {
+                        throw new IllegalArgumentException("Control flow is too irregular to analyse: more than "
+                                + maxStates + " stack states");
+                    }
+                    work.push(next);
+                }
+            }
+        }
+        return successors;
+    }
+
+    private List<State> step(State state) {
+        int i = state.index;
+        StatementNode statement = index.get(i);
+        List<State> next = new ArrayList<>();
+        if (index.isWhileLabel(i)) {
+            pop(state, continuation -> true, next);
+        } else if (statement instanceof LabeledStatementNode) {
+            if (!(((LabeledStatementNode) statement).getStatementNode() instanceof EndNode)) {
+                moveTo(state.frames, state.truncated, i + 1, next);
+            }
+        } else if (statement instanceof GoToNode) {
+            moveTo(state.frames, state.truncated, index.indexOf(((GoToNode) statement).getLabel()), next);
+        } else if (statement instanceof IfNode) {
+            moveTo(state.frames, state.truncated, index.indexOf(((IfNode) statement).getLabel()), next);
+            moveTo(state.frames, state.truncated, i + 1, next);
+        } else if (statement instanceof GoSubNode) {
+            push(state, i + 1 < index.size() ? i + 1 : HALT, index.indexOf(((GoSubNode) statement).getLabel()), next);
+        } else if (statement instanceof ReturnNode) {
+            pop(state, continuation -> true, next);
+        } else if (statement instanceof NextNode) {
+            VariableNode variable = ((NextNode) statement).getVariable();
+            if (variable != null) {
+                // The Interpreter throws unless the popped entry is a FOR over the same variable
+                pop(state, continuation -> continuation >= 0 && index.get(continuation) instanceof ForNode
+                        && ((ForNode) index.get(continuation)).getVariable().getName().equals(variable.getName()), next);
+            }
+        } else if (statement instanceof ForNode) {
+            push(state, i, i + 1, next);
+            moveTo(state.frames, state.truncated, index.forExit(i), next);
+        } else if (statement instanceof WhileNode) {
+            push(state, i, i + 1, next);
+            int end = index.whileEnd(i);
+            moveTo(state.frames, state.truncated, end < 0 ? HALT : end + 1, next);
+        } else if (!(statement instanceof EndNode)) {
+            moveTo(state.frames, state.truncated, i + 1, next);
+        }
+        return next;
+    }
+
+    // The most frames any reachable state held, counting only up to the depth limit
+    int getDeepest() {
+        return deepest;
+    }
+
+    // True if some reachable state went past the depth limit and lost its bottom frame
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    private void push(State state, int continuation, int target, List<State> next) {
+        List<Integer> frames = new ArrayList<>(state.frames);
+        frames.add(continuation);
+        boolean truncated = state.truncated;
+        if (frames.size() > maxDepth) {
+            frames.remove(0);
+            truncated = true;
+            this.truncated = true;
+        }
+        deepest = Math.max(deepest, frames.size());
+        moveTo(frames, truncated, target, next);
+    }
+
+    private void pop(State state, IntPredicate accepts, List<State> next) {
+        if (!state.frames.isEmpty()) {
+            int continuation = state.frames.get(state.frames.size() - 1);
+            if (accepts.test(continuation)) {
+                moveTo(state.frames.subList(0, state.frames.size() - 1), state.truncated, continuation, next);
+            }
+        } else if (state.truncated) {
+            for (int continuation : continuations) {
+                if (accepts.test(continuation)) {
+                    moveTo(state.frames, true, continuation, next);
+                }
+            }
+        }
+        // Popping an empty stack is a runtime error, so there is no successor
+    }
+
+    private void moveTo(List<Integer> frames, boolean truncated, int target, List<State> next) {
+        if (target >= 0 && target < index.size()) {
+            next.add(new State(target, frames, truncated));
+        }
+    }
+
+    private static final class State {
+        private final int index;
+        private final List<Integer> frames;
+        private final boolean truncated;
+
+        private State(int index, List<Integer> frames, boolean truncated) {
+            this.index = index;
+            this.frames = List.copyOf(frames);
+            this.truncated = truncated;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            State that = (State) o;
+            return index == that.index && truncated == that.truncated && frames.equals(that.frames);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(index, frames, truncated);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ir;
+
+import node.*;
+import optimizer.Expressions;
+
+import java.util.*;
+
+/**
+ * The control transfer that ends a basic block. Successors are explicit, including the ones the Interpreter
+ * finds at runtime by popping its stack: a RETURN lists every return point it can reach, a NEXT the FOR
+ * headers it can resume and a WHILE end label the WHILE headers it can re-test.
+ *
+ * - FALLTHROUGH: no statement; the single successor is the next block, or none at the end of the program.
+ * - JUMP, BRANCH, GOSUB: the target is the labeled block, or null if the label does not exist. A BRANCH also
+ *   continues with the next block; a GOSUB resumes at the next block only through a RETURN.
+ * - FOR, WHILE: the first successor is the loop body, the second the block the loop exits to.
+ * - RETURN, NEXT, WHILE_END: every block the popped stack entry can resume.
+ * - END: no successors.
+ */
+public class Terminator extends Instruction {
+
+    public enum KIND {
+        FALLTHROUGH, JUMP, BRANCH, GOSUB, RETURN, FOR, NEXT, WHILE, WHILE_END, END
+    }
+
+    private final KIND kind;
+    private StatementNode statement;
+    private BasicBlock target;
+    private final List<BasicBlock> successors = new ArrayList<>();
+
+    public Terminator(KIND kind, StatementNode statement) {
+        this.kind = kind;
+        this.statement = statement;
+    }
+
+    public KIND getKind() {
+        return kind;
+    }
+
+    // The control statement, or null for FALLTHROUGH. A WHILE_END or labeled END keeps its LabeledStatementNode.
+    public StatementNode getStatement() {
+        return statement;
+    }
+
+    public void setStatement(StatementNode statement) {
+        this.statement = statement;
+    }
+
+    // The block a JUMP, BRANCH or GOSUB transfers to by label
+    public BasicBlock getTarget() {
+        return target;
+    }
+
+    public void setTarget(BasicBlock target) {
+        this.target = target;
+    }
+
+    public List<BasicBlock> getSuccessors() {
+        return successors;
+    }
+
+    @Override
+    public Set<String> variablesRead() {
+        Set<String> names = new LinkedHashSet<>();
+        if (kind == KIND.FOR) {
+            // Read to decide whether this is the first iteration, so it may legally be undefined
+            names.add(((ForNode) statement).getVariable().getName());
+        }
+        if (kind == KIND.BRANCH || kind == KIND.FOR || kind == KIND.WHILE) {
+            for (Node expression : Expressions.expressionsOf(statement)) {
+                names.addAll(Expressions.variablesRead(expression));
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public List<String> variablesWritten() {
+        if (kind == KIND.FOR) {
+            return List.of(((ForNode) statement).getVariable().getName());
+        }
+        return Collections.emptyList();
+    }
+}
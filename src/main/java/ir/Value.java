@@ -0,0 +1,88 @@
+package ir;
+
+import node.*;
+import optimizer.Expressions;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A single SSA version of a program variable. Version 0 is the value a variable has on entry to the program,
+ * which is always undefined: reading it is a runtime error unless a FOR loop tests it for its first iteration.
+ */
+public class Value {
+
+    private final String variable;
+    private final int version;
+    private final Instruction definition;
+
+    public Value(String variable, int version, Instruction definition) {
+        this.variable = variable;
+        this.version = version;
+        this.definition = definition;
+    }
+
+    public String getVariable() {
+        return variable;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    // The instruction that defines this value, or null for the undefined entry value
+    public Instruction getDefinition() {
+        return definition;
+    }
+
+    public boolean isUndefined() {
+        return definition == null;
+    }
+
+    /**
+     * Returns the number this value always holds: an assignment of an integer or float literal, or a phi whose
+     * operands all hold the same number. Returns null if it is not a known constant.
+     */
+    public Number getConstant() {
+        return constant(this, new HashSet<>());
+    }
+
+    private static Number constant(Value value, Set<Value> visiting) {
+        Instruction definition = value.definition;
+        if (definition instanceof Operation && ((Operation) definition).getStatement() instanceof AssignmentNode) {
+            Node literal = Expressions.unwrap(((AssignmentNode) ((Operation) definition).getStatement()).getValue());
+            if (literal instanceof IntegerNode) {
+                return ((IntegerNode) literal).getInt();
+            }
+            if (literal instanceof FloatNode) {
+                return ((FloatNode) literal).getFloat();
+            }
+            return null;
+        }
+        if (!(definition instanceof Phi) || !visiting.add(value)) {
+            // A phi cycle adds nothing new: the other operands decide
+            return null;
+        }
+        Number result = null;
+        for (Value operand : ((Phi) definition).getOperands().values()) {
+            if (visiting.contains(operand)) {
+                continue;
+            }
+            Number number = constant(operand, visiting);
+            if (number == null || (result != null && !result.equals(number))) {
+                return null;
+            }
+            result = number;
+        }
+        return result;
+    }
+
+    public InterpreterDataType getType() {
+        return new VariableNode(variable).getType();
+    }
+
+    @Override
+    public String toString() {
+        return variable + "." + version;
+    }
+}
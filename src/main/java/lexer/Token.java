@@ -68,6 +68,14 @@ public class Token {
         return this.val;
     }
 
+    public int getLineNo() {
+        return this.lineNo;
+    }
+
+    public int getPosition() {
+        return this.position;
+    }
+
     @Override
     public String toString() {
         if (val != null) {
@@ -18,7 +18,9 @@ public class BuiltInFunctions {
         POW,
         POWF,
         INT,
-        FLOAT
+        FLOAT,
+        // FLOAT(INT(n)) fused into one call by the optimizer; not callable from source
+        TRUNCF
     }
 
     public static Map<String, FUNCTION> functionMap = new HashMap<>() {{
@@ -99,4 +101,9 @@ public class BuiltInFunctions {
     public static float FLOAT(Number n) {
         return n.floatValue();
     }
+
+    // Truncates a number toward zero and converts it back to a float
+    public static float TRUNCF(Number n) {
+        return (float) n.intValue();
+    }
 }
\ No newline at end of file
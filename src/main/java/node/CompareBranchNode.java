@@ -0,0 +1,58 @@
+package node;
+
+/**
+ * Compare-and-branch fused from IF a op b THEN label, where each operand is a numeric variable or literal.
+ * The operands are stored unwrapped, and whether both are integers is decided once when the node is built.
+ */
+public class CompareBranchNode extends IfNode implements FusedStatement {
+
+    private final Node left;
+    private final Node right;
+    private final boolean integerComparison;
+
+    private long firings = 0;
+
+    public CompareBranchNode(BooleanExpressionNode condition, String label, Node left, Node right, boolean integerComparison) {
+        super(condition, label);
+        this.left = left;
+        this.right = right;
+        this.integerComparison = integerComparison;
+    }
+
+    @Override
+    public StatementNode interpret(StatementVisitor statementVisitor) {
+        return statementVisitor.compareBranchStatement(this);
+    }
+
+    // A VariableNode, IntegerNode or FloatNode
+    public Node getLeftOperand() {
+        return left;
+    }
+
+    public Node getRightOperand() {
+        return right;
+    }
+
+    public BooleanExpressionNode.OPERATOR getOperator() {
+        return getCondition().getOperator();
+    }
+
+    public boolean isIntegerComparison() {
+        return integerComparison;
+    }
+
+    @Override
+    public void recordFiring() {
+        firings++;
+    }
+
+    @Override
+    public long getFirings() {
+        return firings;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompareBranchNode(%s %s %s, %s)", left, getOperator(), right, getLabel());
+    }
+}
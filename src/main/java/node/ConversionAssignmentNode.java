@@ -0,0 +1,47 @@
+package node;
+
+/**
+ * Conversion-assign fused from x% = FLOAT(y), x = INT(y%) and x% = TRUNCF(y), where y is a numeric variable.
+ */
+public class ConversionAssignmentNode extends AssignmentNode implements FusedStatement {
+
+    private final VariableNode source;
+    private final BuiltInFunctions.FUNCTION conversion;
+
+    private long firings = 0;
+
+    public ConversionAssignmentNode(VariableNode variableNode, Node value, VariableNode source, BuiltInFunctions.FUNCTION conversion) {
+        super(variableNode, value);
+        this.source = source;
+        this.conversion = conversion;
+    }
+
+    @Override
+    public StatementNode interpret(StatementVisitor statementVisitor) {
+        return statementVisitor.conversionAssignmentStatement(this);
+    }
+
+    public VariableNode getSource() {
+        return source;
+    }
+
+    // INT, FLOAT or TRUNCF
+    public BuiltInFunctions.FUNCTION getConversion() {
+        return conversion;
+    }
+
+    @Override
+    public void recordFiring() {
+        firings++;
+    }
+
+    @Override
+    public long getFirings() {
+        return firings;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConversionAssignmentNode(%s = %s(%s))", getVariableNode(), conversion, source);
+    }
+}
@@ -0,0 +1,14 @@
+package node;
+
+/**
+ * A superinstruction: a statement built by the optimizer that runs a common statement shape through a single
+ * specialized path in the Interpreter. Each one extends the statement it replaces, so analyses that do not know
+ * about it still see an ordinary assignment, IF or PRINT, and counts how often it ran.
+ */
+public interface FusedStatement {
+
+    // Called by the Interpreter each time the specialized path runs
+    void recordFiring();
+
+    long getFirings();
+}
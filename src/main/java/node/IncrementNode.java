@@ -0,0 +1,42 @@
+package node;
+
+/**
+ * In-place increment of a numeric variable by a literal, fused from x = x + c, x = c + x and x = x - c.
+ * Subtraction is stored as the negated delta, which gives the same result for both int and float.
+ */
+public class IncrementNode extends AssignmentNode implements FusedStatement {
+
+    private final Number delta;
+
+    private long firings = 0;
+
+    public IncrementNode(VariableNode variableNode, Node value, Number delta) {
+        super(variableNode, value);
+        this.delta = delta;
+    }
+
+    @Override
+    public StatementNode interpret(StatementVisitor statementVisitor) {
+        return statementVisitor.incrementStatement(this);
+    }
+
+    // An Integer for integer variables and a Float for float variables
+    public Number getDelta() {
+        return delta;
+    }
+
+    @Override
+    public void recordFiring() {
+        firings++;
+    }
+
+    @Override
+    public long getFirings() {
+        return firings;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IncrementNode(%s += %s)", getVariableNode(), delta);
+    }
+}
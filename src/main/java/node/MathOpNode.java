@@ -4,7 +4,9 @@ import java.util.Objects;
 
 public class MathOpNode extends Node {
     public enum OPERATION {
-        ADD, SUBTRACT, MULTIPLY, DIVIDE
+        ADD, SUBTRACT, MULTIPLY, DIVIDE,
+        // Integer-only operations produced by the optimizer; the parser never creates them
+        SHIFT_LEFT, SHIFT_RIGHT
     }
 
     private final Node left;
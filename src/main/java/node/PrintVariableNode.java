@@ -0,0 +1,44 @@
+package node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PRINT of a single variable, fused so the Interpreter reads the variable directly instead of walking the
+ * parameter list and the expression wrappers around it.
+ */
+public class PrintVariableNode extends PrintNode implements FusedStatement {
+
+    private final VariableNode variable;
+
+    private long firings = 0;
+
+    public PrintVariableNode(List<Node> arguments, VariableNode variable) {
+        super(new ArrayList<>(arguments));
+        this.variable = variable;
+    }
+
+    @Override
+    public StatementNode interpret(StatementVisitor statementVisitor) {
+        return statementVisitor.printVariableStatement(this);
+    }
+
+    public VariableNode getVariable() {
+        return variable;
+    }
+
+    @Override
+    public void recordFiring() {
+        firings++;
+    }
+
+    @Override
+    public long getFirings() {
+        return firings;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PrintVariableNode(%s)", variable);
+    }
+}
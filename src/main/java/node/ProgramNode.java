@@ -10,6 +10,10 @@ public class ProgramNode extends Node {
     private final List<Node> expressions;
     private StatementsNode statementsNode;
 
+    // The stack bound ir.CallGraph found, and the statements it was found for
+    private List<StatementNode> boundedStatements;
+    private int maxStackDepth;
+
     public ProgramNode() {
         this.expressions = new ArrayList<>();
         this.statementsNode = new StatementsNode();
@@ -31,6 +35,26 @@ public class ProgramNode extends Node {
         return this.statementsNode.getStatements();
     }
 
+    // The cached stack bound, or null if none was cached or the statements changed since
+    public Integer getMaxStackDepth() {
+        List<StatementNode> statements = getStatements();
+        if (boundedStatements == null || boundedStatements.size() != statements.size()) {
+            return null;
+        }
+        for (int i = 0; i < statements.size(); i++) {
+            // Statements are never changed in place, only replaced, so the same nodes mean the same program
+            if (boundedStatements.get(i) != statements.get(i)) {
+                return null;
+            }
+        }
+        return maxStackDepth;
+    }
+
+    public void setMaxStackDepth(int maxStackDepth) {
+        this.boundedStatements = new ArrayList<>(getStatements());
+        this.maxStackDepth = maxStackDepth;
+    }
+
     @Override
     public String toString() {
         if (statementsNode != null && !statementsNode.getStatements().isEmpty()) {
@@ -26,4 +26,10 @@ public interface StatementVisitor {
     StatementNode nextStatement(NextNode nextNode);
     StatementNode labeledStatement(LabeledStatementNode labeledStatementNode);
     StatementNode endStatement(EndNode endNode);
+
+    // Superinstructions built by the optimizer
+    StatementNode incrementStatement(IncrementNode incrementNode);
+    StatementNode compareBranchStatement(CompareBranchNode compareBranchNode);
+    StatementNode conversionAssignmentStatement(ConversionAssignmentNode conversionAssignmentNode);
+    StatementNode printVariableStatement(PrintVariableNode printVariableNode);
 }
@@ -0,0 +1,206 @@
+package optimizer;
+
+import node.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates expressions ahead of time with exactly the Interpreter's semantics: Java int arithmetic that wraps,
+ * float arithmetic when either operand is a float, and the same builtins. Values are Integer, Float or String.
+ */
+public final class ConstantEvaluator {
+
+    private ConstantEvaluator() {}
+
+    /**
+     * Evaluates an expression whose variables all have known values.
+     *
+     * @param variables the value of every variable the expression reads
+     * @throws IllegalArgumentException if the expression reads an unknown variable, calls RANDOM or RANDOMF, or
+     *                                  would fail at runtime; the failure is left for the Interpreter to report
+     */
+    public static Object evaluate(Node node, Map<String, Object> variables) {
+        try {
+            return evaluateNode(Expressions.unwrap(node), variables);
+        } catch (ArithmeticException | ClassCastException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(String.format("Cannot evaluate %s: %s", node, e.getMessage()));
+        }
+    }
+
+    /**
+     * Folds every subexpression that reads no variables into a literal, leaving the ones that would fail at
+     * runtime alone. Returns the node itself when nothing was folded.
+     */
+    public static Node fold(Node node) {
+        return Expressions.rewriteBottomUp(node, ConstantEvaluator::foldNode);
+    }
+
+    // The literal node the parser would produce for a value, or null for anything else
+    public static Node literal(Object value) {
+        if (value instanceof Integer) {
+            return new IntegerNode((Integer) value);
+        }
+        if (value instanceof Float) {
+            return new FloatNode((Float) value);
+        }
+        if (value instanceof String) {
+            return new StringNode((String) value);
+        }
+        return null;
+    }
+
+    private static Node foldNode(Node node) {
+        if (!(node instanceof MathOpNode || node instanceof FunctionNode) || !Expressions.isPure(node)
+                || !Expressions.variablesRead(node).isEmpty()) {
+            return node;
+        }
+        try {
+            return literal(evaluate(node, Map.of()));
+        } catch (IllegalArgumentException e) {
+            return node;
+        }
+    }
+
+    private static Object evaluateNode(Node node, Map<String, Object> variables) {
+        if (node instanceof IntegerNode) {
+            return ((IntegerNode) node).getInt();
+        }
+        if (node instanceof FloatNode) {
+            return ((FloatNode) node).getFloat();
+        }
+        if (node instanceof StringNode) {
+            return ((StringNode) node).getValue();
+        }
+        if (node instanceof VariableNode) {
+            Object value = variables.get(((VariableNode) node).getName());
+            if (value == null) {
+                throw new IllegalArgumentException(String.format("Variable '%s' has no known value", ((VariableNode) node).getName()));
+            }
+            return value;
+        }
+        if (node instanceof MathOpNode) {
+            MathOpNode mathOpNode = (MathOpNode) node;
+            return arithmetic(mathOpNode.getOperator(), evaluate(mathOpNode.getLeft(), variables),
+                    evaluate(mathOpNode.getRight(), variables));
+        }
+        if (node instanceof BooleanExpressionNode) {
+            BooleanExpressionNode condition = (BooleanExpressionNode) node;
+            return compare(condition.getOperator(), evaluate(condition.getLeft(), variables),
+                    evaluate(condition.getRight(), variables));
+        }
+        if (node instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) node;
+            List<Object> arguments = new ArrayList<>();
+            for (Node parameter : functionNode.getParameters()) {
+                arguments.add(evaluate(parameter, variables));
+            }
+            return function(functionNode.getFunctionName(), arguments);
+        }
+        throw new IllegalArgumentException(String.format("Cannot evaluate %s", node));
+    }
+
+    private static Object arithmetic(MathOpNode.OPERATION operator, Object left, Object right) {
+        if (!(left instanceof Number) || !(right instanceof Number)) {
+            throw new IllegalArgumentException(String.format("Illegal math operation for arguments: %s, %s", left, right));
+        }
+        if (left instanceof Integer && right instanceof Integer) {
+            int a = (Integer) left;
+            int b = (Integer) right;
+            switch (operator) {
+                case ADD:
+                    return a + b;
+                case SUBTRACT:
+                    return a - b;
+                case MULTIPLY:
+                    return a * b;
+                case DIVIDE:
+                    return a / b;
+                case SHIFT_LEFT:
+                    return a << b;
+                default:
+                    return (a + ((a >> 31) >>> (32 - b))) >> b;
+            }
+        }
+        float a = ((Number) left).floatValue();
+        float b = ((Number) right).floatValue();
+        switch (operator) {
+            case ADD:
+                return a + b;
+            case SUBTRACT:
+                return a - b;
+            case MULTIPLY:
+                return a * b;
+            case DIVIDE:
+                return a / b;
+            default:
+                throw new IllegalArgumentException(String.format("Shift of a float: %s, %s", left, right));
+        }
+    }
+
+    /**
+     * Decides a comparison between two constants, or throws if the Interpreter would reject it.
+     */
+    public static boolean compare(BooleanExpressionNode.OPERATOR operator, Object left, Object right) {
+        if (!(left instanceof Number) || !(right instanceof Number)) {
+            throw new IllegalArgumentException(String.format("Unsupported comparison %s with operands: '%s' and '%s'", operator, left, right));
+        }
+        if (left instanceof Integer && right instanceof Integer) {
+            return compareOrdered(operator, Integer.compare((Integer) left, (Integer) right), left.equals(right));
+        }
+        float a = ((Number) left).floatValue();
+        float b = ((Number) right).floatValue();
+        // Any comparison with NaN except NOTEQUALS is false, as with the Interpreter's float operators
+        if (Float.isNaN(a) || Float.isNaN(b)) {
+            return operator == BooleanExpressionNode.OPERATOR.NOTEQUALS;
+        }
+        return compareOrdered(operator, a < b ? -1 : (a > b ? 1 : 0), a == b);
+    }
+
+    private static boolean compareOrdered(BooleanExpressionNode.OPERATOR operator, int order, boolean equal) {
+        switch (operator) {
+            case LESSTHAN:
+                return order < 0;
+            case LESSTHANEQUALTO:
+                return order <= 0;
+            case GREATERTHAN:
+                return order > 0;
+            case GREATERTHANEQUALTO:
+                return order >= 0;
+            case NOTEQUALS:
+                return !equal;
+            default:
+                return equal;
+        }
+    }
+
+    private static Object function(BuiltInFunctions.FUNCTION function, List<Object> arguments) {
+        switch (function) {
+            case LEFT$:
+                return BuiltInFunctions.LEFT$((String) arguments.get(0), (Integer) arguments.get(1));
+            case RIGHT$:
+                return BuiltInFunctions.RIGHT$((String) arguments.get(0), (Integer) arguments.get(1));
+            case MID$:
+                return BuiltInFunctions.MID$((String) arguments.get(0), (Integer) arguments.get(1), (Integer) arguments.get(2));
+            case NUM$:
+                return BuiltInFunctions.NUM$((Number) arguments.get(0));
+            case VAL:
+                return BuiltInFunctions.VAL((String) arguments.get(0));
+            case VALF:
+                return BuiltInFunctions.VALF((String) arguments.get(0));
+            case POW:
+                return BuiltInFunctions.POW((Integer) arguments.get(0), (Integer) arguments.get(1));
+            case POWF:
+                return BuiltInFunctions.POWF((Float) arguments.get(0), (Float) arguments.get(1));
+            case INT:
+                return BuiltInFunctions.INT((Number) arguments.get(0));
+            case FLOAT:
+                return BuiltInFunctions.FLOAT((Number) arguments.get(0));
+            case TRUNCF:
+                return BuiltInFunctions.TRUNCF((Number) arguments.get(0));
+            default:
+                throw new IllegalArgumentException(String.format("Builtin %s has no constant value", function));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package optimizer;
+
+import ir.*;
+import node.*;
+
+import java.util.*;
+
+/**
+ * Replaces reads of a variable that holds a copy, from an assignment such as a = b, with reads of the original
+ * variable. A copy is available at a statement when every path from the start of the program to it runs the
+ * copy and then assigns neither a nor b, which is found with a forward data flow analysis over the control flow
+ * graph so it holds across GOTO, IF, GOSUB and loop edges. The copies themselves stay; dead-store elimination
+ * removes the ones nothing reads any more.
+ */
+public class CopyPropagation implements OptimizationPass {
+
+    private int copiesPropagated = 0;
+
+    @Override
+    public String getName() {
+        return "copy-propagation";
+    }
+
+    // Number of variable reads the last run redirected to the original variable
+    public int getCopiesPropagated() {
+        return copiesPropagated;
+    }
+
+    @Override
+    public boolean run(ProgramNode programNode) {
+        copiesPropagated = 0;
+        ControlFlowGraph graph;
+        try {
+            graph = ControlFlowGraph.build(programNode);
+        } catch (IllegalArgumentException e) {
+            // Labeled control statements are broken no-ops the graph cannot describe; leave such programs alone
+            return false;
+        }
+        List<BasicBlock> blocks = graph.getReachableBlocks();
+        if (blocks.isEmpty()) {
+            return false;
+        }
+        Map<BasicBlock, Map<String, String>> availableIn = availableCopies(graph, blocks);
+
+        Map<StatementNode, StatementNode> replacements = new IdentityHashMap<>();
+        for (BasicBlock block : blocks) {
+            Map<String, String> copies = new HashMap<>(availableIn.get(block));
+            for (Instruction instruction : block.getInstructions()) {
+                StatementNode statement = statementOf(instruction);
+                if (statement != null && !copies.isEmpty()) {
+                    StatementNode rewritten = Expressions.rewriteStatement(statement, node -> {
+                        if (node instanceof VariableNode && copies.containsKey(((VariableNode) node).getName())) {
+                            copiesPropagated++;
+                            return new VariableNode(copies.get(((VariableNode) node).getName()));
+                        }
+                        return node;
+                    });
+                    if (rewritten != statement) {
+                        replacements.put(statement, rewritten);
+                    }
+                }
+                transfer(copies, instruction);
+            }
+        }
+        if (replacements.isEmpty()) {
+            return false;
+        }
+        List<StatementNode> statements = programNode.getStatements();
+        for (int i = 0; i < statements.size(); i++) {
+            StatementNode statement = statements.get(i);
+            if (replacements.containsKey(statement)) {
+                statements.set(i, replacements.get(statement));
+            } else if (statement instanceof LabeledStatementNode
+                    && replacements.containsKey(((LabeledStatementNode) statement).getStatementNode())) {
+                LabeledStatementNode labeled = (LabeledStatementNode) statement;
+                statements.set(i, new LabeledStatementNode(labeled.getLabel(), replacements.get(labeled.getStatementNode())));
+            }
+        }
+        return true;
+    }
+
+    // The statement whose expressions the instruction evaluates, or null if it evaluates none
+    private static StatementNode statementOf(Instruction instruction) {
+        if (instruction instanceof Operation) {
+            return ((Operation) instruction).getStatement();
+        }
+        if (instruction instanceof Terminator) {
+            Terminator.KIND kind = ((Terminator) instruction).getKind();
+            if (kind == Terminator.KIND.BRANCH || kind == Terminator.KIND.FOR || kind == Terminator.KIND.WHILE) {
+                return ((Terminator) instruction).getStatement();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Solves available copies: maps each block to the copies, target to source, that hold on entry to it. A null
+     * entry stands for "every copy", the optimistic start for blocks not yet reached by the iteration.
+     */
+    private static Map<BasicBlock, Map<String, String>> availableCopies(ControlFlowGraph graph, List<BasicBlock> blocks) {
+        Map<BasicBlock, Map<String, String>> in = new HashMap<>();
+        Map<BasicBlock, Map<String, String>> out = new HashMap<>();
+        in.put(graph.getEntry(), new HashMap<>());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : blocks) {
+                Map<String, String> entry = block == graph.getEntry() ? new HashMap<>() : null;
+                for (BasicBlock predecessor : block.getPredecessors()) {
+                    Map<String, String> incoming = out.get(predecessor);
+                    if (incoming == null) {
+                        continue;
+                    }
+                    if (entry == null) {
+                        entry = new HashMap<>(incoming);
+                    } else {
+                        entry.entrySet().retainAll(incoming.entrySet());
+                    }
+                }
+                if (entry == null) {
+                    continue;
+                }
+                Map<String, String> exit = new HashMap<>(entry);
+                for (Instruction instruction : block.getInstructions()) {
+                    transfer(exit, instruction);
+                }
+                if (!entry.equals(in.get(block)) || !exit.equals(out.get(block))) {
+                    in.put(block, entry);
+                    out.put(block, exit);
+                    changed = true;
+                }
+            }
+        }
+        for (BasicBlock block : blocks) {
+            in.putIfAbsent(block, new HashMap<>());
+        }
+        return in;
+    }
+
+    // Kills the copies the instruction invalidates and adds the one it makes
+    private static void transfer(Map<String, String> copies, Instruction instruction) {
+        for (String variable : instruction.variablesWritten()) {
+            copies.remove(variable);
+            copies.values().removeIf(source -> source.equals(variable));
+        }
+        if (instruction instanceof Operation && ((Operation) instruction).getStatement() instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) ((Operation) instruction).getStatement();
+            Node value = Expressions.unwrap(assignment.getValue());
+            VariableNode target = assignment.getVariableNode();
+            // A copy between types fails at runtime, so it never completes
+            if (value instanceof VariableNode && !((VariableNode) value).getName().equals(target.getName())
+                    && ((VariableNode) value).getType() == target.getType()) {
+                copies.put(target.getName(), ((VariableNode) value).getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package optimizer;
+
+import ir.*;
+import node.*;
+
+import java.util.*;
+
+/**
+ * Removes assignments whose value is never read: the variable is assigned again, or the program ends, on every
+ * path before any read. Liveness is solved backwards over the control flow graph, so it follows GOTO, IF, GOSUB
+ * and RETURN edges and loop back edges.
+ *
+ * The Interpreter's variables can be inspected once the program ends, through getIntVariables() and its float and
+ * string counterparts. By default every variable counts as read when the program ends, so those final values are
+ * kept; a store is only removed if it is overwritten first. A program that stops with a runtime error leaves its
+ * variables behind too, so every statement that can fail also counts as reading them all: a division, a builtin
+ * that parses or indexes, a read of a variable not assigned on every path, READ, INPUT, and a RETURN, NEXT or WHILE
+ * end label that may find the stack empty. Without that, stores that only set a final value go too.
+ *
+ * Removing an assignment must not remove a runtime error, so only assignments whose value cannot fail are
+ * removed: the right type for the variable, no impure or throwing builtins and no reads of a variable that is
+ * not assigned on every path to it. READ and INPUT are never removed, since they consume DATA and input.
+ */
+public class DeadStoreElimination implements OptimizationPass {
+
+    private final boolean keepFinalValues;
+
+    private int storesRemoved = 0;
+
+    public DeadStoreElimination() {
+        this(true);
+    }
+
+    /**
+     * @param keepFinalValues whether the values variables hold when the program ends must stay observable
+     */
+    public DeadStoreElimination(boolean keepFinalValues) {
+        this.keepFinalValues = keepFinalValues;
+    }
+
+    @Override
+    public String getName() {
+        return "dead-store-elimination";
+    }
+
+    // Number of assignments removed by the last run
+    public int getStoresRemoved() {
+        return storesRemoved;
+    }
+
+    @Override
+    public boolean run(ProgramNode programNode) {
+        storesRemoved = 0;
+        // Removing a store can leave the stores feeding it dead too; each round rebuilds the graph
+        while (true) {
+            Set<StatementNode> dead = findDeadStores(programNode);
+            if (dead == null || dead.isEmpty()) {
+                return storesRemoved > 0;
+            }
+            List<StatementNode> statements = programNode.getStatements();
+            List<StatementNode> result = new ArrayList<>();
+            for (StatementNode statement : statements) {
+                if (dead.contains(statement)) {
+                    continue;
+                }
+                if (statement instanceof LabeledStatementNode && dead.contains(((LabeledStatementNode) statement).getStatementNode())) {
+                    // The label may still be jumped to
+                    result.add(new LabeledStatementNode(((LabeledStatementNode) statement).getLabel(), null));
+                    continue;
+                }
+                result.add(statement);
+            }
+            storesRemoved += dead.size();
+            statements.clear();
+            statements.addAll(result);
+        }
+    }
+
+    // The assignments that can be removed, or null if the program has no control flow graph
+    private Set<StatementNode> findDeadStores(ProgramNode programNode) {
+        ControlFlowGraph graph;
+        try {
+            graph = ControlFlowGraph.build(programNode);
+        } catch (IllegalArgumentException e) {
+            // Labeled control statements are broken no-ops the graph cannot describe; leave such programs alone
+            return null;
+        }
+        List<BasicBlock> blocks = graph.getReachableBlocks();
+        if (blocks.isEmpty()) {
+            return null;
+        }
+        Set<String> allVariables = new HashSet<>();
+        for (BasicBlock block : blocks) {
+            for (Instruction instruction : block.getInstructions()) {
+                allVariables.addAll(instruction.variablesWritten());
+            }
+        }
+        List<StatementNode> statements = programNode.getStatements();
+        boolean returnCanEnd = !statements.isEmpty() && statements.get(statements.size() - 1) instanceof GoSubNode;
+        Map<BasicBlock, Set<String>> assignedIn = definitelyAssigned(graph, blocks);
+        Set<Instruction> failing = keepFinalValues ? mayFail(blocks, assignedIn) : Set.of();
+        Map<BasicBlock, Set<String>> liveOut = liveVariables(blocks, allVariables, returnCanEnd, failing);
+
+        Set<StatementNode> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (BasicBlock block : blocks) {
+            // Forwards: what is certainly assigned before each instruction
+            List<Instruction> instructions = block.getInstructions();
+            List<Set<String>> assignedBefore = new ArrayList<>();
+            Set<String> assigned = new HashSet<>(assignedIn.get(block));
+            for (Instruction instruction : instructions) {
+                assignedBefore.add(new HashSet<>(assigned));
+                assigned.addAll(instruction.variablesWritten());
+            }
+            // Backwards: what is read later
+            Set<String> live = new HashSet<>(liveOut.get(block));
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                Instruction instruction = instructions.get(i);
+                if (instruction instanceof Operation && isRemovable(((Operation) instruction).getStatement(), live, assignedBefore.get(i))) {
+                    dead.add(((Operation) instruction).getStatement());
+                    continue;
+                }
+                live.removeAll(instruction.variablesWritten());
+                live.addAll(instruction.variablesRead());
+                if (failing.contains(instruction)) {
+                    live.addAll(allVariables);
+                }
+            }
+        }
+        return dead;
+    }
+
+    private static boolean isRemovable(StatementNode statement, Set<String> live, Set<String> assigned) {
+        if (!(statement instanceof AssignmentNode)) {
+            return false;
+        }
+        AssignmentNode assignment = (AssignmentNode) statement;
+        Node value = assignment.getValue();
+        return !live.contains(assignment.getVariableNode().getName())
+                && Expressions.typeOf(value) == assignment.getVariableNode().getType()
+                && Expressions.isSafeToSpeculate(value)
+                && assigned.containsAll(Expressions.variablesRead(value));
+    }
+
+    /**
+     * The instructions that can stop the program with a runtime error, which leaves every variable as it was before
+     * the instruction ran.
+     */
+    private static Set<Instruction> mayFail(List<BasicBlock> blocks, Map<BasicBlock, Set<String>> assignedIn) {
+        Set<Instruction> failing = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (BasicBlock block : blocks) {
+            Set<String> assigned = new HashSet<>(assignedIn.get(block));
+            for (Instruction instruction : block.getInstructions()) {
+                if (mayFail(instruction, assigned)) {
+                    failing.add(instruction);
+                }
+                assigned.addAll(instruction.variablesWritten());
+            }
+        }
+        return failing;
+    }
+
+    private static boolean mayFail(Instruction instruction, Set<String> assigned) {
+        if (instruction instanceof Operation) {
+            StatementNode statement = ((Operation) instruction).getStatement();
+            if (statement instanceof LabeledStatementNode) {
+                statement = ((LabeledStatementNode) statement).getStatementNode();
+            }
+            if (statement instanceof AssignmentNode) {
+                AssignmentNode assignment = (AssignmentNode) statement;
+                return Expressions.typeOf(assignment.getValue()) != assignment.getVariableNode().getType()
+                        || mayFail(assignment.getValue(), assigned);
+            } else if (statement instanceof PrintNode) {
+                for (Node parameter : ((PrintNode) statement).getParameters()) {
+                    if (mayFail(parameter, assigned)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            // Labels, DATA and END do nothing that fails; READ, INPUT and anything else are not trusted
+            return statement != null && !(statement instanceof DataNode) && !(statement instanceof EndNode);
+        }
+        if (!(instruction instanceof Terminator)) {
+            return false;
+        }
+        Terminator terminator = (Terminator) instruction;
+        switch (terminator.getKind()) {
+            case RETURN:
+            case NEXT:
+            case WHILE_END:
+                return true;
+            case BRANCH:
+            case WHILE:
+                for (Node expression : Expressions.expressionsOf(terminator.getStatement())) {
+                    if (!(expression instanceof BooleanExpressionNode)) {
+                        return true;
+                    }
+                    BooleanExpressionNode condition = (BooleanExpressionNode) expression;
+                    // Comparing a string throws, as does anything that fails on its own
+                    if (!Expressions.isNumeric(Expressions.typeOf(condition.getLeft()))
+                            || !Expressions.isNumeric(Expressions.typeOf(condition.getRight()))
+                            || mayFail(condition.getLeft(), assigned) || mayFail(condition.getRight(), assigned)) {
+                        return true;
+                    }
+                }
+                return false;
+            case FOR:
+                for (Node expression : Expressions.expressionsOf(terminator.getStatement())) {
+                    if (Expressions.typeOf(expression) != InterpreterDataType.INTEGER || mayFail(expression, assigned)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean mayFail(Node expression, Set<String> assigned) {
+        return !Expressions.isSafeToSpeculate(expression) || !assigned.containsAll(Expressions.variablesRead(expression));
+    }
+
+    // Backward liveness of variable names; the variables live at the end of each block
+    private Map<BasicBlock, Set<String>> liveVariables(List<BasicBlock> blocks, Set<String> allVariables, boolean returnCanEnd,
+                                                       Set<Instruction> failing) {
+        Map<BasicBlock, Set<String>> liveIn = new HashMap<>();
+        Map<BasicBlock, Set<String>> liveOut = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            liveIn.put(block, new HashSet<>());
+            liveOut.put(block, new HashSet<>());
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                BasicBlock block = blocks.get(i);
+                Set<String> out = new HashSet<>();
+                if (keepFinalValues && canEndProgram(block.getTerminator(), returnCanEnd)) {
+                    out.addAll(allVariables);
+                }
+                for (BasicBlock successor : block.getSuccessors()) {
+                    out.addAll(liveIn.get(successor));
+                }
+                Set<String> in = new HashSet<>(out);
+                List<Instruction> instructions = block.getInstructions();
+                for (int j = instructions.size() - 1; j >= 0; j--) {
+                    in.removeAll(instructions.get(j).variablesWritten());
+                    in.addAll(instructions.get(j).variablesRead());
+                    if (failing.contains(instructions.get(j))) {
+                        in.addAll(allVariables);
+                    }
+                }
+                if (!out.equals(liveOut.get(block)) || !in.equals(liveIn.get(block))) {
+                    liveOut.put(block, out);
+                    liveIn.put(block, in);
+                    changed = true;
+                }
+            }
+        }
+        return liveOut;
+    }
+
+    /**
+     * True if the program can stop normally right after the block: at END, past the last statement, or by jumping
+     * to a missing label. The graph has no edge for these, so they are recognised by the edges that are missing.
+     *
+     * @param returnCanEnd whether a GOSUB is the last statement, so that returning from it ends the program
+     */
+    private static boolean canEndProgram(Terminator terminator, boolean returnCanEnd) {
+        switch (terminator.getKind()) {
+            case BRANCH:
+                return terminator.getTarget() == null || terminator.getSuccessors().size() < 2;
+            case GOSUB:
+                return terminator.getTarget() == null;
+            case RETURN:
+                return returnCanEnd || terminator.getSuccessors().isEmpty();
+            case FOR:
+            case WHILE:
+                return terminator.getSuccessors().size() < 2;
+            default:
+                return terminator.getSuccessors().isEmpty();
+        }
+    }
+
+    // Forward analysis of the variables assigned on every path to the start of each block
+    private static Map<BasicBlock, Set<String>> definitelyAssigned(ControlFlowGraph graph, List<BasicBlock> blocks) {
+        Map<BasicBlock, Set<String>> in = new HashMap<>();
+        Map<BasicBlock, Set<String>> out = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : blocks) {
+                Set<String> entry = block == graph.getEntry() ? new HashSet<>() : null;
+                for (BasicBlock predecessor : block.getPredecessors()) {
+                    Set<String> incoming = out.get(predecessor);
+                    if (incoming == null) {
+                        // Not reached yet: stands for every variable
+                        continue;
+                    }
+                    if (entry == null) {
+                        entry = new HashSet<>(incoming);
+                    } else {
+                        entry.retainAll(incoming);
+                    }
+                }
+                if (entry == null) {
+                    continue;
+                }
+                Set<String> exit = new HashSet<>(entry);
+                for (Instruction instruction : block.getInstructions()) {
+                    exit.addAll(instruction.variablesWritten());
+                }
+                if (!entry.equals(in.get(block)) || !exit.equals(out.get(block))) {
+                    in.put(block, entry);
+                    out.put(block, exit);
+                    changed = true;
+                }
+            }
+        }
+        for (BasicBlock block : blocks) {
+            in.putIfAbsent(block, new HashSet<>());
+        }
+        return in;
+    }
+}
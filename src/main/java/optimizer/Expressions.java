@@ -0,0 +1,440 @@
+package optimizer;
+
+import node.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Static helpers shared by the optimization passes for inspecting and rebuilding expression trees.
+ * All type rules mirror the ones the Interpreter enforces at runtime.
+ */
+public final class Expressions {
+
+    private Expressions() {}
+
+    // Strips the Expression/Term/Factor wrappers the parser puts around every operand
+    public static Node unwrap(Node node) {
+        while (true) {
+            if (node instanceof ExpressionNode) {
+                node = ((ExpressionNode) node).getNode();
+            } else if (node instanceof TermNode) {
+                node = ((TermNode) node).getNode();
+            } else if (node instanceof FactorNode) {
+                node = ((FactorNode) node).getNode();
+            } else {
+                return node;
+            }
+        }
+    }
+
+    // Wraps a node the same way the parser wraps a single-term expression
+    public static ExpressionNode wrap(Node node) {
+        if (node instanceof ExpressionNode) {
+            return (ExpressionNode) node;
+        }
+        if (node instanceof TermNode) {
+            return new ExpressionNode(node);
+        }
+        return new ExpressionNode(new TermNode(node));
+    }
+
+    // Literals and plain variable reads: nothing is gained by moving or caching them
+    public static boolean isTrivial(Node node) {
+        Node inner = unwrap(node);
+        return inner instanceof IntegerNode || inner instanceof FloatNode
+                || inner instanceof StringNode || inner instanceof VariableNode;
+    }
+
+    public static boolean isConstant(Node node) {
+        Node inner = unwrap(node);
+        return inner instanceof IntegerNode || inner instanceof FloatNode || inner instanceof StringNode;
+    }
+
+    /**
+     * Collects the names of every variable read by the expression.
+     */
+    public static Set<String> variablesRead(Node node) {
+        Set<String> names = new HashSet<>();
+        collectVariables(node, names);
+        return names;
+    }
+
+    private static void collectVariables(Node node, Set<String> names) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof VariableNode) {
+            names.add(((VariableNode) node).getName());
+        } else if (node instanceof MathOpNode) {
+            collectVariables(((MathOpNode) node).getLeft(), names);
+            collectVariables(((MathOpNode) node).getRight(), names);
+        } else if (node instanceof BooleanExpressionNode) {
+            collectVariables(((BooleanExpressionNode) node).getLeft(), names);
+            collectVariables(((BooleanExpressionNode) node).getRight(), names);
+        } else if (node instanceof FunctionNode) {
+            for (Node parameter : ((FunctionNode) node).getParameters()) {
+                collectVariables(parameter, names);
+            }
+        } else if (node instanceof ExpressionNode || node instanceof TermNode || node instanceof FactorNode) {
+            collectVariables(unwrap(node), names);
+        }
+    }
+
+    /**
+     * Returns the expressions evaluated by a statement, in evaluation order.
+     * Labeled statements report the expressions of the statement they wrap.
+     */
+    public static List<Node> expressionsOf(StatementNode statement) {
+        List<Node> expressions = new ArrayList<>();
+        if (statement instanceof LabeledStatementNode) {
+            StatementNode inner = ((LabeledStatementNode) statement).getStatementNode();
+            return inner == null ? expressions : expressionsOf(inner);
+        }
+        if (statement instanceof AssignmentNode) {
+            expressions.add(((AssignmentNode) statement).getValue());
+        } else if (statement instanceof PrintNode) {
+            expressions.addAll(((PrintNode) statement).getParameters());
+        } else if (statement instanceof IfNode) {
+            expressions.add(((IfNode) statement).getCondition());
+        } else if (statement instanceof WhileNode) {
+            expressions.add(((WhileNode) statement).getCondition());
+        } else if (statement instanceof ForNode) {
+            ForNode forNode = (ForNode) statement;
+            expressions.add(forNode.getInitialValue());
+            expressions.add(forNode.getLimit());
+            expressions.add(forNode.getIncrement());
+        }
+        return expressions;
+    }
+
+    /**
+     * Collects the names of every variable a statement may write.
+     */
+    public static Set<String> variablesAssigned(StatementNode statement) {
+        Set<String> names = new HashSet<>();
+        if (statement instanceof LabeledStatementNode) {
+            StatementNode inner = ((LabeledStatementNode) statement).getStatementNode();
+            return inner == null ? names : variablesAssigned(inner);
+        }
+        if (statement instanceof AssignmentNode) {
+            names.add(((AssignmentNode) statement).getVariableNode().getName());
+        } else if (statement instanceof ReadNode) {
+            for (VariableNode variable : ((ReadNode) statement).getVariables()) {
+                names.add(variable.getName());
+            }
+        } else if (statement instanceof InputNode) {
+            for (VariableNode variable : ((InputNode) statement).getVariables()) {
+                names.add(variable.getName());
+            }
+        } else if (statement instanceof ForNode) {
+            names.add(((ForNode) statement).getVariable().getName());
+        }
+        return names;
+    }
+
+    /**
+     * Computes the static type of an expression using the Interpreter's typing rules.
+     *
+     * @return the type, or null if the expression would fail a runtime type check or yields a boolean
+     */
+    public static InterpreterDataType typeOf(Node node) {
+        node = unwrap(node);
+        if (node instanceof IntegerNode) {
+            return InterpreterDataType.INTEGER;
+        }
+        if (node instanceof FloatNode) {
+            return InterpreterDataType.FLOAT;
+        }
+        if (node instanceof StringNode) {
+            return InterpreterDataType.STRING;
+        }
+        if (node instanceof VariableNode) {
+            return ((VariableNode) node).getType();
+        }
+        if (node instanceof MathOpNode) {
+            InterpreterDataType left = typeOf(((MathOpNode) node).getLeft());
+            InterpreterDataType right = typeOf(((MathOpNode) node).getRight());
+            if (!isNumeric(left) || !isNumeric(right)) {
+                return null;
+            }
+            MathOpNode.OPERATION operator = ((MathOpNode) node).getOperator();
+            if (operator == MathOpNode.OPERATION.SHIFT_LEFT || operator == MathOpNode.OPERATION.SHIFT_RIGHT) {
+                return left == InterpreterDataType.INTEGER && right == InterpreterDataType.INTEGER
+                        ? InterpreterDataType.INTEGER : null;
+            }
+            return left == InterpreterDataType.INTEGER && right == InterpreterDataType.INTEGER
+                    ? InterpreterDataType.INTEGER : InterpreterDataType.FLOAT;
+        }
+        if (node instanceof FunctionNode) {
+            return functionType((FunctionNode) node);
+        }
+        return null;
+    }
+
+    private static InterpreterDataType functionType(FunctionNode functionNode) {
+        List<Node> parameters = functionNode.getParameters();
+        List<InterpreterDataType> types = new ArrayList<>();
+        for (Node parameter : parameters) {
+            types.add(typeOf(parameter));
+        }
+        BuiltInFunctions.FUNCTION function = functionNode.getFunctionName();
+        if (function == null) {
+            return null;
+        }
+        switch (function) {
+            case RANDOM:
+                return types.isEmpty() || types.equals(List.of(InterpreterDataType.INTEGER, InterpreterDataType.INTEGER))
+                        ? InterpreterDataType.INTEGER : null;
+            case RANDOMF:
+                return types.isEmpty() || types.equals(List.of(InterpreterDataType.FLOAT, InterpreterDataType.FLOAT))
+                        ? InterpreterDataType.FLOAT : null;
+            case LEFT$:
+            case RIGHT$:
+                return types.equals(List.of(InterpreterDataType.STRING, InterpreterDataType.INTEGER))
+                        ? InterpreterDataType.STRING : null;
+            case MID$:
+                return types.equals(List.of(InterpreterDataType.STRING, InterpreterDataType.INTEGER, InterpreterDataType.INTEGER))
+                        ? InterpreterDataType.STRING : null;
+            case NUM$:
+                return types.size() >= 1 && isNumeric(types.get(0)) ? InterpreterDataType.STRING : null;
+            case VAL:
+                return types.size() >= 1 && types.get(0) == InterpreterDataType.STRING ? InterpreterDataType.INTEGER : null;
+            case VALF:
+                return types.size() >= 1 && types.get(0) == InterpreterDataType.STRING ? InterpreterDataType.FLOAT : null;
+            case POW:
+                return types.size() >= 2 && types.get(0) == InterpreterDataType.INTEGER && types.get(1) == InterpreterDataType.INTEGER
+                        ? InterpreterDataType.INTEGER : null;
+            case POWF:
+                return types.size() >= 2 && types.get(0) == InterpreterDataType.FLOAT && types.get(1) == InterpreterDataType.FLOAT
+                        ? InterpreterDataType.FLOAT : null;
+            case INT:
+                return types.size() >= 1 && isNumeric(types.get(0)) ? InterpreterDataType.INTEGER : null;
+            case FLOAT:
+            case TRUNCF:
+                return types.size() >= 1 && isNumeric(types.get(0)) ? InterpreterDataType.FLOAT : null;
+            default:
+                return null;
+        }
+    }
+
+    public static boolean isNumeric(InterpreterDataType type) {
+        return type == InterpreterDataType.INTEGER || type == InterpreterDataType.FLOAT;
+    }
+
+    /**
+     * An expression is pure when evaluating it twice yields the same value and changes no state.
+     * Only the RANDOM builtins are impure.
+     */
+    public static boolean isPure(Node node) {
+        node = unwrap(node);
+        if (node instanceof MathOpNode) {
+            return isPure(((MathOpNode) node).getLeft()) && isPure(((MathOpNode) node).getRight());
+        }
+        if (node instanceof BooleanExpressionNode) {
+            return isPure(((BooleanExpressionNode) node).getLeft()) && isPure(((BooleanExpressionNode) node).getRight());
+        }
+        if (node instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) node;
+            if (functionNode.getFunctionName() == BuiltInFunctions.FUNCTION.RANDOM
+                    || functionNode.getFunctionName() == BuiltInFunctions.FUNCTION.RANDOMF) {
+                return false;
+            }
+            for (Node parameter : functionNode.getParameters()) {
+                if (!isPure(parameter)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An expression is safe to speculate when it is pure, well typed and cannot throw once its variables are
+     * defined: no integer division by a non-constant or zero divisor, and no builtins that parse or index strings.
+     */
+    public static boolean isSafeToSpeculate(Node node) {
+        if (!isPure(node) || typeOf(node) == null) {
+            return false;
+        }
+        return cannotThrow(unwrap(node));
+    }
+
+    private static boolean cannotThrow(Node node) {
+        node = unwrap(node);
+        if (node instanceof MathOpNode) {
+            MathOpNode mathOpNode = (MathOpNode) node;
+            if (mathOpNode.getOperator() == MathOpNode.OPERATION.DIVIDE && typeOf(mathOpNode) == InterpreterDataType.INTEGER) {
+                Node divisor = unwrap(mathOpNode.getRight());
+                if (!(divisor instanceof IntegerNode) || ((IntegerNode) divisor).getInt() == 0) {
+                    return false;
+                }
+            }
+            return cannotThrow(mathOpNode.getLeft()) && cannotThrow(mathOpNode.getRight());
+        }
+        if (node instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) node;
+            switch (functionNode.getFunctionName()) {
+                case NUM$:
+                case POW:
+                case POWF:
+                case INT:
+                case FLOAT:
+                case TRUNCF:
+                    break;
+                default:
+                    return false;
+            }
+            for (Node parameter : functionNode.getParameters()) {
+                if (!cannotThrow(parameter)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds an expression tree top-down. The rewriter is offered every node first; if it returns a
+     * different node that node is used as-is, otherwise the children are rewritten recursively.
+     */
+    public static Node rewrite(Node node, UnaryOperator<Node> rewriter) {
+        if (node == null) {
+            return null;
+        }
+        Node replaced = rewriter.apply(node);
+        if (replaced != node) {
+            return replaced;
+        }
+        return mapChildren(node, child -> rewrite(child, rewriter));
+    }
+
+    /**
+     * Rebuilds an expression tree bottom-up: the children are rewritten first, then the rewriter is offered
+     * the rebuilt node.
+     */
+    public static Node rewriteBottomUp(Node node, UnaryOperator<Node> rewriter) {
+        if (node == null) {
+            return null;
+        }
+        return rewriter.apply(mapChildren(node, child -> rewriteBottomUp(child, rewriter)));
+    }
+
+    /**
+     * Returns a copy of the node with every direct child passed through the mapper,
+     * or the node itself if no child changed.
+     */
+    public static Node mapChildren(Node node, UnaryOperator<Node> mapper) {
+        if (node instanceof ExpressionNode) {
+            Node inner = mapper.apply(((ExpressionNode) node).getNode());
+            return inner == ((ExpressionNode) node).getNode() ? node : new ExpressionNode(inner);
+        }
+        if (node instanceof TermNode) {
+            Node inner = mapper.apply(((TermNode) node).getNode());
+            return inner == ((TermNode) node).getNode() ? node : new TermNode(inner);
+        }
+        if (node instanceof FactorNode) {
+            Node inner = mapper.apply(((FactorNode) node).getNode());
+            return inner == ((FactorNode) node).getNode() ? node : new FactorNode(inner);
+        }
+        if (node instanceof MathOpNode) {
+            MathOpNode mathOpNode = (MathOpNode) node;
+            Node left = mapper.apply(mathOpNode.getLeft());
+            Node right = mapper.apply(mathOpNode.getRight());
+            if (left == mathOpNode.getLeft() && right == mathOpNode.getRight()) {
+                return node;
+            }
+            return new MathOpNode(mathOpNode.getOperator(), left, right);
+        }
+        if (node instanceof BooleanExpressionNode) {
+            BooleanExpressionNode condition = (BooleanExpressionNode) node;
+            Node left = mapper.apply(condition.getLeft());
+            Node right = mapper.apply(condition.getRight());
+            if (left == condition.getLeft() && right == condition.getRight()) {
+                return node;
+            }
+            return new BooleanExpressionNode(wrap(left), condition.getOperator(), wrap(right));
+        }
+        if (node instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) node;
+            List<Node> parameters = new ArrayList<>();
+            boolean changed = false;
+            for (Node parameter : functionNode.getParameters()) {
+                Node mapped = mapper.apply(parameter);
+                changed |= mapped != parameter;
+                parameters.add(mapped);
+            }
+            if (!changed) {
+                return node;
+            }
+            FunctionNode copy = new FunctionNode(functionNode.getFunctionName());
+            copy.setParameters(parameters);
+            return copy;
+        }
+        return node;
+    }
+
+    /**
+     * Rebuilds a statement with every expression it evaluates rewritten top-down by the rewriter.
+     * Returns the original statement when nothing changed.
+     */
+    public static StatementNode rewriteStatement(StatementNode statement, UnaryOperator<Node> rewriter) {
+        return mapExpressions(statement, expression -> rewrite(expression, rewriter));
+    }
+
+    /**
+     * Rebuilds a statement with each of its expressions replaced by the mapper's result. Conditions of IF and
+     * WHILE statements are passed as a whole and must map to a BooleanExpressionNode. Returns the original
+     * statement when nothing changed; statements without expressions are returned as-is.
+     */
+    public static StatementNode mapExpressions(StatementNode statement, UnaryOperator<Node> mapper) {
+        if (statement instanceof LabeledStatementNode) {
+            LabeledStatementNode labeled = (LabeledStatementNode) statement;
+            if (labeled.getStatementNode() == null) {
+                return statement;
+            }
+            StatementNode inner = mapExpressions(labeled.getStatementNode(), mapper);
+            return inner == labeled.getStatementNode() ? statement : new LabeledStatementNode(labeled.getLabel(), inner);
+        }
+        if (statement instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) statement;
+            Node value = mapper.apply(assignment.getValue());
+            return value == assignment.getValue() ? statement : new AssignmentNode(assignment.getVariableNode(), value);
+        }
+        if (statement instanceof PrintNode) {
+            PrintNode printNode = (PrintNode) statement;
+            List<Node> parameters = new ArrayList<>();
+            boolean changed = false;
+            for (Node parameter : printNode.getParameters()) {
+                Node mapped = mapper.apply(parameter);
+                changed |= mapped != parameter;
+                parameters.add(mapped);
+            }
+            return changed ? new PrintNode(parameters) : statement;
+        }
+        if (statement instanceof IfNode) {
+            IfNode ifNode = (IfNode) statement;
+            Node condition = mapper.apply(ifNode.getCondition());
+            return condition == ifNode.getCondition() ? statement : new IfNode((BooleanExpressionNode) condition, ifNode.getLabel());
+        }
+        if (statement instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) statement;
+            Node condition = mapper.apply(whileNode.getCondition());
+            return condition == whileNode.getCondition() ? statement : new WhileNode((BooleanExpressionNode) condition, whileNode.getLabel());
+        }
+        if (statement instanceof ForNode) {
+            ForNode forNode = (ForNode) statement;
+            Node initialValue = mapper.apply(forNode.getInitialValue());
+            Node limit = mapper.apply(forNode.getLimit());
+            Node increment = mapper.apply(forNode.getIncrement());
+            if (initialValue == forNode.getInitialValue() && limit == forNode.getLimit() && increment == forNode.getIncrement()) {
+                return statement;
+            }
+            return new ForNode(forNode.getVariable(), initialValue, limit, increment);
+        }
+        return statement;
+    }
+}
@@ -0,0 +1,233 @@
+package optimizer;
+
+import interpreter.ExecutionProfile;
+import node.*;
+
+import java.util.*;
+
+/**
+ * Replaces GOSUB call sites with a private copy of the subroutine they call, removing the return-stack
+ * push, the label lookup and the pop on RETURN.
+ *
+ * A subroutine is the set of statements reachable from its label up to its RETURNs, not following nested
+ * GOSUBs. It is inlined when that set is no larger than the size budget, has a single entry (no label inside
+ * it other than the entry is jumped to from outside), contains at least one RETURN, and every path leaves it
+ * through a RETURN or END: any GOTO or IF that leaves the subroutine, and any FOR, NEXT or WHILE inside it,
+ * disqualifies it. The copy gets fresh labels; RETURNs become jumps to a label after the copy, except a final
+ * RETURN, which simply falls through. Nested GOSUBs stay calls in the copy, so their own frames still balance.
+ *
+ * With an execution profile, call sites that never ran are left alone and the growth budget goes to the most
+ * frequently used call sites first.
+ */
+public class GoSubInlining implements OptimizationPass {
+
+    public static final int DEFAULT_MAX_SUBROUTINE_SIZE = 8;
+    public static final int DEFAULT_MAX_GROWTH = 200;
+
+    private static final String LABEL_PREFIX = Temporaries.PREFIX + "inl";
+
+    private final int maxSubroutineSize;
+    private final int maxGrowth;
+
+    private int inlined = 0;
+    private int growth = 0;
+    private ExecutionProfile profile;
+
+    public GoSubInlining() {
+        this(DEFAULT_MAX_SUBROUTINE_SIZE, DEFAULT_MAX_GROWTH);
+    }
+
+    /**
+     * @param maxSubroutineSize the largest subroutine, in executable statements, that may be copied
+     * @param maxGrowth         the most statements the pass may add to the program in total
+     */
+    public GoSubInlining(int maxSubroutineSize, int maxGrowth) {
+        this.maxSubroutineSize = maxSubroutineSize;
+        this.maxGrowth = maxGrowth;
+    }
+
+    @Override
+    public String getName() {
+        return "gosub-inlining";
+    }
+
+    // Lets execution counts from an earlier run decide which call sites are worth their growth
+    public void setProfile(ExecutionProfile profile) {
+        this.profile = profile;
+    }
+
+    // Number of call sites replaced by the last run
+    public int getInlined() {
+        return inlined;
+    }
+
+    // Number of statements the last run added to the program
+    public int getGrowth() {
+        return growth;
+    }
+
+    @Override
+    public boolean run(ProgramNode programNode) {
+        inlined = 0;
+        growth = 0;
+        List<StatementNode> statements = programNode.getStatements();
+        ProgramIndex index = new ProgramIndex(statements);
+        Map<String, Optional<List<Integer>>> subroutines = new HashMap<>();
+        int counter = index.nextLabelNumber(LABEL_PREFIX);
+
+        // Plan in program order, or hottest first with a profile, so the growth budget favours those call sites,
+        // then splice from the back
+        List<Integer> callSites = new ArrayList<>();
+        for (int i = 0; i < statements.size(); i++) {
+            StatementNode statement = statements.get(i);
+            if (statement instanceof GoSubNode && !(profile != null && profile.isProfiled(statement) && profile.getCount(statement) == 0)) {
+                callSites.add(i);
+            }
+        }
+        if (profile != null) {
+            callSites.sort(Comparator.comparingLong((Integer i) -> -profile.getCount(statements.get(i))));
+        }
+        TreeMap<Integer, List<StatementNode>> plan = new TreeMap<>();
+        for (int i : callSites) {
+            String label = ((GoSubNode) statements.get(i)).getLabel();
+            Optional<List<Integer>> body = subroutines.computeIfAbsent(label, l -> inlinableBody(index, l));
+            if (body.isEmpty() || body.get().contains(i)) {
+                continue;
+            }
+            List<StatementNode> copy = copyBody(index, body.get(), LABEL_PREFIX + (counter++) + "_");
+            if (growth + copy.size() - 1 > maxGrowth) {
+                continue;
+            }
+            growth += copy.size() - 1;
+            plan.put(i, copy);
+        }
+        for (Map.Entry<Integer, List<StatementNode>> site : plan.descendingMap().entrySet()) {
+            statements.remove((int) site.getKey());
+            statements.addAll(site.getKey(), site.getValue());
+            inlined++;
+        }
+        return inlined > 0;
+    }
+
+    /**
+     * Returns the sorted statement indexes of the subroutine at the label, or empty if it cannot be inlined.
+     */
+    private Optional<List<Integer>> inlinableBody(ProgramIndex index, String label) {
+        int entry = index.indexOf(label);
+        if (entry < 0) {
+            return Optional.empty();
+        }
+        TreeSet<Integer> body = new TreeSet<>();
+        Deque<Integer> work = new ArrayDeque<>();
+        work.push(entry);
+        while (!work.isEmpty()) {
+            int current = work.pop();
+            if (!body.add(current)) {
+                continue;
+            }
+            StatementNode statement = index.get(current);
+            if (index.isWhileLabel(current) || statement instanceof ForNode || statement instanceof NextNode
+                    || statement instanceof WhileNode) {
+                return Optional.empty();
+            }
+            if (statement instanceof LabeledStatementNode && Statements.isControl(((LabeledStatementNode) statement).getStatementNode())) {
+                return Optional.empty();
+            }
+            // A jump to a missing label has no successor here; the copy keeps the label and fails the same way
+            for (int successor : index.successors(current)) {
+                if (statement instanceof GoSubNode && successor != current + 1) {
+                    continue;
+                }
+                work.push(successor);
+            }
+            // Falling off the end of the program would fall into the continuation once copied
+            if (current == index.size() - 1 && !(statement instanceof ReturnNode || statement instanceof GoToNode
+                    || statement instanceof EndNode)) {
+                return Optional.empty();
+            }
+        }
+
+        boolean returns = false;
+        int size = 0;
+        for (int i : body) {
+            StatementNode statement = index.get(i);
+            returns |= statement instanceof ReturnNode;
+            if (!(statement instanceof DataNode || statement instanceof ReturnNode
+                    || (statement instanceof LabeledStatementNode && ((LabeledStatementNode) statement).getStatementNode() == null))) {
+                size++;
+            }
+            if (i != entry && statement instanceof LabeledStatementNode && enteredFromOutside(index, body, i)) {
+                return Optional.empty();
+            }
+            // A nested GOSUB back into the body would land in the copy, whose RETURNs no longer pop
+            if (statement instanceof GoSubNode && body.contains(index.indexOf(((GoSubNode) statement).getLabel()))) {
+                return Optional.empty();
+            }
+        }
+        if (!returns || size > maxSubroutineSize) {
+            return Optional.empty();
+        }
+        return Optional.of(new ArrayList<>(body));
+    }
+
+    private boolean enteredFromOutside(ProgramIndex index, Set<Integer> body, int labeled) {
+        String label = ((LabeledStatementNode) index.get(labeled)).getLabel();
+        for (int i = 0; i < index.size(); i++) {
+            if (!body.contains(i) && label.equals(ProgramIndex.jumpLabel(index.get(i)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the subroutine statements in program order. Runs of statements that are not adjacent in the source
+     * always end in a jump, so concatenating them keeps every fall-through edge intact.
+     */
+    private List<StatementNode> copyBody(ProgramIndex index, List<Integer> body, String prefix) {
+        Set<String> defined = new HashSet<>();
+        Set<String> targeted = new HashSet<>();
+        for (int i : body) {
+            StatementNode statement = index.get(i);
+            if (statement instanceof LabeledStatementNode) {
+                defined.add(((LabeledStatementNode) statement).getLabel());
+            }
+            String target = ProgramIndex.jumpLabel(statement);
+            if (target != null) {
+                targeted.add(target);
+            }
+        }
+
+        String continuation = prefix + "return";
+        int last = body.get(body.size() - 1);
+        boolean continues = false;
+        List<StatementNode> copy = new ArrayList<>();
+        for (int i : body) {
+            StatementNode statement = index.get(i);
+            if (statement instanceof DataNode) {
+                // DATA is queued once before the program runs; a copy would queue it twice
+                continue;
+            }
+            if (statement instanceof ReturnNode) {
+                if (i != last) {
+                    copy.add(new GoToNode(continuation));
+                    continues = true;
+                }
+                continue;
+            }
+            if (statement instanceof LabeledStatementNode && !targeted.contains(((LabeledStatementNode) statement).getLabel())) {
+                // Only the GOSUBs outside reach this label, so the copy needs no label here
+                StatementNode inner = ((LabeledStatementNode) statement).getStatementNode();
+                if (inner != null && !(inner instanceof DataNode)) {
+                    copy.add(Statements.copy(inner));
+                }
+                continue;
+            }
+            copy.add(Statements.retarget(statement, label -> defined.contains(label) ? prefix + label : label));
+        }
+        if (continues) {
+            copy.add(new LabeledStatementNode(continuation, null));
+        }
+        return copy;
+    }
+}
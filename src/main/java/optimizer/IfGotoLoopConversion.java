@@ -0,0 +1,313 @@
+package optimizer;
+
+import ir.*;
+import node.*;
+
+import java.util.*;
+
+/**
+ * Rewrites loops written with IF and GOTO into WHILE/end-label loops, so the passes that work on structured
+ * loops (such as loop-invariant code motion) apply to them too.
+ *
+ * Candidates are natural loops of the control flow graph with a single back edge, an IF or GOTO, whose blocks
+ * span the statements from the header label to that back edge. Two shapes are recognised:
+ *
+ * <pre>
+ *   L:                                  WHILE NOT c end
+ *   IF c THEN done                        body
+ *   body                          =&gt;    end:
+ *   GOTO L                              GOTO done   (unless done follows)
+ *
+ *   L: s                                [s, body  when c may be false on entry]
+ *   body                          =&gt;    WHILE c end
+ *   IF c THEN L                           s, body
+ *                                       end:
+ * </pre>
+ *
+ * The Interpreter keeps a WHILE frame on its stack while the body runs and finds the end by scanning forward to
+ * the first WHILE end label, so the body may not leave the loop other than through END, may not hold FOR, NEXT,
+ * WHILE, RETURN or end labels, may only call subroutines that lie outside it and are free of loops, and no label
+ * inside it may be jumped to from outside. The same scan is why a loop is left alone when it lies between an
+ * enclosing WHILE and that WHILE's end label: the outer WHILE would stop at the end label the rewrite adds. A FOR
+ * loop is not used as the counted form: FOR only sets its counter when the variable is undefined, so re-entering
+ * the loop would resume from the stale counter.
+ */
+public class IfGotoLoopConversion implements OptimizationPass {
+
+    public static final int DEFAULT_MAX_PEEL_SIZE = 8;
+
+    private static final String LABEL_PREFIX = Temporaries.PREFIX + "loop";
+
+    private final int maxPeelSize;
+
+    private int converted = 0;
+    private int peeled = 0;
+
+    public IfGotoLoopConversion() {
+        this(DEFAULT_MAX_PEEL_SIZE);
+    }
+
+    /**
+     * @param maxPeelSize the largest body, in executable statements, that may be copied in front of a bottom-tested
+     *                    loop whose condition is not known to hold on entry
+     */
+    public IfGotoLoopConversion(int maxPeelSize) {
+        this.maxPeelSize = maxPeelSize;
+    }
+
+    @Override
+    public String getName() {
+        return "if-goto-loop-conversion";
+    }
+
+    // Number of loops rewritten by the last run
+    public int getConverted() {
+        return converted;
+    }
+
+    // Number of those loops that needed a copy of their body in front of them
+    public int getPeeled() {
+        return peeled;
+    }
+
+    @Override
+    public boolean run(ProgramNode programNode) {
+        converted = 0;
+        peeled = 0;
+        // Every rewrite removes a back edge, so this terminates; the graph is rebuilt because indexes shift
+        while (convertOne(programNode)) {
+            converted++;
+        }
+        return converted > 0;
+    }
+
+    private boolean convertOne(ProgramNode programNode) {
+        List<StatementNode> statements = programNode.getStatements();
+        ControlFlowGraph graph;
+        try {
+            graph = ControlFlowGraph.build(programNode);
+            SsaConstruction.construct(graph);
+        } catch (IllegalArgumentException e) {
+            // Labeled control statements are broken no-ops the graph cannot describe; leave such programs alone
+            return false;
+        }
+        ProgramIndex index = new ProgramIndex(statements);
+        for (NaturalLoop loop : NaturalLoop.find(graph, new DominatorTree(graph))) {
+            if (loop.isIfGotoLoop() && loop.getLatches().size() == 1) {
+                List<StatementNode> replacement = rewrite(index, loop);
+                if (replacement != null) {
+                    statements.clear();
+                    statements.addAll(replacement);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the rewritten statement list, or null if the loop does not have a shape that can be rewritten.
+     */
+    private List<StatementNode> rewrite(ProgramIndex index, NaturalLoop loop) {
+        BasicBlock latch = loop.getLatches().get(0);
+        int start = loop.getHeader().getSourceStart();
+        int end = latch.getSourceEnd();
+        if (start < 0 || end <= start || !(index.get(start) instanceof LabeledStatementNode)
+                || latch.getTerminator().getStatement() != index.get(end)) {
+            return null;
+        }
+        LabeledStatementNode header = (LabeledStatementNode) index.get(start);
+        if (!index.labelsEnteredFromOutside(start, end + 1).isEmpty() || isTargetedFrom(index, header.getLabel(), end)
+                || isInsideWhile(index, start)) {
+            return null;
+        }
+        String endLabel = LABEL_PREFIX + index.nextLabelNumber(LABEL_PREFIX) + "_end";
+        if (latch.getTerminator().getKind() == Terminator.KIND.JUMP) {
+            return rewriteTopTested(index, start, end, endLabel);
+        }
+        return rewriteBottomTested(index, loop, start, end, endLabel);
+    }
+
+    private List<StatementNode> rewriteTopTested(ProgramIndex index, int start, int end, String endLabel) {
+        if (((LabeledStatementNode) index.get(start)).getStatementNode() != null || !(index.get(start + 1) instanceof IfNode)) {
+            return null;
+        }
+        IfNode test = (IfNode) index.get(start + 1);
+        int done = index.indexOf(test.getLabel());
+        BooleanExpressionNode condition = test.getCondition();
+        if (done < 0 || (done >= start && done <= end) || !hasSimpleBody(index, start, start + 2, end)
+                || Expressions.typeOf(condition.getLeft()) != InterpreterDataType.INTEGER
+                || Expressions.typeOf(condition.getRight()) != InterpreterDataType.INTEGER) {
+            return null;
+        }
+        List<StatementNode> result = new ArrayList<>(index.getStatements().subList(0, start));
+        result.add(new WhileNode(new BooleanExpressionNode(condition.getLeft(), inverse(condition.getOperator()),
+                condition.getRight()), endLabel));
+        result.addAll(index.getStatements().subList(start + 2, end));
+        result.add(new LabeledStatementNode(endLabel, null));
+        if (done != end + 1) {
+            result.add(new GoToNode(test.getLabel()));
+        }
+        result.addAll(index.getStatements().subList(end + 1, index.size()));
+        return result;
+    }
+
+    private List<StatementNode> rewriteBottomTested(ProgramIndex index, NaturalLoop loop, int start, int end, String endLabel) {
+        StatementNode first = ((LabeledStatementNode) index.get(start)).getStatementNode();
+        // Labeled DATA is never queued; unwrapping it would queue it
+        if (first instanceof DataNode || !hasSimpleBody(index, start, start + 1, end)) {
+            return null;
+        }
+        IfNode test = (IfNode) index.get(end);
+        List<StatementNode> body = new ArrayList<>();
+        if (first != null) {
+            body.add(first);
+        }
+        body.addAll(index.getStatements().subList(start + 1, end));
+
+        List<StatementNode> result = new ArrayList<>(index.getStatements().subList(0, start));
+        if (!holdsOnEntry(test.getCondition(), loop, loop.getLatches().get(0))) {
+            List<StatementNode> copy = peel(body, endLabel.substring(0, endLabel.length() - "end".length()));
+            if (copy == null) {
+                return null;
+            }
+            result.addAll(copy);
+            peeled++;
+        }
+        result.add(new WhileNode(test.getCondition(), endLabel));
+        result.addAll(body);
+        result.add(new LabeledStatementNode(endLabel, null));
+        result.addAll(index.getStatements().subList(end + 1, index.size()));
+        return result;
+    }
+
+    private static boolean isTargetedFrom(ProgramIndex index, String label, int except) {
+        for (int i = 0; i < index.size(); i++) {
+            if (i != except && label.equals(ProgramIndex.jumpLabel(index.get(i)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether some WHILE before the statement exits past it, having no end label in between. Its exit scan
+     * would then stop at the end label a rewrite puts after the statement instead of its own.
+     */
+    private static boolean isInsideWhile(ProgramIndex index, int start) {
+        for (int i = 0; i < start; i++) {
+            if (index.get(i) instanceof WhileNode) {
+                int exit = index.whileEnd(i);
+                if (exit < 0 || exit >= start) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks the body statements in [from, end) may run under a WHILE frame: nothing leaves the body except END,
+     * nothing touches the runtime stack except GOSUBs to loop-free subroutines outside the loop [start, end].
+     */
+    private static boolean hasSimpleBody(ProgramIndex index, int start, int from, int end) {
+        for (int i = from; i < end; i++) {
+            StatementNode statement = index.get(i);
+            if (index.isWhileLabel(i) || statement instanceof ForNode || statement instanceof NextNode
+                    || statement instanceof WhileNode || statement instanceof ReturnNode) {
+                return false;
+            }
+            if (statement instanceof GoToNode || statement instanceof IfNode) {
+                int target = index.indexOf(ProgramIndex.jumpLabel(statement));
+                if (target < from || target >= end) {
+                    return false;
+                }
+            }
+            if (statement instanceof GoSubNode) {
+                for (int called : index.subroutineBody(((GoSubNode) statement).getLabel())) {
+                    StatementNode calledStatement = index.get(called);
+                    if ((called >= start && called <= end) || index.isWhileLabel(called) || calledStatement instanceof ForNode
+                            || calledStatement instanceof NextNode || calledStatement instanceof WhileNode) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the condition is known to hold when control first reaches the loop header, judged from
+     * variables that hold a constant on entry.
+     */
+    private static boolean holdsOnEntry(BooleanExpressionNode condition, NaturalLoop loop, BasicBlock latch) {
+        Number left = valueOnEntry(condition.getLeft(), loop, latch.getTerminator());
+        Number right = valueOnEntry(condition.getRight(), loop, latch.getTerminator());
+        return left != null && right != null && NaturalLoop.compare(left, condition.getOperator(), right);
+    }
+
+    private static Number valueOnEntry(Node node, NaturalLoop loop, Instruction test) {
+        node = Expressions.unwrap(node);
+        if (node instanceof IntegerNode) {
+            return ((IntegerNode) node).getInt();
+        }
+        if (node instanceof FloatNode) {
+            return ((FloatNode) node).getFloat();
+        }
+        if (node instanceof VariableNode) {
+            Value use = test.getUse(((VariableNode) node).getName());
+            Value entry = use == null ? null : loop.valueOnEntry(use);
+            return entry == null ? null : entry.getConstant();
+        }
+        return null;
+    }
+
+    /**
+     * Copies the loop body to run once in front of the loop, renaming the labels it defines. DATA is dropped
+     * because the original is still queued.
+     */
+    private List<StatementNode> peel(List<StatementNode> body, String prefix) {
+        Set<String> defined = new HashSet<>();
+        int size = 0;
+        for (StatementNode statement : body) {
+            if (statement instanceof LabeledStatementNode) {
+                defined.add(((LabeledStatementNode) statement).getLabel());
+                size += ((LabeledStatementNode) statement).getStatementNode() == null ? 0 : 1;
+            } else {
+                size++;
+            }
+        }
+        if (size > maxPeelSize) {
+            return null;
+        }
+        List<StatementNode> copy = new ArrayList<>();
+        for (StatementNode statement : body) {
+            if (statement instanceof DataNode) {
+                continue;
+            }
+            if (statement instanceof LabeledStatementNode && ((LabeledStatementNode) statement).getStatementNode() instanceof DataNode) {
+                copy.add(new LabeledStatementNode(prefix + ((LabeledStatementNode) statement).getLabel(), null));
+                continue;
+            }
+            copy.add(Statements.retarget(statement, label -> defined.contains(label) ? prefix + label : label));
+        }
+        return copy;
+    }
+
+    private static BooleanExpressionNode.OPERATOR inverse(BooleanExpressionNode.OPERATOR operator) {
+        switch (operator) {
+            case LESSTHAN:
+                return BooleanExpressionNode.OPERATOR.GREATERTHANEQUALTO;
+            case LESSTHANEQUALTO:
+                return BooleanExpressionNode.OPERATOR.GREATERTHAN;
+            case GREATERTHAN:
+                return BooleanExpressionNode.OPERATOR.LESSTHANEQUALTO;
+            case GREATERTHANEQUALTO:
+                return BooleanExpressionNode.OPERATOR.LESSTHAN;
+            case NOTEQUALS:
+                return BooleanExpressionNode.OPERATOR.EQUALS;
+            default:
+                return BooleanExpressionNode.OPERATOR.NOTEQUALS;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package optimizer;
+
+import node.*;
+
+import java.util.*;
+
+/**
+ * Loop-invariant code motion for innermost FOR/NEXT and WHILE/end-label loops.
+ *
+ * The Interpreter re-evaluates a FOR loop's limit and step and a WHILE loop's condition on every iteration.
+ * This pass evaluates invariant, non-trivial expressions once into a temporary placed directly before the loop
+ * header, and makes the loop read the temporary instead. An expression is invariant when none of the variables
+ * it reads can be written by the loop header, its body or any subroutine the body calls.
+ *
+ * The preheader runs before the FOR counter is initialized and before the WHILE condition's left operand, and the
+ * body may not run at all, so an expression is only hoisted when it cannot fail: it must be safe to speculate and
+ * every variable it reads must already be assigned on the straight-line path into the loop. Moving it then never
+ * changes which error a program stops with. The temporaries are left out of the variables an engine reports.
+ */
+public class LoopInvariantCodeMotion implements OptimizationPass {
+
+    private int hoisted = 0;
+
+    @Override
+    public String getName() {
+        return "loop-invariant-code-motion";
+    }
+
+    // Number of expressions moved out of loops by the last run
+    public int getHoisted() {
+        return hoisted;
+    }
+
+    @Override
+    public boolean run(ProgramNode programNode) {
+        hoisted = 0;
+        List<StatementNode> statements = programNode.getStatements();
+        ProgramIndex index = new ProgramIndex(statements);
+        Temporaries temporaries = new Temporaries("licm", statements);
+
+        List<LoopRegion> loops = LoopRegion.find(index);
+        // Walk backwards so inserting a preheader never shifts a loop that is still to be processed
+        for (int i = loops.size() - 1; i >= 0; i--) {
+            hoist(statements, index, loops.get(i), temporaries);
+        }
+        return hoisted > 0;
+    }
+
+    private void hoist(List<StatementNode> statements, ProgramIndex index, LoopRegion loop, Temporaries temporaries) {
+        Set<String> assigned = loop.assignedVariables(index);
+        Set<String> defined = definedBefore(index, loop.getHeader());
+        StatementNode header = index.get(loop.getHeader());
+
+        // Maps the unwrapped invariant expression to the temporary that will hold it
+        Map<Node, VariableNode> invariants = new LinkedHashMap<>();
+        List<Node> headerExpressions = new ArrayList<>();
+        if (header instanceof ForNode) {
+            headerExpressions.add(((ForNode) header).getLimit());
+            headerExpressions.add(((ForNode) header).getIncrement());
+        } else {
+            BooleanExpressionNode condition = ((WhileNode) header).getCondition();
+            headerExpressions.add(condition.getLeft());
+            headerExpressions.add(condition.getRight());
+        }
+        for (Node expression : headerExpressions) {
+            collect(expression, assigned, defined, invariants, temporaries);
+        }
+        for (int i = loop.getBodyStart(); i < loop.getEnd(); i++) {
+            for (Node expression : Expressions.expressionsOf(index.get(i))) {
+                collect(expression, assigned, defined, invariants, temporaries);
+            }
+        }
+        if (invariants.isEmpty()) {
+            return;
+        }
+
+        for (int i = loop.getHeader(); i < loop.getEnd(); i++) {
+            statements.set(i, Expressions.rewriteStatement(statements.get(i), node -> replace(node, invariants)));
+        }
+        List<StatementNode> preheader = new ArrayList<>();
+        for (Map.Entry<Node, VariableNode> invariant : invariants.entrySet()) {
+            preheader.add(new AssignmentNode(invariant.getValue(), Expressions.wrap(invariant.getKey())));
+        }
+        statements.addAll(loop.getHeader(), preheader);
+        hoisted += invariants.size();
+    }
+
+    // Records the largest invariant sub-expressions of an expression
+    private void collect(Node node, Set<String> assigned, Set<String> defined,
+                         Map<Node, VariableNode> invariants, Temporaries temporaries) {
+        Node inner = Expressions.unwrap(node);
+        if (inner instanceof BooleanExpressionNode) {
+            collect(((BooleanExpressionNode) inner).getLeft(), assigned, defined, invariants, temporaries);
+            collect(((BooleanExpressionNode) inner).getRight(), assigned, defined, invariants, temporaries);
+            return;
+        }
+        if (!(inner instanceof MathOpNode || inner instanceof FunctionNode)) {
+            return;
+        }
+        if (isInvariant(inner, assigned, defined)) {
+            if (!invariants.containsKey(inner)) {
+                invariants.put(inner, temporaries.next(Expressions.typeOf(inner)));
+            }
+            return;
+        }
+        if (inner instanceof MathOpNode) {
+            collect(((MathOpNode) inner).getLeft(), assigned, defined, invariants, temporaries);
+            collect(((MathOpNode) inner).getRight(), assigned, defined, invariants, temporaries);
+        } else {
+            for (Node parameter : ((FunctionNode) inner).getParameters()) {
+                collect(parameter, assigned, defined, invariants, temporaries);
+            }
+        }
+    }
+
+    private boolean isInvariant(Node node, Set<String> assigned, Set<String> defined) {
+        if (!Expressions.isPure(node) || Expressions.typeOf(node) == null) {
+            return false;
+        }
+        Set<String> reads = Expressions.variablesRead(node);
+        if (!Collections.disjoint(reads, assigned)) {
+            return false;
+        }
+        return Expressions.isSafeToSpeculate(node) && defined.containsAll(reads);
+    }
+
+    private Node replace(Node node, Map<Node, VariableNode> invariants) {
+        VariableNode temporary = invariants.get(Expressions.unwrap(node));
+        if (temporary == null) {
+            return node;
+        }
+        if (node instanceof ExpressionNode) {
+            return Expressions.wrap(temporary);
+        }
+        if (node instanceof TermNode) {
+            return new TermNode(temporary);
+        }
+        return temporary;
+    }
+
+    /**
+     * Returns the variables assigned on the straight-line path that every entry into the loop header must take.
+     * The scan stops at the nearest label, since a jump may enter there without running anything above it.
+     */
+    private Set<String> definedBefore(ProgramIndex index, int header) {
+        Set<String> defined = new HashSet<>();
+        for (int i = header - 1; i >= 0; i--) {
+            if (!index.successors(i).contains(i + 1)) {
+                break;
+            }
+            StatementNode statement = index.get(i);
+            defined.addAll(Expressions.variablesAssigned(statement));
+            if (statement instanceof LabeledStatementNode) {
+                break;
+            }
+        }
+        return defined;
+    }
+}
@@ -0,0 +1,136 @@
+package optimizer;
+
+import node.*;
+
+import java.util.*;
+
+/**
+ * A FOR/NEXT or WHILE/end-label loop whose body is a contiguous, single-entry range of top-level statements.
+ * Only innermost loops qualify: the body holds no other loop headers, NEXTs or WHILE end labels, and no label
+ * inside it is jumped to from outside the loop, so the statement before the header is a true preheader.
+ */
+public class LoopRegion {
+
+    public enum KIND {
+        FOR, WHILE
+    }
+
+    private final KIND kind;
+    private final int header;
+    private final int end;
+
+    private LoopRegion(KIND kind, int header, int end) {
+        this.kind = kind;
+        this.header = header;
+        this.end = end;
+    }
+
+    public KIND getKind() {
+        return kind;
+    }
+
+    // Index of the ForNode or WhileNode
+    public int getHeader() {
+        return header;
+    }
+
+    // Index of the NextNode or WHILE end label that closes the loop
+    public int getEnd() {
+        return end;
+    }
+
+    public int getBodyStart() {
+        return header + 1;
+    }
+
+    public int getBodySize() {
+        return end - header - 1;
+    }
+
+    /**
+     * Finds every well-formed innermost loop in the program, in program order.
+     */
+    public static List<LoopRegion> find(ProgramIndex index) {
+        List<LoopRegion> loops = new ArrayList<>();
+        for (int i = 0; i < index.size(); i++) {
+            StatementNode statement = index.get(i);
+            LoopRegion loop = null;
+            if (statement instanceof ForNode) {
+                int exit = index.forExit(i);
+                if (exit > 0) {
+                    NextNode nextNode = (NextNode) index.get(exit - 1);
+                    String counter = ((ForNode) statement).getVariable().getName();
+                    if (nextNode.getVariable() != null && counter.equals(nextNode.getVariable().getName())) {
+                        loop = new LoopRegion(KIND.FOR, i, exit - 1);
+                    }
+                }
+            } else if (statement instanceof WhileNode) {
+                int end = index.whileEnd(i);
+                if (end > 0 && ((LabeledStatementNode) index.get(end)).getLabel().equals(((WhileNode) statement).getLabel())) {
+                    loop = new LoopRegion(KIND.WHILE, i, end);
+                }
+            }
+            if (loop != null && loop.isSimple(index)) {
+                loops.add(loop);
+            }
+        }
+        return loops;
+    }
+
+    private boolean isSimple(ProgramIndex index) {
+        for (int i = getBodyStart(); i < end; i++) {
+            StatementNode statement = index.get(i);
+            StatementNode inner = statement instanceof LabeledStatementNode
+                    ? ((LabeledStatementNode) statement).getStatementNode() : statement;
+            if (inner instanceof ForNode || inner instanceof NextNode || inner instanceof WhileNode
+                    || index.isWhileLabel(i)) {
+                return false;
+            }
+        }
+        return index.labelsEnteredFromOutside(getBodyStart(), end).isEmpty();
+    }
+
+    /**
+     * Returns every variable that may be written while the loop runs: by the header, the body,
+     * or any subroutine the body calls.
+     */
+    public Set<String> assignedVariables(ProgramIndex index) {
+        Set<String> assigned = new HashSet<>(Expressions.variablesAssigned(index.get(header)));
+        for (int i = getBodyStart(); i < end; i++) {
+            StatementNode statement = index.get(i);
+            assigned.addAll(Expressions.variablesAssigned(statement));
+            if (statement instanceof GoSubNode) {
+                for (int callee : index.subroutineBody(((GoSubNode) statement).getLabel())) {
+                    assigned.addAll(Expressions.variablesAssigned(index.get(callee)));
+                }
+            }
+        }
+        return assigned;
+    }
+
+    // True if the loop body may leave the loop through a GOTO, IF or END
+    public boolean hasSideExits(ProgramIndex index) {
+        for (int i = getBodyStart(); i < end; i++) {
+            StatementNode statement = index.get(i);
+            if (statement instanceof EndNode || statement instanceof ReturnNode) {
+                return true;
+            }
+            if (statement instanceof LabeledStatementNode
+                    && ((LabeledStatementNode) statement).getStatementNode() instanceof EndNode) {
+                return true;
+            }
+            if (statement instanceof GoToNode || statement instanceof IfNode) {
+                int target = index.indexOf(ProgramIndex.jumpLabel(statement));
+                if (target < getBodyStart() || target >= end) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LoopRegion(%s, %d..%d)", kind, header, end);
+    }
+}
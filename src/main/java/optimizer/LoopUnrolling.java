@@ -0,0 +1,365 @@
+package optimizer;
+
+import interpreter.ExecutionProfile;
+import ir.*;
+import node.*;
+
+import java.util.*;
+
+/**
+ * Unrolls FOR loops whose start, limit and step are integer literals, removing the FOR/NEXT round trip, the
+ * stack push and pop and the counter update of each iteration.
+ *
+ * The Interpreter runs the body with I = start, then keeps adding the step while the previous value was below
+ * the limit, so FOR I = 1 TO 10 runs ten times and leaves I = 10, and a loop whose start is not below its limit
+ * runs zero times and leaves I = start. The counter is only set from the start value while I is undefined, so
+ * a loop is only unrolled when SSA form shows I undefined on every entry to it.
+ *
+ * A loop is fully unrolled when trips times body size stays within the size budget: each copy of the body reads
+ * the counter as a literal, and I is assigned in front of the first and the last copy. A copy that may fail
+ * part-way, through a jump, READ or INPUT, an expression that can throw or a mistyped assignment, gets I assigned
+ * in front of it too, so an error leaves I where the Interpreter would. A copy that runs straight through after
+ * the first one needs no assignment: the first copy already read every variable the body reads. Otherwise, a
+ * body small enough to be copied at least twice is unrolled by that factor inside the loop, with the counter
+ * stepped between the copies; the iterations left over are copied the same way in front of the loop, which then
+ * starts from a defined counter. Bodies that call subroutines keep reading I, so they get the counter assigned
+ * before every copy.
+ *
+ * Only innermost loops without side exits qualify, and neither the body nor any subroutine it calls may assign
+ * the counter or touch the runtime stack. The growth cap bounds the statements added over the whole program.
+ * With an execution profile, loops that never ran are left alone and the budget goes to the hottest loops first.
+ */
+public class LoopUnrolling implements OptimizationPass {
+
+    public static final int DEFAULT_MAX_UNROLLED_SIZE = 32;
+    public static final int DEFAULT_MAX_FACTOR = 4;
+    public static final int DEFAULT_MAX_GROWTH = 200;
+
+    private static final String LABEL_PREFIX = Temporaries.PREFIX + "unr";
+
+    private final int maxUnrolledSize;
+    private final int maxFactor;
+    private final int maxGrowth;
+
+    private int fullyUnrolled = 0;
+    private int partiallyUnrolled = 0;
+    private int growth = 0;
+    private int labelCounter = 0;
+    private ExecutionProfile profile;
+
+    public LoopUnrolling() {
+        this(DEFAULT_MAX_UNROLLED_SIZE, DEFAULT_MAX_FACTOR, DEFAULT_MAX_GROWTH);
+    }
+
+    /**
+     * @param maxUnrolledSize the most statements the copies of one body may add up to
+     * @param maxFactor       the most copies of the body a partially unrolled loop may hold
+     * @param maxGrowth       the most statements the pass may add to the program in total
+     */
+    public LoopUnrolling(int maxUnrolledSize, int maxFactor, int maxGrowth) {
+        this.maxUnrolledSize = maxUnrolledSize;
+        this.maxFactor = maxFactor;
+        this.maxGrowth = maxGrowth;
+    }
+
+    @Override
+    public String getName() {
+        return "loop-unrolling";
+    }
+
+    // Lets execution counts from an earlier run decide which loops are worth their growth
+    public void setProfile(ExecutionProfile profile) {
+        this.profile = profile;
+    }
+
+    // Number of loops the last run replaced by straight-line code
+    public int getFullyUnrolled() {
+        return fullyUnrolled;
+    }
+
+    // Number of loops the last run unrolled by a factor, keeping the loop
+    public int getPartiallyUnrolled() {
+        return partiallyUnrolled;
+    }
+
+    // Number of statements the last run added to the program
+    public int getGrowth() {
+        return growth;
+    }
+
+    @Override
+    public boolean run(ProgramNode programNode) {
+        fullyUnrolled = 0;
+        partiallyUnrolled = 0;
+        growth = 0;
+        List<StatementNode> statements = programNode.getStatements();
+        ProgramIndex index = new ProgramIndex(statements);
+        labelCounter = index.nextLabelNumber(LABEL_PREFIX);
+        Set<StatementNode> freshCounters;
+        try {
+            freshCounters = loopsEnteredWithUndefinedCounter(programNode);
+        } catch (IllegalArgumentException e) {
+            // Labeled control statements are broken no-ops the graph cannot describe; leave such programs alone
+            return false;
+        }
+
+        // Plan in program order, or hottest first with a profile, so the growth budget favours those loops,
+        // then splice from the back
+        List<LoopRegion> loops = new ArrayList<>();
+        for (LoopRegion loop : LoopRegion.find(index)) {
+            StatementNode header = index.get(loop.getHeader());
+            if (loop.getKind() == LoopRegion.KIND.FOR && freshCounters.contains(header)
+                    && !(profile != null && profile.isProfiled(header) && profile.getCount(header) == 0)) {
+                loops.add(loop);
+            }
+        }
+        if (profile != null) {
+            loops.sort(Comparator.comparingLong(loop -> -profile.getCount(index.get(loop.getHeader()))));
+        }
+        TreeMap<LoopRegion, List<StatementNode>> plan = new TreeMap<>(Comparator.comparingInt(LoopRegion::getHeader));
+        for (LoopRegion loop : loops) {
+            List<StatementNode> unrolled = unroll(index, loop);
+            if (unrolled != null) {
+                plan.put(loop, unrolled);
+            }
+        }
+        for (Map.Entry<LoopRegion, List<StatementNode>> entry : plan.descendingMap().entrySet()) {
+            LoopRegion loop = entry.getKey();
+            statements.subList(loop.getHeader(), loop.getEnd() + 1).clear();
+            statements.addAll(loop.getHeader(), entry.getValue());
+        }
+        return !plan.isEmpty();
+    }
+
+    /**
+     * Returns the FOR statements whose counter is undefined every time control enters the loop from outside.
+     */
+    private static Set<StatementNode> loopsEnteredWithUndefinedCounter(ProgramNode programNode) {
+        ControlFlowGraph graph = ControlFlowGraph.build(programNode);
+        SsaConstruction.construct(graph);
+        Set<StatementNode> fresh = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (NaturalLoop loop : NaturalLoop.find(graph, new DominatorTree(graph))) {
+            Terminator header = loop.getHeader().getTerminator();
+            if (header.getKind() != Terminator.KIND.FOR) {
+                continue;
+            }
+            Value counter = header.getUse(((ForNode) header.getStatement()).getVariable().getName());
+            Value entry = counter == null ? null : loop.valueOnEntry(counter);
+            if (entry != null && entry.isUndefined()) {
+                fresh.add(header.getStatement());
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     * Returns the statements replacing the loop from its FOR to its NEXT, or null if it is left alone.
+     */
+    private List<StatementNode> unroll(ProgramIndex index, LoopRegion loop) {
+        ForNode forNode = (ForNode) index.get(loop.getHeader());
+        VariableNode counter = forNode.getVariable();
+        Node start = Expressions.unwrap(forNode.getInitialValue());
+        Node limit = Expressions.unwrap(forNode.getLimit());
+        Node step = Expressions.unwrap(forNode.getIncrement());
+        if (counter.getType() != InterpreterDataType.INTEGER || !(start instanceof IntegerNode)
+                || !(limit instanceof IntegerNode) || !(step instanceof IntegerNode)
+                || ((IntegerNode) step).getInt() <= 0 || !hasSimpleBody(index, loop, counter.getName())) {
+            return null;
+        }
+        long first = ((IntegerNode) start).getInt();
+        long increment = ((IntegerNode) step).getInt();
+        long trips = tripCount(first, ((IntegerNode) limit).getInt(), increment);
+        // A counter that would overflow wraps around in the Interpreter and never stops
+        if (first + (trips - 1) * increment > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        List<StatementNode> body = index.getStatements().subList(loop.getBodyStart(), loop.getEnd());
+        boolean callsSubroutines = body.stream().anyMatch(statement -> statement instanceof GoSubNode);
+        int size = size(body);
+        // The loop's statements are the body plus its FOR and NEXT
+        if (trips * size <= maxUnrolledSize) {
+            List<StatementNode> unrolled = unrollFully(body, counter, (int) first, (int) increment, (int) trips, callsSubroutines);
+            int added = size(unrolled) - size - 2;
+            if (growth + added <= maxGrowth) {
+                growth += Math.max(0, added);
+                fullyUnrolled++;
+                return unrolled;
+            }
+        }
+        int factor = Math.min(maxFactor, size == 0 ? maxFactor : maxUnrolledSize / size);
+        if (factor < 2 || trips < 2L * factor) {
+            return null;
+        }
+        int leftOver = (int) (trips % factor);
+        List<StatementNode> unrolled = unrollPartially(forNode, body, counter, (int) first, (int) increment, factor,
+                leftOver, callsSubroutines);
+        int added = size(unrolled) - size - 2;
+        if (growth + added > maxGrowth) {
+            return null;
+        }
+        growth += added;
+        partiallyUnrolled++;
+        return unrolled;
+    }
+
+    // Number of times the Interpreter runs the body of FOR I = start TO limit STEP step, for a positive step
+    static long tripCount(long start, long limit, long step) {
+        if (start >= limit) {
+            return 0;
+        }
+        return 1 + (limit - start + step - 1) / step;
+    }
+
+    private List<StatementNode> unrollFully(List<StatementNode> body, VariableNode counter, int first, int step,
+                                            int trips, boolean callsSubroutines) {
+        List<StatementNode> result = new ArrayList<>();
+        if (trips == 0) {
+            // The body never runs, but its DATA is still queued
+            body.stream().filter(statement -> statement instanceof DataNode).forEach(result::add);
+            result.add(assign(counter, first));
+            return result;
+        }
+        for (int trip = 0; trip < trips; trip++) {
+            addCopy(result, body, trip == 0, counter, first + trip * step, trip == 0 || trip == trips - 1, callsSubroutines);
+        }
+        return result;
+    }
+
+    private List<StatementNode> unrollPartially(ForNode forNode, List<StatementNode> body, VariableNode counter,
+                                                int first, int step, int factor, int leftOver, boolean callsSubroutines) {
+        List<StatementNode> result = new ArrayList<>();
+        for (int trip = 0; trip < leftOver; trip++) {
+            // The FOR finds its counter defined and steps on from the last iteration run here
+            addCopy(result, body, false, counter, first + trip * step, trip == 0 || trip == leftOver - 1, callsSubroutines);
+        }
+        result.add(forNode);
+        for (int copy = 0; copy < factor; copy++) {
+            if (copy > 0) {
+                result.add(new AssignmentNode(counter, Expressions.wrap(new MathOpNode(MathOpNode.OPERATION.ADD,
+                        Expressions.wrap(counter), Expressions.wrap(new IntegerNode(step))))));
+            }
+            result.addAll(copyBody(body, copy == 0, null, 0));
+        }
+        result.add(new NextNode(counter));
+        return result;
+    }
+
+    /**
+     * Adds one copy of the body for the iteration with the given counter value, with the counter assigned in front
+     * of it when it has to be: always for the first and last copies and copies that call subroutines, and for any
+     * other copy that may fail part-way.
+     */
+    private void addCopy(List<StatementNode> result, List<StatementNode> body, boolean original, VariableNode counter,
+                         int value, boolean assignCounter, boolean callsSubroutines) {
+        List<StatementNode> copy = copyBody(body, original, callsSubroutines ? null : counter.getName(), value);
+        if (assignCounter || callsSubroutines || mayFail(copy)) {
+            result.add(assign(counter, value));
+        }
+        result.addAll(copy);
+    }
+
+    /**
+     * Returns true if the copy may stop with an error once the variables it reads are defined: it holds anything
+     * but well typed assignments, PRINT and DATA, or an expression that may throw.
+     */
+    private static boolean mayFail(List<StatementNode> copy) {
+        for (StatementNode statement : copy) {
+            if (statement instanceof LabeledStatementNode) {
+                statement = ((LabeledStatementNode) statement).getStatementNode();
+            }
+            if (statement == null || statement instanceof DataNode) {
+                continue;
+            }
+            if (statement instanceof AssignmentNode) {
+                AssignmentNode assignment = (AssignmentNode) statement;
+                if (Expressions.typeOf(assignment.getValue()) != assignment.getVariableNode().getType()) {
+                    return true;
+                }
+            } else if (!(statement instanceof PrintNode)) {
+                return true;
+            }
+            for (Node expression : Expressions.expressionsOf(statement)) {
+                if (!Expressions.isSafeToSpeculate(expression)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static AssignmentNode assign(VariableNode counter, int value) {
+        return new AssignmentNode(counter, Expressions.wrap(new IntegerNode(value)));
+    }
+
+    /**
+     * Copies the body, optionally replacing reads of the counter with its value. The original copy reuses the
+     * statement objects and labels; every other copy gets fresh labels and drops DATA, which is queued only once.
+     */
+    private List<StatementNode> copyBody(List<StatementNode> body, boolean original, String counter, int value) {
+        List<StatementNode> copy = new ArrayList<>();
+        Set<String> defined = new HashSet<>();
+        for (StatementNode statement : body) {
+            if (statement instanceof LabeledStatementNode) {
+                defined.add(((LabeledStatementNode) statement).getLabel());
+            }
+        }
+        String prefix = LABEL_PREFIX + (labelCounter++) + "_";
+        for (StatementNode statement : body) {
+            StatementNode copied = statement;
+            if (!original) {
+                if (statement instanceof DataNode) {
+                    continue;
+                }
+                if (statement instanceof LabeledStatementNode && ((LabeledStatementNode) statement).getStatementNode() instanceof DataNode) {
+                    copied = new LabeledStatementNode(((LabeledStatementNode) statement).getLabel(), null);
+                }
+                copied = Statements.retarget(copied, label -> defined.contains(label) ? prefix + label : label);
+            }
+            if (counter != null) {
+                copied = Expressions.rewriteStatement(copied, node -> node instanceof VariableNode
+                        && ((VariableNode) node).getName().equals(counter) ? new IntegerNode(value) : node);
+            }
+            copy.add(copied);
+        }
+        return copy;
+    }
+
+    private static int size(List<StatementNode> body) {
+        int size = 0;
+        for (StatementNode statement : body) {
+            if (!(statement instanceof LabeledStatementNode) || ((LabeledStatementNode) statement).getStatementNode() != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Checks the body leaves the counter and the runtime stack alone: no side exits, no RETURN, no assignment to
+     * the counter, and only calls to loop-free subroutines outside the loop that do not assign it either.
+     */
+    private static boolean hasSimpleBody(ProgramIndex index, LoopRegion loop, String counter) {
+        if (loop.hasSideExits(index)) {
+            return false;
+        }
+        for (int i = loop.getBodyStart(); i < loop.getEnd(); i++) {
+            StatementNode statement = index.get(i);
+            if (Expressions.variablesAssigned(statement).contains(counter)) {
+                return false;
+            }
+            if (statement instanceof GoSubNode) {
+                for (int called : index.subroutineBody(((GoSubNode) statement).getLabel())) {
+                    StatementNode calledStatement = index.get(called);
+                    if ((called >= loop.getHeader() && called <= loop.getEnd()) || index.isWhileLabel(called)
+                            || calledStatement instanceof ForNode || calledStatement instanceof NextNode
+                            || calledStatement instanceof WhileNode
+                            || Expressions.variablesAssigned(calledStatement).contains(counter)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package optimizer;
+
+import node.ProgramNode;
+
+/**
+ * A transformation over the top-level statement list of a ProgramNode.
+ * Passes rewrite the program in place and must leave its observable behaviour unchanged.
+ */
+public interface OptimizationPass {
+
+    /**
+     * @return a short, human-readable name for diagnostics
+     */
+    String getName();
+
+    /**
+     * Runs the pass over the program.
+     *
+     * @param programNode the program to rewrite in place
+     * @return true if the program was changed
+     */
+    boolean run(ProgramNode programNode);
+}
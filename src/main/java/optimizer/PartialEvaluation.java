@@ -0,0 +1,207 @@
+package optimizer;
+
+import interpreter.Interpreter;
+import node.*;
+
+import java.util.*;
+
+/**
+ * Partially evaluates a program against its DATA section. DATA is known before the program starts, so the
+ * deterministic prefix of a run, up to the first INPUT or RANDOM, can be executed ahead of time: its READs are
+ * folded into constants and the program is replaced by a residual program that replays the prefix's output as
+ * literal PRINTs, sets every variable to the value it had, and jumps to where the prefix stopped.
+ *
+ * The prefix is run on the Interpreter itself, so it behaves exactly like a real run. It can only stop where
+ * the runtime stack is empty, because GOSUB return points and FOR/WHILE frames cannot be recreated, so it ends
+ * at the last such point before a statement that reads input, calls RANDOM, fails, exceeds the step budget or
+ * exceeds the output budget. The residual program keeps the unconsumed DATA and all original code, since later
+ * jumps may still reach code before the resume point.
+ */
+public class PartialEvaluation implements OptimizationPass {
+
+    public static final int DEFAULT_MAX_STEPS = 1_000_000;
+    public static final int DEFAULT_MAX_PRINTS = 1_000;
+
+    private static final String LABEL_PREFIX = Temporaries.PREFIX + "pe";
+
+    private final int maxSteps;
+    private final int maxPrints;
+
+    private int stepsEvaluated = 0;
+    private int readsFolded = 0;
+    private boolean completed = false;
+
+    public PartialEvaluation() {
+        this(DEFAULT_MAX_STEPS, DEFAULT_MAX_PRINTS);
+    }
+
+    /**
+     * @param maxSteps  the most statements the prefix may execute
+     * @param maxPrints the most PRINT statements the prefix may execute, each of which becomes a residual PRINT
+     */
+    public PartialEvaluation(int maxSteps, int maxPrints) {
+        this.maxSteps = maxSteps;
+        this.maxPrints = maxPrints;
+    }
+
+    @Override
+    public String getName() {
+        return "partial-evaluation";
+    }
+
+    // Number of statements the last run executed ahead of time
+    public int getStepsEvaluated() {
+        return stepsEvaluated;
+    }
+
+    // Number of READ statements the last run folded into constants
+    public int getReadsFolded() {
+        return readsFolded;
+    }
+
+    // True if the last run evaluated the whole program, leaving nothing to run but its output
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    @Override
+    public boolean run(ProgramNode programNode) {
+        stepsEvaluated = 0;
+        readsFolded = 0;
+        completed = false;
+        List<StatementNode> statements = programNode.getStatements();
+        int safeSteps = findPrefix(programNode);
+        if (safeSteps == 0) {
+            return false;
+        }
+
+        // Replay the prefix up to the chosen stopping point, recording the output of each PRINT
+        Interpreter interpreter = prepare(programNode);
+        List<StatementNode> residual = new ArrayList<>();
+        for (int i = 0; i < safeSteps; i++) {
+            StatementNode statement = inner(interpreter.getCurrent());
+            int before = interpreter.getOutput().size();
+            interpreter.step();
+            if (statement instanceof PrintNode) {
+                List<Node> values = new ArrayList<>();
+                for (String value : interpreter.getOutput().subList(before, interpreter.getOutput().size())) {
+                    values.add(Expressions.wrap(new StringNode(value)));
+                }
+                residual.add(new PrintNode(values));
+            } else if (statement instanceof ReadNode) {
+                readsFolded++;
+            }
+        }
+        List<StatementNode> assignments = assignments(interpreter);
+        if (assignments == null) {
+            return false;
+        }
+        stepsEvaluated = safeSteps;
+        residual.addAll(assignments);
+        if (!interpreter.isRunning()) {
+            completed = true;
+            statements.clear();
+            statements.addAll(residual);
+            return true;
+        }
+
+        if (!interpreter.getDataQueue().isEmpty()) {
+            residual.add(new DataNode(new ArrayList<>(interpreter.getDataQueue())));
+        }
+        String resume = LABEL_PREFIX + new ProgramIndex(statements).nextLabelNumber(LABEL_PREFIX) + "_resume";
+        residual.add(new GoToNode(resume));
+        for (StatementNode statement : statements) {
+            if (statement == interpreter.getCurrent()) {
+                residual.add(new LabeledStatementNode(resume, null));
+            }
+            // The DATA still to be read was queued above
+            if (!(statement instanceof DataNode)) {
+                residual.add(statement);
+            }
+        }
+        statements.clear();
+        statements.addAll(residual);
+        return true;
+    }
+
+    /**
+     * Runs the program as far as it is deterministic and returns the number of steps up to the last point at
+     * which the residual program can take over.
+     */
+    private int findPrefix(ProgramNode programNode) {
+        Interpreter interpreter = prepare(programNode);
+        int steps = 0;
+        int prints = 0;
+        int safeSteps = 0;
+        while (interpreter.isRunning() && steps < maxSteps) {
+            StatementNode statement = inner(interpreter.getCurrent());
+            if (!isDeterministic(statement) || (statement instanceof PrintNode && prints == maxPrints)) {
+                return safeSteps;
+            }
+            try {
+                interpreter.step();
+            } catch (RuntimeException e) {
+                // The failure happens again when the residual program runs this statement
+                return safeSteps;
+            }
+            steps++;
+            prints += statement instanceof PrintNode ? 1 : 0;
+            if (interpreter.getStackDepth() == 0 || !interpreter.isRunning()) {
+                safeSteps = steps;
+            }
+        }
+        return safeSteps;
+    }
+
+    private static Interpreter prepare(ProgramNode programNode) {
+        // The prefix only runs to capture its output, so its PRINTs leave stdout alone
+        Interpreter interpreter = new Interpreter(programNode) {
+            @Override
+            protected void endLine() {
+            }
+        };
+        interpreter.setTestMode(true);
+        interpreter.start();
+        return interpreter;
+    }
+
+    private static StatementNode inner(StatementNode statement) {
+        return statement instanceof LabeledStatementNode ? ((LabeledStatementNode) statement).getStatementNode() : statement;
+    }
+
+    private static boolean isDeterministic(StatementNode statement) {
+        if (statement instanceof InputNode) {
+            return false;
+        }
+        for (Node expression : Expressions.expressionsOf(statement)) {
+            if (!Expressions.isPure(expression)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns assignments that give every variable the value it holds in the interpreter, in a stable order, or
+     * null if some value cannot be assigned back, such as an integer FOR counter with a float variable's name.
+     */
+    private static List<StatementNode> assignments(Interpreter interpreter) {
+        List<StatementNode> assignments = new ArrayList<>();
+        Map<String, Node> values = new TreeMap<>();
+        interpreter.getAllIntVariables().forEach((name, value) -> values.put(name, new IntegerNode(value)));
+        interpreter.getAllFloatVariables().forEach((name, value) -> values.put(name, new FloatNode(value)));
+        interpreter.getAllStringVariables().forEach((name, value) -> values.put(name, new StringNode(value)));
+        if (values.size() != interpreter.getAllIntVariables().size() + interpreter.getAllFloatVariables().size()
+                + interpreter.getAllStringVariables().size()) {
+            return null;
+        }
+        for (Map.Entry<String, Node> value : values.entrySet()) {
+            VariableNode variable = new VariableNode(value.getKey());
+            if (variable.getType() != Expressions.typeOf(value.getValue())) {
+                return null;
+            }
+            assignments.add(new AssignmentNode(variable, Expressions.wrap(value.getValue())));
+        }
+        return assignments;
+    }
+}
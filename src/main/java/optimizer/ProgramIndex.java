@@ -0,0 +1,199 @@
+package optimizer;
+
+import node.*;
+
+import java.util.*;
+
+/**
+ * A read-only view of a program's top-level statement list that resolves labels and jump targets to list indexes.
+ * Successors follow the Interpreter's control flow: statements wrapped in a label run in place and fall through,
+ * FOR and WHILE exit to the statement after the first NEXT or WHILE end label that follows them.
+ */
+public class ProgramIndex {
+
+    private final List<StatementNode> statements;
+    private final Map<String, Integer> labels = new HashMap<>();
+    private final Set<String> whileLabels = new HashSet<>();
+
+    public ProgramIndex(List<StatementNode> statements) {
+        this.statements = statements;
+        for (int i = 0; i < statements.size(); i++) {
+            StatementNode statement = statements.get(i);
+            if (statement instanceof LabeledStatementNode) {
+                labels.put(((LabeledStatementNode) statement).getLabel(), i);
+            } else if (statement instanceof WhileNode) {
+                whileLabels.add(((WhileNode) statement).getLabel());
+            }
+        }
+    }
+
+    public List<StatementNode> getStatements() {
+        return statements;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    public StatementNode get(int index) {
+        return statements.get(index);
+    }
+
+    // Index of the labeled statement, or -1 if no such label exists
+    public int indexOf(String label) {
+        Integer index = labels.get(label);
+        return index == null ? -1 : index;
+    }
+
+    public Map<String, Integer> getLabels() {
+        return labels;
+    }
+
+    public boolean isWhileLabel(int index) {
+        StatementNode statement = statements.get(index);
+        return statement instanceof LabeledStatementNode
+                && whileLabels.contains(((LabeledStatementNode) statement).getLabel());
+    }
+
+    /**
+     * Returns one more than the highest N among labels of the form prefix + N + "_", so passes that generate
+     * labels can keep numbering them across runs without clashes.
+     */
+    public int nextLabelNumber(String prefix) {
+        int next = 0;
+        for (String label : labels.keySet()) {
+            int separator = label.indexOf('_', prefix.length());
+            if (label.startsWith(prefix) && separator > 0) {
+                try {
+                    next = Math.max(next, Integer.parseInt(label.substring(prefix.length(), separator)) + 1);
+                } catch (NumberFormatException e) {
+                    // Not a generated label
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Returns the label jumped to by a GOTO, IF or GOSUB statement, or null for any other statement.
+     * Jumps wrapped in a label are ignored, the Interpreter discards their result.
+     */
+    public static String jumpLabel(StatementNode statement) {
+        if (statement instanceof GoToNode) {
+            return ((GoToNode) statement).getLabel();
+        }
+        if (statement instanceof IfNode) {
+            return ((IfNode) statement).getLabel();
+        }
+        if (statement instanceof GoSubNode) {
+            return ((GoSubNode) statement).getLabel();
+        }
+        return null;
+    }
+
+    // The index the Interpreter continues at when a FOR loop finishes, or -1 if it would fall off the program
+    public int forExit(int forIndex) {
+        for (int i = forIndex + 1; i < statements.size(); i++) {
+            if (statements.get(i) instanceof NextNode) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    // The index of the end label a WHILE loop exits through, or -1 if there is none
+    public int whileEnd(int whileIndex) {
+        for (int i = whileIndex + 1; i < statements.size(); i++) {
+            if (isWhileLabel(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the statically known successors of a statement. RETURN, NEXT and WHILE end labels pop the runtime
+     * stack and have no static successors here; GOSUB reports both its target and its return point.
+     */
+    public List<Integer> successors(int index) {
+        StatementNode statement = statements.get(index);
+        List<Integer> successors = new ArrayList<>();
+        if (statement instanceof GoToNode) {
+            addIfPresent(successors, indexOf(((GoToNode) statement).getLabel()));
+        } else if (statement instanceof IfNode) {
+            addIfPresent(successors, indexOf(((IfNode) statement).getLabel()));
+            addIfPresent(successors, fallThrough(index));
+        } else if (statement instanceof GoSubNode) {
+            addIfPresent(successors, indexOf(((GoSubNode) statement).getLabel()));
+            addIfPresent(successors, fallThrough(index));
+        } else if (statement instanceof ForNode) {
+            addIfPresent(successors, fallThrough(index));
+            addIfPresent(successors, forExit(index));
+        } else if (statement instanceof WhileNode) {
+            addIfPresent(successors, fallThrough(index));
+            int end = whileEnd(index);
+            addIfPresent(successors, end < 0 ? -1 : fallThrough(end));
+        } else if (statement instanceof ReturnNode || statement instanceof NextNode
+                || statement instanceof EndNode || isWhileLabel(index)) {
+            return successors;
+        } else if (statement instanceof LabeledStatementNode
+                && ((LabeledStatementNode) statement).getStatementNode() instanceof EndNode) {
+            return successors;
+        } else {
+            addIfPresent(successors, fallThrough(index));
+        }
+        return successors;
+    }
+
+    private int fallThrough(int index) {
+        return index + 1 < statements.size() ? index + 1 : -1;
+    }
+
+    private static void addIfPresent(List<Integer> list, int index) {
+        if (index >= 0 && !list.contains(index)) {
+            list.add(index);
+        }
+    }
+
+    /**
+     * Returns every statement index reachable from the entry of a subroutine up to its RETURNs,
+     * following nested GOSUBs into their own bodies.
+     */
+    public Set<Integer> subroutineBody(String label) {
+        Set<Integer> visited = new TreeSet<>();
+        int entry = indexOf(label);
+        if (entry < 0) {
+            return visited;
+        }
+        Deque<Integer> work = new ArrayDeque<>();
+        work.push(entry);
+        while (!work.isEmpty()) {
+            int current = work.pop();
+            if (!visited.add(current)) {
+                continue;
+            }
+            for (int successor : successors(current)) {
+                work.push(successor);
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Returns the labels inside [from, to) that are targeted by a jump located outside of that range.
+     */
+    public Set<String> labelsEnteredFromOutside(int from, int to) {
+        Set<String> entered = new HashSet<>();
+        for (int i = 0; i < statements.size(); i++) {
+            if (i >= from && i < to) {
+                continue;
+            }
+            String label = jumpLabel(statements.get(i));
+            int target = label == null ? -1 : indexOf(label);
+            if (target >= from && target < to) {
+                entered.add(label);
+            }
+        }
+        return entered;
+    }
+}
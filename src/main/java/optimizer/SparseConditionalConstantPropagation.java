@@ -0,0 +1,357 @@
+package optimizer;
+
+import ir.*;
+import node.*;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck) over the SSA form of the whole program. Every SSA
+ * value starts out unknown and is lowered to a constant or to "varies" as the blocks that define it are found to
+ * be executable. Only the successors a branch can actually take are followed, so a constant set at the top of the
+ * program and tested many statements and labels later decides the test, and the code the test skips never
+ * contributes to the phis it reaches.
+ *
+ * The program is then rewritten:
+ * - reads of variables that always hold one value become literals, and expressions left without variables are
+ *   folded with the Interpreter's arithmetic;
+ * - an IF that always jumps becomes a GOTO and an IF that never jumps is removed;
+ * - statements in blocks that never run are removed, leaving their labels behind. FOR, NEXT, WHILE and DATA
+ *   stay, because the Interpreter finds loop exits and queues DATA by scanning the statement list.
+ *
+ * Assignments are kept even when every read of them was replaced, so the variables hold the same values when the
+ * program ends. Reading a variable before it is assigned is an error at runtime, so such reads are never constant.
+ */
+public class SparseConditionalConstantPropagation implements OptimizationPass {
+
+    // Lattice bottom: the value is not the same on every run. Top, not yet known, is the absence of an entry.
+    private static final Object VARIES = new Object();
+
+    private final Map<Value, Object> values = new HashMap<>();
+    private final Set<BasicBlock> executable = new HashSet<>();
+    private final Map<BasicBlock, Set<BasicBlock>> executableEdges = new HashMap<>();
+    private final Map<Value, List<Instruction>> users = new HashMap<>();
+    private final Deque<BasicBlock> blockWork = new ArrayDeque<>();
+    private final Deque<Instruction> instructionWork = new ArrayDeque<>();
+
+    private int constantsPropagated = 0;
+    private int branchesFolded = 0;
+    private int statementsRemoved = 0;
+
+    @Override
+    public String getName() {
+        return "sccp";
+    }
+
+    // Number of variable reads the last run replaced with literals
+    public int getConstantsPropagated() {
+        return constantsPropagated;
+    }
+
+    // Number of IF statements the last run turned into a GOTO or removed
+    public int getBranchesFolded() {
+        return branchesFolded;
+    }
+
+    // Number of statements the last run removed because they can never run
+    public int getStatementsRemoved() {
+        return statementsRemoved;
+    }
+
+    @Override
+    public boolean run(ProgramNode programNode) {
+        constantsPropagated = 0;
+        branchesFolded = 0;
+        statementsRemoved = 0;
+        ControlFlowGraph graph;
+        try {
+            graph = ControlFlowGraph.build(programNode);
+            SsaConstruction.construct(graph);
+        } catch (IllegalArgumentException e) {
+            // Labeled control statements are broken no-ops the graph cannot describe; leave such programs alone
+            return false;
+        }
+        if (graph.getEntry() == null) {
+            return false;
+        }
+        analyze(graph);
+        boolean changed = rewrite(programNode, graph);
+        clear();
+        return changed;
+    }
+
+    private void clear() {
+        values.clear();
+        executable.clear();
+        executableEdges.clear();
+        users.clear();
+        blockWork.clear();
+        instructionWork.clear();
+    }
+
+    private void analyze(ControlFlowGraph graph) {
+        for (BasicBlock block : graph.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                Collection<Value> read = instruction instanceof Phi
+                        ? ((Phi) instruction).getOperands().values() : instruction.getUses().values();
+                for (Value value : read) {
+                    users.computeIfAbsent(value, v -> new ArrayList<>()).add(instruction);
+                }
+            }
+        }
+        markEdge(null, graph.getEntry());
+        while (!blockWork.isEmpty() || !instructionWork.isEmpty()) {
+            if (!blockWork.isEmpty()) {
+                for (Instruction instruction : blockWork.pop().getInstructions()) {
+                    visit(instruction);
+                }
+            } else {
+                Instruction instruction = instructionWork.pop();
+                if (executable.contains(instruction.getBlock())) {
+                    visit(instruction);
+                }
+            }
+        }
+    }
+
+    private void markEdge(BasicBlock from, BasicBlock to) {
+        if (!executableEdges.computeIfAbsent(to, b -> new HashSet<>()).add(from)) {
+            return;
+        }
+        if (executable.add(to)) {
+            blockWork.push(to);
+        } else {
+            // A new incoming edge can only change the phis
+            instructionWork.addAll(to.getPhis());
+        }
+    }
+
+    private void visit(Instruction instruction) {
+        if (instruction instanceof Phi) {
+            Phi phi = (Phi) instruction;
+            Set<BasicBlock> incoming = executableEdges.getOrDefault(phi.getBlock(), Set.of());
+            Object merged = null;
+            for (Map.Entry<BasicBlock, Value> operand : phi.getOperands().entrySet()) {
+                if (incoming.contains(operand.getKey())) {
+                    merged = meet(merged, valueOf(operand.getValue()));
+                }
+            }
+            lower(phi.getResult(), merged);
+        } else if (instruction instanceof Operation) {
+            StatementNode statement = ((Operation) instruction).getStatement();
+            if (statement instanceof AssignmentNode) {
+                AssignmentNode assignment = (AssignmentNode) statement;
+                Object value = evaluate(assignment.getValue(), instruction);
+                // A value of the wrong type fails the assignment at runtime
+                if (value != null && value != VARIES && typeOf(value) != assignment.getVariableNode().getType()) {
+                    value = VARIES;
+                }
+                lower(instruction.getDefs().get(0), value);
+            } else {
+                // READ and INPUT
+                for (Value def : instruction.getDefs()) {
+                    lower(def, VARIES);
+                }
+            }
+        } else {
+            Terminator terminator = (Terminator) instruction;
+            for (Value def : terminator.getDefs()) {
+                // The FOR counter
+                lower(def, VARIES);
+            }
+            for (BasicBlock successor : takenSuccessors(terminator)) {
+                markEdge(terminator.getBlock(), successor);
+            }
+        }
+    }
+
+    // The successors the terminator can transfer to given what is known so far
+    private List<BasicBlock> takenSuccessors(Terminator terminator) {
+        List<BasicBlock> successors = terminator.getSuccessors();
+        if (terminator.getKind() == Terminator.KIND.BRANCH) {
+            Object condition = evaluate(((IfNode) terminator.getStatement()).getCondition(), terminator);
+            if (condition == null) {
+                return List.of();
+            }
+            if (condition == Boolean.TRUE) {
+                // A jump to a missing label ends the program
+                return terminator.getTarget() == null ? List.of() : List.of(terminator.getTarget());
+            }
+            if (condition == Boolean.FALSE) {
+                List<BasicBlock> fallthrough = new ArrayList<>();
+                for (BasicBlock successor : successors) {
+                    if (successor.getSourceStart() == terminator.getBlock().getSourceEnd() + 1) {
+                        fallthrough.add(successor);
+                    }
+                }
+                return fallthrough;
+            }
+        } else if (terminator.getKind() == Terminator.KIND.WHILE && successors.size() == 2) {
+            Object condition = evaluate(((WhileNode) terminator.getStatement()).getCondition(), terminator);
+            if (condition == null) {
+                return List.of();
+            }
+            if (condition == Boolean.TRUE) {
+                return List.of(successors.get(0));
+            }
+            if (condition == Boolean.FALSE) {
+                return List.of(successors.get(1));
+            }
+        }
+        return successors;
+    }
+
+    /**
+     * Evaluates an expression against the lattice values of the SSA values it reads: null while any of them is
+     * still unknown, VARIES if any of them varies or evaluation would fail, otherwise the constant.
+     */
+    private Object evaluate(Node expression, Instruction instruction) {
+        if (!Expressions.isPure(expression)) {
+            return VARIES;
+        }
+        Map<String, Object> constants = new HashMap<>();
+        boolean unknown = false;
+        for (String variable : Expressions.variablesRead(expression)) {
+            Object value = valueOf(instruction.getUse(variable));
+            if (value == VARIES) {
+                return VARIES;
+            }
+            if (value == null) {
+                unknown = true;
+            } else {
+                constants.put(variable, value);
+            }
+        }
+        if (unknown) {
+            return null;
+        }
+        try {
+            return ConstantEvaluator.evaluate(expression, constants);
+        } catch (IllegalArgumentException e) {
+            return VARIES;
+        }
+    }
+
+    private Object valueOf(Value value) {
+        if (value == null || value.isUndefined()) {
+            return VARIES;
+        }
+        return values.get(value);
+    }
+
+    private static Object meet(Object a, Object b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return a.equals(b) ? a : VARIES;
+    }
+
+    // Values only ever move down the lattice, so each one is lowered at most twice
+    private void lower(Value value, Object lattice) {
+        if (value == null || lattice == null) {
+            return;
+        }
+        Object current = values.get(value);
+        Object lowered = meet(current, lattice);
+        if (!lowered.equals(current)) {
+            values.put(value, lowered);
+            instructionWork.addAll(users.getOrDefault(value, List.of()));
+        }
+    }
+
+    private static InterpreterDataType typeOf(Object value) {
+        if (value instanceof Integer) {
+            return InterpreterDataType.INTEGER;
+        }
+        if (value instanceof Float) {
+            return InterpreterDataType.FLOAT;
+        }
+        return value instanceof String ? InterpreterDataType.STRING : null;
+    }
+
+    private boolean rewrite(ProgramNode programNode, ControlFlowGraph graph) {
+        Map<StatementNode, Instruction> owners = new IdentityHashMap<>();
+        for (BasicBlock block : graph.getBlocks()) {
+            for (Operation operation : block.getOperations()) {
+                owners.put(operation.getStatement(), operation);
+            }
+            if (block.getTerminator().getStatement() != null) {
+                owners.put(block.getTerminator().getStatement(), block.getTerminator());
+            }
+        }
+
+        List<StatementNode> statements = programNode.getStatements();
+        List<StatementNode> result = new ArrayList<>();
+        boolean changed = false;
+        for (StatementNode statement : statements) {
+            StatementNode inner = statement instanceof LabeledStatementNode
+                    ? ((LabeledStatementNode) statement).getStatementNode() : statement;
+            Instruction instruction = inner == null ? null : owners.get(inner);
+            if (instruction == null) {
+                result.add(statement);
+                continue;
+            }
+            if (!executable.contains(instruction.getBlock())) {
+                if (isRemovable(inner)) {
+                    // A label may still be jumped to from other dead code, so it stays without its statement
+                    if (statement instanceof LabeledStatementNode) {
+                        result.add(new LabeledStatementNode(((LabeledStatementNode) statement).getLabel(), null));
+                    }
+                    statementsRemoved++;
+                    changed = true;
+                } else {
+                    result.add(statement);
+                }
+                continue;
+            }
+            if (statement instanceof IfNode) {
+                Object condition = evaluate(((IfNode) statement).getCondition(), instruction);
+                if (condition == Boolean.FALSE) {
+                    branchesFolded++;
+                    changed = true;
+                    continue;
+                }
+                if (condition == Boolean.TRUE && ((Terminator) instruction).getTarget() != null) {
+                    result.add(new GoToNode(((IfNode) statement).getLabel()));
+                    branchesFolded++;
+                    changed = true;
+                    continue;
+                }
+            }
+            StatementNode rewritten = Expressions.mapExpressions(statement, expression -> propagate(expression, instruction));
+            changed |= rewritten != statement;
+            result.add(rewritten);
+        }
+        if (changed) {
+            statements.clear();
+            statements.addAll(result);
+        }
+        return changed;
+    }
+
+    // Replaces reads of constant values with literals, then folds what no longer reads a variable
+    private Node propagate(Node expression, Instruction instruction) {
+        Node substituted = Expressions.rewrite(expression, node -> {
+            if (!(node instanceof VariableNode)) {
+                return node;
+            }
+            Object value = valueOf(instruction.getUse(((VariableNode) node).getName()));
+            if (value == null || value == VARIES) {
+                return node;
+            }
+            constantsPropagated++;
+            return ConstantEvaluator.literal(value);
+        });
+        return ConstantEvaluator.fold(substituted);
+    }
+
+    // Statements whose removal cannot change how the Interpreter scans the statement list
+    private static boolean isRemovable(StatementNode statement) {
+        return statement instanceof AssignmentNode || statement instanceof PrintNode || statement instanceof ReadNode
+                || statement instanceof InputNode || statement instanceof GoToNode || statement instanceof IfNode
+                || statement instanceof GoSubNode || statement instanceof ReturnNode || statement instanceof EndNode;
+    }
+}
@@ -0,0 +1,85 @@
+package optimizer;
+
+import node.*;
+
+import java.util.ArrayList;
+import java.util.function.UnaryOperator;
+
+/**
+ * Static helpers for copying statements. The Interpreter links statements through their next pointers,
+ * so a statement object may only appear once in a program; anything duplicated must be copied first.
+ * Expression trees carry no state and are shared between the copies.
+ */
+public final class Statements {
+
+    private Statements() {}
+
+    public static StatementNode copy(StatementNode statement) {
+        return retarget(statement, UnaryOperator.identity());
+    }
+
+    /**
+     * Copies a statement, passing every label it defines or jumps to through the mapper.
+     */
+    public static StatementNode retarget(StatementNode statement, UnaryOperator<String> labels) {
+        if (statement == null) {
+            return null;
+        }
+        if (statement instanceof LabeledStatementNode) {
+            LabeledStatementNode labeled = (LabeledStatementNode) statement;
+            return new LabeledStatementNode(labels.apply(labeled.getLabel()), retarget(labeled.getStatementNode(), labels));
+        }
+        if (statement instanceof GoToNode) {
+            return new GoToNode(labels.apply(((GoToNode) statement).getLabel()));
+        }
+        if (statement instanceof GoSubNode) {
+            return new GoSubNode(labels.apply(((GoSubNode) statement).getLabel()));
+        }
+        if (statement instanceof IfNode) {
+            IfNode ifNode = (IfNode) statement;
+            return new IfNode(ifNode.getCondition(), labels.apply(ifNode.getLabel()));
+        }
+        if (statement instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) statement;
+            return new WhileNode(whileNode.getCondition(), labels.apply(whileNode.getLabel()));
+        }
+        if (statement instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) statement;
+            return new AssignmentNode(assignment.getVariableNode(), assignment.getValue());
+        }
+        if (statement instanceof PrintNode) {
+            return new PrintNode(new ArrayList<>(((PrintNode) statement).getParameters()));
+        }
+        if (statement instanceof ReadNode) {
+            return new ReadNode(new ArrayList<>(((ReadNode) statement).getVariables()));
+        }
+        if (statement instanceof InputNode) {
+            InputNode inputNode = (InputNode) statement;
+            return new InputNode(inputNode.getPrompt(), new ArrayList<>(inputNode.getVariables()));
+        }
+        if (statement instanceof DataNode) {
+            return new DataNode(new ArrayList<>(((DataNode) statement).getData()));
+        }
+        if (statement instanceof ForNode) {
+            ForNode forNode = (ForNode) statement;
+            return new ForNode(forNode.getVariable(), forNode.getInitialValue(), forNode.getLimit(), forNode.getIncrement());
+        }
+        if (statement instanceof NextNode) {
+            return new NextNode(((NextNode) statement).getVariable());
+        }
+        if (statement instanceof ReturnNode) {
+            return new ReturnNode();
+        }
+        if (statement instanceof EndNode) {
+            return new EndNode();
+        }
+        throw new IllegalArgumentException(String.format("Cannot copy statement: %s", statement));
+    }
+
+    // True for statements that transfer control or touch the runtime stack
+    public static boolean isControl(StatementNode statement) {
+        return statement instanceof GoToNode || statement instanceof GoSubNode || statement instanceof IfNode
+                || statement instanceof ReturnNode || statement instanceof EndNode || statement instanceof ForNode
+                || statement instanceof NextNode || statement instanceof WhileNode;
+    }
+}
@@ -0,0 +1,190 @@
+package optimizer;
+
+import node.*;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces expensive builtins and arithmetic idioms with cheaper nodes that compute bit-identical results.
+ *
+ * - POW%(x, 2.0) becomes x * x when x is a float variable or literal. The exact square of a float fits in a
+ *   double, so Math.pow and a float multiply round to the same float. POW%(x, 1.0) and POW(x, 1) become x.
+ *   Integer POW(x, 2) is left alone: the cast from double saturates where an int multiply would wrap.
+ * - Integer multiplication by 2^k becomes a left shift and integer division by 2^k becomes a shift that rounds
+ *   toward zero. Multiplying or dividing an integer by 1 is dropped.
+ * - Float division by a power of two becomes a multiplication by its exact reciprocal.
+ * - INT() of an integer and FLOAT() of a float are dropped, and FLOAT(INT(x)) becomes a single TRUNCF call.
+ */
+public class StrengthReduction implements OptimizationPass {
+
+    public enum REDUCTION {
+        POW_TO_MULTIPLY, POW_TO_OPERAND, MULTIPLY_TO_SHIFT, DIVIDE_TO_SHIFT, DIVIDE_TO_MULTIPLY,
+        IDENTITY, CONVERSION
+    }
+
+    private final Map<REDUCTION, Integer> counts = new EnumMap<>(REDUCTION.class);
+
+    @Override
+    public String getName() {
+        return "strength-reduction";
+    }
+
+    // Number of rewrites of each kind performed by the last run
+    public Map<REDUCTION, Integer> getCounts() {
+        return counts;
+    }
+
+    @Override
+    public boolean run(ProgramNode programNode) {
+        counts.clear();
+        List<StatementNode> statements = programNode.getStatements();
+        boolean changed = false;
+        for (int i = 0; i < statements.size(); i++) {
+            StatementNode statement = statements.get(i);
+            StatementNode reduced = Expressions.mapExpressions(statement,
+                    expression -> Expressions.rewriteBottomUp(expression, this::reduce));
+            if (reduced != statement) {
+                statements.set(i, reduced);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private Node reduce(Node node) {
+        if (node instanceof FunctionNode) {
+            return reduceFunction((FunctionNode) node);
+        }
+        if (node instanceof MathOpNode) {
+            return reduceMathOp((MathOpNode) node);
+        }
+        return node;
+    }
+
+    private Node reduceFunction(FunctionNode functionNode) {
+        List<Node> parameters = functionNode.getParameters();
+        BuiltInFunctions.FUNCTION function = functionNode.getFunctionName();
+        if (function == BuiltInFunctions.FUNCTION.POWF && parameters.size() == 2
+                && Expressions.typeOf(functionNode) == InterpreterDataType.FLOAT) {
+            Node base = parameters.get(0);
+            Node exponent = Expressions.unwrap(parameters.get(1));
+            if (exponent instanceof FloatNode && ((FloatNode) exponent).getFloat() == 1.0f) {
+                return count(REDUCTION.POW_TO_OPERAND, base);
+            }
+            if (exponent instanceof FloatNode && ((FloatNode) exponent).getFloat() == 2.0f && Expressions.isTrivial(base)) {
+                Node operand = Expressions.unwrap(base);
+                return count(REDUCTION.POW_TO_MULTIPLY, new MathOpNode(MathOpNode.OPERATION.MULTIPLY, operand, operand));
+            }
+        }
+        if (function == BuiltInFunctions.FUNCTION.POW && parameters.size() == 2
+                && Expressions.typeOf(functionNode) == InterpreterDataType.INTEGER) {
+            Node exponent = Expressions.unwrap(parameters.get(1));
+            if (exponent instanceof IntegerNode && ((IntegerNode) exponent).getInt() == 1) {
+                return count(REDUCTION.POW_TO_OPERAND, parameters.get(0));
+            }
+        }
+        if (parameters.size() != 1) {
+            return functionNode;
+        }
+        Node argument = parameters.get(0);
+        InterpreterDataType argumentType = Expressions.typeOf(argument);
+        if (function == BuiltInFunctions.FUNCTION.INT && argumentType == InterpreterDataType.INTEGER) {
+            return count(REDUCTION.CONVERSION, argument);
+        }
+        if (function == BuiltInFunctions.FUNCTION.FLOAT && argumentType == InterpreterDataType.FLOAT) {
+            return count(REDUCTION.CONVERSION, argument);
+        }
+        Node inner = Expressions.unwrap(argument);
+        if (function == BuiltInFunctions.FUNCTION.FLOAT && inner instanceof FunctionNode
+                && ((FunctionNode) inner).getFunctionName() == BuiltInFunctions.FUNCTION.INT
+                && ((FunctionNode) inner).getParameters().size() == 1
+                && Expressions.isNumeric(Expressions.typeOf(((FunctionNode) inner).getParameters().get(0)))) {
+            FunctionNode truncate = new FunctionNode(BuiltInFunctions.FUNCTION.TRUNCF);
+            truncate.setParameters(((FunctionNode) inner).getParameters());
+            return count(REDUCTION.CONVERSION, truncate);
+        }
+        return functionNode;
+    }
+
+    private Node reduceMathOp(MathOpNode mathOpNode) {
+        InterpreterDataType type = Expressions.typeOf(mathOpNode);
+        if (type == InterpreterDataType.INTEGER) {
+            return reduceIntegerOp(mathOpNode);
+        }
+        if (type == InterpreterDataType.FLOAT && mathOpNode.getOperator() == MathOpNode.OPERATION.DIVIDE) {
+            Float reciprocal = exactReciprocal(Expressions.unwrap(mathOpNode.getRight()));
+            if (reciprocal != null) {
+                return count(REDUCTION.DIVIDE_TO_MULTIPLY,
+                        new MathOpNode(MathOpNode.OPERATION.MULTIPLY, mathOpNode.getLeft(), new FloatNode(reciprocal)));
+            }
+        }
+        return mathOpNode;
+    }
+
+    private Node reduceIntegerOp(MathOpNode mathOpNode) {
+        Node left = mathOpNode.getLeft();
+        Node right = mathOpNode.getRight();
+        if (mathOpNode.getOperator() == MathOpNode.OPERATION.MULTIPLY) {
+            // Literals have no side effects, so a constant on the left can be moved to the right
+            if (powerOfTwo(Expressions.unwrap(left)) >= 0 && powerOfTwo(Expressions.unwrap(right)) < 0) {
+                Node swap = left;
+                left = right;
+                right = swap;
+            }
+            int shift = powerOfTwo(Expressions.unwrap(right));
+            if (shift == 0) {
+                return count(REDUCTION.IDENTITY, left);
+            }
+            if (shift > 0) {
+                return count(REDUCTION.MULTIPLY_TO_SHIFT,
+                        new MathOpNode(MathOpNode.OPERATION.SHIFT_LEFT, left, new IntegerNode(shift)));
+            }
+        } else if (mathOpNode.getOperator() == MathOpNode.OPERATION.DIVIDE) {
+            int shift = powerOfTwo(Expressions.unwrap(right));
+            if (shift == 0) {
+                return count(REDUCTION.IDENTITY, left);
+            }
+            if (shift > 0) {
+                return count(REDUCTION.DIVIDE_TO_SHIFT,
+                        new MathOpNode(MathOpNode.OPERATION.SHIFT_RIGHT, left, new IntegerNode(shift)));
+            }
+        }
+        return mathOpNode;
+    }
+
+    // Returns k if the node is the integer literal 2^k, otherwise -1
+    private static int powerOfTwo(Node node) {
+        if (!(node instanceof IntegerNode)) {
+            return -1;
+        }
+        int value = ((IntegerNode) node).getInt();
+        return value > 0 && Integer.bitCount(value) == 1 ? Integer.numberOfTrailingZeros(value) : -1;
+    }
+
+    // Returns 1/d for a literal power of two d whose reciprocal is also a normal float, otherwise null
+    private static Float exactReciprocal(Node node) {
+        float divisor;
+        if (node instanceof FloatNode) {
+            divisor = ((FloatNode) node).getFloat();
+        } else if (node instanceof IntegerNode) {
+            divisor = ((IntegerNode) node).getInt();
+        } else {
+            return null;
+        }
+        if (divisor <= 0 || Float.isInfinite(divisor) || (Float.floatToIntBits(divisor) & 0x7FFFFF) != 0) {
+            return null;
+        }
+        int exponent = Math.getExponent(divisor);
+        if (exponent < Float.MIN_EXPONENT || -exponent < Float.MIN_EXPONENT) {
+            return null;
+        }
+        return 1.0f / divisor;
+    }
+
+    private Node count(REDUCTION reduction, Node replacement) {
+        counts.merge(reduction, 1, Integer::sum);
+        return replacement;
+    }
+}
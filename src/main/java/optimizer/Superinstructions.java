@@ -0,0 +1,199 @@
+package optimizer;
+
+import node.*;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Peephole pass that replaces the statement shapes dominating hot loops with superinstructions, fused nodes the
+ * Interpreter runs through a single specialized path instead of walking expression trees:
+ *
+ * - x = x + c, x = c + x and x = x - c, with c a literal of a type the variable can hold, become an IncrementNode.
+ * - IF a op b THEN label, with a and b numeric variables or literals, becomes a CompareBranchNode.
+ * - x% = FLOAT(y), x = INT(y) and x% = TRUNCF(y), with y a numeric variable, become a ConversionAssignmentNode.
+ * - PRINT v, for a single variable v, becomes a PrintVariableNode.
+ *
+ * Fused nodes extend the statement they replace, so later passes still understand them; any pass that rebuilds
+ * a statement gets back the plain form, so this pass is best run last. Labeled IF statements are left alone,
+ * since the Interpreter runs them as no-ops.
+ */
+public class Superinstructions implements OptimizationPass {
+
+    public enum FUSION {
+        INCREMENT, COMPARE_BRANCH, CONVERSION, PRINT_VARIABLE
+    }
+
+    private final Map<FUSION, Integer> counts = new EnumMap<>(FUSION.class);
+
+    @Override
+    public String getName() {
+        return "superinstructions";
+    }
+
+    // Number of statements of each kind fused by the last run
+    public Map<FUSION, Integer> getCounts() {
+        return counts;
+    }
+
+    /**
+     * Totals how often the superinstructions in the program have run so far, by kind.
+     */
+    public static Map<FUSION, Long> getFirings(ProgramNode programNode) {
+        Map<FUSION, Long> firings = new EnumMap<>(FUSION.class);
+        for (StatementNode statement : programNode.getStatements()) {
+            if (statement instanceof LabeledStatementNode) {
+                statement = ((LabeledStatementNode) statement).getStatementNode();
+            }
+            if (statement instanceof FusedStatement) {
+                firings.merge(kindOf(statement), ((FusedStatement) statement).getFirings(), Long::sum);
+            }
+        }
+        return firings;
+    }
+
+    private static FUSION kindOf(StatementNode statement) {
+        if (statement instanceof IncrementNode) {
+            return FUSION.INCREMENT;
+        }
+        if (statement instanceof CompareBranchNode) {
+            return FUSION.COMPARE_BRANCH;
+        }
+        if (statement instanceof ConversionAssignmentNode) {
+            return FUSION.CONVERSION;
+        }
+        return FUSION.PRINT_VARIABLE;
+    }
+
+    @Override
+    public boolean run(ProgramNode programNode) {
+        counts.clear();
+        List<StatementNode> statements = programNode.getStatements();
+        boolean changed = false;
+        for (int i = 0; i < statements.size(); i++) {
+            StatementNode statement = statements.get(i);
+            StatementNode fused;
+            if (statement instanceof LabeledStatementNode) {
+                LabeledStatementNode labeled = (LabeledStatementNode) statement;
+                StatementNode inner = labeled.getStatementNode();
+                StatementNode fusedInner = inner instanceof IfNode ? null : fuse(inner);
+                fused = fusedInner == null ? null : new LabeledStatementNode(labeled.getLabel(), fusedInner);
+            } else {
+                fused = fuse(statement);
+            }
+            if (fused != null) {
+                statements.set(i, fused);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // Returns the superinstruction for the statement, or null if it has no fusable shape
+    private StatementNode fuse(StatementNode statement) {
+        if (statement == null || statement instanceof FusedStatement) {
+            return null;
+        }
+        StatementNode fused = null;
+        if (statement instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) statement;
+            fused = fuseIncrement(assignment);
+            if (fused == null) {
+                fused = fuseConversion(assignment);
+            }
+        } else if (statement instanceof IfNode) {
+            fused = fuseCompareBranch((IfNode) statement);
+        } else if (statement instanceof PrintNode) {
+            fused = fusePrint((PrintNode) statement);
+        }
+        if (fused != null) {
+            counts.merge(kindOf(fused), 1, Integer::sum);
+        }
+        return fused;
+    }
+
+    private static StatementNode fuseIncrement(AssignmentNode assignment) {
+        VariableNode variable = assignment.getVariableNode();
+        Node value = Expressions.unwrap(assignment.getValue());
+        if (!Expressions.isNumeric(variable.getType()) || !(value instanceof MathOpNode)) {
+            return null;
+        }
+        MathOpNode mathOp = (MathOpNode) value;
+        Node left = Expressions.unwrap(mathOp.getLeft());
+        Node right = Expressions.unwrap(mathOp.getRight());
+        Number delta;
+        if (mathOp.getOperator() == MathOpNode.OPERATION.ADD) {
+            delta = literal(variable.equals(left) ? right : variable.equals(right) ? left : null, variable.getType());
+        } else if (mathOp.getOperator() == MathOpNode.OPERATION.SUBTRACT && variable.equals(left)) {
+            delta = negate(literal(right, variable.getType()));
+        } else {
+            delta = null;
+        }
+        return delta == null ? null : new IncrementNode(variable, assignment.getValue(), delta);
+    }
+
+    /**
+     * Returns the literal's value in the variable type's arithmetic, or null if adding it to a variable of that
+     * type would not produce that type.
+     */
+    private static Number literal(Node node, InterpreterDataType type) {
+        if (type == InterpreterDataType.INTEGER) {
+            return node instanceof IntegerNode ? (Number) ((IntegerNode) node).getInt() : null;
+        }
+        if (node instanceof IntegerNode) {
+            return (float) ((IntegerNode) node).getInt();
+        }
+        return node instanceof FloatNode ? (Number) ((FloatNode) node).getFloat() : null;
+    }
+
+    // Adding the negation is exact in both int and float arithmetic, including wraparound of MIN_VALUE
+    private static Number negate(Number delta) {
+        if (delta instanceof Integer) {
+            return -(Integer) delta;
+        }
+        return delta == null ? null : (Number) (-(Float) delta);
+    }
+
+    private static StatementNode fuseConversion(AssignmentNode assignment) {
+        Node value = Expressions.unwrap(assignment.getValue());
+        if (!(value instanceof FunctionNode) || ((FunctionNode) value).getParameters().size() != 1) {
+            return null;
+        }
+        BuiltInFunctions.FUNCTION function = ((FunctionNode) value).getFunctionName();
+        Node source = Expressions.unwrap(((FunctionNode) value).getParameters().get(0));
+        if ((function != BuiltInFunctions.FUNCTION.INT && function != BuiltInFunctions.FUNCTION.FLOAT
+                && function != BuiltInFunctions.FUNCTION.TRUNCF) || !(source instanceof VariableNode)
+                || !Expressions.isNumeric(((VariableNode) source).getType())
+                || Expressions.typeOf(value) != assignment.getVariableNode().getType()) {
+            return null;
+        }
+        return new ConversionAssignmentNode(assignment.getVariableNode(), assignment.getValue(), (VariableNode) source, function);
+    }
+
+    private static StatementNode fuseCompareBranch(IfNode ifNode) {
+        BooleanExpressionNode condition = ifNode.getCondition();
+        Node left = Expressions.unwrap(condition.getLeft());
+        Node right = Expressions.unwrap(condition.getRight());
+        if (!isSlot(left) || !isSlot(right)) {
+            return null;
+        }
+        boolean integerComparison = Expressions.typeOf(left) == InterpreterDataType.INTEGER
+                && Expressions.typeOf(right) == InterpreterDataType.INTEGER;
+        return new CompareBranchNode(condition, ifNode.getLabel(), left, right, integerComparison);
+    }
+
+    // A numeric variable or literal, which the fused comparison reads without evaluating an expression
+    private static boolean isSlot(Node node) {
+        return node instanceof IntegerNode || node instanceof FloatNode
+                || (node instanceof VariableNode && Expressions.isNumeric(((VariableNode) node).getType()));
+    }
+
+    private static StatementNode fusePrint(PrintNode printNode) {
+        List<Node> parameters = printNode.getParameters();
+        if (parameters.size() != 1 || !(Expressions.unwrap(parameters.get(0)) instanceof VariableNode)) {
+            return null;
+        }
+        return new PrintVariableNode(parameters, (VariableNode) Expressions.unwrap(parameters.get(0)));
+    }
+}
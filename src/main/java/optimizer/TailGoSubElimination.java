@@ -0,0 +1,91 @@
+package optimizer;
+
+import node.*;
+
+import java.util.*;
+
+/**
+ * Turns GOSUBs in tail position into GOTOs. A GOSUB is in tail position when the statement it returns to is a
+ * RETURN, reached directly or through empty labels and GOTOs: the frame it pushes would only be popped to pop
+ * the caller's frame in turn, so jumping instead lets the subroutine's own RETURN go straight back to the
+ * caller. Subroutines written in tail-call style, such as state machines, then run in constant stack space.
+ *
+ * The frame left out is a RETURN, so leaving it off changes nothing for the RETURNs and WHILE end labels that
+ * would have popped it. A NEXT would have failed on it instead, so every NEXT the subroutine may reach must
+ * close a single-entry FOR loop inside the subroutine, which guarantees the FOR frame is on top. A GOSUB whose
+ * return point falls off the end of the program is kept, since popping it ends the program.
+ */
+public class TailGoSubElimination implements OptimizationPass {
+
+    private int eliminated = 0;
+
+    @Override
+    public String getName() {
+        return "tail-gosub-elimination";
+    }
+
+    // Number of GOSUBs the last run turned into GOTOs
+    public int getEliminated() {
+        return eliminated;
+    }
+
+    @Override
+    public boolean run(ProgramNode programNode) {
+        eliminated = 0;
+        List<StatementNode> statements = programNode.getStatements();
+        ProgramIndex index = new ProgramIndex(statements);
+        Map<Integer, Integer> forLoops = new HashMap<>();
+        for (LoopRegion loop : LoopRegion.find(index)) {
+            if (loop.getKind() == LoopRegion.KIND.FOR) {
+                forLoops.put(loop.getEnd(), loop.getHeader());
+            }
+        }
+
+        List<Integer> tailCalls = new ArrayList<>();
+        for (int i = 0; i < statements.size(); i++) {
+            if (statements.get(i) instanceof GoSubNode) {
+                String label = ((GoSubNode) statements.get(i)).getLabel();
+                // A GOSUB to a missing label ends the program where a GOTO would throw
+                if (index.indexOf(label) >= 0 && returnsImmediately(index, i + 1) && nextsAreBalanced(index, label, forLoops)) {
+                    tailCalls.add(i);
+                }
+            }
+        }
+        for (int i : tailCalls) {
+            statements.set(i, new GoToNode(((GoSubNode) statements.get(i)).getLabel()));
+        }
+        eliminated = tailCalls.size();
+        return eliminated > 0;
+    }
+
+    // True if control arriving at the index runs a RETURN next without doing anything else first
+    private static boolean returnsImmediately(ProgramIndex index, int at) {
+        Set<Integer> visited = new HashSet<>();
+        while (at >= 0 && at < index.size() && visited.add(at)) {
+            StatementNode statement = index.get(at);
+            if (statement instanceof ReturnNode) {
+                return true;
+            }
+            if (statement instanceof GoToNode) {
+                at = index.indexOf(((GoToNode) statement).getLabel());
+            } else if (statement instanceof LabeledStatementNode && ((LabeledStatementNode) statement).getStatementNode() == null
+                    && !index.isWhileLabel(at)) {
+                at++;
+            } else {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // True if every NEXT the subroutine may run closes a single-entry FOR loop that also lies in the subroutine
+    private static boolean nextsAreBalanced(ProgramIndex index, String label, Map<Integer, Integer> forLoops) {
+        Set<Integer> body = index.subroutineBody(label);
+        for (int i : body) {
+            if (index.get(i) instanceof NextNode && !body.contains(forLoops.getOrDefault(i, -1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
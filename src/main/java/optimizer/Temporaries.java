@@ -0,0 +1,53 @@
+package optimizer;
+
+import node.InterpreterDataType;
+import node.StatementNode;
+import node.VariableNode;
+
+import java.util.List;
+
+/**
+ * Hands out compiler-generated variable names that can never collide with user variables.
+ * Source identifiers must start with a letter, so every temporary starts with an underscore.
+ */
+public class Temporaries {
+
+    public static final String PREFIX = "_";
+
+    private final String prefix;
+    private int counter = 0;
+
+    /**
+     * @param name       short tag identifying the pass that owns the temporaries, e.g. "licm"
+     * @param statements the program, scanned so numbering continues after temporaries left by an earlier run
+     */
+    public Temporaries(String name, List<StatementNode> statements) {
+        this.prefix = PREFIX + name;
+        for (StatementNode statement : statements) {
+            for (String assigned : Expressions.variablesAssigned(statement)) {
+                if (assigned.startsWith(prefix)) {
+                    counter = Math.max(counter, parseIndex(assigned) + 1);
+                }
+            }
+        }
+    }
+
+    private int parseIndex(String name) {
+        String digits = name.substring(prefix.length()).replaceAll("[$%]$", "");
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Returns a fresh variable whose suffix gives it the requested type
+    public VariableNode next(InterpreterDataType type) {
+        String suffix = type == InterpreterDataType.FLOAT ? "%" : type == InterpreterDataType.STRING ? "$" : "";
+        return new VariableNode(prefix + (counter++) + suffix);
+    }
+
+    public static boolean isTemporary(String name) {
+        return name.startsWith(PREFIX);
+    }
+}
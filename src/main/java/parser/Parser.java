@@ -5,8 +5,10 @@ import lexer.TokenManager;
 import node.*;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -22,6 +24,11 @@ public class Parser {
      */
     private final TokenManager tokenManager;
 
+    /**
+     * The source line each parsed statement starts on. A labeled statement and the statement it wraps share a line.
+     */
+    private final Map<StatementNode, Integer> lineNumbers = new IdentityHashMap<>();
+
     /**
      * Parser class that is responsible for parsing a list of tokens and
      * generating an Abstract Syntax Tree (AST).
@@ -81,13 +88,36 @@ public class Parser {
     public StatementsNode statements() {
         StatementsNode statements = new StatementsNode();
         StatementNode statementNode;
+        int line = currentLine();
         while ((statementNode = statement()) != null) {
             statements.addStatement(statementNode);
+            recordLine(statementNode, line);
             acceptSeparators();
+            line = currentLine();
         }
         return statements;
     }
 
+    /**
+     * Returns the source line of every statement parsed so far, keyed by the statement object itself.
+     *
+     * @return A map from statement to its 1-based line number.
+     */
+    public Map<StatementNode, Integer> getLineNumbers() {
+        return lineNumbers;
+    }
+
+    private void recordLine(StatementNode statementNode, int line) {
+        lineNumbers.put(statementNode, line);
+        if (statementNode instanceof LabeledStatementNode && ((LabeledStatementNode) statementNode).getStatementNode() != null) {
+            lineNumbers.put(((LabeledStatementNode) statementNode).getStatementNode(), line);
+        }
+    }
+
+    private int currentLine() {
+        return tokenManager.peek(0).map(Token::getLineNo).orElse(-1);
+    }
+
     /**
      * Parses a statement from the token stream.
      * It checks the type of the next token and calls the corresponding method to parse and create the corresponding statement node.
@@ -0,0 +1,34 @@
+package vm;
+
+/**
+ * The builtins the VMs call through CALL_BUILTIN. INT, FLOAT and the fused TRUNCF compile to conversion
+ * instructions instead, and each remaining builtin gets one id per operand type, so the call itself never checks
+ * a type.
+ */
+final class BuiltIn {
+
+    private BuiltIn() {}
+
+    static final int RANDOM = 0;
+    static final int RANDOM_RANGE = 1;
+    static final int RANDOMF = 2;
+    static final int RANDOMF_RANGE = 3;
+    static final int LEFT$ = 4;
+    static final int RIGHT$ = 5;
+    static final int MID$ = 6;
+    static final int NUM$_INT = 7;
+    static final int NUM$_FLOAT = 8;
+    static final int VAL = 9;
+    static final int VALF = 10;
+    static final int POW = 11;
+    static final int POWF = 12;
+
+    private static final String[] NAMES = {
+            "RANDOM", "RANDOM_RANGE", "RANDOMF", "RANDOMF_RANGE", "LEFT$", "RIGHT$", "MID$", "NUM$_INT",
+            "NUM$_FLOAT", "VAL", "VALF", "POW", "POWF"
+    };
+
+    static String name(int builtIn) {
+        return NAMES[builtIn];
+    }
+}
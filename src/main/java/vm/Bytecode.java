@@ -0,0 +1,169 @@
+package vm;
+
+import node.Node;
+
+import java.util.*;
+
+/**
+ * A program compiled by the BytecodeCompiler: the instruction stream, its constant pool, the names of the
+ * variable slots and the DATA values in the order READ consumes them.
+ *
+ * The runtime stack holds frame ids rather than code addresses. Ids 0 to n - 1 are the program's n top-level
+ * statements, so RETURN, NEXT and WHILE end labels land on the same statement the Interpreter's stack of
+ * statement nodes would, even where several statements compile to no code and share an address. The id n stands
+ * for the end of the program and higher ids for the labeled FOR and WHILE statements a frame can point into.
+ */
+public class Bytecode {
+
+    private final int[] code;
+    private final Object[] constants;
+    private final String[] intNames;
+    private final String[] floatNames;
+    private final String[] stringNames;
+    private final Node[] data;
+    private final int[] frameAddresses;
+    private final int[] frameCounters;
+    private final int[] statementAddresses;
+    private final int maxStack;
+
+    Bytecode(int[] code, Object[] constants, String[] intNames, String[] floatNames, String[] stringNames, Node[] data,
+             int[] frameAddresses, int[] frameCounters, int[] statementAddresses, int maxStack) {
+        this.code = code;
+        this.constants = constants;
+        this.intNames = intNames;
+        this.floatNames = floatNames;
+        this.stringNames = stringNames;
+        this.data = data;
+        this.frameAddresses = frameAddresses;
+        this.frameCounters = frameCounters;
+        this.statementAddresses = statementAddresses;
+        this.maxStack = maxStack;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public Object[] getConstants() {
+        return constants;
+    }
+
+    public String[] getIntNames() {
+        return intNames;
+    }
+
+    public String[] getFloatNames() {
+        return floatNames;
+    }
+
+    public String[] getStringNames() {
+        return stringNames;
+    }
+
+    public Node[] getData() {
+        return data;
+    }
+
+    // The code address each frame id resumes at
+    public int[] getFrameAddresses() {
+        return frameAddresses;
+    }
+
+    // The int slot of the counter of the FOR statement a frame id stands for, or -1 if it is not a FOR statement
+    public int[] getFrameCounters() {
+        return frameCounters;
+    }
+
+    /**
+     * Returns the frame id of the only FOR statement with the given counter, or -1 if there is not exactly one.
+     * A NEXT of that counter that passes its check can only have popped this frame.
+     */
+    int onlyForFrame(int counter) {
+        int found = -1;
+        if (counter < 0) {
+            return found;
+        }
+        for (int frame = 0; frame < frameCounters.length; frame++) {
+            if (frameCounters[frame] == counter) {
+                if (found >= 0) {
+                    return -1;
+                }
+                found = frame;
+            }
+        }
+        return found;
+    }
+
+    // The address of the first instruction of each top-level statement
+    public int[] getStatementAddresses() {
+        return statementAddresses;
+    }
+
+    // The most values any one operand stack holds at once
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    // Lists the instructions one per line, marking where each statement starts
+    public String disassemble() {
+        Map<Integer, List<Integer>> statementsAt = new HashMap<>();
+        for (int i = 0; i < statementAddresses.length; i++) {
+            statementsAt.computeIfAbsent(statementAddresses[i], address -> new ArrayList<>()).add(i);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += 1 + Opcode.operands(code[pc])) {
+            if (statementsAt.containsKey(pc)) {
+                builder.append(String.format("; statement %s%n", statementsAt.get(pc)));
+            }
+            builder.append(String.format("%5d  %s", pc, Opcode.name(code[pc])));
+            for (int k = 1; k <= Opcode.operands(code[pc]); k++) {
+                builder.append(k == 1 ? " " : ", ").append(operand(code[pc], k, code[pc + k]));
+            }
+            builder.append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+
+    private String operand(int opcode, int position, int value) {
+        switch (opcode) {
+            case Opcode.FCONST:
+                return Float.toString(Float.intBitsToFloat(value));
+            case Opcode.SCONST:
+            case Opcode.INPUT_PROMPT:
+                return '"' + String.valueOf(constants[value]) + '"';
+            case Opcode.ILOAD:
+            case Opcode.ISTORE:
+            case Opcode.INPUT_I:
+            case Opcode.READ_I:
+                return intNames[value];
+            case Opcode.FLOAD:
+            case Opcode.FSTORE:
+            case Opcode.INPUT_F:
+            case Opcode.READ_F:
+                return floatNames[value];
+            case Opcode.SLOAD:
+            case Opcode.SSTORE:
+            case Opcode.INPUT_S:
+            case Opcode.READ_S:
+                return stringNames[value];
+            case Opcode.JMP_IF_UNDEFINED:
+                return position == 1 ? intNames[value] : "@" + value;
+            case Opcode.FOR_FIRST:
+            case Opcode.FOR_NEXT:
+                return position == 1 ? intNames[value] : position == 2 ? "frame " + value : "@" + value;
+            case Opcode.CALL_BUILTIN:
+                return BuiltIn.name(value);
+            case Opcode.NEXT:
+            case Opcode.NEXT_DROP:
+                return value < 0 ? "?" : intNames[value];
+            case Opcode.GOSUB:
+                return position == 1 ? "@" + value : "frame " + value;
+            case Opcode.PUSH_FRAME:
+                return "frame " + value;
+            case Opcode.FAIL:
+                return String.valueOf(constants[value]);
+            default:
+                return opcode >= Opcode.ICMP_EQ_JMP && opcode <= Opcode.JMP ? "@" + value : String.valueOf(value);
+        }
+    }
+}
@@ -0,0 +1,740 @@
+package vm;
+
+import node.*;
+import optimizer.Expressions;
+import optimizer.ProgramIndex;
+
+import java.util.*;
+
+/**
+ * Compiles a program to Bytecode for the VirtualMachine. Every type check the Interpreter repeats on each
+ * evaluation is done once here: variables get typed slots, arithmetic gets the int or float instruction its
+ * operand types call for, and labels become jump addresses. An operation the Interpreter would reject at
+ * runtime, such as a comparison of strings, compiles to a FAIL instruction that throws the same exception when
+ * it is reached, so programs that never reach it still run.
+ *
+ * Control flow follows the Interpreter's statement by statement, including its quirks: a FOR or WHILE loop
+ * exits past the first NEXT or WHILE end label after it, an IF to a missing label ends the program, and control
+ * statements wrapped in a label run without transferring control.
+ */
+public final class BytecodeCompiler {
+
+    // A jump target whose address is filled in once it is known
+    private static final class Label {
+        private int address = -1;
+        private final List<Integer> uses = new ArrayList<>();
+    }
+
+    private final ProgramIndex index;
+    private int[] code = new int[256];
+    private int size = 0;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<String, Integer> stringConstants = new HashMap<>();
+    private final Map<String, Integer> intSlots = new LinkedHashMap<>();
+    private final Map<String, Integer> floatSlots = new LinkedHashMap<>();
+    private final Map<String, Integer> stringSlots = new LinkedHashMap<>();
+    private final Label[] statementLabels;
+    private final Label nullPointer = new Label();
+    private final List<Label> frameLabels = new ArrayList<>();
+    private final List<Integer> frameCounters = new ArrayList<>();
+    // The statement each frame id stands for, null for the end of the program
+    private final List<StatementNode> frameStatements = new ArrayList<>();
+    // Code placed after the end of the program: FOR initializations and labeled loops a frame can return to
+    private final Deque<Runnable> deferred = new ArrayDeque<>();
+    private int chunkInstructions = 0;
+    private int maxStack = 1;
+
+    private BytecodeCompiler(ProgramNode programNode) {
+        this.index = new ProgramIndex(programNode.getStatements());
+        this.statementLabels = new Label[index.size() + 1];
+        for (int i = 0; i <= index.size(); i++) {
+            statementLabels[i] = new Label();
+            frameLabels.add(statementLabels[i]);
+            StatementNode statement = i < index.size() ? index.get(i) : null;
+            frameCounters.add(statement instanceof ForNode ? intSlot(((ForNode) statement).getVariable().getName()) : -1);
+            frameStatements.add(statement);
+        }
+    }
+
+    /**
+     * Compiles a program.
+     *
+     * @throws IllegalArgumentException if the program holds a node the parser never builds
+     */
+    public static Bytecode compile(ProgramNode programNode) {
+        return new BytecodeCompiler(programNode).compile();
+    }
+
+    /**
+     * Compiles a program and adds to frames the statement each frame id stands for, in order, with null for the
+     * end of the program: what the Interpreter would have on its stack where the compiled program has that id.
+     */
+    static Bytecode compile(ProgramNode programNode, List<StatementNode> frames) {
+        BytecodeCompiler compiler = new BytecodeCompiler(programNode);
+        Bytecode bytecode = compiler.compile();
+        frames.addAll(compiler.frameStatements);
+        return bytecode;
+    }
+
+    private Bytecode compile() {
+        List<Node> data = new ArrayList<>();
+        for (int i = 0; i < index.size(); i++) {
+            bind(statementLabels[i]);
+            startChunk();
+            compileStatement(i);
+            if (index.get(i) instanceof DataNode) {
+                data.addAll(((DataNode) index.get(i)).getData());
+            }
+        }
+        bind(statementLabels[index.size()]);
+        emit(Opcode.HALT);
+        bind(nullPointer);
+        // Where the Interpreter walks off the end of the statement list looking for a NEXT or WHILE end label
+        fail(List.of(), Failure.Kind.NULL_POINTER,
+                "Cannot invoke \"node.StatementNode.getNext()\" because \"curr\" is null");
+        while (!deferred.isEmpty()) {
+            startChunk();
+            deferred.poll().run();
+        }
+        startChunk();
+
+        int[] frameAddresses = new int[frameLabels.size()];
+        for (int i = 0; i < frameAddresses.length; i++) {
+            frameAddresses[i] = frameLabels.get(i).address;
+        }
+        int[] statementAddresses = new int[index.size()];
+        for (int i = 0; i < statementAddresses.length; i++) {
+            statementAddresses[i] = statementLabels[i].address;
+        }
+        return new Bytecode(Arrays.copyOf(code, size), constants.toArray(), names(intSlots), names(floatSlots),
+                names(stringSlots), data.toArray(new Node[0]), frameAddresses,
+                frameCounters.stream().mapToInt(Integer::intValue).toArray(), statementAddresses, maxStack);
+    }
+
+    private void compileStatement(int i) {
+        StatementNode statement = index.get(i);
+        if (statement instanceof LabeledStatementNode) {
+            if (index.isWhileLabel(i)) {
+                // A WHILE end label returns to whatever is on top of the stack, whatever statement it labels
+                emit(Opcode.POP_JUMP);
+            } else if (((LabeledStatementNode) statement).getStatementNode() != null) {
+                compileLabeled(((LabeledStatementNode) statement).getStatementNode());
+            }
+        } else if (statement instanceof ForNode) {
+            int exit = index.forExit(i);
+            compileFor((ForNode) statement, i, exit < 0 ? nullPointer : statementLabels[exit]);
+        } else if (statement instanceof WhileNode) {
+            int end = index.whileEnd(i);
+            compileWhile((WhileNode) statement, i, end < 0 ? nullPointer : statementLabels[end + 1]);
+        } else if (statement instanceof IfNode) {
+            // An IF to a missing label ends the program when it is taken
+            compileCondition((IfNode) statement, target(((IfNode) statement).getLabel()));
+        } else if (statement instanceof GoToNode) {
+            String label = ((GoToNode) statement).getLabel();
+            if (index.indexOf(label) < 0) {
+                missingGoToLabel(label);
+            } else {
+                emitJump(Opcode.JMP, target(label));
+            }
+        } else if (statement instanceof GoSubNode) {
+            emitJump(Opcode.GOSUB, target(((GoSubNode) statement).getLabel()));
+            word(i + 1);
+        } else if (statement instanceof ReturnNode) {
+            emit(Opcode.RETURN);
+        } else if (statement instanceof NextNode) {
+            emit(Opcode.NEXT, nextCounter((NextNode) statement));
+        } else if (statement instanceof EndNode) {
+            emit(Opcode.HALT);
+        } else {
+            compileSimple(statement);
+        }
+    }
+
+    /**
+     * A statement wrapped in a label runs in place and the program continues after the label, so its control
+     * flow is lost: a GOSUB pushes a return to the end of the program, RETURN and NEXT only pop, and a FOR or
+     * WHILE loop pushes a frame for a copy of itself that ends the program once its body would start again.
+     */
+    private void compileLabeled(StatementNode statement) {
+        if (statement instanceof ForNode) {
+            ForNode forNode = (ForNode) statement;
+            int frame = newFrame(forNode, intSlot(forNode.getVariable().getName()));
+            compileFor(forNode, frame, nullPointer);
+            deferred.add(() -> {
+                bind(frameLabels.get(frame));
+                compileFor(forNode, frame, nullPointer);
+                emit(Opcode.HALT);
+            });
+        } else if (statement instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) statement;
+            int frame = newFrame(whileNode, -1);
+            compileWhile(whileNode, frame, nullPointer);
+            deferred.add(() -> {
+                bind(frameLabels.get(frame));
+                compileWhile(whileNode, frame, nullPointer);
+                emit(Opcode.HALT);
+            });
+        } else if (statement instanceof IfNode) {
+            Label next = new Label();
+            compileCondition((IfNode) statement, next);
+            bind(next);
+        } else if (statement instanceof GoToNode) {
+            if (index.indexOf(((GoToNode) statement).getLabel()) < 0) {
+                missingGoToLabel(((GoToNode) statement).getLabel());
+            }
+        } else if (statement instanceof GoSubNode) {
+            emit(Opcode.PUSH_FRAME, index.size());
+        } else if (statement instanceof ReturnNode) {
+            emit(Opcode.RETURN_DROP);
+        } else if (statement instanceof NextNode) {
+            emit(Opcode.NEXT_DROP, nextCounter((NextNode) statement));
+        } else if (statement instanceof EndNode) {
+            emit(Opcode.HALT);
+        } else {
+            compileSimple(statement);
+        }
+    }
+
+    private void compileSimple(StatementNode statement) {
+        if (statement instanceof IncrementNode) {
+            compileIncrement((IncrementNode) statement);
+        } else if (statement instanceof ConversionAssignmentNode) {
+            compileConversionAssignment((ConversionAssignmentNode) statement);
+        } else if (statement instanceof AssignmentNode) {
+            compileAssignment((AssignmentNode) statement);
+        } else if (statement instanceof PrintVariableNode) {
+            emit(Opcode.PRINT_I + typeIndex(load(((PrintVariableNode) statement).getVariable())));
+            emit(Opcode.PRINT_END);
+        } else if (statement instanceof PrintNode) {
+            for (Node parameter : ((PrintNode) statement).getParameters()) {
+                InterpreterDataType type = compileExpression(parameter);
+                if (type == null) {
+                    return;
+                }
+                emit(Opcode.PRINT_I + typeIndex(type));
+            }
+            emit(Opcode.PRINT_END);
+        } else if (statement instanceof InputNode) {
+            emit(Opcode.INPUT_PROMPT, stringConstant(((InputNode) statement).getPrompt().getValue()));
+            for (VariableNode variable : ((InputNode) statement).getVariables()) {
+                emit(Opcode.INPUT_I + typeIndex(variable.getType()), slot(variable));
+            }
+        } else if (statement instanceof ReadNode) {
+            for (VariableNode variable : ((ReadNode) statement).getVariables()) {
+                emit(Opcode.READ_I + typeIndex(variable.getType()), slot(variable));
+            }
+        } else if (!(statement instanceof DataNode)) {
+            throw new IllegalArgumentException("Cannot compile statement " + statement);
+        }
+    }
+
+    private void compileAssignment(AssignmentNode assignment) {
+        VariableNode variable = assignment.getVariableNode();
+        InterpreterDataType type = compileExpression(assignment.getValue());
+        if (type == null) {
+            return;
+        }
+        if (type != variable.getType()) {
+            fail(List.of(type), Failure.Kind.ILLEGAL_ARGUMENT, "Cannot assign '%s' to variable '"
+                    + Failure.literal(variable.getName()) + "' with type '" + Failure.literal(variable.getType()) + "'");
+            return;
+        }
+        emit(Opcode.ISTORE + typeIndex(type), slot(variable));
+    }
+
+    private void compileIncrement(IncrementNode increment) {
+        VariableNode variable = increment.getVariableNode();
+        if (variable.getType() == InterpreterDataType.FLOAT) {
+            int slot = floatSlot(variable.getName());
+            emit(Opcode.FLOAD, slot);
+            emit(Opcode.FCONST, Float.floatToRawIntBits((Float) increment.getDelta()));
+            emit(Opcode.FADD);
+            emit(Opcode.FSTORE, slot);
+        } else {
+            int slot = intSlot(variable.getName());
+            emit(Opcode.ILOAD, slot);
+            emit(Opcode.ICONST, (Integer) increment.getDelta());
+            emit(Opcode.IADD);
+            emit(Opcode.ISTORE, slot);
+        }
+    }
+
+    private void compileConversionAssignment(ConversionAssignmentNode conversion) {
+        InterpreterDataType source = load(conversion.getSource());
+        if (source == InterpreterDataType.STRING) {
+            fail(List.of(source), Failure.Kind.CLASS_CAST, Number.class.getName());
+            return;
+        }
+        String name = conversion.getVariableNode().getName();
+        switch (conversion.getConversion()) {
+            case INT:
+                if (source == InterpreterDataType.FLOAT) {
+                    emit(Opcode.F2I);
+                }
+                emit(Opcode.ISTORE, intSlot(name));
+                break;
+            case FLOAT:
+                if (source == InterpreterDataType.INTEGER) {
+                    emit(Opcode.I2F);
+                }
+                emit(Opcode.FSTORE, floatSlot(name));
+                break;
+            default:
+                if (source == InterpreterDataType.FLOAT) {
+                    emit(Opcode.F2I);
+                }
+                emit(Opcode.I2F);
+                emit(Opcode.FSTORE, floatSlot(name));
+                break;
+        }
+    }
+
+    /**
+     * Compiles a FOR statement that pushes the given frame while it loops and jumps to exit when it ends. The
+     * counter is initialized only while it has no value, in code placed after the program so the loop test each
+     * NEXT comes back to is only a check, the limit and step and one FOR_NEXT.
+     */
+    private void compileFor(ForNode forNode, int frame, Label exit) {
+        int counter = intSlot(forNode.getVariable().getName());
+        Label initialize = new Label();
+        Label body = new Label();
+        emit(Opcode.JMP_IF_UNDEFINED, counter);
+        use(initialize);
+        if (compileLimitAndStep(forNode)) {
+            emit(Opcode.FOR_NEXT, counter, frame);
+            use(exit);
+        }
+        bind(body);
+        deferred.add(() -> {
+            bind(initialize);
+            if (!compileCast(forNode.getInitialValue(), InterpreterDataType.INTEGER)) {
+                return;
+            }
+            emit(Opcode.ISTORE, counter);
+            if (compileLimitAndStep(forNode)) {
+                emit(Opcode.FOR_FIRST, counter, frame);
+                use(exit);
+                emitJump(Opcode.JMP, body);
+            }
+        });
+    }
+
+    private boolean compileLimitAndStep(ForNode forNode) {
+        return compileCast(forNode.getLimit(), InterpreterDataType.INTEGER)
+                && compileCast(forNode.getIncrement(), InterpreterDataType.INTEGER);
+    }
+
+    private void compileWhile(WhileNode whileNode, int frame, Label exit) {
+        Label body = new Label();
+        compileComparison(whileNode.getCondition().getLeft(), whileNode.getCondition().getOperator(),
+                whileNode.getCondition().getRight(), body);
+        emitJump(Opcode.JMP, exit);
+        bind(body);
+        emit(Opcode.PUSH_FRAME, frame);
+    }
+
+    // Jumps to the target if the IF's condition holds
+    private void compileCondition(IfNode ifNode, Label target) {
+        if (ifNode instanceof CompareBranchNode) {
+            CompareBranchNode compareBranch = (CompareBranchNode) ifNode;
+            compileComparison(compareBranch.getLeftOperand(), compareBranch.getOperator(), compareBranch.getRightOperand(), target);
+        } else {
+            compileComparison(ifNode.getCondition().getLeft(), ifNode.getCondition().getOperator(),
+                    ifNode.getCondition().getRight(), target);
+        }
+    }
+
+    private void compileComparison(Node left, BooleanExpressionNode.OPERATOR operator, Node right, Label target) {
+        InterpreterDataType leftType = compileExpression(left);
+        if (leftType == null) {
+            return;
+        }
+        InterpreterDataType rightType = compileRightOperand(leftType, right);
+        if (rightType == null) {
+            return;
+        }
+        if (!isNumeric(leftType) || !isNumeric(rightType)) {
+            fail(List.of(leftType, rightType), Failure.Kind.COMPARISON,
+                    "Unsupported comparison " + Failure.literal(operator) + " with operands: '%s' and '%s'");
+            return;
+        }
+        boolean integers = leftType == InterpreterDataType.INTEGER && rightType == InterpreterDataType.INTEGER;
+        if (!integers && rightType == InterpreterDataType.INTEGER) {
+            emit(Opcode.I2F);
+        }
+        emitJump((integers ? Opcode.ICMP_EQ_JMP : Opcode.FCMP_EQ_JMP) + comparisonIndex(operator), target);
+    }
+
+    /**
+     * Compiles an expression, leaving its value on the stack of its type, and returns that type. Returns null if
+     * the expression always fails: the code ends in a FAIL and nothing after it in the statement is compiled.
+     */
+    private InterpreterDataType compileExpression(Node node) {
+        node = Expressions.unwrap(node);
+        if (node instanceof IntegerNode) {
+            emit(Opcode.ICONST, ((IntegerNode) node).getInt());
+            return InterpreterDataType.INTEGER;
+        }
+        if (node instanceof FloatNode) {
+            emit(Opcode.FCONST, Float.floatToRawIntBits(((FloatNode) node).getFloat()));
+            return InterpreterDataType.FLOAT;
+        }
+        if (node instanceof StringNode) {
+            emit(Opcode.SCONST, stringConstant(((StringNode) node).getValue()));
+            return InterpreterDataType.STRING;
+        }
+        if (node instanceof VariableNode) {
+            return load((VariableNode) node);
+        }
+        if (node instanceof MathOpNode) {
+            return compileMathOp((MathOpNode) node);
+        }
+        if (node instanceof FunctionNode) {
+            return compileFunction((FunctionNode) node);
+        }
+        throw new IllegalArgumentException("Cannot compile expression " + node);
+    }
+
+    private InterpreterDataType compileMathOp(MathOpNode mathOp) {
+        InterpreterDataType leftType = compileExpression(mathOp.getLeft());
+        if (leftType == null) {
+            return null;
+        }
+        InterpreterDataType rightType = compileRightOperand(leftType, mathOp.getRight());
+        if (rightType == null) {
+            return null;
+        }
+        if (!isNumeric(leftType) || !isNumeric(rightType)) {
+            fail(List.of(leftType, rightType), Failure.Kind.ILLEGAL_ARGUMENT, "Illegal math operation for arguments: \n%s\n%s\n");
+            return null;
+        }
+        MathOpNode.OPERATION operator = mathOp.getOperator();
+        if (leftType == InterpreterDataType.INTEGER && rightType == InterpreterDataType.INTEGER) {
+            emit(Opcode.IADD + operator.ordinal());
+            return InterpreterDataType.INTEGER;
+        }
+        if (operator == MathOpNode.OPERATION.SHIFT_LEFT || operator == MathOpNode.OPERATION.SHIFT_RIGHT) {
+            fail(List.of(), Failure.Kind.RUNTIME, "Unsupported node: " + Failure.literal(mathOp));
+            return null;
+        }
+        if (rightType == InterpreterDataType.INTEGER) {
+            emit(Opcode.I2F);
+        }
+        emit(Opcode.FADD + operator.ordinal());
+        return InterpreterDataType.FLOAT;
+    }
+
+    /**
+     * Compiles the right operand of a binary operation. Each type has its own stack, so an int left operand that
+     * meets a float right one is converted before the right one is pushed, keeping both in order on the float
+     * stack.
+     */
+    private InterpreterDataType compileRightOperand(InterpreterDataType leftType, Node right) {
+        InterpreterDataType expected = Expressions.typeOf(right);
+        if (leftType == InterpreterDataType.INTEGER && expected == InterpreterDataType.FLOAT) {
+            emit(Opcode.I2F);
+        }
+        InterpreterDataType rightType = compileExpression(right);
+        if (rightType != null && rightType != expected) {
+            throw new IllegalStateException(String.format("Expression %s compiled to %s, expected %s", right, rightType, expected));
+        }
+        return rightType;
+    }
+
+    private InterpreterDataType compileFunction(FunctionNode functionNode) {
+        List<Node> parameters = functionNode.getParameters();
+        BuiltInFunctions.FUNCTION function = functionNode.getFunctionName();
+        if (function == null) {
+            fail(List.of(), Failure.Kind.RUNTIME, "Unsupported node: " + Failure.literal(functionNode));
+            return null;
+        }
+        List<InterpreterDataType> types;
+        switch (function) {
+            case RANDOM:
+            case RANDOMF:
+                boolean integer = function == BuiltInFunctions.FUNCTION.RANDOM;
+                if (!parameters.isEmpty() && parameters.size() != 2) {
+                    String message = (integer ? "RANDOM()" : "RANDOMF()") + " expects zero or two parameters: (min, max)";
+                    fail(List.of(), Failure.Kind.RUNTIME, Failure.literal(message));
+                    return null;
+                }
+                InterpreterDataType type = integer ? InterpreterDataType.INTEGER : InterpreterDataType.FLOAT;
+                if (parameters.isEmpty()) {
+                    emit(Opcode.CALL_BUILTIN, integer ? BuiltIn.RANDOM : BuiltIn.RANDOMF);
+                    return type;
+                }
+                if (!compileCast(parameters.get(0), type) || !compileCast(parameters.get(1), type)) {
+                    return null;
+                }
+                emit(Opcode.CALL_BUILTIN, integer ? BuiltIn.RANDOM_RANGE : BuiltIn.RANDOMF_RANGE);
+                return type;
+            case LEFT$:
+            case RIGHT$:
+                types = compileArguments(parameters, 2);
+                if (types == null) {
+                    return null;
+                }
+                if (!types.equals(List.of(InterpreterDataType.STRING, InterpreterDataType.INTEGER))) {
+                    String name = function == BuiltInFunctions.FUNCTION.LEFT$ ? "LEFT$" : "RIGHT$";
+                    fail(types, Failure.Kind.RUNTIME, "Cannot use values: %s and %s for builtin function " + name + "(string, integer)");
+                    return null;
+                }
+                emit(Opcode.CALL_BUILTIN, function == BuiltInFunctions.FUNCTION.LEFT$ ? BuiltIn.LEFT$ : BuiltIn.RIGHT$);
+                return InterpreterDataType.STRING;
+            case MID$:
+                types = compileArguments(parameters, 3);
+                if (types == null) {
+                    return null;
+                }
+                if (!types.equals(List.of(InterpreterDataType.STRING, InterpreterDataType.INTEGER, InterpreterDataType.INTEGER))) {
+                    fail(types, Failure.Kind.RUNTIME, "Cannot use values: %s, %s, %s for builtin function MID$(string, integer, integer)");
+                    return null;
+                }
+                emit(Opcode.CALL_BUILTIN, BuiltIn.MID$);
+                return InterpreterDataType.STRING;
+            case NUM$:
+                types = compileArguments(parameters, 1);
+                if (types == null) {
+                    return null;
+                }
+                if (!isNumeric(types.get(0))) {
+                    fail(types, Failure.Kind.RUNTIME, "Cannot use value: %s for builtin function NUM$(integer/float)");
+                    return null;
+                }
+                emit(Opcode.CALL_BUILTIN, types.get(0) == InterpreterDataType.INTEGER ? BuiltIn.NUM$_INT : BuiltIn.NUM$_FLOAT);
+                return InterpreterDataType.STRING;
+            case VAL:
+            case VALF:
+                types = compileArguments(parameters, 1);
+                if (types == null) {
+                    return null;
+                }
+                if (types.get(0) != InterpreterDataType.STRING) {
+                    String name = function == BuiltInFunctions.FUNCTION.VAL ? "VAL(string)" : "VAL%(string)";
+                    fail(types, Failure.Kind.RUNTIME, "Cannot use value: %s for builtin function: " + Failure.literal(name));
+                    return null;
+                }
+                emit(Opcode.CALL_BUILTIN, function == BuiltInFunctions.FUNCTION.VAL ? BuiltIn.VAL : BuiltIn.VALF);
+                return function == BuiltInFunctions.FUNCTION.VAL ? InterpreterDataType.INTEGER : InterpreterDataType.FLOAT;
+            case POW:
+            case POWF:
+                types = compileArguments(parameters, 2);
+                if (types == null) {
+                    return null;
+                }
+                InterpreterDataType operand = function == BuiltInFunctions.FUNCTION.POW ? InterpreterDataType.INTEGER : InterpreterDataType.FLOAT;
+                if (!types.equals(List.of(operand, operand))) {
+                    String signature = function == BuiltInFunctions.FUNCTION.POW ? "POW$(integer, integer)" : "POWF(float, float)";
+                    fail(types, Failure.Kind.RUNTIME, "Cannot use values: %s and %s for builtin function " + signature);
+                    return null;
+                }
+                emit(Opcode.CALL_BUILTIN, function == BuiltInFunctions.FUNCTION.POW ? BuiltIn.POW : BuiltIn.POWF);
+                return operand;
+            default:
+                return compileConversion(function, parameters);
+        }
+    }
+
+    // INT, FLOAT and TRUNCF, which are conversions between the int and float stacks
+    private InterpreterDataType compileConversion(BuiltInFunctions.FUNCTION function, List<Node> parameters) {
+        List<InterpreterDataType> types = compileArguments(parameters, 1);
+        if (types == null) {
+            return null;
+        }
+        InterpreterDataType type = types.get(0);
+        if (!isNumeric(type)) {
+            String signature = function == BuiltInFunctions.FUNCTION.INT ? "INT(int/float)"
+                    : function == BuiltInFunctions.FUNCTION.FLOAT ? "FLOAT(int/float)" : "FLOAT(INT(int/float))";
+            fail(types, Failure.Kind.RUNTIME, "Cannot use value: %s for builtin " + signature);
+            return null;
+        }
+        if (function == BuiltInFunctions.FUNCTION.INT) {
+            if (type == InterpreterDataType.FLOAT) {
+                emit(Opcode.F2I);
+            }
+            return InterpreterDataType.INTEGER;
+        }
+        if (function == BuiltInFunctions.FUNCTION.TRUNCF && type == InterpreterDataType.FLOAT) {
+            emit(Opcode.F2I);
+        }
+        if (function == BuiltInFunctions.FUNCTION.TRUNCF || type == InterpreterDataType.INTEGER) {
+            emit(Opcode.I2F);
+        }
+        return InterpreterDataType.FLOAT;
+    }
+
+    // Compiles the first count parameters in order; a missing one fails like the Interpreter's List.get
+    private List<InterpreterDataType> compileArguments(List<Node> parameters, int count) {
+        List<InterpreterDataType> types = new ArrayList<>();
+        for (int k = 0; k < count; k++) {
+            if (k >= parameters.size()) {
+                fail(List.of(), Failure.Kind.INDEX_OUT_OF_BOUNDS,
+                        String.format("Index %d out of bounds for length %d", k, parameters.size()));
+                return null;
+            }
+            InterpreterDataType type = compileExpression(parameters.get(k));
+            if (type == null) {
+                return null;
+            }
+            types.add(type);
+        }
+        return types;
+    }
+
+    // Compiles an operand the Interpreter casts to Integer or Float, failing like the cast if it has another type
+    private boolean compileCast(Node node, InterpreterDataType expected) {
+        InterpreterDataType type = compileExpression(node);
+        if (type == null) {
+            return false;
+        }
+        if (type != expected) {
+            Class<?> cast = expected == InterpreterDataType.INTEGER ? Integer.class : Float.class;
+            fail(List.of(type), Failure.Kind.CLASS_CAST, cast.getName());
+            return false;
+        }
+        return true;
+    }
+
+    private InterpreterDataType load(VariableNode variable) {
+        emit(Opcode.ILOAD + typeIndex(variable.getType()), slot(variable));
+        return variable.getType();
+    }
+
+    private void missingGoToLabel(String label) {
+        fail(List.of(), Failure.Kind.RUNTIME,
+                "No matching labeled statement '" + Failure.literal(label) + "' in 'GOTO' statement");
+    }
+
+    private void fail(List<InterpreterDataType> operands, Failure.Kind kind, String pattern) {
+        constants.add(new Failure(operands.toArray(new InterpreterDataType[0]), kind, pattern));
+        emit(Opcode.FAIL, constants.size() - 1);
+    }
+
+    // The label of the statement a jump goes to, or of the end of the program if the label does not exist
+    private Label target(String label) {
+        int target = index.indexOf(label);
+        return statementLabels[target < 0 ? index.size() : target];
+    }
+
+    private int nextCounter(NextNode nextNode) {
+        return nextNode.getVariable() == null ? -1 : intSlot(nextNode.getVariable().getName());
+    }
+
+    private int newFrame(StatementNode statement, int counter) {
+        frameLabels.add(new Label());
+        frameCounters.add(counter);
+        frameStatements.add(statement);
+        return frameLabels.size() - 1;
+    }
+
+    private int slot(VariableNode variable) {
+        switch (variable.getType()) {
+            case INTEGER:
+                return intSlot(variable.getName());
+            case FLOAT:
+                return floatSlot(variable.getName());
+            default:
+                return stringSlot(variable.getName());
+        }
+    }
+
+    // FOR counters always live in int slots, whatever their names say
+    private int intSlot(String name) {
+        return intSlots.computeIfAbsent(name, key -> intSlots.size());
+    }
+
+    private int floatSlot(String name) {
+        return floatSlots.computeIfAbsent(name, key -> floatSlots.size());
+    }
+
+    private int stringSlot(String name) {
+        return stringSlots.computeIfAbsent(name, key -> stringSlots.size());
+    }
+
+    private int stringConstant(String value) {
+        return stringConstants.computeIfAbsent(value, key -> {
+            constants.add(key);
+            return constants.size() - 1;
+        });
+    }
+
+    private static String[] names(Map<String, Integer> slots) {
+        return slots.keySet().toArray(new String[0]);
+    }
+
+    private static boolean isNumeric(InterpreterDataType type) {
+        return type == InterpreterDataType.INTEGER || type == InterpreterDataType.FLOAT;
+    }
+
+    // Offset of a type's variant within each I, F, S group of opcodes
+    private static int typeIndex(InterpreterDataType type) {
+        switch (type) {
+            case INTEGER:
+                return 0;
+            case FLOAT:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+    // Offset of a comparison within each group of compare-and-jump opcodes
+    private static int comparisonIndex(BooleanExpressionNode.OPERATOR operator) {
+        switch (operator) {
+            case EQUALS:
+                return 0;
+            case NOTEQUALS:
+                return 1;
+            case LESSTHAN:
+                return 2;
+            case LESSTHANEQUALTO:
+                return 3;
+            case GREATERTHAN:
+                return 4;
+            default:
+                return 5;
+        }
+    }
+
+    private void startChunk() {
+        // Every instruction pushes at most one value, so a statement never needs more stack than it has instructions
+        maxStack = Math.max(maxStack, chunkInstructions + 1);
+        chunkInstructions = 0;
+    }
+
+    private void emit(int opcode, int... operands) {
+        chunkInstructions++;
+        word(opcode);
+        for (int operand : operands) {
+            word(operand);
+        }
+    }
+
+    private void emitJump(int opcode, Label target) {
+        emit(opcode);
+        use(target);
+    }
+
+    private void word(int word) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = word;
+    }
+
+    // Emits the label's address as an operand, to be patched when the label is bound if it is not yet
+    private void use(Label label) {
+        if (label.address < 0) {
+            label.uses.add(size);
+        }
+        word(label.address);
+    }
+
+    private void bind(Label label) {
+        label.address = size;
+        for (int use : label.uses) {
+            code[use] = size;
+        }
+        label.uses.clear();
+    }
+}
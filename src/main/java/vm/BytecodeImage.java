@@ -0,0 +1,195 @@
+package vm;
+
+import node.FloatNode;
+import node.IntegerNode;
+import node.InterpreterDataType;
+import node.Node;
+import node.StringNode;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compiled program saved as bytes: its Bytecode and the stack depth the call graph proved for it, everything a
+ * CompiledMachine needs to run it again without the Lexer, the Parser or the compilers. The JarCompiler writes
+ * one into each jar next to the program's class, and the PrecompiledMachine reads it back when the jar starts.
+ */
+final class BytecodeImage {
+
+    // "BASI", then the version of the format
+    private static final int MAGIC = 0x42415349;
+    private static final int VERSION = 1;
+
+    private static final int STRING = 0;
+    private static final int FAILURE = 1;
+
+    private static final int INTEGER_DATA = 0;
+    private static final int FLOAT_DATA = 1;
+    private static final int STRING_DATA = 2;
+
+    private final Bytecode bytecode;
+    private final int maxStackDepth;
+
+    /**
+     * @param maxStackDepth the most frames the program was proven to need, or -1 if it is unbounded
+     */
+    BytecodeImage(Bytecode bytecode, int maxStackDepth) {
+        this.bytecode = bytecode;
+        this.maxStackDepth = maxStackDepth;
+    }
+
+    Bytecode getBytecode() {
+        return bytecode;
+    }
+
+    int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeInts(out, bytecode.getCode());
+        Object[] constants = bytecode.getConstants();
+        out.writeInt(constants.length);
+        for (Object constant : constants) {
+            if (constant instanceof Failure) {
+                Failure failure = (Failure) constant;
+                out.writeByte(FAILURE);
+                out.writeInt(failure.getOperands().length);
+                for (InterpreterDataType operand : failure.getOperands()) {
+                    out.writeByte(operand.ordinal());
+                }
+                out.writeByte(failure.getKind().ordinal());
+                writeString(out, failure.getPattern());
+            } else {
+                out.writeByte(STRING);
+                writeString(out, (String) constant);
+            }
+        }
+        writeStrings(out, bytecode.getIntNames());
+        writeStrings(out, bytecode.getFloatNames());
+        writeStrings(out, bytecode.getStringNames());
+        Node[] data = bytecode.getData();
+        out.writeInt(data.length);
+        for (Node value : data) {
+            if (value instanceof IntegerNode) {
+                out.writeByte(INTEGER_DATA);
+                out.writeInt(((IntegerNode) value).getInt());
+            } else if (value instanceof FloatNode) {
+                out.writeByte(FLOAT_DATA);
+                out.writeFloat(((FloatNode) value).getFloat());
+            } else {
+                out.writeByte(STRING_DATA);
+                writeString(out, ((StringNode) value).getValue());
+            }
+        }
+        writeInts(out, bytecode.getFrameAddresses());
+        writeInts(out, bytecode.getFrameCounters());
+        writeInts(out, bytecode.getStatementAddresses());
+        out.writeInt(bytecode.getMaxStack());
+        out.writeInt(maxStackDepth);
+        out.flush();
+    }
+
+    /**
+     * Reads an image written by {@link #write(OutputStream)}.
+     *
+     * @throws IOException if the bytes are not an image of this version
+     */
+    static BytecodeImage read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a compiled BASIC program");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Compiled program has format version %d, expected %d", version, VERSION));
+        }
+        int[] code = readInts(in);
+        Object[] constants = new Object[in.readInt()];
+        for (int i = 0; i < constants.length; i++) {
+            int tag = in.readByte();
+            if (tag == STRING) {
+                constants[i] = readString(in);
+            } else if (tag == FAILURE) {
+                InterpreterDataType[] operands = new InterpreterDataType[in.readInt()];
+                for (int k = 0; k < operands.length; k++) {
+                    operands[k] = InterpreterDataType.values()[in.readByte()];
+                }
+                Failure.Kind kind = Failure.Kind.values()[in.readByte()];
+                constants[i] = new Failure(operands, kind, readString(in));
+            } else {
+                throw new IOException("Unknown constant tag " + tag);
+            }
+        }
+        String[] intNames = readStrings(in);
+        String[] floatNames = readStrings(in);
+        String[] stringNames = readStrings(in);
+        Node[] data = new Node[in.readInt()];
+        for (int i = 0; i < data.length; i++) {
+            int tag = in.readByte();
+            if (tag == INTEGER_DATA) {
+                data[i] = new IntegerNode(in.readInt());
+            } else if (tag == FLOAT_DATA) {
+                data[i] = new FloatNode(in.readFloat());
+            } else if (tag == STRING_DATA) {
+                data[i] = new StringNode(readString(in));
+            } else {
+                throw new IOException("Unknown DATA tag " + tag);
+            }
+        }
+        int[] frameAddresses = readInts(in);
+        int[] frameCounters = readInts(in);
+        int[] statementAddresses = readInts(in);
+        int maxStack = in.readInt();
+        int maxStackDepth = in.readInt();
+        Bytecode bytecode = new Bytecode(code, constants, intNames, floatNames, stringNames, data,
+                frameAddresses, frameCounters, statementAddresses, maxStack);
+        return new BytecodeImage(bytecode, maxStackDepth);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    // Strings go as UTF-8 with an int length, since writeUTF stops at 64 KiB
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] values = new String[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readString(in);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,346 @@
+package vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Writes a class file with a single static method, which is all the JitCompiler needs. The class file version is
+ * 49, the last before the JVM required a StackMapTable, so the JVM infers the types of the stack and locals itself
+ * and the writer never has to compute stack map frames. Only the JVM instructions the JIT emits have constants
+ * here.
+ */
+final class ClassFileWriter {
+
+    static final int ICONST_0 = 3;
+    static final int FCONST_0 = 11;
+    static final int BIPUSH = 16;
+    static final int SIPUSH = 17;
+    static final int LDC = 18;
+    static final int LDC_W = 19;
+    static final int ILOAD = 21;
+    static final int FLOAD = 23;
+    static final int ALOAD = 25;
+    static final int ISTORE = 54;
+    static final int FSTORE = 56;
+    static final int ASTORE = 58;
+    static final int AASTORE = 83;
+    static final int POP = 87;
+    static final int DUP = 89;
+    static final int SWAP = 95;
+    static final int IADD = 96;
+    static final int FADD = 98;
+    static final int ISUB = 100;
+    static final int FSUB = 102;
+    static final int IMUL = 104;
+    static final int FMUL = 106;
+    static final int IDIV = 108;
+    static final int FDIV = 110;
+    static final int ISHL = 120;
+    static final int I2F = 134;
+    static final int F2I = 139;
+    static final int FCMPL = 149;
+    static final int FCMPG = 150;
+    static final int IFEQ = 153;
+    static final int IFNE = 154;
+    static final int IFLT = 155;
+    static final int IFGE = 156;
+    static final int IFGT = 157;
+    static final int IFLE = 158;
+    static final int IF_ICMPEQ = 159;
+    static final int IF_ICMPNE = 160;
+    static final int IF_ICMPLT = 161;
+    static final int IF_ICMPGE = 162;
+    static final int IF_ICMPGT = 163;
+    static final int IF_ICMPLE = 164;
+    static final int GOTO = 167;
+    static final int TABLESWITCH = 170;
+    static final int RETURN = 177;
+    static final int INVOKEVIRTUAL = 182;
+    static final int INVOKESTATIC = 184;
+    static final int ANEWARRAY = 189;
+    static final int ATHROW = 191;
+    static final int WIDE = 196;
+    static final int IFNONNULL = 199;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // A code position that branches can refer to before it is known
+    static final class Label {
+        private int position = -1;
+    }
+
+    // A branch offset to fill in: where the offset goes, the instruction it is relative to, and its width
+    private static final class Fixup {
+        private final int at;
+        private final int instruction;
+        private final boolean wide;
+        private final Label label;
+
+        private Fixup(int at, int instruction, boolean wide, Label label) {
+            this.at = at;
+            this.instruction = instruction;
+            this.wide = wide;
+            this.label = label;
+        }
+    }
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolCount = 1;
+
+    private byte[] code = new byte[1024];
+    private int size = 0;
+    private final List<Fixup> fixups = new ArrayList<>();
+    private final List<int[]> handlers = new ArrayList<>();
+    private final List<Label[]> handlerLabels = new ArrayList<>();
+
+    // Emits an instruction with no operands
+    void op(int opcode) {
+        u1(opcode);
+    }
+
+    void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            u1(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            u1(BIPUSH);
+            u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            u1(SIPUSH);
+            u2(value);
+        } else {
+            ldc(constant("I" + value, 3, out -> out.writeInt(value)));
+        }
+    }
+
+    void fconst(float value) {
+        if (Float.floatToRawIntBits(value) == 0 || value == 1f || value == 2f) {
+            u1(FCONST_0 + (int) value);
+        } else {
+            int bits = Float.floatToRawIntBits(value);
+            ldc(constant("F" + bits, 4, out -> out.writeInt(bits)));
+        }
+    }
+
+    void sconst(String value) {
+        int utf8 = utf8(value);
+        ldc(constant("S" + value, 8, out -> out.writeShort(utf8)));
+    }
+
+    private void ldc(int index) {
+        if (index < 256) {
+            u1(LDC);
+            u1(index);
+        } else {
+            u1(LDC_W);
+            u2(index);
+        }
+    }
+
+    // Emits a load or store of a local variable
+    void local(int opcode, int local) {
+        if (local < 256) {
+            u1(opcode);
+            u1(local);
+        } else {
+            u1(WIDE);
+            u1(opcode);
+            u2(local);
+        }
+    }
+
+    void invokestatic(String owner, String name, String descriptor) {
+        u1(INVOKESTATIC);
+        u2(methodRef(owner, name, descriptor));
+    }
+
+    void invokevirtual(String owner, String name, String descriptor) {
+        u1(INVOKEVIRTUAL);
+        u2(methodRef(owner, name, descriptor));
+    }
+
+    void anewarray(String internalName) {
+        u1(ANEWARRAY);
+        u2(classRef(internalName));
+    }
+
+    void branch(int opcode, Label label) {
+        int instruction = size;
+        u1(opcode);
+        fixups.add(new Fixup(size, instruction, false, label));
+        u2(0);
+    }
+
+    // Jumps to targets[key - low], or to otherwise if the key is out of range
+    void tableswitch(int low, Label otherwise, Label[] targets) {
+        int instruction = size;
+        u1(TABLESWITCH);
+        while (size % 4 != 0) {
+            u1(0);
+        }
+        fixups.add(new Fixup(size, instruction, true, otherwise));
+        u4(0);
+        u4(low);
+        u4(low + targets.length - 1);
+        for (Label target : targets) {
+            fixups.add(new Fixup(size, instruction, true, target));
+            u4(0);
+        }
+    }
+
+    void bind(Label label) {
+        label.position = size;
+    }
+
+    // Sends any exception thrown from start up to end to the handler
+    void handler(Label start, Label end, Label handler) {
+        handlerLabels.add(new Label[]{start, end, handler});
+    }
+
+    int codeSize() {
+        return size;
+    }
+
+    /**
+     * Returns the class file of a public final class holding the code as a public static method.
+     *
+     * @throws IllegalStateException if the code is too large for one method
+     */
+    byte[] toClassFile(String className, String methodName, String descriptor, int maxStack, int maxLocals) {
+        if (size > 65535) {
+            throw new IllegalStateException("Compiled code is larger than the 64 KiB a JVM method can hold");
+        }
+        for (Fixup fixup : fixups) {
+            int offset = fixup.label.position - fixup.instruction;
+            if (fixup.label.position < 0) {
+                throw new IllegalStateException("Branch to a label that was never bound");
+            }
+            if (fixup.wide) {
+                code[fixup.at] = (byte) (offset >>> 24);
+                code[fixup.at + 1] = (byte) (offset >>> 16);
+                code[fixup.at + 2] = (byte) (offset >>> 8);
+                code[fixup.at + 3] = (byte) offset;
+            } else {
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    throw new IllegalStateException("Compiled code is too large for a 16-bit branch offset");
+                }
+                code[fixup.at] = (byte) (offset >>> 8);
+                code[fixup.at + 1] = (byte) offset;
+            }
+        }
+        for (Label[] labels : handlerLabels) {
+            handlers.add(new int[]{labels[0].position, labels[1].position, labels[2].position});
+        }
+
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        int name = utf8(methodName);
+        int type = utf8(descriptor);
+        int codeAttribute = utf8("Code");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            out.write(poolBytes.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(1);
+
+            out.writeShort(ACC_PUBLIC | ACC_STATIC);
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + size + 8 * handlers.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(size);
+            out.write(code, 0, size);
+            out.writeShort(handlers.size());
+            for (int[] handler : handlers) {
+                out.writeShort(handler[0]);
+                out.writeShort(handler[1]);
+                out.writeShort(handler[2]);
+                // Catch everything
+                out.writeShort(0);
+            }
+            out.writeShort(0);
+
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface PoolEntry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int constant(String key, int tag, PoolEntry entry) {
+        Integer index = poolIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(tag);
+            entry.write(pool);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolIndexes.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private int utf8(String value) {
+        return constant("U" + value, 1, out -> out.writeUTF(value));
+    }
+
+    private int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, 7, out -> out.writeShort(name));
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        int ownerClass = classRef(owner);
+        int nameIndex = utf8(name);
+        int type = utf8(descriptor);
+        int nameAndType = constant("N" + name + ":" + descriptor, 12, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(type);
+        });
+        return constant("M" + owner + "." + name + ":" + descriptor, 10, out -> {
+            out.writeShort(ownerClass);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private void u1(int value) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        u1(value >>> 8);
+        u1(value);
+    }
+
+    private void u4(int value) {
+        u2(value >>> 16);
+        u2(value);
+    }
+}
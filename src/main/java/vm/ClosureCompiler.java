@@ -0,0 +1,756 @@
+package vm;
+
+import node.BuiltInFunctions;
+import node.FloatNode;
+import node.IntegerNode;
+import node.InterpreterDataType;
+import node.StringNode;
+
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Compiles Bytecode into trees of Java closures for a ClosureMachine. Like the RegisterCompiler it runs the
+ * stack code abstractly, but its operand stacks hold closures instead of registers: a load or a constant pushes a
+ * closure that reads it, and an operation pops its operands' closures and pushes one that applies it to them. A
+ * statement that consumes values, such as a store or a PRINT, becomes a closure that runs its operand trees and
+ * acts on the results, and each basic block becomes a step that runs its statements in order and returns the
+ * index of the block to run next. Every opcode is decoded once, here; running the program is only calls from one
+ * closure into the next, which the JIT inlines into straight-line code for small programs.
+ *
+ * Int values flow through IntSupplier and strings through Supplier. Floats use FloatSupplier rather than
+ * DoubleSupplier, so every operation still rounds to a float exactly as the other engines do.
+ */
+final class ClosureCompiler {
+
+    // Computes a float without boxing it
+    interface FloatSupplier {
+        float getAsFloat();
+    }
+
+    // Runs one block of the program and returns the index of the block to run next, or -1 to halt
+    interface Step {
+        int run();
+    }
+
+    private static final int INT = 0;
+    private static final int FLOAT = 1;
+    private static final int STRING = 2;
+
+    /**
+     * A value on the abstract operand stacks: the closure computing it, whether computing it again later gives
+     * the same value, as it does for a constant or a temporary, and the value itself if it is an int constant.
+     */
+    private static final class Entry {
+        private final IntSupplier intValue;
+        private final FloatSupplier floatValue;
+        private final Supplier<String> stringValue;
+        private final boolean stable;
+        private final boolean intConstant;
+        private final int constant;
+
+        private Entry(IntSupplier intValue, FloatSupplier floatValue, Supplier<String> stringValue, boolean stable,
+                      boolean intConstant, int constant) {
+            this.intValue = intValue;
+            this.floatValue = floatValue;
+            this.stringValue = stringValue;
+            this.stable = stable;
+            this.intConstant = intConstant;
+            this.constant = constant;
+        }
+
+        static Entry ofInt(IntSupplier value) {
+            return new Entry(value, null, null, false, false, 0);
+        }
+
+        static Entry ofFloat(FloatSupplier value) {
+            return new Entry(null, value, null, false, false, 0);
+        }
+
+        static Entry ofString(Supplier<String> value) {
+            return new Entry(null, null, value, false, false, 0);
+        }
+
+        static Entry intConstant(int value) {
+            return new Entry(() -> value, null, null, true, true, value);
+        }
+
+        static Entry floatConstant(float value) {
+            return new Entry(null, () -> value, null, true, false, 0);
+        }
+
+        static Entry stringConstant(String value) {
+            return new Entry(null, null, () -> value, true, false, 0);
+        }
+
+        static Entry intTemp(int[] temps, int slot) {
+            return new Entry(() -> temps[slot], null, null, true, false, 0);
+        }
+
+        static Entry floatTemp(float[] temps, int slot) {
+            return new Entry(null, () -> temps[slot], null, true, false, 0);
+        }
+
+        static Entry stringTemp(String[] temps, int slot) {
+            return new Entry(null, null, () -> temps[slot], true, false, 0);
+        }
+
+        Object box() {
+            if (intValue != null) {
+                return intValue.getAsInt();
+            } else if (floatValue != null) {
+                return floatValue.getAsFloat();
+            }
+            return stringValue.get();
+        }
+    }
+
+    private final Bytecode bytecode;
+    private final int[] code;
+    private final ClosureMachine machine;
+    private final List<List<Entry>> stacks = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    private final List<Runnable> statements = new ArrayList<>();
+    private int[] blockOf;
+    private int[] frameBlocks;
+
+    private ClosureCompiler(Bytecode bytecode, ClosureMachine machine) {
+        this.bytecode = bytecode;
+        this.code = bytecode.getCode();
+        this.machine = machine;
+    }
+
+    /**
+     * Compiles the code into one step per basic block, bound to the machine's variables and frame stack. The
+     * program starts at step 0.
+     */
+    static Step[] compile(Bytecode bytecode, ClosureMachine machine) {
+        return new ClosureCompiler(bytecode, machine).compile();
+    }
+
+    private Step[] compile() {
+        BitSet leaders = leaders();
+        blockOf = new int[code.length + 1];
+        Arrays.fill(blockOf, -1);
+        int blocks = 0;
+        for (int pc = leaders.nextSetBit(0); pc >= 0 && pc < code.length; pc = leaders.nextSetBit(pc + 1)) {
+            blockOf[pc] = blocks++;
+        }
+        int[] frameAddresses = bytecode.getFrameAddresses();
+        frameBlocks = new int[frameAddresses.length];
+        for (int frame = 0; frame < frameAddresses.length; frame++) {
+            frameBlocks[frame] = blockOf[frameAddresses[frame]];
+        }
+
+        Step[] steps = new Step[blocks];
+        for (int pc = leaders.nextSetBit(0); pc >= 0 && pc < code.length; pc = leaders.nextSetBit(pc + 1)) {
+            steps[blockOf[pc]] = compileBlock(pc, leaders);
+        }
+        return steps;
+    }
+
+    private Step compileBlock(int start, BitSet leaders) {
+        for (List<Entry> stack : stacks) {
+            if (!stack.isEmpty()) {
+                throw new IllegalStateException("Operand stack is not empty at block " + start);
+            }
+        }
+        statements.clear();
+        int pc = start;
+        Step exit = null;
+        while (exit == null) {
+            if (pc == code.length) {
+                exit = () -> -1;
+            } else if (pc != start && leaders.get(pc)) {
+                int next = blockOf[pc];
+                exit = () -> next;
+            } else {
+                exit = translate(pc);
+                pc += 1 + Opcode.operands(code[pc]);
+            }
+        }
+        return block(statements.toArray(new Runnable[0]), exit);
+    }
+
+    private static Step block(Runnable[] statements, Step exit) {
+        if (statements.length == 0) {
+            return exit;
+        } else if (statements.length == 1) {
+            Runnable statement = statements[0];
+            return () -> {
+                statement.run();
+                return exit.run();
+            };
+        }
+        return () -> {
+            for (Runnable statement : statements) {
+                statement.run();
+            }
+            return exit.run();
+        };
+    }
+
+    // Translates one instruction, returning the block's exit if the instruction ends the block
+    private Step translate(int pc) {
+        int opcode = code[pc];
+        int operand = pc + 1 < code.length ? code[pc + 1] : 0;
+        int next = pc + 1 + Opcode.operands(opcode);
+        switch (opcode) {
+            case Opcode.ICONST:
+                push(INT, Entry.intConstant(operand));
+                return null;
+            case Opcode.FCONST: {
+                push(FLOAT, Entry.floatConstant(Float.intBitsToFloat(operand)));
+                return null;
+            }
+            case Opcode.SCONST: {
+                push(STRING, Entry.stringConstant((String) bytecode.getConstants()[operand]));
+                return null;
+            }
+            case Opcode.ILOAD:
+                push(INT, Entry.ofInt(intLoad(operand)));
+                return null;
+            case Opcode.FLOAD:
+                push(FLOAT, Entry.ofFloat(floatLoad(operand)));
+                return null;
+            case Opcode.SLOAD:
+                push(STRING, Entry.ofString(stringLoad(operand)));
+                return null;
+            case Opcode.ISTORE: {
+                IntSupplier value = operands(INT)[0].intValue;
+                int[] ints = machine.ints;
+                boolean[] defined = machine.intDefined;
+                statements.add(() -> {
+                    ints[operand] = value.getAsInt();
+                    defined[operand] = true;
+                });
+                return null;
+            }
+            case Opcode.FSTORE: {
+                FloatSupplier value = operands(FLOAT)[0].floatValue;
+                float[] floats = machine.floats;
+                boolean[] defined = machine.floatDefined;
+                statements.add(() -> {
+                    floats[operand] = value.getAsFloat();
+                    defined[operand] = true;
+                });
+                return null;
+            }
+            case Opcode.SSTORE: {
+                Supplier<String> value = operands(STRING)[0].stringValue;
+                String[] strings = machine.strings;
+                statements.add(() -> strings[operand] = value.get());
+                return null;
+            }
+            case Opcode.I2F: {
+                IntSupplier value = pop(INT).intValue;
+                push(FLOAT, Entry.ofFloat(() -> value.getAsInt()));
+                return null;
+            }
+            case Opcode.F2I: {
+                FloatSupplier value = pop(FLOAT).floatValue;
+                push(INT, Entry.ofInt(() -> (int) value.getAsFloat()));
+                return null;
+            }
+            case Opcode.JMP: {
+                int target = blockOf[operand];
+                return () -> target;
+            }
+            case Opcode.JMP_IF_UNDEFINED: {
+                boolean[] defined = machine.intDefined;
+                int target = blockOf[code[pc + 2]];
+                int fallthrough = blockOf[next];
+                return () -> defined[operand] ? fallthrough : target;
+            }
+            case Opcode.CALL_BUILTIN:
+                builtIn(operand);
+                return null;
+            case Opcode.PRINT_I: {
+                IntSupplier value = operands(INT)[0].intValue;
+                statements.add(() -> machine.print(Integer.toString(value.getAsInt())));
+                return null;
+            }
+            case Opcode.PRINT_F: {
+                FloatSupplier value = operands(FLOAT)[0].floatValue;
+                statements.add(() -> machine.print(Float.toString(value.getAsFloat())));
+                return null;
+            }
+            case Opcode.PRINT_S: {
+                Supplier<String> value = operands(STRING)[0].stringValue;
+                statements.add(() -> machine.print(value.get()));
+                return null;
+            }
+            case Opcode.PRINT_END:
+                statements.add(machine::printEnd);
+                return null;
+            case Opcode.INPUT_PROMPT: {
+                Object prompt = bytecode.getConstants()[operand];
+                operands();
+                statements.add(() -> machine.prompt(prompt));
+                return null;
+            }
+            case Opcode.INPUT_I: {
+                int[] ints = machine.ints;
+                boolean[] defined = machine.intDefined;
+                operands();
+                statements.add(() -> {
+                    ints[operand] = Integer.parseInt(machine.nextInput());
+                    defined[operand] = true;
+                });
+                return null;
+            }
+            case Opcode.INPUT_F: {
+                float[] floats = machine.floats;
+                boolean[] defined = machine.floatDefined;
+                operands();
+                statements.add(() -> {
+                    floats[operand] = Float.parseFloat(machine.nextInput());
+                    defined[operand] = true;
+                });
+                return null;
+            }
+            case Opcode.INPUT_S: {
+                String[] strings = machine.strings;
+                operands();
+                statements.add(() -> strings[operand] = machine.nextInput());
+                return null;
+            }
+            case Opcode.READ_I: {
+                int[] ints = machine.ints;
+                boolean[] defined = machine.intDefined;
+                String name = bytecode.getIntNames()[operand];
+                operands();
+                statements.add(() -> {
+                    ints[operand] = ((IntegerNode) machine.read(IntegerNode.class, name, InterpreterDataType.INTEGER)).getInt();
+                    defined[operand] = true;
+                });
+                return null;
+            }
+            case Opcode.READ_F: {
+                float[] floats = machine.floats;
+                boolean[] defined = machine.floatDefined;
+                String name = bytecode.getFloatNames()[operand];
+                operands();
+                statements.add(() -> {
+                    floats[operand] = ((FloatNode) machine.read(FloatNode.class, name, InterpreterDataType.FLOAT)).getFloat();
+                    defined[operand] = true;
+                });
+                return null;
+            }
+            case Opcode.READ_S: {
+                String[] strings = machine.strings;
+                String name = bytecode.getStringNames()[operand];
+                operands();
+                statements.add(() -> strings[operand] = ((StringNode) machine.read(StringNode.class, name, InterpreterDataType.STRING)).getValue());
+                return null;
+            }
+            case Opcode.GOSUB: {
+                int frame = code[pc + 2];
+                int target = blockOf[operand];
+                return () -> {
+                    machine.pushFrame(frame);
+                    return target;
+                };
+            }
+            case Opcode.PUSH_FRAME:
+                operands();
+                statements.add(() -> machine.pushFrame(operand));
+                return null;
+            case Opcode.RETURN: {
+                int[] frameBlocks = this.frameBlocks;
+                return () -> frameBlocks[machine.popReturn()];
+            }
+            case Opcode.RETURN_DROP:
+                operands();
+                statements.add(machine::popReturn);
+                return null;
+            case Opcode.NEXT: {
+                int[] frameBlocks = this.frameBlocks;
+                return () -> frameBlocks[machine.popNext(operand)];
+            }
+            case Opcode.NEXT_DROP:
+                operands();
+                statements.add(() -> machine.popNext(operand));
+                return null;
+            case Opcode.POP_JUMP: {
+                int[] frameBlocks = this.frameBlocks;
+                return () -> frameBlocks[machine.popAny()];
+            }
+            case Opcode.FOR_FIRST:
+            case Opcode.FOR_NEXT:
+                return forLoop(opcode == Opcode.FOR_NEXT, operand, code[pc + 2], blockOf[next], blockOf[code[pc + 3]]);
+            case Opcode.FAIL: {
+                Failure failure = (Failure) bytecode.getConstants()[operand];
+                InterpreterDataType[] types = failure.getOperands();
+                int[] typeIndexes = new int[types.length];
+                for (int k = 0; k < types.length; k++) {
+                    typeIndexes[k] = typeIndex(types[k]);
+                }
+                Entry[] values = operands(typeIndexes);
+                // Whatever the failing statement left on the stacks is never used
+                for (List<Entry> stack : stacks) {
+                    stack.clear();
+                }
+                return () -> {
+                    Object[] boxed = new Object[values.length];
+                    for (int k = 0; k < values.length; k++) {
+                        boxed[k] = values[k].box();
+                    }
+                    throw failure.create(boxed);
+                };
+            }
+            case Opcode.HALT:
+                return () -> -1;
+            default:
+                if (opcode >= Opcode.IADD && opcode <= Opcode.ISHR) {
+                    Entry right = pop(INT);
+                    push(INT, intMath(opcode, pop(INT), right));
+                    return null;
+                } else if (opcode >= Opcode.FADD && opcode <= Opcode.FDIV) {
+                    FloatSupplier right = pop(FLOAT).floatValue;
+                    push(FLOAT, floatMath(opcode, pop(FLOAT).floatValue, right));
+                    return null;
+                } else if (opcode >= Opcode.ICMP_EQ_JMP && opcode <= Opcode.FCMP_GE_JMP) {
+                    int type = opcode <= Opcode.ICMP_GE_JMP ? INT : FLOAT;
+                    Entry[] values = operands(type, type);
+                    BooleanSupplier condition = type == INT
+                            ? intCompare(opcode - Opcode.ICMP_EQ_JMP, values[0], values[1])
+                            : floatCompare(opcode - Opcode.FCMP_EQ_JMP, values[0].floatValue, values[1].floatValue);
+                    int target = blockOf[operand];
+                    int fallthrough = blockOf[next];
+                    return () -> condition.getAsBoolean() ? target : fallthrough;
+                }
+                throw new IllegalStateException(String.format("Unknown opcode %d at %d", opcode, pc));
+        }
+    }
+
+    private Step forLoop(boolean advance, int counter, int frame, int body, int exit) {
+        Entry[] values = operands(INT, INT);
+        IntSupplier limit = values[0].intValue;
+        IntSupplier step = values[1].intValue;
+        int[] ints = machine.ints;
+        return () -> {
+            int limitValue = limit.getAsInt();
+            int stepValue = step.getAsInt();
+            if (ints[counter] < limitValue) {
+                machine.pushFrame(frame);
+                if (advance) {
+                    ints[counter] += stepValue;
+                }
+                return body;
+            }
+            return exit;
+        };
+    }
+
+    private IntSupplier intLoad(int slot) {
+        int[] ints = machine.ints;
+        boolean[] defined = machine.intDefined;
+        String name = bytecode.getIntNames()[slot];
+        return () -> {
+            if (!defined[slot]) {
+                throw Machine.undefinedVariable(name);
+            }
+            return ints[slot];
+        };
+    }
+
+    private FloatSupplier floatLoad(int slot) {
+        float[] floats = machine.floats;
+        boolean[] defined = machine.floatDefined;
+        String name = bytecode.getFloatNames()[slot];
+        return () -> {
+            if (!defined[slot]) {
+                throw Machine.undefinedVariable(name);
+            }
+            return floats[slot];
+        };
+    }
+
+    private Supplier<String> stringLoad(int slot) {
+        String[] strings = machine.strings;
+        String name = bytecode.getStringNames()[slot];
+        return () -> {
+            String value = strings[slot];
+            if (value == null) {
+                throw Machine.undefinedVariable(name);
+            }
+            return value;
+        };
+    }
+
+    // Builds an int operation, folding a constant right operand into the closure
+    private static Entry intMath(int opcode, Entry left, Entry right) {
+        IntSupplier a = left.intValue;
+        IntSupplier b = right.intValue;
+        if (right.intConstant) {
+            int constant = right.constant;
+            switch (opcode) {
+                case Opcode.IADD:
+                    return Entry.ofInt(() -> a.getAsInt() + constant);
+                case Opcode.ISUB:
+                    return Entry.ofInt(() -> a.getAsInt() - constant);
+                case Opcode.IMUL:
+                    return Entry.ofInt(() -> a.getAsInt() * constant);
+                default:
+                    break;
+            }
+        }
+        switch (opcode) {
+            case Opcode.IADD:
+                return Entry.ofInt(() -> a.getAsInt() + b.getAsInt());
+            case Opcode.ISUB:
+                return Entry.ofInt(() -> a.getAsInt() - b.getAsInt());
+            case Opcode.IMUL:
+                return Entry.ofInt(() -> a.getAsInt() * b.getAsInt());
+            case Opcode.IDIV:
+                return Entry.ofInt(() -> a.getAsInt() / b.getAsInt());
+            case Opcode.ISHL:
+                return Entry.ofInt(() -> a.getAsInt() << b.getAsInt());
+            default:
+                return Entry.ofInt(() -> Machine.shiftRight(a.getAsInt(), b.getAsInt()));
+        }
+    }
+
+    private static Entry floatMath(int opcode, FloatSupplier a, FloatSupplier b) {
+        switch (opcode) {
+            case Opcode.FADD:
+                return Entry.ofFloat(() -> a.getAsFloat() + b.getAsFloat());
+            case Opcode.FSUB:
+                return Entry.ofFloat(() -> a.getAsFloat() - b.getAsFloat());
+            case Opcode.FMUL:
+                return Entry.ofFloat(() -> a.getAsFloat() * b.getAsFloat());
+            default:
+                return Entry.ofFloat(() -> a.getAsFloat() / b.getAsFloat());
+        }
+    }
+
+    // The comparisons in the order of the ICMP and FCMP opcodes: EQ, NE, LT, LE, GT, GE
+    private static BooleanSupplier intCompare(int comparison, Entry left, Entry right) {
+        IntSupplier a = left.intValue;
+        if (right.intConstant) {
+            int b = right.constant;
+            switch (comparison) {
+                case 0:
+                    return () -> a.getAsInt() == b;
+                case 1:
+                    return () -> a.getAsInt() != b;
+                case 2:
+                    return () -> a.getAsInt() < b;
+                case 3:
+                    return () -> a.getAsInt() <= b;
+                case 4:
+                    return () -> a.getAsInt() > b;
+                default:
+                    return () -> a.getAsInt() >= b;
+            }
+        }
+        IntSupplier b = right.intValue;
+        switch (comparison) {
+            case 0:
+                return () -> a.getAsInt() == b.getAsInt();
+            case 1:
+                return () -> a.getAsInt() != b.getAsInt();
+            case 2:
+                return () -> a.getAsInt() < b.getAsInt();
+            case 3:
+                return () -> a.getAsInt() <= b.getAsInt();
+            case 4:
+                return () -> a.getAsInt() > b.getAsInt();
+            default:
+                return () -> a.getAsInt() >= b.getAsInt();
+        }
+    }
+
+    private static BooleanSupplier floatCompare(int comparison, FloatSupplier a, FloatSupplier b) {
+        switch (comparison) {
+            case 0:
+                return () -> a.getAsFloat() == b.getAsFloat();
+            case 1:
+                return () -> a.getAsFloat() != b.getAsFloat();
+            case 2:
+                return () -> a.getAsFloat() < b.getAsFloat();
+            case 3:
+                return () -> a.getAsFloat() <= b.getAsFloat();
+            case 4:
+                return () -> a.getAsFloat() > b.getAsFloat();
+            default:
+                return () -> a.getAsFloat() >= b.getAsFloat();
+        }
+    }
+
+    // Pops a builtin's arguments and pushes its result
+    private void builtIn(int builtIn) {
+        switch (builtIn) {
+            case BuiltIn.RANDOM:
+                push(INT, Entry.ofInt(BuiltInFunctions::RANDOM));
+                break;
+            case BuiltIn.RANDOM_RANGE: {
+                IntSupplier max = pop(INT).intValue;
+                IntSupplier min = pop(INT).intValue;
+                push(INT, Entry.ofInt(() -> BuiltInFunctions.RANDOM(min.getAsInt(), max.getAsInt())));
+                break;
+            }
+            case BuiltIn.RANDOMF:
+                push(FLOAT, Entry.ofFloat(BuiltInFunctions::RANDOMF));
+                break;
+            case BuiltIn.RANDOMF_RANGE: {
+                FloatSupplier max = pop(FLOAT).floatValue;
+                FloatSupplier min = pop(FLOAT).floatValue;
+                push(FLOAT, Entry.ofFloat(() -> BuiltInFunctions.RANDOMF(min.getAsFloat(), max.getAsFloat())));
+                break;
+            }
+            case BuiltIn.LEFT$: {
+                IntSupplier n = pop(INT).intValue;
+                Supplier<String> s = pop(STRING).stringValue;
+                push(STRING, Entry.ofString(() -> BuiltInFunctions.LEFT$(s.get(), n.getAsInt())));
+                break;
+            }
+            case BuiltIn.RIGHT$: {
+                IntSupplier n = pop(INT).intValue;
+                Supplier<String> s = pop(STRING).stringValue;
+                push(STRING, Entry.ofString(() -> BuiltInFunctions.RIGHT$(s.get(), n.getAsInt())));
+                break;
+            }
+            case BuiltIn.MID$: {
+                IntSupplier count = pop(INT).intValue;
+                IntSupplier start = pop(INT).intValue;
+                Supplier<String> s = pop(STRING).stringValue;
+                push(STRING, Entry.ofString(() -> BuiltInFunctions.MID$(s.get(), start.getAsInt(), count.getAsInt())));
+                break;
+            }
+            case BuiltIn.NUM$_INT: {
+                IntSupplier n = pop(INT).intValue;
+                push(STRING, Entry.ofString(() -> Integer.toString(n.getAsInt())));
+                break;
+            }
+            case BuiltIn.NUM$_FLOAT: {
+                FloatSupplier n = pop(FLOAT).floatValue;
+                push(STRING, Entry.ofString(() -> Float.toString(n.getAsFloat())));
+                break;
+            }
+            case BuiltIn.VAL: {
+                Supplier<String> s = pop(STRING).stringValue;
+                push(INT, Entry.ofInt(() -> BuiltInFunctions.VAL(s.get())));
+                break;
+            }
+            case BuiltIn.VALF: {
+                Supplier<String> s = pop(STRING).stringValue;
+                push(FLOAT, Entry.ofFloat(() -> BuiltInFunctions.VALF(s.get())));
+                break;
+            }
+            case BuiltIn.POW: {
+                IntSupplier b = pop(INT).intValue;
+                IntSupplier a = pop(INT).intValue;
+                push(INT, Entry.ofInt(() -> BuiltInFunctions.POW(a.getAsInt(), b.getAsInt())));
+                break;
+            }
+            case BuiltIn.POWF: {
+                FloatSupplier b = pop(FLOAT).floatValue;
+                FloatSupplier a = pop(FLOAT).floatValue;
+                push(FLOAT, Entry.ofFloat(() -> BuiltInFunctions.POWF(a.getAsFloat(), b.getAsFloat())));
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown builtin " + builtIn);
+        }
+    }
+
+    private void push(int type, Entry entry) {
+        stacks.get(type).add(entry);
+    }
+
+    private Entry pop(int type) {
+        List<Entry> stack = stacks.get(type);
+        return stack.remove(stack.size() - 1);
+    }
+
+    /**
+     * Pops the operands of a statement, in the order they were pushed. A value still on the stacks below them
+     * was pushed earlier and has to be computed before the statement runs, as the stack VM would, so if there
+     * is one, every pending value is first computed into the temporary for its stack position.
+     */
+    private Entry[] operands(int... types) {
+        int pending = 0;
+        for (List<Entry> stack : stacks) {
+            pending += stack.size();
+        }
+        if (pending > types.length) {
+            spill();
+        }
+        Entry[] values = new Entry[types.length];
+        for (int k = types.length - 1; k >= 0; k--) {
+            values[k] = pop(types[k]);
+        }
+        return values;
+    }
+
+    private void spill() {
+        for (int type = INT; type <= STRING; type++) {
+            List<Entry> stack = stacks.get(type);
+            for (int slot = 0; slot < stack.size(); slot++) {
+                Entry entry = stack.get(slot);
+                if (entry.stable) {
+                    continue;
+                }
+                int k = slot;
+                if (type == INT) {
+                    int[] temps = machine.intTemps;
+                    IntSupplier value = entry.intValue;
+                    statements.add(() -> temps[k] = value.getAsInt());
+                    stack.set(slot, Entry.intTemp(temps, slot));
+                } else if (type == FLOAT) {
+                    float[] temps = machine.floatTemps;
+                    FloatSupplier value = entry.floatValue;
+                    statements.add(() -> temps[k] = value.getAsFloat());
+                    stack.set(slot, Entry.floatTemp(temps, slot));
+                } else {
+                    String[] temps = machine.stringTemps;
+                    Supplier<String> value = entry.stringValue;
+                    statements.add(() -> temps[k] = value.get());
+                    stack.set(slot, Entry.stringTemp(temps, slot));
+                }
+            }
+        }
+    }
+
+    // Block boundaries: every jump target and frame address, and every instruction after one that ends a block
+    private BitSet leaders() {
+        BitSet leaders = new BitSet();
+        leaders.set(0);
+        for (int pc = 0; pc < code.length; pc += 1 + Opcode.operands(code[pc])) {
+            int opcode = code[pc];
+            int next = pc + 1 + Opcode.operands(opcode);
+            if (opcode == Opcode.JMP || opcode == Opcode.GOSUB
+                    || opcode >= Opcode.ICMP_EQ_JMP && opcode <= Opcode.FCMP_GE_JMP) {
+                leaders.set(code[pc + 1]);
+                leaders.set(next);
+            } else if (opcode == Opcode.JMP_IF_UNDEFINED) {
+                leaders.set(code[pc + 2]);
+                leaders.set(next);
+            } else if (opcode == Opcode.FOR_FIRST || opcode == Opcode.FOR_NEXT) {
+                leaders.set(code[pc + 3]);
+                leaders.set(next);
+            } else if (opcode == Opcode.RETURN || opcode == Opcode.NEXT || opcode == Opcode.POP_JUMP
+                    || opcode == Opcode.FAIL || opcode == Opcode.HALT) {
+                leaders.set(next);
+            }
+        }
+        for (int address : bytecode.getFrameAddresses()) {
+            leaders.set(address);
+        }
+        return leaders;
+    }
+
+    private static int typeIndex(InterpreterDataType type) {
+        switch (type) {
+            case INTEGER:
+                return INT;
+            case FLOAT:
+                return FLOAT;
+            default:
+                return STRING;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package vm;
+
+import ir.CallGraph;
+import node.ProgramNode;
+
+import java.util.Map;
+
+/**
+ * Runs a program compiled by the ClosureCompiler: one closure per basic block, each returning the index of the
+ * block to run next. The loop below is the only dispatch left at runtime; everything inside a block is a direct
+ * call from one pre-bound closure to the next. Variables live in typed slot arrays the closures captured when
+ * they were compiled, so each machine compiles its own copy of the program.
+ */
+public class ClosureMachine extends Machine {
+
+    private final Bytecode bytecode;
+
+    final int[] ints;
+    final boolean[] intDefined;
+    final float[] floats;
+    final boolean[] floatDefined;
+    final String[] strings;
+    // Values computed ahead of a statement that runs before they are used, one per operand stack position
+    final int[] intTemps;
+    final float[] floatTemps;
+    final String[] stringTemps;
+
+    private final ClosureCompiler.Step[] blocks;
+    private long blocksExecuted = 0;
+
+    public ClosureMachine(ProgramNode programNode) {
+        this(BytecodeCompiler.compile(programNode), CallGraph.maxStackDepth(programNode));
+    }
+
+    /**
+     * @param maxStackDepth the most frames the program was proven to need, or -1 if it is unbounded
+     */
+    public ClosureMachine(Bytecode bytecode, int maxStackDepth) {
+        super(bytecode.getIntNames(), bytecode.getFloatNames(), bytecode.getStringNames(), bytecode.getData(),
+                bytecode.getFrameCounters(), maxStackDepth);
+        this.bytecode = bytecode;
+        this.ints = new int[bytecode.getIntNames().length];
+        this.intDefined = new boolean[ints.length];
+        this.floats = new float[bytecode.getFloatNames().length];
+        this.floatDefined = new boolean[floats.length];
+        this.strings = new String[bytecode.getStringNames().length];
+        this.intTemps = new int[bytecode.getMaxStack()];
+        this.floatTemps = new float[bytecode.getMaxStack()];
+        this.stringTemps = new String[bytecode.getMaxStack()];
+        this.blocks = ClosureCompiler.compile(bytecode, this);
+    }
+
+    public Bytecode getBytecode() {
+        return bytecode;
+    }
+
+    // The number of basic blocks the program compiled to
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    // The number of blocks dispatched by the last run
+    public long getBlocksExecuted() {
+        return blocksExecuted;
+    }
+
+    @Override
+    public void interpret() {
+        final ClosureCompiler.Step[] blocks = this.blocks;
+        resetFrames();
+        int block = 0;
+        long count = 0;
+        try {
+            while (block >= 0) {
+                count++;
+                block = blocks[block].run();
+            }
+        } finally {
+            blocksExecuted = count;
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getIntVariables() {
+        return intVariables(ints, intDefined);
+    }
+
+    @Override
+    public Map<String, Float> getFloatVariables() {
+        return floatVariables(floats, floatDefined);
+    }
+
+    @Override
+    public Map<String, String> getStringVariables() {
+        return stringVariables(strings);
+    }
+}
@@ -0,0 +1,166 @@
+package vm;
+
+import node.FloatNode;
+import node.IntegerNode;
+import node.InterpreterDataType;
+import node.StringNode;
+
+import java.util.Map;
+
+/**
+ * What the machines that run a program as generated JVM code share: the variables, kept here between runs, and
+ * the methods the generated code calls to load them when it starts, store them back when it ends, read DATA and
+ * build the exception of a FAIL. The generated classes are defined in this package so they can call these
+ * package-private methods directly.
+ */
+abstract class CompiledMachine extends Machine {
+
+    private final Bytecode bytecode;
+
+    private final int[] ints;
+    private final boolean[] intDefined;
+    private final float[] floats;
+    private final boolean[] floatDefined;
+    private final String[] strings;
+    private int entryFrame = 0;
+
+    /**
+     * @param maxStackDepth the most frames the program was proven to need, or -1 if it is unbounded
+     */
+    CompiledMachine(Bytecode bytecode, int maxStackDepth) {
+        super(bytecode.getIntNames(), bytecode.getFloatNames(), bytecode.getStringNames(), bytecode.getData(),
+                bytecode.getFrameCounters(), maxStackDepth);
+        this.bytecode = bytecode;
+        this.ints = new int[bytecode.getIntNames().length];
+        this.intDefined = new boolean[ints.length];
+        this.floats = new float[bytecode.getFloatNames().length];
+        this.floatDefined = new boolean[floats.length];
+        this.strings = new String[bytecode.getStringNames().length];
+    }
+
+    public Bytecode getBytecode() {
+        return bytecode;
+    }
+
+    @Override
+    public Map<String, Integer> getIntVariables() {
+        return intVariables(ints, intDefined);
+    }
+
+    @Override
+    public Map<String, Float> getFloatVariables() {
+        return floatVariables(floats, floatDefined);
+    }
+
+    @Override
+    public Map<String, String> getStringVariables() {
+        return stringVariables(strings);
+    }
+
+    /**
+     * Takes over the variables of a program another engine has run part of. Names the program has no slot for
+     * are ignored, since it can never read them.
+     */
+    final void transferVariables(Map<String, Integer> intValues, Map<String, Float> floatValues, Map<String, String> stringValues) {
+        String[] intNames = bytecode.getIntNames();
+        for (int slot = 0; slot < intNames.length; slot++) {
+            Integer value = intValues.get(intNames[slot]);
+            storeInt(slot, value == null ? 0 : value, value != null);
+        }
+        String[] floatNames = bytecode.getFloatNames();
+        for (int slot = 0; slot < floatNames.length; slot++) {
+            Float value = floatValues.get(floatNames[slot]);
+            storeFloat(slot, value == null ? 0 : value, value != null);
+        }
+        String[] stringNames = bytecode.getStringNames();
+        for (int slot = 0; slot < stringNames.length; slot++) {
+            storeString(slot, stringValues.get(stringNames[slot]));
+        }
+    }
+
+    // Makes the next run start at the statement of the frame id instead of at the beginning of the program
+    final void setEntryFrame(int entryFrame) {
+        this.entryFrame = entryFrame;
+    }
+
+    // Called by the compiled program as it starts and ends
+
+    final int entryFrame() {
+        return entryFrame;
+    }
+
+    final int loadInt(int slot) {
+        return ints[slot];
+    }
+
+    final boolean isIntDefined(int slot) {
+        return intDefined[slot];
+    }
+
+    final float loadFloat(int slot) {
+        return floats[slot];
+    }
+
+    final boolean isFloatDefined(int slot) {
+        return floatDefined[slot];
+    }
+
+    final String loadString(int slot) {
+        return strings[slot];
+    }
+
+    final void storeInt(int slot, int value, boolean defined) {
+        ints[slot] = value;
+        intDefined[slot] = defined;
+    }
+
+    final void storeFloat(int slot, float value, boolean defined) {
+        floats[slot] = value;
+        floatDefined[slot] = defined;
+    }
+
+    final void storeString(int slot, String value) {
+        strings[slot] = value;
+    }
+
+    // Called by the compiled program as it runs
+
+    final int readInt(String name) {
+        return ((IntegerNode) read(IntegerNode.class, name, InterpreterDataType.INTEGER)).getInt();
+    }
+
+    final float readFloat(String name) {
+        return ((FloatNode) read(FloatNode.class, name, InterpreterDataType.FLOAT)).getFloat();
+    }
+
+    final String readString(String name) {
+        return ((StringNode) read(StringNode.class, name, InterpreterDataType.STRING)).getValue();
+    }
+
+    final RuntimeException fail(int constant, Object[] values) {
+        return ((Failure) bytecode.getConstants()[constant]).create(values);
+    }
+
+    // The value of a variable, or the Interpreter's error if it was never assigned
+
+    static int defined(int value, boolean defined, String name) {
+        if (!defined) {
+            throw undefinedVariable(name);
+        }
+        return value;
+    }
+
+    static float defined(float value, boolean defined, String name) {
+        if (!defined) {
+            throw undefinedVariable(name);
+        }
+        return value;
+    }
+
+    static String defined(String value, String name) {
+        if (value == null) {
+            throw undefinedVariable(name);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,122 @@
+package vm;
+
+import interpreter.ExecutionEngine;
+import interpreter.Interpreter;
+import ir.CallGraph;
+import node.ProgramNode;
+
+import java.util.*;
+
+/**
+ * Compares the stack and register VMs on one program: how many instructions each dispatches and how long a run
+ * takes once the JIT has warmed up, against the Interpreter walking the same program. Each run starts from freshly
+ * compiled code in test mode, so printing only collects the lines and INPUT reads the given ones.
+ */
+public final class DispatchBenchmark {
+
+    // What one VM did with the program
+    public static final class Result {
+        private final String engine;
+        private final int codeSize;
+        private final long instructions;
+        private final long medianNanos;
+        private final double speedup;
+
+        Result(String engine, int codeSize, long instructions, long medianNanos, long interpreterNanos) {
+            this.engine = engine;
+            this.codeSize = codeSize;
+            this.instructions = instructions;
+            this.medianNanos = medianNanos;
+            this.speedup = (double) interpreterNanos / Math.max(medianNanos, 1);
+        }
+
+        public String getEngine() {
+            return engine;
+        }
+
+        // Words of code the program compiled to, or -1 for the Interpreter, which runs the tree as it is
+        public int getCodeSize() {
+            return codeSize;
+        }
+
+        // Instructions dispatched in one run, or -1 for the Interpreter
+        public long getInstructions() {
+            return instructions;
+        }
+
+        public long getMedianNanos() {
+            return medianNanos;
+        }
+
+        // How many times faster than the Interpreter the median run was
+        public double getSpeedup() {
+            return speedup;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %10s words %14s dispatches %12.3f ms %7.1fx", engine,
+                    codeSize < 0 ? "-" : String.valueOf(codeSize), instructions < 0 ? "-" : String.valueOf(instructions),
+                    medianNanos / 1e6, speedup);
+        }
+    }
+
+    private DispatchBenchmark() {}
+
+    /**
+     * Runs the program the given number of times on the Interpreter and on each VM, after as many warm-up runs, and
+     * reports the instructions dispatched by one run, the median wall time and the speedup over the Interpreter.
+     */
+    public static List<Result> run(ProgramNode program, List<String> input, int runs) {
+        if (runs < 1) {
+            throw new IllegalArgumentException("Benchmark needs at least one run");
+        }
+        int maxStackDepth = CallGraph.maxStackDepth(program);
+        Bytecode bytecode = BytecodeCompiler.compile(program);
+        RegisterCode registerCode = RegisterCompiler.translate(bytecode);
+
+        long[] interpreterTimes = new long[runs];
+        long[] stackTimes = new long[runs];
+        long[] registerTimes = new long[runs];
+        long stackInstructions = 0;
+        long registerInstructions = 0;
+        for (int run = -runs; run < runs; run++) {
+            // The Interpreter ends each PRINT's line on stdout even in test mode, which the VMs do not
+            long interpreterTime = time(new Interpreter(program) {
+                @Override
+                protected void endLine() {
+                }
+            }, input);
+            VirtualMachine stackMachine = new VirtualMachine(bytecode, maxStackDepth);
+            long time = time(stackMachine, input);
+            stackInstructions = stackMachine.getInstructionsExecuted();
+            RegisterMachine registerMachine = new RegisterMachine(registerCode, maxStackDepth);
+            long registerTime = time(registerMachine, input);
+            registerInstructions = registerMachine.getInstructionsExecuted();
+            if (run >= 0) {
+                interpreterTimes[run] = interpreterTime;
+                stackTimes[run] = time;
+                registerTimes[run] = registerTime;
+            }
+        }
+        long interpreterNanos = median(interpreterTimes);
+        return List.of(new Result("ast", -1, -1, interpreterNanos, interpreterNanos),
+                new Result("stack-vm", bytecode.getCode().length, stackInstructions, median(stackTimes), interpreterNanos),
+                new Result("register-vm", registerCode.getCode().length, registerInstructions, median(registerTimes),
+                        interpreterNanos));
+    }
+
+    private static long time(ExecutionEngine engine, List<String> input) {
+        engine.setTestMode(true);
+        engine.setTestInput(input);
+        long start = System.nanoTime();
+        engine.interpret();
+        return System.nanoTime() - start;
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
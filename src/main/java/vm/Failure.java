@@ -0,0 +1,97 @@
+package vm;
+
+import node.InterpreterDataType;
+
+/**
+ * A runtime error the compiler found ahead of time, such as adding a string to a number. The operation still has
+ * to fail only when it runs, after its operands are evaluated, and with the exception the Interpreter throws, so
+ * the FAIL instruction pops the operands named here and hands their values to create, which builds it.
+ *
+ * A failure is plain data, the kind of exception and a String.format pattern its message is made from, so a
+ * compiled program can be written to an image and run without the compiler that found it.
+ */
+final class Failure {
+
+    enum Kind {
+        RUNTIME,
+        ILLEGAL_ARGUMENT,
+        NULL_POINTER,
+        INDEX_OUT_OF_BOUNDS,
+        // The ClassCastException of a cast to the class the pattern names
+        CLASS_CAST,
+        // An unsupported comparison, which the Interpreter reports after printing the classes of its operands
+        COMPARISON
+    }
+
+    // The types of the operands to pop, in the order they were pushed
+    private final InterpreterDataType[] operands;
+    private final Kind kind;
+    private final String pattern;
+
+    /**
+     * @param pattern the message as a String.format pattern over the operand values, or for CLASS_CAST the name
+     *                of the class the value is cast to
+     */
+    Failure(InterpreterDataType[] operands, Kind kind, String pattern) {
+        this.operands = operands;
+        this.kind = kind;
+        this.pattern = pattern;
+    }
+
+    InterpreterDataType[] getOperands() {
+        return operands;
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    String getPattern() {
+        return pattern;
+    }
+
+    RuntimeException create(Object[] values) {
+        switch (kind) {
+            case CLASS_CAST:
+                return classCast(values[0], pattern);
+            case COMPARISON:
+                System.out.println(values[0].getClass());
+                System.out.println(values[1].getClass());
+                return new RuntimeException(String.format(pattern, values));
+            case ILLEGAL_ARGUMENT:
+                return new IllegalArgumentException(String.format(pattern, values));
+            case NULL_POINTER:
+                return new NullPointerException(String.format(pattern, values));
+            case INDEX_OUT_OF_BOUNDS:
+                return new IndexOutOfBoundsException(String.format(pattern, values));
+            default:
+                return new RuntimeException(String.format(pattern, values));
+        }
+    }
+
+    // Escapes text for a pattern, so that it appears in the message as it is
+    static String literal(Object text) {
+        return String.valueOf(text).replace("%", "%%");
+    }
+
+    // The ClassCastException the Interpreter's (Integer), (Float) or (Number) cast throws for the value
+    private static RuntimeException classCast(Object value, String type) {
+        try {
+            if (type.equals(Integer.class.getName())) {
+                Integer unused = (Integer) value;
+            } else if (type.equals(Number.class.getName())) {
+                Number unused = (Number) value;
+            } else {
+                Float unused = (Float) value;
+            }
+        } catch (ClassCastException e) {
+            return e;
+        }
+        throw new IllegalStateException("Value " + value + " is a " + type);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Failure(%d operands)", operands.length);
+    }
+}
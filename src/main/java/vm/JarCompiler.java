@@ -0,0 +1,163 @@
+package vm;
+
+import ir.CallGraph;
+import node.ProgramNode;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles a program ahead of time into an executable jar: the class the JitCompiler generates for it, the
+ * BytecodeImage that class runs against, and the classes of this application those two need at runtime, found by
+ * following the class references in their class files. The PrecompiledMachine is the jar's main class, so running
+ * the jar never lexes or parses, and the Lexer, the Parser and the compilers stay out of it.
+ */
+public final class JarCompiler {
+
+    private static final String MAIN_CLASS = PrecompiledMachine.class.getName();
+    private static final String PROGRAM_ENTRY = PrecompiledMachine.PROGRAM_CLASS.replace('.', '/') + ".class";
+    private static final String IMAGE_ENTRY = "vm/" + PrecompiledMachine.IMAGE_RESOURCE;
+
+    // The front end, which a compiled program must never need
+    private static final List<String> FRONT_END = List.of("lexer/", "parser/", "Shell");
+
+    // A class named in a descriptor or signature, such as Lnode/Node; in (Lnode/Node;)V
+    private static final Pattern CLASS_IN_DESCRIPTOR = Pattern.compile("L([\\w$/]+);");
+
+    private JarCompiler() {
+    }
+
+    /**
+     * Writes the executable jar of the program and returns the names of the class files in it, the program's own
+     * class first.
+     *
+     * @throws IllegalStateException if the program cannot be compiled to a single JVM method, or running it would
+     *                               need the front end
+     */
+    public static List<String> compile(ProgramNode programNode, Path jar) throws IOException {
+        Bytecode bytecode = BytecodeCompiler.compile(programNode);
+        BytecodeImage image = new BytecodeImage(bytecode, CallGraph.maxStackDepth(programNode));
+        byte[] program = new JitCompiler(bytecode).compile(PrecompiledMachine.PROGRAM_CLASS.replace('.', '/'));
+
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        classes.put(PROGRAM_ENTRY, program);
+        Deque<String> pending = new ArrayDeque<>(referencedClasses(program));
+        pending.add(MAIN_CLASS.replace('.', '/'));
+        while (!pending.isEmpty()) {
+            String name = pending.poll();
+            String entry = name + ".class";
+            if (classes.containsKey(entry)) {
+                continue;
+            }
+            byte[] classFile = applicationClass(entry);
+            if (classFile == null) {
+                continue;
+            }
+            for (String excluded : FRONT_END) {
+                if (name.startsWith(excluded)) {
+                    throw new IllegalStateException("A compiled program would need the front end class " + name);
+                }
+            }
+            classes.put(entry, classFile);
+            pending.addAll(referencedClasses(classFile));
+        }
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, MAIN_CLASS);
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+            out.putNextEntry(new JarEntry(IMAGE_ENTRY));
+            image.write(out);
+            out.closeEntry();
+        }
+        return new ArrayList<>(classes.keySet());
+    }
+
+    // The class file of one of this application's classes, or null for a JDK class or one that does not exist
+    private static byte[] applicationClass(String entry) throws IOException {
+        ClassLoader loader = JarCompiler.class.getClassLoader();
+        URL url = loader.getResource(entry);
+        if (url == null || url.getProtocol().equals("jrt")) {
+            return null;
+        }
+        try (InputStream in = url.openStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    // The internal names of the classes a class file refers to in its constant pool
+    private static Set<String> referencedClasses(byte[] classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        in.skipBytes(8);
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        List<Integer> classNames = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7:
+                    classNames.add(in.readUnsignedShort());
+                    break;
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    in.skipBytes(2);
+                    break;
+                case 15:
+                    in.skipBytes(3);
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    in.skipBytes(4);
+                    break;
+                case 5:
+                case 6:
+                    // Longs and doubles take two entries
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (int index : classNames) {
+            if (!utf8[index].startsWith("[")) {
+                names.add(utf8[index]);
+            }
+        }
+        for (String value : utf8) {
+            if (value != null) {
+                Matcher matcher = CLASS_IN_DESCRIPTOR.matcher(value);
+                while (matcher.find()) {
+                    names.add(matcher.group(1));
+                }
+            }
+        }
+        return names;
+    }
+}
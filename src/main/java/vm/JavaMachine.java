@@ -0,0 +1,154 @@
+package vm;
+
+import ir.CallGraph;
+import node.ProgramNode;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a program the JavaTranspiler translated to Java source, compiled in memory by the JDK's own Java compiler
+ * and defined as a class in this package. It gets to the same machine code as the JitMachine by a slower but more
+ * familiar road: the source can be written out with --emit-java, read, and profiled like any other Java class.
+ *
+ * Compiling needs the java.compiler module, which a JRE without javac does not have.
+ */
+public class JavaMachine extends CompiledMachine {
+
+    private static final AtomicInteger PROGRAMS = new AtomicInteger();
+
+    private final String source;
+    private final MethodHandle program;
+
+    public JavaMachine(ProgramNode programNode) {
+        this(BytecodeCompiler.compile(programNode), CallGraph.maxStackDepth(programNode));
+    }
+
+    /**
+     * @param maxStackDepth the most frames the program was proven to need, or -1 if it is unbounded
+     */
+    public JavaMachine(Bytecode bytecode, int maxStackDepth) {
+        super(bytecode, maxStackDepth);
+        String className = "JavaProgram" + PROGRAMS.incrementAndGet();
+        this.source = JavaTranspiler.transpile(bytecode, className);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Class<?> programClass = lookup.defineClass(compile(className, source));
+            this.program = lookup.findStatic(programClass, "run", MethodType.methodType(void.class, JavaMachine.class));
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException("Could not load the compiled program", e);
+        }
+    }
+
+    /**
+     * Returns the Java source the program compiles to, as a class with the given name in package vm.
+     */
+    public static String toJavaSource(ProgramNode programNode, String className) {
+        return JavaTranspiler.transpile(BytecodeCompiler.compile(programNode), className);
+    }
+
+    // The Java source this machine compiled
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public void interpret() {
+        resetFrames();
+        try {
+            program.invokeExact(this);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // Compiles the source of vm.className and returns its class file
+    private static byte[] compile(String className, String source) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            throw new IllegalStateException("No Java compiler available: running the java engine needs a JDK");
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        MemoryFileManager files = new MemoryFileManager(javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8));
+        JavaFileObject sourceFile = new SimpleJavaFileObject(uri(className, JavaFileObject.Kind.SOURCE), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        // -g keeps line numbers, so a profiler can point at the generated source
+        List<String> options = List.of("-classpath", classPath(), "-proc:none", "-g");
+        if (!javac.getTask(null, files, diagnostics, options, null, List.of(sourceFile)).call()) {
+            StringBuilder message = new StringBuilder("Generated Java source does not compile:");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                message.append(System.lineSeparator()).append(diagnostic);
+            }
+            throw new IllegalStateException(message.toString());
+        }
+        byte[] classFile = files.classes.get("vm." + className);
+        if (classFile == null) {
+            throw new IllegalStateException("Java compiler produced no class for " + className);
+        }
+        return classFile;
+    }
+
+    // Where the compiler finds this package and BuiltInFunctions, wherever the classes were loaded from
+    private static String classPath() {
+        String classPath = System.getProperty("java.class.path");
+        CodeSource codeSource = JavaMachine.class.getProtectionDomain().getCodeSource();
+        if (codeSource == null) {
+            return classPath;
+        }
+        try {
+            String own = Path.of(codeSource.getLocation().toURI()).toString();
+            return classPath.isEmpty() ? own : own + File.pathSeparator + classPath;
+        } catch (URISyntaxException e) {
+            return classPath;
+        }
+    }
+
+    private static URI uri(String className, JavaFileObject.Kind kind) {
+        return URI.create("memory:///vm/" + className + kind.extension);
+    }
+
+    // Keeps the compiled classes in memory instead of writing them to disk
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        private final Map<String, byte[]> classes = new HashMap<>();
+
+        private MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("memory:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            classes.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
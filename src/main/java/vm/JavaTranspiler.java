@@ -0,0 +1,631 @@
+package vm;
+
+import node.InterpreterDataType;
+
+import java.util.*;
+
+/**
+ * Translates Bytecode into the Java source of a class that runs the program on a JavaMachine. Like the
+ * ClosureCompiler it runs the stack code abstractly, but its operand stacks hold Java expressions: a load pushes
+ * the variable's name, an operation pops its operands and pushes the expression applying it to them, and a
+ * statement that consumes values becomes a Java statement. Every basic block becomes one case of a switch inside a
+ * labeled loop, so a jump is an assignment to the block index followed by continue, and a block that ends without
+ * jumping falls through to the next case like the code it came from.
+ *
+ * Variables become typed locals: i_ names an integer, f_ a float and s_ a string, and each number has a
+ * _defined flag, since reading a variable that was never assigned fails. They are loaded from the machine when
+ * run starts and written back when it returns or throws.
+ */
+final class JavaTranspiler {
+
+    private static final int INT = 0;
+    private static final int FLOAT = 1;
+    private static final int STRING = 2;
+
+    private static final String[] TYPE_NAMES = {"int", "float", "String"};
+    private static final String[] TYPE_PREFIXES = {"i_", "f_", "s_"};
+
+    private static final String[] INT_OPERATORS = {"+", "-", "*", "/", "<<"};
+    private static final String[] FLOAT_OPERATORS = {"+", "-", "*", "/"};
+    // The comparisons in the order of the ICMP and FCMP opcodes
+    private static final String[] COMPARISONS = {"==", "!=", "<", "<=", ">", ">="};
+
+    // A value on the abstract operand stacks: the expression computing it and whether it reads no variable
+    private static final class Entry {
+        private final String expression;
+        private final boolean stable;
+
+        private Entry(String expression, boolean stable) {
+            this.expression = expression;
+            this.stable = stable;
+        }
+    }
+
+    private final Bytecode bytecode;
+    private final int[] code;
+    private final String[][] identifiers;
+    private final List<List<Entry>> stacks = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    private final StringBuilder source = new StringBuilder();
+    private int[] blockOf;
+    // How many temporaries of each type the program needs
+    private final int[] temps = new int[3];
+
+    private JavaTranspiler(Bytecode bytecode) {
+        this.bytecode = bytecode;
+        this.code = bytecode.getCode();
+        this.identifiers = new String[][]{identifiers(INT, bytecode.getIntNames()),
+                identifiers(FLOAT, bytecode.getFloatNames()), identifiers(STRING, bytecode.getStringNames())};
+    }
+
+    /**
+     * Returns the source of a public final class vm.className whose static method run(JavaMachine) runs the
+     * program.
+     */
+    static String transpile(Bytecode bytecode, String className) {
+        return new JavaTranspiler(bytecode).transpile(className);
+    }
+
+    private String transpile(String className) {
+        BitSet leaders = leaders();
+        blockOf = new int[code.length + 1];
+        int blocks = 0;
+        for (int pc = leaders.nextSetBit(0); pc >= 0 && pc <= code.length; pc = leaders.nextSetBit(pc + 1)) {
+            blockOf[pc] = blocks++;
+        }
+
+        StringBuilder body = new StringBuilder();
+        for (int pc = leaders.nextSetBit(0); pc >= 0 && pc < code.length; pc = leaders.nextSetBit(pc + 1)) {
+            line(body, 3, "case " + blockOf[pc] + ":");
+            for (String statement : block(pc, leaders)) {
+                line(body, 4, statement);
+            }
+        }
+        line(body, 3, "case " + blockOf[code.length] + ":");
+        line(body, 4, "break dispatch;");
+        line(body, 3, "default:");
+        line(body, 4, "throw new IllegalStateException(\"No block \" + block);");
+
+        source.append("package vm;\n\n");
+        source.append("import node.BuiltInFunctions;\n\n");
+        source.append("// Generated from BASIC bytecode; each case of the switch is one basic block of the program\n");
+        source.append("public final class ").append(className).append(" {\n\n");
+        int[] frameAddresses = bytecode.getFrameAddresses();
+        StringJoiner frameBlocks = new StringJoiner(", ", "{", "}");
+        for (int address : frameAddresses) {
+            frameBlocks.add(Integer.toString(blockOf[address]));
+        }
+        line(source, 1, "// The block each frame id on the machine's frame stack returns to");
+        line(source, 1, "private static final int[] FRAME_BLOCKS = " + frameBlocks + ";");
+        source.append('\n');
+        line(source, 1, "public static void run(JavaMachine machine) {");
+        declareVariables();
+        line(source, 2, "int block = 0;");
+        line(source, 2, "try {");
+        line(source, 3, "dispatch:");
+        line(source, 3, "while (true) {");
+        line(source, 4, "switch (block) {");
+        // The body is indented two levels deeper than it was built
+        for (String bodyLine : body.toString().split("\n")) {
+            source.append("        ").append(bodyLine).append('\n');
+        }
+        line(source, 4, "}");
+        line(source, 3, "}");
+        line(source, 2, "} finally {");
+        storeVariables();
+        line(source, 2, "}");
+        line(source, 1, "}");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private void declareVariables() {
+        String[][] names = {bytecode.getIntNames(), bytecode.getFloatNames(), bytecode.getStringNames()};
+        String[] loads = {"loadInt", "loadFloat", "loadString"};
+        String[] defined = {"isIntDefined", "isFloatDefined", null};
+        for (int type = INT; type <= STRING; type++) {
+            for (int slot = 0; slot < names[type].length; slot++) {
+                String name = variable(type, slot);
+                line(source, 2, String.format("%s %s = machine.%s(%d);", TYPE_NAMES[type], name, loads[type], slot));
+                if (defined[type] != null) {
+                    line(source, 2, String.format("boolean %s_defined = machine.%s(%d);", name, defined[type], slot));
+                }
+            }
+        }
+        for (int type = INT; type <= STRING; type++) {
+            for (int k = 0; k < temps[type]; k++) {
+                line(source, 2, String.format("%s %s = %s;", TYPE_NAMES[type], temp(type, k), type == STRING ? "null" : "0"));
+            }
+        }
+    }
+
+    private void storeVariables() {
+        String[][] names = {bytecode.getIntNames(), bytecode.getFloatNames(), bytecode.getStringNames()};
+        for (int slot = 0; slot < names[INT].length; slot++) {
+            String name = variable(INT, slot);
+            line(source, 3, String.format("machine.storeInt(%d, %s, %s_defined);", slot, name, name));
+        }
+        for (int slot = 0; slot < names[FLOAT].length; slot++) {
+            String name = variable(FLOAT, slot);
+            line(source, 3, String.format("machine.storeFloat(%d, %s, %s_defined);", slot, name, name));
+        }
+        for (int slot = 0; slot < names[STRING].length; slot++) {
+            line(source, 3, String.format("machine.storeString(%d, %s);", slot, variable(STRING, slot)));
+        }
+    }
+
+    // Translates one basic block into Java statements
+    private List<String> block(int start, BitSet leaders) {
+        for (List<Entry> stack : stacks) {
+            if (!stack.isEmpty()) {
+                throw new IllegalStateException("Operand stack is not empty at block " + start);
+            }
+        }
+        List<String> statements = new ArrayList<>();
+        int pc = start;
+        while (pc < code.length && (pc == start || !leaders.get(pc))) {
+            translate(pc, statements);
+            pc += 1 + Opcode.operands(code[pc]);
+        }
+        // Values a failing statement left behind are never used
+        for (List<Entry> stack : stacks) {
+            stack.clear();
+        }
+        return statements;
+    }
+
+    private void translate(int pc, List<String> statements) {
+        int opcode = code[pc];
+        int operand = pc + 1 < code.length ? code[pc + 1] : 0;
+        switch (opcode) {
+            case Opcode.ICONST:
+                push(INT, new Entry(operand < 0 ? "(" + operand + ")" : Integer.toString(operand), true));
+                break;
+            case Opcode.FCONST:
+                push(FLOAT, new Entry(floatLiteral(Float.intBitsToFloat(operand)), true));
+                break;
+            case Opcode.SCONST:
+                push(STRING, new Entry(stringLiteral((String) bytecode.getConstants()[operand]), true));
+                break;
+            case Opcode.ILOAD:
+                push(INT, new Entry(String.format("JavaMachine.defined(%1$s, %1$s_defined, %2$s)",
+                        variable(INT, operand), stringLiteral(bytecode.getIntNames()[operand])), false));
+                break;
+            case Opcode.FLOAD:
+                push(FLOAT, new Entry(String.format("JavaMachine.defined(%1$s, %1$s_defined, %2$s)",
+                        variable(FLOAT, operand), stringLiteral(bytecode.getFloatNames()[operand])), false));
+                break;
+            case Opcode.SLOAD:
+                push(STRING, new Entry(String.format("JavaMachine.defined(%s, %s)",
+                        variable(STRING, operand), stringLiteral(bytecode.getStringNames()[operand])), false));
+                break;
+            case Opcode.ISTORE:
+            case Opcode.FSTORE: {
+                int type = opcode == Opcode.ISTORE ? INT : FLOAT;
+                String name = variable(type, operand);
+                statements.add(String.format("%s = %s;", name, unwrap(operands(statements, type)[0])));
+                statements.add(name + "_defined = true;");
+                break;
+            }
+            case Opcode.SSTORE:
+                statements.add(String.format("%s = %s;", variable(STRING, operand), unwrap(operands(statements, STRING)[0])));
+                break;
+            case Opcode.I2F:
+                push(FLOAT, new Entry("(float) " + pop(INT).expression, false));
+                break;
+            case Opcode.F2I:
+                push(INT, new Entry("(int) " + pop(FLOAT).expression, false));
+                break;
+            case Opcode.JMP:
+                jump(statements, operand);
+                break;
+            case Opcode.JMP_IF_UNDEFINED:
+                operands(statements);
+                jumpIf(statements, "!" + variable(INT, operand) + "_defined", code[pc + 2]);
+                break;
+            case Opcode.CALL_BUILTIN:
+                builtIn(operand);
+                break;
+            case Opcode.PRINT_I:
+                statements.add(String.format("machine.print(Integer.toString(%s));", unwrap(operands(statements, INT)[0])));
+                break;
+            case Opcode.PRINT_F:
+                statements.add(String.format("machine.print(Float.toString(%s));", unwrap(operands(statements, FLOAT)[0])));
+                break;
+            case Opcode.PRINT_S:
+                statements.add(String.format("machine.print(%s);", unwrap(operands(statements, STRING)[0])));
+                break;
+            case Opcode.PRINT_END:
+                operands(statements);
+                statements.add("machine.printEnd();");
+                break;
+            case Opcode.INPUT_PROMPT:
+                operands(statements);
+                statements.add(String.format("machine.prompt(%s);", stringLiteral((String) bytecode.getConstants()[operand])));
+                break;
+            case Opcode.INPUT_I:
+                operands(statements);
+                store(statements, INT, operand, "Integer.parseInt(machine.nextInput())");
+                break;
+            case Opcode.INPUT_F:
+                operands(statements);
+                store(statements, FLOAT, operand, "Float.parseFloat(machine.nextInput())");
+                break;
+            case Opcode.INPUT_S:
+                operands(statements);
+                store(statements, STRING, operand, "machine.nextInput()");
+                break;
+            case Opcode.READ_I:
+                operands(statements);
+                store(statements, INT, operand, String.format("machine.readInt(%s)", stringLiteral(bytecode.getIntNames()[operand])));
+                break;
+            case Opcode.READ_F:
+                operands(statements);
+                store(statements, FLOAT, operand, String.format("machine.readFloat(%s)", stringLiteral(bytecode.getFloatNames()[operand])));
+                break;
+            case Opcode.READ_S:
+                operands(statements);
+                store(statements, STRING, operand, String.format("machine.readString(%s)", stringLiteral(bytecode.getStringNames()[operand])));
+                break;
+            case Opcode.GOSUB:
+                operands(statements);
+                statements.add(String.format("machine.pushFrame(%d);", code[pc + 2]));
+                jump(statements, operand);
+                break;
+            case Opcode.PUSH_FRAME:
+                operands(statements);
+                statements.add(String.format("machine.pushFrame(%d);", operand));
+                break;
+            case Opcode.RETURN:
+                operands(statements);
+                statements.add("block = FRAME_BLOCKS[machine.popReturn()];");
+                statements.add("continue dispatch;");
+                break;
+            case Opcode.RETURN_DROP:
+                operands(statements);
+                statements.add("machine.popReturn();");
+                break;
+            case Opcode.NEXT: {
+                operands(statements);
+                int frame = bytecode.onlyForFrame(operand);
+                if (frame >= 0) {
+                    // The frame NEXT checks can only be this loop's, so go straight back to it
+                    statements.add(String.format("machine.popNext(%d);", operand));
+                    jump(statements, bytecode.getFrameAddresses()[frame]);
+                } else {
+                    statements.add(String.format("block = FRAME_BLOCKS[machine.popNext(%d)];", operand));
+                    statements.add("continue dispatch;");
+                }
+                break;
+            }
+            case Opcode.NEXT_DROP:
+                operands(statements);
+                statements.add(String.format("machine.popNext(%d);", operand));
+                break;
+            case Opcode.POP_JUMP:
+                operands(statements);
+                statements.add("block = FRAME_BLOCKS[machine.popAny()];");
+                statements.add("continue dispatch;");
+                break;
+            case Opcode.FOR_FIRST:
+            case Opcode.FOR_NEXT: {
+                Entry[] values = operands(statements, INT, INT);
+                if (!values[1].stable) {
+                    // The step is evaluated after the limit, before the test, even on the first pass
+                    push(INT, values[0]);
+                    push(INT, values[1]);
+                    spill(statements);
+                    values = operands(statements, INT, INT);
+                }
+                String counter = variable(INT, operand);
+                jumpIf(statements, counter + " >= " + values[0].expression, code[pc + 3]);
+                statements.add(String.format("machine.pushFrame(%d);", code[pc + 2]));
+                if (opcode == Opcode.FOR_NEXT) {
+                    statements.add(String.format("%s += %s;", counter, values[1].expression));
+                }
+                break;
+            }
+            case Opcode.FAIL: {
+                InterpreterDataType[] types = ((Failure) bytecode.getConstants()[operand]).getOperands();
+                int[] typeIndexes = new int[types.length];
+                for (int k = 0; k < types.length; k++) {
+                    typeIndexes[k] = typeIndex(types[k]);
+                }
+                StringJoiner values = new StringJoiner(", ", "{", "}");
+                for (Entry value : operands(statements, typeIndexes)) {
+                    values.add(unwrap(value));
+                }
+                statements.add(String.format("throw machine.fail(%d, new Object[]%s);", operand, values));
+                break;
+            }
+            case Opcode.HALT:
+                operands(statements);
+                statements.add("break dispatch;");
+                break;
+            default:
+                if (opcode >= Opcode.IADD && opcode <= Opcode.ISHR) {
+                    String right = pop(INT).expression;
+                    String left = pop(INT).expression;
+                    push(INT, new Entry(opcode == Opcode.ISHR
+                            ? String.format("Machine.shiftRight(%s, %s)", unwrap(left), unwrap(right))
+                            : String.format("(%s %s %s)", left, INT_OPERATORS[opcode - Opcode.IADD], right), false));
+                } else if (opcode >= Opcode.FADD && opcode <= Opcode.FDIV) {
+                    String right = pop(FLOAT).expression;
+                    String left = pop(FLOAT).expression;
+                    push(FLOAT, new Entry(String.format("(%s %s %s)", left, FLOAT_OPERATORS[opcode - Opcode.FADD], right), false));
+                } else if (opcode >= Opcode.ICMP_EQ_JMP && opcode <= Opcode.FCMP_GE_JMP) {
+                    int type = opcode <= Opcode.ICMP_GE_JMP ? INT : FLOAT;
+                    Entry[] values = operands(statements, type, type);
+                    String comparison = COMPARISONS[(opcode - Opcode.ICMP_EQ_JMP) % COMPARISONS.length];
+                    jumpIf(statements, values[0].expression + " " + comparison + " " + values[1].expression, operand);
+                } else {
+                    throw new IllegalStateException(String.format("Unknown opcode %d at %d", opcode, pc));
+                }
+        }
+    }
+
+    // Pops a builtin's arguments and pushes its call
+    private void builtIn(int builtIn) {
+        switch (builtIn) {
+            case BuiltIn.RANDOM:
+                call(INT, "BuiltInFunctions.RANDOM");
+                break;
+            case BuiltIn.RANDOM_RANGE:
+                call(INT, "BuiltInFunctions.RANDOM", INT, INT);
+                break;
+            case BuiltIn.RANDOMF:
+                call(FLOAT, "BuiltInFunctions.RANDOMF");
+                break;
+            case BuiltIn.RANDOMF_RANGE:
+                call(FLOAT, "BuiltInFunctions.RANDOMF", FLOAT, FLOAT);
+                break;
+            case BuiltIn.LEFT$:
+                call(STRING, "BuiltInFunctions.LEFT$", STRING, INT);
+                break;
+            case BuiltIn.RIGHT$:
+                call(STRING, "BuiltInFunctions.RIGHT$", STRING, INT);
+                break;
+            case BuiltIn.MID$:
+                call(STRING, "BuiltInFunctions.MID$", STRING, INT, INT);
+                break;
+            case BuiltIn.NUM$_INT:
+                call(STRING, "Integer.toString", INT);
+                break;
+            case BuiltIn.NUM$_FLOAT:
+                call(STRING, "Float.toString", FLOAT);
+                break;
+            case BuiltIn.VAL:
+                call(INT, "BuiltInFunctions.VAL", STRING);
+                break;
+            case BuiltIn.VALF:
+                call(FLOAT, "BuiltInFunctions.VALF", STRING);
+                break;
+            case BuiltIn.POW:
+                call(INT, "BuiltInFunctions.POW", INT, INT);
+                break;
+            case BuiltIn.POWF:
+                call(FLOAT, "BuiltInFunctions.POWF", FLOAT, FLOAT);
+                break;
+            default:
+                throw new IllegalStateException("Unknown builtin " + builtIn);
+        }
+    }
+
+    private void call(int result, String method, int... arguments) {
+        String[] values = new String[arguments.length];
+        for (int k = arguments.length - 1; k >= 0; k--) {
+            values[k] = unwrap(pop(arguments[k]));
+        }
+        push(result, new Entry(method + "(" + String.join(", ", values) + ")", false));
+    }
+
+    private void store(List<String> statements, int type, int slot, String value) {
+        String name = variable(type, slot);
+        statements.add(String.format("%s = %s;", name, value));
+        if (type != STRING) {
+            statements.add(name + "_defined = true;");
+        }
+    }
+
+    private void jump(List<String> statements, int target) {
+        statements.add(String.format("block = %d;", blockOf[target]));
+        statements.add("continue dispatch;");
+    }
+
+    private void jumpIf(List<String> statements, String condition, int target) {
+        statements.add(String.format("if (%s) {", condition));
+        statements.add(String.format("    block = %d;", blockOf[target]));
+        statements.add("    continue dispatch;");
+        statements.add("}");
+    }
+
+    private void push(int type, Entry entry) {
+        stacks.get(type).add(entry);
+    }
+
+    private Entry pop(int type) {
+        List<Entry> stack = stacks.get(type);
+        return stack.remove(stack.size() - 1);
+    }
+
+    /**
+     * Pops the operands of a statement, in the order they were pushed. A value still on the stacks below them
+     * was pushed earlier and has to be computed before the statement runs, as the stack VM would, so if there
+     * is one, every pending value is first assigned to a temporary local.
+     */
+    private Entry[] operands(List<String> statements, int... types) {
+        int pending = 0;
+        for (List<Entry> stack : stacks) {
+            pending += stack.size();
+        }
+        if (pending > types.length) {
+            spill(statements);
+        }
+        Entry[] values = new Entry[types.length];
+        for (int k = types.length - 1; k >= 0; k--) {
+            values[k] = pop(types[k]);
+        }
+        return values;
+    }
+
+    private void spill(List<String> statements) {
+        for (int type = INT; type <= STRING; type++) {
+            List<Entry> stack = stacks.get(type);
+            for (int slot = 0; slot < stack.size(); slot++) {
+                Entry entry = stack.get(slot);
+                if (entry.stable) {
+                    continue;
+                }
+                String temp = temp(type, slot);
+                temps[type] = Math.max(temps[type], slot + 1);
+                statements.add(String.format("%s = %s;", temp, unwrap(entry)));
+                stack.set(slot, new Entry(temp, true));
+            }
+        }
+    }
+
+    private String variable(int type, int slot) {
+        return identifiers[type][slot];
+    }
+
+    /**
+     * Names the Java locals of one type: the prefix, then the BASIC name without its % or $ suffix or anything
+     * else Java does not allow, then the slot if that leaves two variables with the same name.
+     */
+    private static String[] identifiers(int type, String[] names) {
+        String[] identifiers = new String[names.length];
+        Map<String, Integer> uses = new HashMap<>();
+        for (int slot = 0; slot < names.length; slot++) {
+            StringBuilder identifier = new StringBuilder(TYPE_PREFIXES[type]);
+            for (char c : names[slot].toCharArray()) {
+                if (Character.isJavaIdentifierPart(c) && c != '$') {
+                    identifier.append(c);
+                }
+            }
+            identifiers[slot] = identifier.toString();
+            uses.merge(identifiers[slot], 1, Integer::sum);
+        }
+        for (int slot = 0; slot < names.length; slot++) {
+            if (uses.get(identifiers[slot]) > 1) {
+                identifiers[slot] += "_" + slot;
+            }
+        }
+        return identifiers;
+    }
+
+    private String temp(int type, int slot) {
+        return "t" + TYPE_PREFIXES[type] + slot;
+    }
+
+    private static String unwrap(Entry entry) {
+        return unwrap(entry.expression);
+    }
+
+    // Drops the parentheses around a whole expression, which only matter inside a larger one
+    private static String unwrap(String expression) {
+        if (!expression.startsWith("(") || !expression.endsWith(")")) {
+            return expression;
+        }
+        int depth = 0;
+        for (int i = 0; i < expression.length() - 1; i++) {
+            char c = expression.charAt(i);
+            if (c == '"') {
+                // Skip the string literal, whose parentheses do not count
+                for (i++; expression.charAt(i) != '"'; i++) {
+                    if (expression.charAt(i) == '\\') {
+                        i++;
+                    }
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return expression;
+            }
+        }
+        return expression.substring(1, expression.length() - 1);
+    }
+
+    private static String floatLiteral(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return String.format("Float.intBitsToFloat(0x%08x)", Float.floatToRawIntBits(value));
+        }
+        String literal = Float.toString(value) + "f";
+        return value < 0 || Float.floatToRawIntBits(value) == Integer.MIN_VALUE ? "(" + literal + ")" : literal;
+    }
+
+    static String stringLiteral(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    literal.append("\\\"");
+                    break;
+                case '\\':
+                    literal.append("\\\\");
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                case '\t':
+                    literal.append("\\t");
+                    break;
+                default:
+                    if (c < ' ' || c > '~') {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    private static void line(StringBuilder builder, int indent, String text) {
+        for (int i = 0; i < indent; i++) {
+            builder.append("    ");
+        }
+        builder.append(text).append('\n');
+    }
+
+    // Block boundaries: every jump target and frame address, and every instruction after one that ends a block
+    private BitSet leaders() {
+        BitSet leaders = new BitSet();
+        leaders.set(0);
+        leaders.set(code.length);
+        for (int pc = 0; pc < code.length; pc += 1 + Opcode.operands(code[pc])) {
+            int opcode = code[pc];
+            int next = pc + 1 + Opcode.operands(opcode);
+            if (opcode == Opcode.JMP || opcode == Opcode.GOSUB
+                    || opcode >= Opcode.ICMP_EQ_JMP && opcode <= Opcode.FCMP_GE_JMP) {
+                leaders.set(code[pc + 1]);
+                leaders.set(next);
+            } else if (opcode == Opcode.JMP_IF_UNDEFINED) {
+                leaders.set(code[pc + 2]);
+                leaders.set(next);
+            } else if (opcode == Opcode.FOR_FIRST || opcode == Opcode.FOR_NEXT) {
+                leaders.set(code[pc + 3]);
+                leaders.set(next);
+            } else if (opcode == Opcode.RETURN || opcode == Opcode.NEXT || opcode == Opcode.POP_JUMP
+                    || opcode == Opcode.FAIL || opcode == Opcode.HALT) {
+                leaders.set(next);
+            }
+        }
+        for (int address : bytecode.getFrameAddresses()) {
+            leaders.set(address);
+        }
+        return leaders;
+    }
+
+    private static int typeIndex(InterpreterDataType type) {
+        switch (type) {
+            case INTEGER:
+                return INT;
+            case FLOAT:
+                return FLOAT;
+            default:
+                return STRING;
+        }
+    }
+}
@@ -0,0 +1,628 @@
+package vm;
+
+import node.InterpreterDataType;
+
+import java.util.*;
+
+import static vm.ClassFileWriter.*;
+
+/**
+ * Compiles Bytecode into the class file of a JitMachine program: one static method run(CompiledMachine) that
+ * HotSpot then compiles like any other Java code. The stack code maps almost one to one onto JVM instructions, because the
+ * BytecodeCompiler emits every expression in post-order, so its three typed operand stacks interleave exactly like
+ * the JVM's single one. The compiler checks that as it goes and refuses code where they would not.
+ *
+ * Variables live in JVM locals, two per number (its value and whether it was ever assigned) and one per string,
+ * loaded from the machine when the method starts and written back when it returns or throws. Jumps, IF and the
+ * FOR tests become JVM branches, and a NEXT whose counter belongs to a single FOR loop jumps straight back to that
+ * loop, so a BASIC loop becomes a JVM loop HotSpot can optimize. RETURN, WHILE end labels and any other NEXT jump
+ * to a tableswitch over frame ids, the only dispatch left at runtime. The method enters through the same switch,
+ * so a program the Interpreter has run part of can continue in compiled code at any statement a frame names.
+ *
+ * HotSpot does not compile methods over 8000 bytes of bytecode, so very large programs still run interpreted by
+ * the JVM; JitMachine.getMethodSize() shows how close a program comes.
+ */
+final class JitCompiler {
+
+    private static final String MACHINE = "vm/CompiledMachine";
+    private static final String STRING_TYPE = "Ljava/lang/String;";
+
+    private static final int INT = 0;
+    private static final int FLOAT = 1;
+    private static final int STRING = 2;
+
+    // How the JVM calls each builtin: owner, method, descriptor, argument types and result type, by builtin id
+    private static final String[][] BUILTIN_METHODS = {
+            {"node/BuiltInFunctions", "RANDOM", "()I"},
+            {"node/BuiltInFunctions", "RANDOM", "(II)I"},
+            {"node/BuiltInFunctions", "RANDOMF", "()F"},
+            {"node/BuiltInFunctions", "RANDOMF", "(FF)F"},
+            {"node/BuiltInFunctions", "LEFT$", "(" + STRING_TYPE + "I)" + STRING_TYPE},
+            {"node/BuiltInFunctions", "RIGHT$", "(" + STRING_TYPE + "I)" + STRING_TYPE},
+            {"node/BuiltInFunctions", "MID$", "(" + STRING_TYPE + "II)" + STRING_TYPE},
+            {"java/lang/Integer", "toString", "(I)" + STRING_TYPE},
+            {"java/lang/Float", "toString", "(F)" + STRING_TYPE},
+            {"node/BuiltInFunctions", "VAL", "(" + STRING_TYPE + ")I"},
+            {"node/BuiltInFunctions", "VALF", "(" + STRING_TYPE + ")F"},
+            {"node/BuiltInFunctions", "POW", "(II)I"},
+            {"node/BuiltInFunctions", "POWF", "(FF)F"}
+    };
+    private static final int[][] BUILTIN_ARGUMENTS = {
+            {}, {INT, INT}, {}, {FLOAT, FLOAT}, {STRING, INT}, {STRING, INT}, {STRING, INT, INT}, {INT}, {FLOAT},
+            {STRING}, {STRING}, {INT, INT}, {FLOAT, FLOAT}
+    };
+    private static final int[] BUILTIN_RESULTS = {
+            INT, INT, FLOAT, FLOAT, STRING, STRING, STRING, STRING, STRING, INT, FLOAT, INT, FLOAT
+    };
+
+    // The JVM branch for each comparison in the order of the ICMP opcodes: EQ, NE, LT, LE, GT, GE
+    private static final int[] INT_COMPARISONS = {IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPLE, IF_ICMPGT, IF_ICMPGE};
+
+    private final Bytecode bytecode;
+    private final int[] code;
+    private final ClassFileWriter writer = new ClassFileWriter();
+    // The types on the JVM operand stack, bottom first
+    private final List<Integer> stack = new ArrayList<>();
+    private final Label[] labels;
+    private final Label dispatch = new Label();
+    private final Label exit = new Label();
+    private boolean dispatched = false;
+
+    private final int firstFloat;
+    private final int firstString;
+    private final int firstScratch;
+    private final int locals;
+
+    JitCompiler(Bytecode bytecode) {
+        this.bytecode = bytecode;
+        this.code = bytecode.getCode();
+        this.labels = new Label[code.length + 1];
+        for (int pc = 0; pc < labels.length; pc++) {
+            labels[pc] = new Label();
+        }
+        int scratch = 2;
+        for (Object constant : bytecode.getConstants()) {
+            if (constant instanceof Failure) {
+                scratch = Math.max(scratch, ((Failure) constant).getOperands().length);
+            }
+        }
+        this.firstFloat = 1 + 2 * bytecode.getIntNames().length;
+        this.firstString = firstFloat + 2 * bytecode.getFloatNames().length;
+        this.firstScratch = firstString + bytecode.getStringNames().length;
+        this.locals = firstScratch + scratch + 1;
+    }
+
+    /**
+     * Returns the class file of a public class with the given internal name, such as vm/JitProgram1, holding the
+     * program as its static method run(CompiledMachine).
+     *
+     * @throws IllegalStateException if the code cannot be expressed as a single JVM method
+     */
+    byte[] compile(String className) {
+        BitSet targets = targets();
+        loadVariables();
+        Label start = new Label();
+        writer.bind(start);
+        // The method starts at the statement of the machine's entry frame, 0 unless another engine ran the program so far
+        writer.local(ALOAD, 0);
+        writer.invokevirtual(MACHINE, "entryFrame", "()I");
+        dispatch();
+        for (int pc = 0; pc < code.length; pc += 1 + Opcode.operands(code[pc])) {
+            if (targets.get(pc) && !stack.isEmpty()) {
+                throw new IllegalStateException("Operand stack is not empty at jump target " + pc);
+            }
+            writer.bind(labels[pc]);
+            translate(pc);
+        }
+        popAll();
+        writer.bind(labels[code.length]);
+        writer.bind(exit);
+        storeVariables();
+        writer.op(RETURN);
+
+        // Anything thrown while the program runs still leaves its variables on the machine
+        Label handler = new Label();
+        writer.bind(handler);
+        writer.handler(start, exit, handler);
+        writer.local(ASTORE, locals - 1);
+        storeVariables();
+        writer.local(ALOAD, locals - 1);
+        writer.op(ATHROW);
+
+        if (dispatched) {
+            writer.bind(dispatch);
+            int[] frameAddresses = bytecode.getFrameAddresses();
+            Label[] frameLabels = new Label[frameAddresses.length];
+            for (int frame = 0; frame < frameAddresses.length; frame++) {
+                frameLabels[frame] = labels[frameAddresses[frame]];
+            }
+            writer.tableswitch(0, exit, frameLabels);
+        }
+        // Each instruction pushes at most one value, and a call adds at most its receiver and three arguments
+        return writer.toClassFile(className, "run", "(L" + MACHINE + ";)V", bytecode.getMaxStack() + 6, locals);
+    }
+
+    // The size in bytes of the compiled method's code
+    int getMethodSize() {
+        return writer.codeSize();
+    }
+
+    private void translate(int pc) {
+        int opcode = code[pc];
+        int operand = pc + 1 < code.length ? code[pc + 1] : 0;
+        switch (opcode) {
+            case Opcode.ICONST:
+                writer.iconst(operand);
+                push(INT);
+                break;
+            case Opcode.FCONST:
+                writer.fconst(Float.intBitsToFloat(operand));
+                push(FLOAT);
+                break;
+            case Opcode.SCONST:
+                writer.sconst((String) bytecode.getConstants()[operand]);
+                push(STRING);
+                break;
+            case Opcode.ILOAD:
+            case Opcode.FLOAD: {
+                boolean isInt = opcode == Opcode.ILOAD;
+                int value = isInt ? intLocal(operand) : floatLocal(operand);
+                Label defined = new Label();
+                writer.local(ILOAD, value + 1);
+                writer.branch(IFNE, defined);
+                undefined(isInt ? bytecode.getIntNames()[operand] : bytecode.getFloatNames()[operand]);
+                writer.bind(defined);
+                writer.local(isInt ? ILOAD : FLOAD, value);
+                push(isInt ? INT : FLOAT);
+                break;
+            }
+            case Opcode.SLOAD: {
+                Label defined = new Label();
+                writer.local(ALOAD, stringLocal(operand));
+                writer.op(DUP);
+                writer.branch(IFNONNULL, defined);
+                writer.op(POP);
+                undefined(bytecode.getStringNames()[operand]);
+                writer.bind(defined);
+                push(STRING);
+                break;
+            }
+            case Opcode.ISTORE:
+                pop(INT);
+                storeInt(intLocal(operand));
+                break;
+            case Opcode.FSTORE:
+                pop(FLOAT);
+                storeFloat(floatLocal(operand));
+                break;
+            case Opcode.SSTORE:
+                pop(STRING);
+                writer.local(ASTORE, stringLocal(operand));
+                break;
+            case Opcode.IADD:
+            case Opcode.ISUB:
+            case Opcode.IMUL:
+            case Opcode.IDIV:
+            case Opcode.ISHL:
+            case Opcode.ISHR:
+                pop(INT);
+                pop(INT);
+                if (opcode == Opcode.ISHR) {
+                    writer.invokestatic("vm/Machine", "shiftRight", "(II)I");
+                } else if (opcode == Opcode.ISHL) {
+                    writer.op(ClassFileWriter.ISHL);
+                } else {
+                    // IADD, ISUB, IMUL and IDIV are evenly spaced in both instruction sets
+                    writer.op(ClassFileWriter.IADD + 4 * (opcode - Opcode.IADD));
+                }
+                push(INT);
+                break;
+            case Opcode.FADD:
+            case Opcode.FSUB:
+            case Opcode.FMUL:
+            case Opcode.FDIV:
+                pop(FLOAT);
+                pop(FLOAT);
+                writer.op(ClassFileWriter.FADD + 4 * (opcode - Opcode.FADD));
+                push(FLOAT);
+                break;
+            case Opcode.I2F:
+                pop(INT);
+                writer.op(ClassFileWriter.I2F);
+                push(FLOAT);
+                break;
+            case Opcode.F2I:
+                pop(FLOAT);
+                writer.op(ClassFileWriter.F2I);
+                push(INT);
+                break;
+            case Opcode.JMP:
+                jump(GOTO, operand);
+                break;
+            case Opcode.JMP_IF_UNDEFINED:
+                writer.local(ILOAD, intLocal(operand) + 1);
+                jump(IFEQ, code[pc + 2]);
+                break;
+            case Opcode.CALL_BUILTIN: {
+                int[] arguments = BUILTIN_ARGUMENTS[operand];
+                for (int k = arguments.length - 1; k >= 0; k--) {
+                    pop(arguments[k]);
+                }
+                String[] method = BUILTIN_METHODS[operand];
+                writer.invokestatic(method[0], method[1], method[2]);
+                push(BUILTIN_RESULTS[operand]);
+                break;
+            }
+            case Opcode.PRINT_I:
+                pop(INT);
+                writer.invokestatic("java/lang/Integer", "toString", "(I)" + STRING_TYPE);
+                print();
+                break;
+            case Opcode.PRINT_F:
+                pop(FLOAT);
+                writer.invokestatic("java/lang/Float", "toString", "(F)" + STRING_TYPE);
+                print();
+                break;
+            case Opcode.PRINT_S:
+                pop(STRING);
+                print();
+                break;
+            case Opcode.PRINT_END:
+                writer.local(ALOAD, 0);
+                writer.invokevirtual(MACHINE, "printEnd", "()V");
+                break;
+            case Opcode.INPUT_PROMPT:
+                writer.local(ALOAD, 0);
+                writer.sconst((String) bytecode.getConstants()[operand]);
+                writer.invokevirtual(MACHINE, "prompt", "(Ljava/lang/Object;)V");
+                break;
+            case Opcode.INPUT_I:
+                nextInput();
+                writer.invokestatic("java/lang/Integer", "parseInt", "(" + STRING_TYPE + ")I");
+                storeInt(intLocal(operand));
+                break;
+            case Opcode.INPUT_F:
+                nextInput();
+                writer.invokestatic("java/lang/Float", "parseFloat", "(" + STRING_TYPE + ")F");
+                storeFloat(floatLocal(operand));
+                break;
+            case Opcode.INPUT_S:
+                nextInput();
+                writer.local(ASTORE, stringLocal(operand));
+                break;
+            case Opcode.READ_I:
+                read("readInt", "I", bytecode.getIntNames()[operand]);
+                storeInt(intLocal(operand));
+                break;
+            case Opcode.READ_F:
+                read("readFloat", "F", bytecode.getFloatNames()[operand]);
+                storeFloat(floatLocal(operand));
+                break;
+            case Opcode.READ_S:
+                read("readString", STRING_TYPE, bytecode.getStringNames()[operand]);
+                writer.local(ASTORE, stringLocal(operand));
+                break;
+            case Opcode.GOSUB:
+                pushFrame(code[pc + 2]);
+                jump(GOTO, operand);
+                break;
+            case Opcode.PUSH_FRAME:
+                pushFrame(operand);
+                break;
+            case Opcode.RETURN:
+                popFrame("popReturn");
+                dispatch();
+                break;
+            case Opcode.RETURN_DROP:
+                popFrame("popReturn");
+                writer.op(POP);
+                break;
+            case Opcode.NEXT: {
+                popNext(operand);
+                int frame = bytecode.onlyForFrame(operand);
+                if (frame >= 0) {
+                    // The frame NEXT just checked can only be this loop's, so go straight back to it
+                    writer.op(POP);
+                    jump(GOTO, bytecode.getFrameAddresses()[frame]);
+                } else {
+                    dispatch();
+                }
+                break;
+            }
+            case Opcode.NEXT_DROP:
+                popNext(operand);
+                writer.op(POP);
+                break;
+            case Opcode.POP_JUMP:
+                popFrame("popAny");
+                dispatch();
+                break;
+            case Opcode.FOR_FIRST:
+            case Opcode.FOR_NEXT:
+                forLoop(opcode == Opcode.FOR_NEXT, operand, code[pc + 2], code[pc + 3]);
+                break;
+            case Opcode.FAIL:
+                fail(operand);
+                break;
+            case Opcode.HALT:
+                popAll();
+                writer.branch(GOTO, exit);
+                break;
+            default:
+                if (opcode >= Opcode.ICMP_EQ_JMP && opcode <= Opcode.ICMP_GE_JMP) {
+                    pop(INT);
+                    pop(INT);
+                    jump(INT_COMPARISONS[opcode - Opcode.ICMP_EQ_JMP], operand);
+                } else if (opcode >= Opcode.FCMP_EQ_JMP && opcode <= Opcode.FCMP_GE_JMP) {
+                    pop(FLOAT);
+                    pop(FLOAT);
+                    floatCompare(opcode - Opcode.FCMP_EQ_JMP, operand);
+                } else {
+                    throw new IllegalStateException(String.format("Unknown opcode %d at %d", opcode, pc));
+                }
+        }
+    }
+
+    /**
+     * Branches on a float comparison in the order of the FCMP opcodes: EQ, NE, LT, LE, GT, GE. A comparison
+     * involving NaN has to come out false, except for NE, so LT and LE use fcmpg, which turns NaN into 1, and the
+     * rest fcmpl, which turns it into -1.
+     */
+    private void floatCompare(int comparison, int target) {
+        switch (comparison) {
+            case 0:
+                writer.op(FCMPL);
+                jump(IFEQ, target);
+                break;
+            case 1:
+                writer.op(FCMPL);
+                jump(IFNE, target);
+                break;
+            case 2:
+                writer.op(FCMPG);
+                jump(IFLT, target);
+                break;
+            case 3:
+                writer.op(FCMPG);
+                jump(IFLE, target);
+                break;
+            case 4:
+                writer.op(FCMPL);
+                jump(IFGT, target);
+                break;
+            default:
+                writer.op(FCMPL);
+                jump(IFGE, target);
+                break;
+        }
+    }
+
+    // Runs a FOR test with the limit and step on the stack: enter the body with a new frame, or leave the loop
+    private void forLoop(boolean advance, int counter, int frame, int exitAddress) {
+        pop(INT);
+        pop(INT);
+        int step = firstScratch;
+        int limit = firstScratch + 1;
+        writer.local(ISTORE, step);
+        writer.local(ISTORE, limit);
+        writer.local(ILOAD, intLocal(counter));
+        writer.local(ILOAD, limit);
+        jump(IF_ICMPGE, exitAddress);
+        pushFrame(frame);
+        if (advance) {
+            writer.local(ILOAD, intLocal(counter));
+            writer.local(ILOAD, step);
+            writer.op(IADD);
+            writer.local(ISTORE, intLocal(counter));
+        }
+    }
+
+    // Throws the failure's exception, built from its operand values boxed in the order they were pushed
+    private void fail(int constant) {
+        InterpreterDataType[] types = ((Failure) bytecode.getConstants()[constant]).getOperands();
+        for (int k = types.length - 1; k >= 0; k--) {
+            int type = typeIndex(types[k]);
+            pop(type);
+            writer.local(type == INT ? ISTORE : type == FLOAT ? FSTORE : ASTORE, firstScratch + k);
+        }
+        writer.local(ALOAD, 0);
+        writer.iconst(constant);
+        writer.iconst(types.length);
+        writer.anewarray("java/lang/Object");
+        for (int k = 0; k < types.length; k++) {
+            int type = typeIndex(types[k]);
+            writer.op(DUP);
+            writer.iconst(k);
+            if (type == INT) {
+                writer.local(ILOAD, firstScratch + k);
+                writer.invokestatic("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;");
+            } else if (type == FLOAT) {
+                writer.local(FLOAD, firstScratch + k);
+                writer.invokestatic("java/lang/Float", "valueOf", "(F)Ljava/lang/Float;");
+            } else {
+                writer.local(ALOAD, firstScratch + k);
+            }
+            writer.op(AASTORE);
+        }
+        writer.invokevirtual(MACHINE, "fail", "(I[Ljava/lang/Object;)Ljava/lang/RuntimeException;");
+        writer.op(ATHROW);
+        // Whatever the failing statement left below its operands is never used
+        stack.clear();
+    }
+
+    private void undefined(String name) {
+        writer.sconst(name);
+        writer.invokestatic("vm/Machine", "undefinedVariable", "(" + STRING_TYPE + ")Ljava/lang/IllegalArgumentException;");
+        writer.op(ATHROW);
+    }
+
+    private void print() {
+        writer.local(ALOAD, 0);
+        writer.op(SWAP);
+        writer.invokevirtual(MACHINE, "print", "(" + STRING_TYPE + ")V");
+    }
+
+    private void nextInput() {
+        writer.local(ALOAD, 0);
+        writer.invokevirtual(MACHINE, "nextInput", "()" + STRING_TYPE);
+    }
+
+    private void read(String method, String type, String name) {
+        writer.local(ALOAD, 0);
+        writer.sconst(name);
+        writer.invokevirtual(MACHINE, method, "(" + STRING_TYPE + ")" + type);
+    }
+
+    private void pushFrame(int frame) {
+        writer.local(ALOAD, 0);
+        writer.iconst(frame);
+        writer.invokevirtual(MACHINE, "pushFrame", "(I)V");
+    }
+
+    // Pops a frame id onto the JVM stack
+    private void popFrame(String method) {
+        writer.local(ALOAD, 0);
+        writer.invokevirtual(MACHINE, method, "()I");
+    }
+
+    private void popNext(int counter) {
+        writer.local(ALOAD, 0);
+        writer.iconst(counter);
+        writer.invokevirtual(MACHINE, "popNext", "(I)I");
+    }
+
+    // Jumps to the statement of the frame id on the JVM stack
+    private void dispatch() {
+        requireEmpty();
+        dispatched = true;
+        writer.branch(GOTO, dispatch);
+    }
+
+    private void jump(int opcode, int target) {
+        requireEmpty();
+        writer.branch(opcode, labels[target]);
+    }
+
+    private void storeInt(int local) {
+        writer.local(ISTORE, local);
+        writer.iconst(1);
+        writer.local(ISTORE, local + 1);
+    }
+
+    private void storeFloat(int local) {
+        writer.local(FSTORE, local);
+        writer.iconst(1);
+        writer.local(ISTORE, local + 1);
+    }
+
+    private void loadVariables() {
+        for (int slot = 0; slot < bytecode.getIntNames().length; slot++) {
+            loadVariable("loadInt", "I", ISTORE, slot, intLocal(slot));
+            loadVariable("isIntDefined", "Z", ISTORE, slot, intLocal(slot) + 1);
+        }
+        for (int slot = 0; slot < bytecode.getFloatNames().length; slot++) {
+            loadVariable("loadFloat", "F", FSTORE, slot, floatLocal(slot));
+            loadVariable("isFloatDefined", "Z", ISTORE, slot, floatLocal(slot) + 1);
+        }
+        for (int slot = 0; slot < bytecode.getStringNames().length; slot++) {
+            loadVariable("loadString", STRING_TYPE, ASTORE, slot, stringLocal(slot));
+        }
+    }
+
+    private void loadVariable(String method, String type, int store, int slot, int local) {
+        writer.local(ALOAD, 0);
+        writer.iconst(slot);
+        writer.invokevirtual(MACHINE, method, "(I)" + type);
+        writer.local(store, local);
+    }
+
+    private void storeVariables() {
+        for (int slot = 0; slot < bytecode.getIntNames().length; slot++) {
+            storeVariable("storeInt", "IZ", ILOAD, slot, intLocal(slot));
+        }
+        for (int slot = 0; slot < bytecode.getFloatNames().length; slot++) {
+            storeVariable("storeFloat", "FZ", FLOAD, slot, floatLocal(slot));
+        }
+        for (int slot = 0; slot < bytecode.getStringNames().length; slot++) {
+            writer.local(ALOAD, 0);
+            writer.iconst(slot);
+            writer.local(ALOAD, stringLocal(slot));
+            writer.invokevirtual(MACHINE, "storeString", "(I" + STRING_TYPE + ")V");
+        }
+    }
+
+    private void storeVariable(String method, String types, int load, int slot, int local) {
+        writer.local(ALOAD, 0);
+        writer.iconst(slot);
+        writer.local(load, local);
+        writer.local(ILOAD, local + 1);
+        writer.invokevirtual(MACHINE, method, "(I" + types + ")V");
+    }
+
+    private int intLocal(int slot) {
+        return 1 + 2 * slot;
+    }
+
+    private int floatLocal(int slot) {
+        return firstFloat + 2 * slot;
+    }
+
+    private int stringLocal(int slot) {
+        return firstString + slot;
+    }
+
+    private void push(int type) {
+        stack.add(type);
+    }
+
+    private void pop(int type) {
+        if (stack.isEmpty() || stack.get(stack.size() - 1) != type) {
+            throw new IllegalStateException("Operands are not on top of the stack in the order they are used");
+        }
+        stack.remove(stack.size() - 1);
+    }
+
+    private void popAll() {
+        while (!stack.isEmpty()) {
+            stack.remove(stack.size() - 1);
+            writer.op(POP);
+        }
+    }
+
+    private void requireEmpty() {
+        if (!stack.isEmpty()) {
+            throw new IllegalStateException("Operand stack is not empty at a jump");
+        }
+    }
+
+    // Every address a jump or a frame can land on
+    private BitSet targets() {
+        BitSet targets = new BitSet();
+        for (int pc = 0; pc < code.length; pc += 1 + Opcode.operands(code[pc])) {
+            int opcode = code[pc];
+            if (opcode == Opcode.JMP || opcode == Opcode.GOSUB
+                    || opcode >= Opcode.ICMP_EQ_JMP && opcode <= Opcode.FCMP_GE_JMP) {
+                targets.set(code[pc + 1]);
+            } else if (opcode == Opcode.JMP_IF_UNDEFINED) {
+                targets.set(code[pc + 2]);
+            } else if (opcode == Opcode.FOR_FIRST || opcode == Opcode.FOR_NEXT) {
+                targets.set(code[pc + 3]);
+            }
+        }
+        for (int address : bytecode.getFrameAddresses()) {
+            targets.set(address);
+        }
+        return targets;
+    }
+
+    private static int typeIndex(InterpreterDataType type) {
+        switch (type) {
+            case INTEGER:
+                return INT;
+            case FLOAT:
+                return FLOAT;
+            default:
+                return STRING;
+        }
+    }
+}
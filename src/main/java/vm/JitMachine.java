@@ -0,0 +1,81 @@
+package vm;
+
+import ir.CallGraph;
+import node.ProgramNode;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a program the JitCompiler translated to JVM bytecode. Each machine defines its own class in this package,
+ * so the generated code can call the machine's package-private I/O and frame methods directly, and the program
+ * runs as one Java method that HotSpot profiles and compiles to machine code once it gets hot. The compiled method
+ * works on copies of the variables in JVM locals and writes them back when it ends.
+ *
+ * The classes are defined with Lookup.defineClass, since Lookup.defineHiddenClass needs a newer JVM than the
+ * build targets, so they stay loaded for as long as the application class loader does.
+ */
+public class JitMachine extends CompiledMachine {
+
+    private static final AtomicInteger PROGRAMS = new AtomicInteger();
+
+    private final int methodSize;
+    private final MethodHandle program;
+
+    public JitMachine(ProgramNode programNode) {
+        this(BytecodeCompiler.compile(programNode), CallGraph.maxStackDepth(programNode));
+    }
+
+    /**
+     * @param maxStackDepth the most frames the program was proven to need, or -1 if it is unbounded
+     */
+    public JitMachine(Bytecode bytecode, int maxStackDepth) {
+        super(bytecode, maxStackDepth);
+        JitCompiler compiler = new JitCompiler(bytecode);
+        byte[] classFile = compiler.compile("vm/JitProgram" + PROGRAMS.incrementAndGet());
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Class<?> programClass = lookup.defineClass(classFile);
+            this.program = lookup.findStatic(programClass, "run", MethodType.methodType(void.class, CompiledMachine.class));
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException("Could not load the compiled program", e);
+        }
+        this.methodSize = compiler.getMethodSize();
+    }
+
+    // The size in bytes of the JVM method the program compiled to; HotSpot only compiles methods up to 8000 bytes
+    public int getMethodSize() {
+        return methodSize;
+    }
+
+    @Override
+    public void interpret() {
+        resetFrames();
+        run();
+    }
+
+    /**
+     * Continues a program another engine has run part of, from the entry frame, with the variables, frames and
+     * DATA cursor it left behind already loaded into this machine.
+     */
+    void resume(int entryFrame) {
+        setEntryFrame(entryFrame);
+        try {
+            run();
+        } finally {
+            setEntryFrame(0);
+        }
+    }
+
+    private void run() {
+        try {
+            program.invokeExact((CompiledMachine) this);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package vm;
+
+import interpreter.ExecutionEngine;
+import node.InterpreterDataType;
+import node.Node;
+
+import java.util.*;
+
+/**
+ * What the machines share: console and test-mode I/O, the DATA cursor, the frame stack, its limit and the checks
+ * NEXT makes against it, all written to fail with the Interpreter's messages.
+ */
+abstract class Machine implements ExecutionEngine {
+
+    private static final int INITIAL_FRAMES = 16;
+
+    private final String[] intNames;
+    private final String[] floatNames;
+    private final String[] stringNames;
+    private final Node[] data;
+    private final int[] frameCounters;
+    private int dataCursor = 0;
+
+    private int stackLimit = DEFAULT_STACK_LIMIT;
+    private final boolean boundedStack;
+    // The frame stack of the machines that keep it here rather than in a local of their dispatch loop
+    private int[] frames;
+    private int fp = 0;
+
+    private Scanner scanner;
+    private boolean testMode = false;
+    private List<String> testInput = new ArrayList<>();
+    private final List<String> output = new ArrayList<>();
+
+    /**
+     * @param maxStackDepth the most frames the program was proven to need, or -1 if it is unbounded
+     */
+    Machine(String[] intNames, String[] floatNames, String[] stringNames, Node[] data, int[] frameCounters, int maxStackDepth) {
+        this.intNames = intNames;
+        this.floatNames = floatNames;
+        this.stringNames = stringNames;
+        this.data = data;
+        this.frameCounters = frameCounters;
+        this.boundedStack = maxStackDepth >= 0;
+        if (boundedStack) {
+            this.stackLimit = Math.max(1, maxStackDepth);
+        }
+    }
+
+    @Override
+    public void setTestMode(boolean testMode) {
+        this.testMode = testMode;
+    }
+
+    @Override
+    public void setTestInput(List<String> input) {
+        this.testInput = new ArrayList<>(input);
+    }
+
+    @Override
+    public List<String> getOutput() {
+        return output;
+    }
+
+    @Override
+    public void setStackLimit(int stackLimit) {
+        if (stackLimit < 1) {
+            throw new IllegalArgumentException("Stack limit must be at least 1");
+        }
+        if (!boundedStack) {
+            this.stackLimit = stackLimit;
+        }
+    }
+
+    // The DATA values no READ has consumed yet
+    public Queue<Node> getDataQueue() {
+        return new LinkedList<>(Arrays.asList(data).subList(dataCursor, data.length));
+    }
+
+    // A frame stack sized for the whole run if the program's depth is bounded, or to grow on demand if not
+    final int[] newFrames() {
+        return new int[boundedStack ? stackLimit : Math.min(INITIAL_FRAMES, stackLimit)];
+    }
+
+    final int[] growFrames(int[] frames) {
+        if (frames.length >= stackLimit) {
+            throw new IllegalStateException(String.format("Stack limit exceeded: more than %d GOSUB, FOR and WHILE "
+                    + "frames are active, the program probably recurses without end", stackLimit));
+        }
+        return Arrays.copyOf(frames, (int) Math.min(stackLimit, Math.max(INITIAL_FRAMES, 2L * frames.length)));
+    }
+
+    final void resetFrames() {
+        frames = newFrames();
+        fp = 0;
+    }
+
+    final void pushFrame(int frame) {
+        if (fp == frames.length) {
+            frames = growFrames(frames);
+        }
+        frames[fp++] = frame;
+    }
+
+    // Pops the frame a RETURN returns to
+    final int popReturn() {
+        if (fp == 0) {
+            throw new IllegalArgumentException("'RETURN' statement without matching 'GOSUB'");
+        }
+        return frames[--fp];
+    }
+
+    // Pops the FOR frame of the given counter, as NEXT requires
+    final int popNext(int counter) {
+        checkNext(frames, fp, counter);
+        return frames[--fp];
+    }
+
+    // Pops whatever frame is on top, as a WHILE end label does
+    final int popAny() {
+        if (fp == 0) {
+            throw new EmptyStackException();
+        }
+        return frames[--fp];
+    }
+
+    // Fails unless the top frame is the FOR loop of the given counter, as NEXT requires
+    final void checkNext(int[] frames, int fp, int counter) {
+        if (fp == 0) {
+            throw new RuntimeException("NEXT statement must have matching FOR loop declaration");
+        }
+        if (counter < 0) {
+            throw new RuntimeException("NEXT statement must reference the iterator in a matching FOR loop declaration");
+        }
+        int forCounter = frameCounters[frames[fp - 1]];
+        if (forCounter < 0) {
+            throw new RuntimeException("NEXT statement must have matching FOR loop declaration");
+        }
+        if (forCounter != counter) {
+            throw new RuntimeException(String.format("'NEXT %s' does not match FOR loop iterator: '%s'",
+                    intNames[counter], intNames[forCounter]));
+        }
+    }
+
+    final void print(String value) {
+        if (testMode) {
+            output.add(value);
+        } else {
+            System.out.print(value);
+        }
+    }
+
+    final void printEnd() {
+        if (!testMode) {
+            System.out.println();
+        }
+    }
+
+    final void prompt(Object prompt) {
+        if (!testMode) {
+            System.out.print(prompt);
+        }
+    }
+
+    final String nextInput() {
+        if (testMode) {
+            return testInput.remove(0);
+        }
+        if (scanner == null) {
+            scanner = new Scanner(System.in);
+        }
+        return scanner.nextLine();
+    }
+
+    // Skips the DATA values another engine already read for the program
+    final void setDataRead(int count) {
+        dataCursor = count;
+    }
+
+    // Reads console input through a scanner another engine used, so nothing it buffered is lost
+    final void setScanner(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    // Takes the next DATA value, failing unless it is of the given node class
+    final Node read(Class<? extends Node> nodeClass, String name, InterpreterDataType type) {
+        if (dataCursor == data.length) {
+            throw new IllegalStateException("Cannot read from empty DATA queue");
+        }
+        Node value = data[dataCursor++];
+        if (!nodeClass.isInstance(value)) {
+            throw new IllegalArgumentException(String.format("Cannot assign value '%s' to variable '%s' of type '%s'", value, name, type));
+        }
+        return value;
+    }
+
+    static IllegalArgumentException undefinedVariable(String name) {
+        return new IllegalArgumentException(String.format("Variable '%s' is not defined", name));
+    }
+
+    // Bias negative values so the shift rounds toward zero like integer division by 2^shift
+    static int shiftRight(int value, int shift) {
+        return (value + ((value >> 31) >>> (32 - shift))) >> shift;
+    }
+
+    // Temporaries.PREFIX, spelled out so a precompiled jar does not need the optimizer's classes
+    private static boolean isTemporary(String name) {
+        return name.startsWith("_");
+    }
+
+    final Map<String, Integer> intVariables(int[] values, boolean[] defined) {
+        Map<String, Integer> variables = new HashMap<>();
+        for (int slot = 0; slot < intNames.length; slot++) {
+            if (defined[slot] && !isTemporary(intNames[slot])) {
+                variables.put(intNames[slot], values[slot]);
+            }
+        }
+        return variables;
+    }
+
+    final Map<String, Float> floatVariables(float[] values, boolean[] defined) {
+        Map<String, Float> variables = new HashMap<>();
+        for (int slot = 0; slot < floatNames.length; slot++) {
+            if (defined[slot] && !isTemporary(floatNames[slot])) {
+                variables.put(floatNames[slot], values[slot]);
+            }
+        }
+        return variables;
+    }
+
+    final Map<String, String> stringVariables(String[] values) {
+        Map<String, String> variables = new HashMap<>();
+        for (int slot = 0; slot < stringNames.length; slot++) {
+            if (values[slot] != null && !isTemporary(stringNames[slot])) {
+                variables.put(stringNames[slot], values[slot]);
+            }
+        }
+        return variables;
+    }
+}
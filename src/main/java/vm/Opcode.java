@@ -0,0 +1,125 @@
+package vm;
+
+/**
+ * The instruction set of the stack VM. An instruction is an opcode followed by its operands, all stored in one
+ * int array. Opcodes are typed: the I, F and S variants work on the int, float and string operand stacks, so the
+ * VM never boxes a value or checks its type at runtime.
+ */
+public final class Opcode {
+
+    private Opcode() {}
+
+    // Push a literal: an int, the raw bits of a float, or a string from the constant pool
+    public static final int ICONST = 0;
+    public static final int FCONST = 1;
+    public static final int SCONST = 2;
+
+    // Push and pop variable slots; a load of a variable never assigned fails
+    public static final int ILOAD = 3;
+    public static final int FLOAD = 4;
+    public static final int SLOAD = 5;
+    public static final int ISTORE = 6;
+    public static final int FSTORE = 7;
+    public static final int SSTORE = 8;
+
+    public static final int IADD = 9;
+    public static final int ISUB = 10;
+    public static final int IMUL = 11;
+    public static final int IDIV = 12;
+    public static final int ISHL = 13;
+    public static final int ISHR = 14;
+    public static final int FADD = 15;
+    public static final int FSUB = 16;
+    public static final int FMUL = 17;
+    public static final int FDIV = 18;
+
+    // Convert the top of one stack onto another
+    public static final int I2F = 19;
+    public static final int F2I = 20;
+
+    // Pop two operands and jump to the target if the comparison holds
+    public static final int ICMP_EQ_JMP = 21;
+    public static final int ICMP_NE_JMP = 22;
+    public static final int ICMP_LT_JMP = 23;
+    public static final int ICMP_LE_JMP = 24;
+    public static final int ICMP_GT_JMP = 25;
+    public static final int ICMP_GE_JMP = 26;
+    public static final int FCMP_EQ_JMP = 27;
+    public static final int FCMP_NE_JMP = 28;
+    public static final int FCMP_LT_JMP = 29;
+    public static final int FCMP_LE_JMP = 30;
+    public static final int FCMP_GT_JMP = 31;
+    public static final int FCMP_GE_JMP = 32;
+
+    public static final int JMP = 33;
+    // Jump if an int slot holds no value yet, where FOR initializes its counter
+    public static final int JMP_IF_UNDEFINED = 34;
+
+    // Call one of the BuiltIn constants, which fixes the operand and result types
+    public static final int CALL_BUILTIN = 35;
+
+    public static final int PRINT_I = 36;
+    public static final int PRINT_F = 37;
+    public static final int PRINT_S = 38;
+    // Ends a PRINT statement's line
+    public static final int PRINT_END = 39;
+
+    public static final int INPUT_PROMPT = 40;
+    public static final int INPUT_I = 41;
+    public static final int INPUT_F = 42;
+    public static final int INPUT_S = 43;
+    public static final int READ_I = 44;
+    public static final int READ_F = 45;
+    public static final int READ_S = 46;
+
+    // Push the frame to return to, then jump to the target
+    public static final int GOSUB = 47;
+    // Push a frame without jumping
+    public static final int PUSH_FRAME = 48;
+    // Pop a frame and jump to it; the DROP variants pop and discard it, as labeled RETURN and NEXT do
+    public static final int RETURN = 49;
+    public static final int RETURN_DROP = 50;
+    public static final int NEXT = 51;
+    public static final int NEXT_DROP = 52;
+    // A WHILE end label: pop whatever frame is on top and jump to it
+    public static final int POP_JUMP = 53;
+
+    // Pop the limit and step of a FOR loop and either enter the body or jump to the exit
+    public static final int FOR_FIRST = 54;
+    public static final int FOR_NEXT = 55;
+
+    // Pop the operands of a failing operation and throw the exception the Interpreter would throw
+    public static final int FAIL = 56;
+    public static final int HALT = 57;
+
+    private static final String[] NAMES = {
+            "ICONST", "FCONST", "SCONST", "ILOAD", "FLOAD", "SLOAD", "ISTORE", "FSTORE", "SSTORE",
+            "IADD", "ISUB", "IMUL", "IDIV", "ISHL", "ISHR", "FADD", "FSUB", "FMUL", "FDIV", "I2F", "F2I",
+            "ICMP_EQ_JMP", "ICMP_NE_JMP", "ICMP_LT_JMP", "ICMP_LE_JMP", "ICMP_GT_JMP", "ICMP_GE_JMP",
+            "FCMP_EQ_JMP", "FCMP_NE_JMP", "FCMP_LT_JMP", "FCMP_LE_JMP", "FCMP_GT_JMP", "FCMP_GE_JMP",
+            "JMP", "JMP_IF_UNDEFINED", "CALL_BUILTIN", "PRINT_I", "PRINT_F", "PRINT_S", "PRINT_END",
+            "INPUT_PROMPT", "INPUT_I", "INPUT_F", "INPUT_S", "READ_I", "READ_F", "READ_S",
+            "GOSUB", "PUSH_FRAME", "RETURN", "RETURN_DROP", "NEXT", "NEXT_DROP", "POP_JUMP",
+            "FOR_FIRST", "FOR_NEXT", "FAIL", "HALT"
+    };
+
+    private static final int[] OPERANDS = {
+            1, 1, 1, 1, 1, 1, 1, 1, 1,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1,
+            1, 2, 1, 0, 0, 0, 0,
+            1, 1, 1, 1, 1, 1, 1,
+            2, 1, 0, 0, 1, 1, 0,
+            3, 3, 1, 0
+    };
+
+    public static String name(int opcode) {
+        return NAMES[opcode];
+    }
+
+    // The number of operand words following the opcode
+    public static int operands(int opcode) {
+        return OPERANDS[opcode];
+    }
+}
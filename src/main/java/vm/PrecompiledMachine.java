@@ -0,0 +1,54 @@
+package vm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * The entry point of a jar the JarCompiler wrote: runs the program class the JitCompiler generated ahead of time
+ * against the BytecodeImage saved next to it. Nothing here lexes, parses or compiles, so the jar holds only the
+ * classes running the program needs and starts straight into it.
+ */
+public class PrecompiledMachine extends CompiledMachine {
+
+    // Where the JarCompiler puts the program in the jar
+    static final String PROGRAM_CLASS = "vm.BasicProgram";
+    static final String IMAGE_RESOURCE = "BasicProgram.image";
+
+    private final MethodHandle program;
+
+    PrecompiledMachine(BytecodeImage image, Class<?> programClass) {
+        super(image.getBytecode(), image.getMaxStackDepth());
+        try {
+            this.program = MethodHandles.lookup().findStatic(programClass, "run",
+                    MethodType.methodType(void.class, CompiledMachine.class));
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException("Could not load the compiled program", e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        BytecodeImage image;
+        try (InputStream in = PrecompiledMachine.class.getResourceAsStream(IMAGE_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("No compiled program in the jar");
+            }
+            image = BytecodeImage.read(in);
+        }
+        new PrecompiledMachine(image, Class.forName(PROGRAM_CLASS)).interpret();
+    }
+
+    @Override
+    public void interpret() {
+        resetFrames();
+        try {
+            program.invokeExact((CompiledMachine) this);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package vm;
+
+import node.Node;
+
+import java.util.*;
+
+/**
+ * A program compiled by the RegisterCompiler for the RegisterMachine. Each register file starts out as the
+ * template given here, which holds the constants in their registers; variables come first in each file, so a
+ * variable's register is its slot and the frame counters of the stack bytecode carry over unchanged.
+ */
+public class RegisterCode {
+
+    private final int[] code;
+    private final Object[] constants;
+    private final String[] intNames;
+    private final String[] floatNames;
+    private final String[] stringNames;
+    private final int[] intRegisters;
+    private final float[] floatRegisters;
+    private final String[] stringRegisters;
+    private final Node[] data;
+    private final int[] frameAddresses;
+    private final int[] frameCounters;
+    private final int[] statementAddresses;
+
+    RegisterCode(int[] code, Object[] constants, String[] intNames, String[] floatNames, String[] stringNames,
+                 int[] intRegisters, float[] floatRegisters, String[] stringRegisters, Node[] data,
+                 int[] frameAddresses, int[] frameCounters, int[] statementAddresses) {
+        this.code = code;
+        this.constants = constants;
+        this.intNames = intNames;
+        this.floatNames = floatNames;
+        this.stringNames = stringNames;
+        this.intRegisters = intRegisters;
+        this.floatRegisters = floatRegisters;
+        this.stringRegisters = stringRegisters;
+        this.data = data;
+        this.frameAddresses = frameAddresses;
+        this.frameCounters = frameCounters;
+        this.statementAddresses = statementAddresses;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public Object[] getConstants() {
+        return constants;
+    }
+
+    public String[] getIntNames() {
+        return intNames;
+    }
+
+    public String[] getFloatNames() {
+        return floatNames;
+    }
+
+    public String[] getStringNames() {
+        return stringNames;
+    }
+
+    // The initial int register file, with the constants loaded
+    public int[] getIntRegisters() {
+        return intRegisters;
+    }
+
+    public float[] getFloatRegisters() {
+        return floatRegisters;
+    }
+
+    public String[] getStringRegisters() {
+        return stringRegisters;
+    }
+
+    public Node[] getData() {
+        return data;
+    }
+
+    public int[] getFrameAddresses() {
+        return frameAddresses;
+    }
+
+    public int[] getFrameCounters() {
+        return frameCounters;
+    }
+
+    public int[] getStatementAddresses() {
+        return statementAddresses;
+    }
+
+    // Lists the instructions one per line, marking where each statement starts
+    public String disassemble() {
+        Map<Integer, List<Integer>> statementsAt = new HashMap<>();
+        for (int i = 0; i < statementAddresses.length; i++) {
+            statementsAt.computeIfAbsent(statementAddresses[i], address -> new ArrayList<>()).add(i);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += 1 + RegisterOpcode.operands(code[pc])) {
+            if (statementsAt.containsKey(pc)) {
+                builder.append(String.format("; statement %s%n", statementsAt.get(pc)));
+            }
+            builder.append(String.format("%5d  %s", pc, RegisterOpcode.name(code[pc])));
+            for (int k = 1; k <= RegisterOpcode.operands(code[pc]); k++) {
+                String operand = operand(code[pc], k, code[pc + k]);
+                if (operand != null) {
+                    builder.append(k == 1 ? " " : ", ").append(operand);
+                }
+            }
+            builder.append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+
+    // Describes an operand, or returns null for an unused one
+    private String operand(int opcode, int position, int value) {
+        switch (opcode) {
+            case RegisterOpcode.IMOV:
+            case RegisterOpcode.ICHECK:
+            case RegisterOpcode.IDEF:
+            case RegisterOpcode.PRINT_I:
+            case RegisterOpcode.INPUT_I:
+            case RegisterOpcode.READ_I:
+            case RegisterOpcode.JMP_IF_UNDEFINED:
+                return position == 2 && opcode == RegisterOpcode.JMP_IF_UNDEFINED ? "@" + value : intRegister(value);
+            case RegisterOpcode.FMOV:
+            case RegisterOpcode.FCHECK:
+            case RegisterOpcode.FDEF:
+            case RegisterOpcode.PRINT_F:
+            case RegisterOpcode.INPUT_F:
+            case RegisterOpcode.READ_F:
+                return floatRegister(value);
+            case RegisterOpcode.SMOV:
+            case RegisterOpcode.SCHECK:
+            case RegisterOpcode.PRINT_S:
+            case RegisterOpcode.INPUT_S:
+            case RegisterOpcode.READ_S:
+                return stringRegister(value);
+            case RegisterOpcode.I2F:
+                return position == 1 ? floatRegister(value) : intRegister(value);
+            case RegisterOpcode.F2I:
+                return position == 1 ? intRegister(value) : floatRegister(value);
+            case RegisterOpcode.INPUT_PROMPT:
+                return '"' + String.valueOf(constants[value]) + '"';
+            case RegisterOpcode.CALL_BUILTIN:
+                return position == 1 ? BuiltIn.name(value) : value < 0 ? null : "r" + value;
+            case RegisterOpcode.GOSUB:
+                return position == 1 ? "@" + value : "frame " + value;
+            case RegisterOpcode.PUSH_FRAME:
+                return "frame " + value;
+            case RegisterOpcode.NEXT:
+            case RegisterOpcode.NEXT_DROP:
+                return value < 0 ? "?" : intNames[value];
+            case RegisterOpcode.FOR_FIRST:
+            case RegisterOpcode.FOR_NEXT:
+                return position <= 3 ? intRegister(value) : position == 4 ? "frame " + value : "@" + value;
+            case RegisterOpcode.FAIL:
+                return position == 1 ? String.valueOf(constants[value]) : value < 0 ? null : "r" + value;
+            case RegisterOpcode.JMP:
+                return "@" + value;
+            default:
+                if (opcode >= RegisterOpcode.ICMP_EQ_JMP && opcode <= RegisterOpcode.FCMP_GE_JMP) {
+                    boolean integers = opcode <= RegisterOpcode.ICMP_GE_JMP;
+                    return position == 3 ? "@" + value : integers ? intRegister(value) : floatRegister(value);
+                }
+                return opcode <= RegisterOpcode.ISHR ? intRegister(value) : floatRegister(value);
+        }
+    }
+
+    private String intRegister(int register) {
+        return register < intNames.length ? intNames[register] : "i" + register;
+    }
+
+    private String floatRegister(int register) {
+        return register < floatNames.length ? floatNames[register] : "f" + register;
+    }
+
+    private String stringRegister(int register) {
+        return register < stringNames.length ? stringNames[register] : "s" + register;
+    }
+}
@@ -0,0 +1,481 @@
+package vm;
+
+import node.InterpreterDataType;
+import node.ProgramNode;
+
+import java.util.*;
+
+/**
+ * Translates stack Bytecode to RegisterCode. The translation runs the stack code abstractly: instead of values,
+ * each operand stack holds the registers the values live in, so a load or a constant pushes its register without
+ * emitting anything and an operation names its operands' registers directly and writes a temporary register of
+ * its stack depth. A store retargets the operation that produced its value when it can, so `x = x + 1` becomes one
+ * IADD instead of the stack VM's four instructions.
+ *
+ * The stack VM checks on every load that the variable has a value. A definite assignment analysis over the stack
+ * code finds the loads where the variable has been assigned on every path to it, and only the others keep an
+ * explicit check; stores that may be a variable's first likewise mark it assigned.
+ */
+public final class RegisterCompiler {
+
+    private static final int INT = 0;
+    private static final int FLOAT = 1;
+    private static final int STRING = 2;
+
+    // The operand types each BuiltIn pops, in the order they were pushed, and the type it pushes
+    private static final int[][] BUILTIN_OPERANDS = {
+            {}, {INT, INT}, {}, {FLOAT, FLOAT}, {STRING, INT}, {STRING, INT}, {STRING, INT, INT}, {INT}, {FLOAT},
+            {STRING}, {STRING}, {INT, INT}, {FLOAT, FLOAT}
+    };
+    private static final int[] BUILTIN_RESULTS = {
+            INT, INT, FLOAT, FLOAT, STRING, STRING, STRING, STRING, STRING, INT, FLOAT, INT, FLOAT
+    };
+
+    private final Bytecode bytecode;
+    private final int[] stackCode;
+    private final int[] variables;
+    private final List<Map<Integer, Integer>> constantRegisters = List.of(new LinkedHashMap<>(), new LinkedHashMap<>(), new LinkedHashMap<>());
+    private final int[] tempBase = new int[3];
+    private final int[] maxDepth = new int[3];
+
+    private final int[][] registerStacks;
+    private final int[] depth = new int[3];
+
+    private int[] code = new int[256];
+    private int size = 0;
+    // The position of the destination operand of the last instruction if it wrote a temporary, or -1
+    private int lastResult = -1;
+    private int lastResultType;
+    private final List<Integer> fixups = new ArrayList<>();
+
+    private RegisterCompiler(Bytecode bytecode) {
+        this.bytecode = bytecode;
+        this.stackCode = bytecode.getCode();
+        this.variables = new int[]{bytecode.getIntNames().length, bytecode.getFloatNames().length, bytecode.getStringNames().length};
+        this.registerStacks = new int[3][bytecode.getMaxStack() + 1];
+    }
+
+    public static RegisterCode compile(ProgramNode programNode) {
+        return translate(BytecodeCompiler.compile(programNode));
+    }
+
+    public static RegisterCode translate(Bytecode bytecode) {
+        return new RegisterCompiler(bytecode).translate();
+    }
+
+    private RegisterCode translate() {
+        allocateConstants();
+        BitSet[] assigned = definiteAssignment();
+        BitSet targets = jumpTargets();
+        int[] addresses = new int[stackCode.length + 1];
+
+        for (int pc = 0; pc < stackCode.length; pc = next(pc)) {
+            addresses[pc] = size;
+            if (targets.get(pc)) {
+                if (depth[INT] + depth[FLOAT] + depth[STRING] > 0) {
+                    throw new IllegalStateException("Operand stack is not empty at jump target " + pc);
+                }
+                lastResult = -1;
+            }
+            translate(pc, assigned[pc] == null ? new BitSet() : assigned[pc]);
+        }
+        addresses[stackCode.length] = size;
+
+        for (int fixup : fixups) {
+            code[fixup] = addresses[code[fixup]];
+        }
+        return new RegisterCode(Arrays.copyOf(code, size), bytecode.getConstants(), bytecode.getIntNames(),
+                bytecode.getFloatNames(), bytecode.getStringNames(), intRegisters(), floatRegisters(), stringRegisters(),
+                bytecode.getData(), remap(bytecode.getFrameAddresses(), addresses), bytecode.getFrameCounters(),
+                remap(bytecode.getStatementAddresses(), addresses));
+    }
+
+    private void translate(int pc, BitSet assigned) {
+        int opcode = stackCode[pc];
+        int operand = pc + 1 < stackCode.length ? stackCode[pc + 1] : 0;
+        switch (opcode) {
+            case Opcode.ICONST:
+            case Opcode.FCONST:
+            case Opcode.SCONST:
+                push(opcode - Opcode.ICONST, constantRegisters.get(opcode - Opcode.ICONST).get(operand));
+                break;
+            case Opcode.ILOAD:
+            case Opcode.FLOAD:
+            case Opcode.SLOAD: {
+                int type = opcode - Opcode.ILOAD;
+                if (!assigned.get(bit(type, operand))) {
+                    emit(RegisterOpcode.ICHECK + type, operand);
+                }
+                push(type, operand);
+                break;
+            }
+            case Opcode.ISTORE:
+            case Opcode.FSTORE:
+            case Opcode.SSTORE:
+                store(opcode - Opcode.ISTORE, operand, assigned);
+                break;
+            case Opcode.I2F:
+                emitResult(RegisterOpcode.I2F, FLOAT, pop(INT));
+                break;
+            case Opcode.F2I:
+                emitResult(RegisterOpcode.F2I, INT, pop(FLOAT));
+                break;
+            case Opcode.JMP:
+                emit(RegisterOpcode.JMP);
+                target(operand);
+                break;
+            case Opcode.JMP_IF_UNDEFINED:
+                emit(RegisterOpcode.JMP_IF_UNDEFINED, operand);
+                target(stackCode[pc + 2]);
+                break;
+            case Opcode.CALL_BUILTIN: {
+                int[] arguments = {-1, -1, -1};
+                for (int k = BUILTIN_OPERANDS[operand].length - 1; k >= 0; k--) {
+                    arguments[k] = pop(BUILTIN_OPERANDS[operand][k]);
+                }
+                int result = BUILTIN_RESULTS[operand];
+                int destination = temp(result);
+                emit(RegisterOpcode.CALL_BUILTIN, operand, destination, arguments[0], arguments[1], arguments[2]);
+                lastResult = size - 4;
+                lastResultType = result;
+                push(result, destination);
+                break;
+            }
+            case Opcode.PRINT_I:
+            case Opcode.PRINT_F:
+            case Opcode.PRINT_S:
+                emit(RegisterOpcode.PRINT_I + opcode - Opcode.PRINT_I, pop(opcode - Opcode.PRINT_I));
+                break;
+            case Opcode.PRINT_END:
+                emit(RegisterOpcode.PRINT_END);
+                break;
+            case Opcode.INPUT_PROMPT:
+                emit(RegisterOpcode.INPUT_PROMPT, operand);
+                break;
+            case Opcode.INPUT_I:
+            case Opcode.INPUT_F:
+            case Opcode.INPUT_S:
+                materialize(opcode - Opcode.INPUT_I, operand);
+                emit(RegisterOpcode.INPUT_I + opcode - Opcode.INPUT_I, operand);
+                break;
+            case Opcode.READ_I:
+            case Opcode.READ_F:
+            case Opcode.READ_S:
+                materialize(opcode - Opcode.READ_I, operand);
+                emit(RegisterOpcode.READ_I + opcode - Opcode.READ_I, operand);
+                break;
+            case Opcode.GOSUB:
+                emit(RegisterOpcode.GOSUB);
+                target(operand);
+                word(stackCode[pc + 2]);
+                break;
+            case Opcode.PUSH_FRAME:
+                emit(RegisterOpcode.PUSH_FRAME, operand);
+                break;
+            case Opcode.RETURN:
+                emit(RegisterOpcode.RETURN);
+                break;
+            case Opcode.RETURN_DROP:
+                emit(RegisterOpcode.RETURN_DROP);
+                break;
+            case Opcode.NEXT:
+                emit(RegisterOpcode.NEXT, operand);
+                break;
+            case Opcode.NEXT_DROP:
+                emit(RegisterOpcode.NEXT_DROP, operand);
+                break;
+            case Opcode.POP_JUMP:
+                emit(RegisterOpcode.POP_JUMP);
+                break;
+            case Opcode.FOR_FIRST:
+            case Opcode.FOR_NEXT: {
+                int step = pop(INT);
+                int limit = pop(INT);
+                materialize(INT, operand);
+                emit(opcode == Opcode.FOR_FIRST ? RegisterOpcode.FOR_FIRST : RegisterOpcode.FOR_NEXT, operand, limit, step, stackCode[pc + 2]);
+                target(stackCode[pc + 3]);
+                break;
+            }
+            case Opcode.FAIL: {
+                int[] operands = {-1, -1, -1};
+                for (int k = ((Failure) bytecode.getConstants()[operand]).getOperands().length - 1; k >= 0; k--) {
+                    operands[k] = pop(typeIndex(((Failure) bytecode.getConstants()[operand]).getOperands()[k]));
+                }
+                emit(RegisterOpcode.FAIL, operand, operands[0], operands[1], operands[2]);
+                // Whatever the failing statement left on the stacks is never used
+                Arrays.fill(depth, 0);
+                break;
+            }
+            case Opcode.HALT:
+                emit(RegisterOpcode.HALT);
+                break;
+            default:
+                if (opcode >= Opcode.IADD && opcode <= Opcode.ISHR) {
+                    int right = pop(INT);
+                    emitResult(RegisterOpcode.IADD + opcode - Opcode.IADD, INT, pop(INT), right);
+                } else if (opcode >= Opcode.FADD && opcode <= Opcode.FDIV) {
+                    int right = pop(FLOAT);
+                    emitResult(RegisterOpcode.FADD + opcode - Opcode.FADD, FLOAT, pop(FLOAT), right);
+                } else if (opcode >= Opcode.ICMP_EQ_JMP && opcode <= Opcode.FCMP_GE_JMP) {
+                    int type = opcode <= Opcode.ICMP_GE_JMP ? INT : FLOAT;
+                    int right = pop(type);
+                    emit(RegisterOpcode.ICMP_EQ_JMP + opcode - Opcode.ICMP_EQ_JMP, pop(type), right);
+                    target(operand);
+                } else {
+                    throw new IllegalStateException(String.format("Unknown opcode %d at %d", opcode, pc));
+                }
+        }
+    }
+
+    /**
+     * Stores the top of a stack into a variable. Any register stack entry still naming the variable is copied to
+     * its temporary first, since it stands for the value the variable had when it was pushed.
+     */
+    private void store(int type, int variable, BitSet assigned) {
+        int value = pop(type);
+        materialize(type, variable);
+        if (lastResult >= 0 && lastResultType == type && code[lastResult] == value && value >= tempBase[type]) {
+            code[lastResult] = variable;
+        } else if (value != variable) {
+            emit(RegisterOpcode.IMOV + type, variable, value);
+        }
+        if (type != STRING && !assigned.get(bit(type, variable))) {
+            emit(type == INT ? RegisterOpcode.IDEF : RegisterOpcode.FDEF, variable);
+        }
+    }
+
+    private void materialize(int type, int variable) {
+        for (int k = 0; k < depth[type]; k++) {
+            if (registerStacks[type][k] == variable) {
+                emit(RegisterOpcode.IMOV + type, tempBase[type] + k, variable);
+                registerStacks[type][k] = tempBase[type] + k;
+            }
+        }
+    }
+
+    /**
+     * Finds, for each instruction of the stack code, the variables assigned on every path that reaches it. Once
+     * assigned a variable stays assigned, so a frame's resume address is reached with at least what was assigned
+     * where the frame was pushed; the analysis follows those edges instead of the RETURN, NEXT and WHILE end
+     * jumps, whose targets it does not know. Instructions that are never reached are left null.
+     */
+    private BitSet[] definiteAssignment() {
+        BitSet[] assigned = new BitSet[stackCode.length + 1];
+        Deque<Integer> worklist = new ArrayDeque<>();
+        int[] frameAddresses = bytecode.getFrameAddresses();
+        flow(assigned, worklist, 0, new BitSet());
+        while (!worklist.isEmpty()) {
+            int pc = worklist.poll();
+            BitSet state = assigned[pc];
+            int opcode = stackCode[pc];
+            int operand = pc + 1 < stackCode.length ? stackCode[pc + 1] : 0;
+            switch (opcode) {
+                case Opcode.ILOAD:
+                case Opcode.FLOAD:
+                case Opcode.SLOAD:
+                    // A load of an unassigned variable fails, so whatever follows it sees the variable assigned
+                    flow(assigned, worklist, next(pc), with(state, bit(opcode - Opcode.ILOAD, operand)));
+                    break;
+                case Opcode.ISTORE:
+                case Opcode.FSTORE:
+                case Opcode.SSTORE:
+                    flow(assigned, worklist, next(pc), with(state, bit(opcode - Opcode.ISTORE, operand)));
+                    break;
+                case Opcode.INPUT_I:
+                case Opcode.INPUT_F:
+                case Opcode.INPUT_S:
+                    flow(assigned, worklist, next(pc), with(state, bit(opcode - Opcode.INPUT_I, operand)));
+                    break;
+                case Opcode.READ_I:
+                case Opcode.READ_F:
+                case Opcode.READ_S:
+                    flow(assigned, worklist, next(pc), with(state, bit(opcode - Opcode.READ_I, operand)));
+                    break;
+                case Opcode.JMP:
+                    flow(assigned, worklist, operand, state);
+                    break;
+                case Opcode.JMP_IF_UNDEFINED:
+                    flow(assigned, worklist, stackCode[pc + 2], state);
+                    flow(assigned, worklist, next(pc), with(state, bit(INT, operand)));
+                    break;
+                case Opcode.GOSUB:
+                    flow(assigned, worklist, operand, state);
+                    flow(assigned, worklist, frameAddresses[stackCode[pc + 2]], state);
+                    break;
+                case Opcode.PUSH_FRAME:
+                    flow(assigned, worklist, next(pc), state);
+                    flow(assigned, worklist, frameAddresses[operand], state);
+                    break;
+                case Opcode.FOR_FIRST:
+                case Opcode.FOR_NEXT:
+                    flow(assigned, worklist, next(pc), state);
+                    flow(assigned, worklist, stackCode[pc + 3], state);
+                    flow(assigned, worklist, frameAddresses[stackCode[pc + 2]], state);
+                    break;
+                case Opcode.RETURN:
+                case Opcode.NEXT:
+                case Opcode.POP_JUMP:
+                case Opcode.FAIL:
+                case Opcode.HALT:
+                    break;
+                default:
+                    if (opcode >= Opcode.ICMP_EQ_JMP && opcode <= Opcode.FCMP_GE_JMP) {
+                        flow(assigned, worklist, operand, state);
+                    }
+                    flow(assigned, worklist, next(pc), state);
+            }
+        }
+        return assigned;
+    }
+
+    // Merges a state into what is known at the target, revisiting the target if that shrinks it
+    private static void flow(BitSet[] assigned, Deque<Integer> worklist, int target, BitSet state) {
+        if (assigned[target] == null) {
+            assigned[target] = (BitSet) state.clone();
+            worklist.add(target);
+            return;
+        }
+        BitSet merged = (BitSet) assigned[target].clone();
+        merged.and(state);
+        if (!merged.equals(assigned[target])) {
+            assigned[target] = merged;
+            worklist.add(target);
+        }
+    }
+
+    private static BitSet with(BitSet state, int bit) {
+        BitSet result = (BitSet) state.clone();
+        result.set(bit);
+        return result;
+    }
+
+    private int bit(int type, int variable) {
+        int offset = 0;
+        for (int t = 0; t < type; t++) {
+            offset += variables[t];
+        }
+        return offset + variable;
+    }
+
+    private BitSet jumpTargets() {
+        BitSet targets = new BitSet();
+        for (int pc = 0; pc < stackCode.length; pc = next(pc)) {
+            int opcode = stackCode[pc];
+            if (opcode == Opcode.JMP || opcode == Opcode.GOSUB
+                    || opcode >= Opcode.ICMP_EQ_JMP && opcode <= Opcode.FCMP_GE_JMP) {
+                targets.set(stackCode[pc + 1]);
+            } else if (opcode == Opcode.JMP_IF_UNDEFINED) {
+                targets.set(stackCode[pc + 2]);
+            } else if (opcode == Opcode.FOR_FIRST || opcode == Opcode.FOR_NEXT) {
+                targets.set(stackCode[pc + 3]);
+            }
+        }
+        for (int address : bytecode.getFrameAddresses()) {
+            targets.set(address);
+        }
+        return targets;
+    }
+
+    // Gives each distinct constant a register after the variables of its type; temporaries come after those
+    private void allocateConstants() {
+        for (int pc = 0; pc < stackCode.length; pc = next(pc)) {
+            int opcode = stackCode[pc];
+            if (opcode == Opcode.ICONST || opcode == Opcode.FCONST || opcode == Opcode.SCONST) {
+                int type = opcode - Opcode.ICONST;
+                Map<Integer, Integer> registers = constantRegisters.get(type);
+                registers.computeIfAbsent(stackCode[pc + 1], key -> variables[type] + registers.size());
+            }
+        }
+        for (int type = INT; type <= STRING; type++) {
+            tempBase[type] = variables[type] + constantRegisters.get(type).size();
+        }
+    }
+
+    private int[] intRegisters() {
+        int[] registers = new int[tempBase[INT] + maxDepth[INT]];
+        constantRegisters.get(INT).forEach((value, register) -> registers[register] = value);
+        return registers;
+    }
+
+    private float[] floatRegisters() {
+        float[] registers = new float[tempBase[FLOAT] + maxDepth[FLOAT]];
+        constantRegisters.get(FLOAT).forEach((bits, register) -> registers[register] = Float.intBitsToFloat(bits));
+        return registers;
+    }
+
+    private String[] stringRegisters() {
+        String[] registers = new String[tempBase[STRING] + maxDepth[STRING]];
+        constantRegisters.get(STRING).forEach((constant, register) -> registers[register] = (String) bytecode.getConstants()[constant]);
+        return registers;
+    }
+
+    private static int[] remap(int[] stackAddresses, int[] addresses) {
+        int[] result = new int[stackAddresses.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = addresses[stackAddresses[i]];
+        }
+        return result;
+    }
+
+    private int next(int pc) {
+        return pc + 1 + Opcode.operands(stackCode[pc]);
+    }
+
+    private static int typeIndex(InterpreterDataType type) {
+        switch (type) {
+            case INTEGER:
+                return INT;
+            case FLOAT:
+                return FLOAT;
+            default:
+                return STRING;
+        }
+    }
+
+    private void push(int type, int register) {
+        registerStacks[type][depth[type]++] = register;
+        maxDepth[type] = Math.max(maxDepth[type], depth[type]);
+    }
+
+    private int pop(int type) {
+        return registerStacks[type][--depth[type]];
+    }
+
+    // The temporary register for the next value pushed on a stack
+    private int temp(int type) {
+        return tempBase[type] + depth[type];
+    }
+
+    // Emits an operation that writes a new temporary and pushes it
+    private void emitResult(int opcode, int type, int... sources) {
+        int destination = temp(type);
+        int[] operands = new int[sources.length + 1];
+        operands[0] = destination;
+        System.arraycopy(sources, 0, operands, 1, sources.length);
+        emit(opcode, operands);
+        lastResult = size - operands.length;
+        lastResultType = type;
+        push(type, destination);
+    }
+
+    private void emit(int opcode, int... operands) {
+        lastResult = -1;
+        word(opcode);
+        for (int operand : operands) {
+            word(operand);
+        }
+    }
+
+    // Emits a stack code address as an operand, to be mapped to its register code address at the end
+    private void target(int stackAddress) {
+        fixups.add(size);
+        word(stackAddress);
+    }
+
+    private void word(int word) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = word;
+    }
+}
@@ -0,0 +1,406 @@
+package vm;
+
+import ir.CallGraph;
+import node.*;
+
+import java.util.EmptyStackException;
+import java.util.Map;
+
+/**
+ * Runs RegisterCode. The dispatch loop is the stack VM's, but operations read and write registers directly, so a
+ * statement such as `x = x + 1` costs one dispatch instead of four, and a variable's assigned flag is only
+ * consulted where the compiler could not prove it set. Output, variables and errors match the Interpreter's.
+ */
+public class RegisterMachine extends Machine {
+
+    private final RegisterCode registerCode;
+
+    private final int[] ints;
+    private final boolean[] intDefined;
+    private final float[] floats;
+    private final boolean[] floatDefined;
+    private final String[] strings;
+
+    private long instructionsExecuted = 0;
+
+    public RegisterMachine(ProgramNode programNode) {
+        this(RegisterCompiler.compile(programNode), CallGraph.maxStackDepth(programNode));
+    }
+
+    /**
+     * @param maxStackDepth the most frames the program was proven to need, or -1 if it is unbounded
+     */
+    public RegisterMachine(RegisterCode registerCode, int maxStackDepth) {
+        super(registerCode.getIntNames(), registerCode.getFloatNames(), registerCode.getStringNames(),
+                registerCode.getData(), registerCode.getFrameCounters(), maxStackDepth);
+        this.registerCode = registerCode;
+        this.ints = registerCode.getIntRegisters().clone();
+        this.intDefined = new boolean[registerCode.getIntNames().length];
+        this.floats = registerCode.getFloatRegisters().clone();
+        this.floatDefined = new boolean[registerCode.getFloatNames().length];
+        this.strings = registerCode.getStringRegisters().clone();
+    }
+
+    public RegisterCode getRegisterCode() {
+        return registerCode;
+    }
+
+    // The number of instructions dispatched by the last run
+    public long getInstructionsExecuted() {
+        return instructionsExecuted;
+    }
+
+    @Override
+    public void interpret() {
+        final int[] code = registerCode.getCode();
+        final Object[] constants = registerCode.getConstants();
+        final int[] frameAddresses = registerCode.getFrameAddresses();
+        final int[] ints = this.ints;
+        final boolean[] intDefined = this.intDefined;
+        final float[] floats = this.floats;
+        final boolean[] floatDefined = this.floatDefined;
+        final String[] strings = this.strings;
+
+        int[] frames = newFrames();
+        int fp = 0;
+        int pc = 0;
+        long count = 0;
+
+        try {
+            while (true) {
+                count++;
+                switch (code[pc]) {
+                    case RegisterOpcode.IMOV:
+                        ints[code[pc + 1]] = ints[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case RegisterOpcode.FMOV:
+                        floats[code[pc + 1]] = floats[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case RegisterOpcode.SMOV:
+                        strings[code[pc + 1]] = strings[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case RegisterOpcode.ICHECK:
+                        if (!intDefined[code[pc + 1]]) {
+                            throw undefinedVariable(registerCode.getIntNames()[code[pc + 1]]);
+                        }
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.FCHECK:
+                        if (!floatDefined[code[pc + 1]]) {
+                            throw undefinedVariable(registerCode.getFloatNames()[code[pc + 1]]);
+                        }
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.SCHECK:
+                        if (strings[code[pc + 1]] == null) {
+                            throw undefinedVariable(registerCode.getStringNames()[code[pc + 1]]);
+                        }
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.IDEF:
+                        intDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.FDEF:
+                        floatDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.IADD:
+                        ints[code[pc + 1]] = ints[code[pc + 2]] + ints[code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case RegisterOpcode.ISUB:
+                        ints[code[pc + 1]] = ints[code[pc + 2]] - ints[code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case RegisterOpcode.IMUL:
+                        ints[code[pc + 1]] = ints[code[pc + 2]] * ints[code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case RegisterOpcode.IDIV:
+                        ints[code[pc + 1]] = ints[code[pc + 2]] / ints[code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case RegisterOpcode.ISHL:
+                        ints[code[pc + 1]] = ints[code[pc + 2]] << ints[code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case RegisterOpcode.ISHR:
+                        ints[code[pc + 1]] = shiftRight(ints[code[pc + 2]], ints[code[pc + 3]]);
+                        pc += 4;
+                        break;
+                    case RegisterOpcode.FADD:
+                        floats[code[pc + 1]] = floats[code[pc + 2]] + floats[code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case RegisterOpcode.FSUB:
+                        floats[code[pc + 1]] = floats[code[pc + 2]] - floats[code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case RegisterOpcode.FMUL:
+                        floats[code[pc + 1]] = floats[code[pc + 2]] * floats[code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case RegisterOpcode.FDIV:
+                        floats[code[pc + 1]] = floats[code[pc + 2]] / floats[code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case RegisterOpcode.I2F:
+                        floats[code[pc + 1]] = ints[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case RegisterOpcode.F2I:
+                        ints[code[pc + 1]] = (int) floats[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case RegisterOpcode.ICMP_EQ_JMP:
+                        pc = ints[code[pc + 1]] == ints[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.ICMP_NE_JMP:
+                        pc = ints[code[pc + 1]] != ints[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.ICMP_LT_JMP:
+                        pc = ints[code[pc + 1]] < ints[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.ICMP_LE_JMP:
+                        pc = ints[code[pc + 1]] <= ints[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.ICMP_GT_JMP:
+                        pc = ints[code[pc + 1]] > ints[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.ICMP_GE_JMP:
+                        pc = ints[code[pc + 1]] >= ints[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.FCMP_EQ_JMP:
+                        pc = floats[code[pc + 1]] == floats[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.FCMP_NE_JMP:
+                        pc = floats[code[pc + 1]] != floats[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.FCMP_LT_JMP:
+                        pc = floats[code[pc + 1]] < floats[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.FCMP_LE_JMP:
+                        pc = floats[code[pc + 1]] <= floats[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.FCMP_GT_JMP:
+                        pc = floats[code[pc + 1]] > floats[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.FCMP_GE_JMP:
+                        pc = floats[code[pc + 1]] >= floats[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                        break;
+                    case RegisterOpcode.JMP:
+                        pc = code[pc + 1];
+                        break;
+                    case RegisterOpcode.JMP_IF_UNDEFINED:
+                        pc = intDefined[code[pc + 1]] ? pc + 3 : code[pc + 2];
+                        break;
+                    case RegisterOpcode.CALL_BUILTIN:
+                        callBuiltIn(code[pc + 1], code[pc + 2], code[pc + 3], code[pc + 4], code[pc + 5]);
+                        pc += 6;
+                        break;
+                    case RegisterOpcode.PRINT_I:
+                        print(Integer.toString(ints[code[pc + 1]]));
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.PRINT_F:
+                        print(Float.toString(floats[code[pc + 1]]));
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.PRINT_S:
+                        print(strings[code[pc + 1]]);
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.PRINT_END:
+                        printEnd();
+                        pc++;
+                        break;
+                    case RegisterOpcode.INPUT_PROMPT:
+                        prompt(constants[code[pc + 1]]);
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.INPUT_I:
+                        ints[code[pc + 1]] = Integer.parseInt(nextInput());
+                        intDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.INPUT_F:
+                        floats[code[pc + 1]] = Float.parseFloat(nextInput());
+                        floatDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.INPUT_S:
+                        strings[code[pc + 1]] = nextInput();
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.READ_I:
+                        ints[code[pc + 1]] = ((IntegerNode) read(IntegerNode.class, registerCode.getIntNames()[code[pc + 1]], InterpreterDataType.INTEGER)).getInt();
+                        intDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.READ_F:
+                        floats[code[pc + 1]] = ((FloatNode) read(FloatNode.class, registerCode.getFloatNames()[code[pc + 1]], InterpreterDataType.FLOAT)).getFloat();
+                        floatDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.READ_S:
+                        strings[code[pc + 1]] = ((StringNode) read(StringNode.class, registerCode.getStringNames()[code[pc + 1]], InterpreterDataType.STRING)).getValue();
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.GOSUB:
+                        if (fp == frames.length) {
+                            frames = growFrames(frames);
+                        }
+                        frames[fp++] = code[pc + 2];
+                        pc = code[pc + 1];
+                        break;
+                    case RegisterOpcode.PUSH_FRAME:
+                        if (fp == frames.length) {
+                            frames = growFrames(frames);
+                        }
+                        frames[fp++] = code[pc + 1];
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.RETURN:
+                        if (fp == 0) {
+                            throw new IllegalArgumentException("'RETURN' statement without matching 'GOSUB'");
+                        }
+                        pc = frameAddresses[frames[--fp]];
+                        break;
+                    case RegisterOpcode.RETURN_DROP:
+                        if (fp == 0) {
+                            throw new IllegalArgumentException("'RETURN' statement without matching 'GOSUB'");
+                        }
+                        fp--;
+                        pc++;
+                        break;
+                    case RegisterOpcode.NEXT:
+                        checkNext(frames, fp, code[pc + 1]);
+                        pc = frameAddresses[frames[--fp]];
+                        break;
+                    case RegisterOpcode.NEXT_DROP:
+                        checkNext(frames, fp, code[pc + 1]);
+                        fp--;
+                        pc += 2;
+                        break;
+                    case RegisterOpcode.POP_JUMP:
+                        if (fp == 0) {
+                            throw new EmptyStackException();
+                        }
+                        pc = frameAddresses[frames[--fp]];
+                        break;
+                    case RegisterOpcode.FOR_FIRST:
+                    case RegisterOpcode.FOR_NEXT: {
+                        int counter = code[pc + 1];
+                        if (ints[counter] < ints[code[pc + 2]]) {
+                            if (fp == frames.length) {
+                                frames = growFrames(frames);
+                            }
+                            frames[fp++] = code[pc + 4];
+                            if (code[pc] == RegisterOpcode.FOR_NEXT) {
+                                ints[counter] += ints[code[pc + 3]];
+                            }
+                            pc += 6;
+                        } else {
+                            pc = code[pc + 5];
+                        }
+                        break;
+                    }
+                    case RegisterOpcode.FAIL:
+                        throw fail((Failure) constants[code[pc + 1]], code[pc + 2], code[pc + 3], code[pc + 4]);
+                    case RegisterOpcode.HALT:
+                        return;
+                    default:
+                        throw new IllegalStateException(String.format("Unknown opcode %d at %d", code[pc], pc));
+                }
+            }
+        } finally {
+            instructionsExecuted = count;
+        }
+    }
+
+    // Computes the result before writing it, since the destination may also be an argument
+    private void callBuiltIn(int builtIn, int destination, int a, int b, int c) {
+        switch (builtIn) {
+            case BuiltIn.RANDOM:
+                ints[destination] = BuiltInFunctions.RANDOM();
+                break;
+            case BuiltIn.RANDOM_RANGE:
+                ints[destination] = BuiltInFunctions.RANDOM(ints[a], ints[b]);
+                break;
+            case BuiltIn.RANDOMF:
+                floats[destination] = BuiltInFunctions.RANDOMF();
+                break;
+            case BuiltIn.RANDOMF_RANGE:
+                floats[destination] = BuiltInFunctions.RANDOMF(floats[a], floats[b]);
+                break;
+            case BuiltIn.LEFT$:
+                strings[destination] = BuiltInFunctions.LEFT$(strings[a], ints[b]);
+                break;
+            case BuiltIn.RIGHT$:
+                strings[destination] = BuiltInFunctions.RIGHT$(strings[a], ints[b]);
+                break;
+            case BuiltIn.MID$:
+                strings[destination] = BuiltInFunctions.MID$(strings[a], ints[b], ints[c]);
+                break;
+            case BuiltIn.NUM$_INT:
+                strings[destination] = Integer.toString(ints[a]);
+                break;
+            case BuiltIn.NUM$_FLOAT:
+                strings[destination] = Float.toString(floats[a]);
+                break;
+            case BuiltIn.VAL:
+                ints[destination] = BuiltInFunctions.VAL(strings[a]);
+                break;
+            case BuiltIn.VALF:
+                floats[destination] = BuiltInFunctions.VALF(strings[a]);
+                break;
+            case BuiltIn.POW:
+                ints[destination] = BuiltInFunctions.POW(ints[a], ints[b]);
+                break;
+            case BuiltIn.POWF:
+                floats[destination] = BuiltInFunctions.POWF(floats[a], floats[b]);
+                break;
+            default:
+                throw new IllegalStateException("Unknown builtin " + builtIn);
+        }
+    }
+
+    // Reads the operands a failure reports from their registers and builds its exception
+    private RuntimeException fail(Failure failure, int... registers) {
+        InterpreterDataType[] types = failure.getOperands();
+        Object[] values = new Object[types.length];
+        for (int k = 0; k < types.length; k++) {
+            switch (types[k]) {
+                case INTEGER:
+                    values[k] = ints[registers[k]];
+                    break;
+                case FLOAT:
+                    values[k] = floats[registers[k]];
+                    break;
+                default:
+                    values[k] = strings[registers[k]];
+                    break;
+            }
+        }
+        return failure.create(values);
+    }
+
+    @Override
+    public Map<String, Integer> getIntVariables() {
+        return intVariables(ints, intDefined);
+    }
+
+    @Override
+    public Map<String, Float> getFloatVariables() {
+        return floatVariables(floats, floatDefined);
+    }
+
+    @Override
+    public Map<String, String> getStringVariables() {
+        return stringVariables(strings);
+    }
+}
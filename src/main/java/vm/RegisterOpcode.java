@@ -0,0 +1,122 @@
+package vm;
+
+/**
+ * The instruction set of the register VM. Each instruction names the registers it reads and writes, so
+ * `IADD r3, r1, r2` does in one dispatch what takes the stack VM two loads, an add and a store. Registers are
+ * typed like the stack VM's opcodes: an int, a float and a string register file, each holding the program's
+ * variables first, then its constants, then the temporaries of expressions.
+ */
+public final class RegisterOpcode {
+
+    private RegisterOpcode() {}
+
+    // Copy a register: destination, source
+    public static final int IMOV = 0;
+    public static final int FMOV = 1;
+    public static final int SMOV = 2;
+
+    // Fail if a variable has no value yet; only emitted where a variable may be read before it is assigned
+    public static final int ICHECK = 3;
+    public static final int FCHECK = 4;
+    public static final int SCHECK = 5;
+    // Mark an int or float variable as assigned, after a store that may be its first
+    public static final int IDEF = 6;
+    public static final int FDEF = 7;
+
+    // Destination, left, right
+    public static final int IADD = 8;
+    public static final int ISUB = 9;
+    public static final int IMUL = 10;
+    public static final int IDIV = 11;
+    public static final int ISHL = 12;
+    public static final int ISHR = 13;
+    public static final int FADD = 14;
+    public static final int FSUB = 15;
+    public static final int FMUL = 16;
+    public static final int FDIV = 17;
+
+    // Destination, source
+    public static final int I2F = 18;
+    public static final int F2I = 19;
+
+    // Left, right, target
+    public static final int ICMP_EQ_JMP = 20;
+    public static final int ICMP_NE_JMP = 21;
+    public static final int ICMP_LT_JMP = 22;
+    public static final int ICMP_LE_JMP = 23;
+    public static final int ICMP_GT_JMP = 24;
+    public static final int ICMP_GE_JMP = 25;
+    public static final int FCMP_EQ_JMP = 26;
+    public static final int FCMP_NE_JMP = 27;
+    public static final int FCMP_LT_JMP = 28;
+    public static final int FCMP_LE_JMP = 29;
+    public static final int FCMP_GT_JMP = 30;
+    public static final int FCMP_GE_JMP = 31;
+
+    public static final int JMP = 32;
+    public static final int JMP_IF_UNDEFINED = 33;
+
+    // BuiltIn id, destination and up to three argument registers, unused ones -1
+    public static final int CALL_BUILTIN = 34;
+
+    public static final int PRINT_I = 35;
+    public static final int PRINT_F = 36;
+    public static final int PRINT_S = 37;
+    public static final int PRINT_END = 38;
+
+    public static final int INPUT_PROMPT = 39;
+    public static final int INPUT_I = 40;
+    public static final int INPUT_F = 41;
+    public static final int INPUT_S = 42;
+    public static final int READ_I = 43;
+    public static final int READ_F = 44;
+    public static final int READ_S = 45;
+
+    // The frame instructions work as in the stack VM
+    public static final int GOSUB = 46;
+    public static final int PUSH_FRAME = 47;
+    public static final int RETURN = 48;
+    public static final int RETURN_DROP = 49;
+    public static final int NEXT = 50;
+    public static final int NEXT_DROP = 51;
+    public static final int POP_JUMP = 52;
+
+    // Counter, limit, step, frame, exit
+    public static final int FOR_FIRST = 53;
+    public static final int FOR_NEXT = 54;
+
+    // Failure constant and up to three operand registers, unused ones -1
+    public static final int FAIL = 55;
+    public static final int HALT = 56;
+
+    private static final String[] NAMES = {
+            "IMOV", "FMOV", "SMOV", "ICHECK", "FCHECK", "SCHECK", "IDEF", "FDEF",
+            "IADD", "ISUB", "IMUL", "IDIV", "ISHL", "ISHR", "FADD", "FSUB", "FMUL", "FDIV", "I2F", "F2I",
+            "ICMP_EQ_JMP", "ICMP_NE_JMP", "ICMP_LT_JMP", "ICMP_LE_JMP", "ICMP_GT_JMP", "ICMP_GE_JMP",
+            "FCMP_EQ_JMP", "FCMP_NE_JMP", "FCMP_LT_JMP", "FCMP_LE_JMP", "FCMP_GT_JMP", "FCMP_GE_JMP",
+            "JMP", "JMP_IF_UNDEFINED", "CALL_BUILTIN", "PRINT_I", "PRINT_F", "PRINT_S", "PRINT_END",
+            "INPUT_PROMPT", "INPUT_I", "INPUT_F", "INPUT_S", "READ_I", "READ_F", "READ_S",
+            "GOSUB", "PUSH_FRAME", "RETURN", "RETURN_DROP", "NEXT", "NEXT_DROP", "POP_JUMP",
+            "FOR_FIRST", "FOR_NEXT", "FAIL", "HALT"
+    };
+
+    private static final int[] OPERANDS = {
+            2, 2, 2, 1, 1, 1, 1, 1,
+            3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 2, 2,
+            3, 3, 3, 3, 3, 3,
+            3, 3, 3, 3, 3, 3,
+            1, 2, 5, 1, 1, 1, 0,
+            1, 1, 1, 1, 1, 1, 1,
+            2, 1, 0, 0, 1, 1, 0,
+            5, 5, 4, 0
+    };
+
+    public static String name(int opcode) {
+        return NAMES[opcode];
+    }
+
+    // The number of operand words following the opcode
+    public static int operands(int opcode) {
+        return OPERANDS[opcode];
+    }
+}
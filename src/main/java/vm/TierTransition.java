@@ -0,0 +1,76 @@
+package vm;
+
+/**
+ * One switch of a TieredEngine from a slower tier to a faster one: the region whose counter tripped it, how long
+ * the compilation took, how long the program kept running in the old tier before it reached a safe point to
+ * switch at, how many statements the Interpreter ran up to then, and whether the switch replaced a running loop
+ * on the stack at its back edge.
+ */
+public class TierTransition {
+
+    private final TieredEngine.Tier from;
+    private final TieredEngine.Tier to;
+    private final String region;
+    private final long count;
+    private final long compileNanos;
+    private final long switchNanos;
+    private final long interpretedStatements;
+    private final boolean osr;
+
+    TierTransition(TieredEngine.Tier from, TieredEngine.Tier to, String region, long count, long compileNanos,
+                   long switchNanos, long interpretedStatements, boolean osr) {
+        this.from = from;
+        this.to = to;
+        this.region = region;
+        this.count = count;
+        this.compileNanos = compileNanos;
+        this.switchNanos = switchNanos;
+        this.interpretedStatements = interpretedStatements;
+        this.osr = osr;
+    }
+
+    public TieredEngine.Tier getFrom() {
+        return from;
+    }
+
+    public TieredEngine.Tier getTo() {
+        return to;
+    }
+
+    // The loop header or GOSUB target whose counter crossed the threshold
+    public String getRegion() {
+        return region;
+    }
+
+    // How many times the region was entered, or a back edge went round its loop, when it crossed the threshold
+    public long getCount() {
+        return count;
+    }
+
+    // Wall time the compilation took, in nanoseconds
+    public long getCompileNanos() {
+        return compileNanos;
+    }
+
+    // Wall time from the threshold being crossed to the switch, in nanoseconds
+    public long getSwitchNanos() {
+        return switchNanos;
+    }
+
+    // Statements the Interpreter ran before the switch
+    public long getInterpretedStatements() {
+        return interpretedStatements;
+    }
+
+    // True if the program switched at a NEXT or WHILE end label, in the middle of the loop it closes
+    public boolean isOsr() {
+        return osr;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s -> %s%s  %s counted %d times: compiled in %.3f ms, switched %.3f ms later, "
+                        + "%d statements interpreted", from.getName(), to.getName(), osr ? " (OSR)" : "", region, count,
+                compileNanos / 1_000_000.0, switchNanos / 1_000_000.0, interpretedStatements);
+    }
+}
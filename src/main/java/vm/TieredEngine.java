@@ -0,0 +1,364 @@
+package vm;
+
+import interpreter.ExecutionEngine;
+import interpreter.Interpreter;
+import ir.CallGraph;
+import node.*;
+import optimizer.ProgramIndex;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs a program in the tree-walking Interpreter first, so short programs never pay to be compiled, and moves it
+ * to the JitMachine once it proves to be hot. The engine counts how often the program enters each loop header
+ * (FOR and WHILE statements and the targets of backward jumps) and each GOSUB target. When one of those counts
+ * crosses the threshold, the program is compiled on a background thread while the Interpreter carries on.
+ *
+ * A loop that is entered once and then runs for the rest of the program never crosses that threshold, since
+ * going round it again is not an entry. Its back edges, each NEXT and WHILE end label, have counters of their own
+ * with a higher threshold, and when one of those trips the program is replaced on the stack: the switch happens at
+ * the back edge itself, mid-iteration, with the loop's frame still on the stack, and the compiled NEXT pops it and
+ * goes round again exactly as the Interpreter would have.
+ *
+ * The switch waits for a safe point: the next time the Interpreter is about to run a loop header, GOSUB target or
+ * back edge after the compiled code is ready. The statement and every frame on the Interpreter's stack then have
+ * a frame id in the compiled program, so the variables, the frames, the DATA cursor and any test input move over
+ * and the compiled program continues from that statement. A program that cannot be compiled stays in the
+ * Interpreter.
+ */
+public class TieredEngine implements ExecutionEngine {
+
+    public enum Tier {
+        INTERPRETER("interpreter"),
+        JIT("jit");
+
+        private final String name;
+
+        Tier(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the tier with the given name as passed to --tier, or null if there is none.
+         */
+        public static Tier fromName(String name) {
+            for (Tier tier : values()) {
+                if (tier.name.equals(name)) {
+                    return tier;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static final int DEFAULT_THRESHOLD = 1000;
+    public static final int DEFAULT_OSR_THRESHOLD = 10_000;
+
+    // One compiler thread for all engines; it never keeps the JVM from exiting
+    private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "tier-compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // A counted statement: how it is reported and how often the program has entered it
+    private static final class Region {
+        private final String name;
+        private long count = 0;
+
+        private Region(String name) {
+            this.name = name;
+        }
+    }
+
+    // The compiled program and the frame id of each statement the Interpreter could have on its stack
+    private static final class Compiled {
+        private final JitMachine machine;
+        private final Map<StatementNode, Integer> frames = new IdentityHashMap<>();
+        private final long nanos;
+
+        private Compiled(JitMachine machine, List<StatementNode> frameStatements, long nanos) {
+            this.machine = machine;
+            for (int frame = 0; frame < frameStatements.size(); frame++) {
+                frames.put(frameStatements.get(frame), frame);
+            }
+            this.nanos = nanos;
+        }
+
+        private int frameOf(StatementNode statement) {
+            Integer frame = frames.get(statement);
+            if (frame == null) {
+                throw new IllegalStateException("Statement has no frame in the compiled program: " + statement);
+            }
+            return frame;
+        }
+    }
+
+    private final ProgramNode programNode;
+    private final Map<StatementNode, Region> regions = new IdentityHashMap<>();
+    private final Map<StatementNode, Region> backEdges = new IdentityHashMap<>();
+    private int threshold = DEFAULT_THRESHOLD;
+    private int osrThreshold = DEFAULT_OSR_THRESHOLD;
+    private Tier forcedTier;
+    private boolean background = true;
+
+    private boolean testMode = false;
+    private List<String> testInput = new ArrayList<>();
+    private int stackLimit = -1;
+
+    private Interpreter interpreter;
+    private JitMachine machine;
+    private Tier tier = Tier.INTERPRETER;
+    private final List<TierTransition> transitions = new ArrayList<>();
+    private RuntimeException compileFailure;
+
+    public TieredEngine(ProgramNode programNode) {
+        this.programNode = programNode;
+        findRegions();
+    }
+
+    // How many times a region is entered before the program is compiled
+    public void setThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Tier threshold must be at least 1");
+        }
+        this.threshold = threshold;
+    }
+
+    // How many times a NEXT or WHILE end label goes round its loop before the program is compiled
+    public void setOsrThreshold(int osrThreshold) {
+        if (osrThreshold < 1) {
+            throw new IllegalArgumentException("OSR threshold must be at least 1");
+        }
+        this.osrThreshold = osrThreshold;
+    }
+
+    // Runs the whole program in the one tier, for benchmarking a tier on its own; null restores tiering
+    public void setForcedTier(Tier forcedTier) {
+        this.forcedTier = forcedTier;
+    }
+
+    // Compiles on the calling thread instead, so the switch always happens at the first safe point
+    public void setBackgroundCompilation(boolean background) {
+        this.background = background;
+    }
+
+    // The tier the program is running in, or ended in
+    public Tier getTier() {
+        return tier;
+    }
+
+    public List<TierTransition> getTransitions() {
+        return transitions;
+    }
+
+    // Why the program could not be compiled and stayed in the Interpreter, or null
+    public RuntimeException getCompileFailure() {
+        return compileFailure;
+    }
+
+    @Override
+    public void setTestMode(boolean testMode) {
+        this.testMode = testMode;
+    }
+
+    @Override
+    public void setTestInput(List<String> input) {
+        this.testInput = new ArrayList<>(input);
+    }
+
+    @Override
+    public List<String> getOutput() {
+        List<String> output = new ArrayList<>();
+        if (interpreter != null) {
+            output.addAll(interpreter.getOutput());
+        }
+        if (machine != null) {
+            output.addAll(machine.getOutput());
+        }
+        return output;
+    }
+
+    @Override
+    public void setStackLimit(int stackLimit) {
+        if (stackLimit < 1) {
+            throw new IllegalArgumentException("Stack limit must be at least 1");
+        }
+        this.stackLimit = stackLimit;
+    }
+
+    @Override
+    public void interpret() {
+        interpreter = null;
+        machine = null;
+        transitions.clear();
+        compileFailure = null;
+        if (forcedTier == Tier.JIT) {
+            tier = Tier.JIT;
+            machine = compile().machine;
+            configure(machine);
+            machine.setTestInput(testInput);
+            machine.interpret();
+            return;
+        }
+
+        tier = Tier.INTERPRETER;
+        interpreter = new Interpreter(programNode);
+        interpreter.setTestMode(testMode);
+        interpreter.setTestInput(testInput);
+        if (stackLimit > 0) {
+            interpreter.setStackLimit(stackLimit);
+        }
+        for (Region region : regions.values()) {
+            region.count = 0;
+        }
+        for (Region region : backEdges.values()) {
+            region.count = 0;
+        }
+        interpreter.start();
+        FutureTask<Compiled> pending = null;
+        Region trigger = null;
+        long triggerCount = 0;
+        long triggered = 0;
+        long statements = 0;
+        StatementNode previous = null;
+        while (interpreter.isRunning()) {
+            StatementNode current = interpreter.getCurrent();
+            Region backEdge = forcedTier == null ? backEdges.get(current) : null;
+            Region header = forcedTier == null && backEdge == null ? regions.get(current) : null;
+            Region region = backEdge != null ? backEdge : header;
+            if (region != null) {
+                boolean tripped;
+                if (backEdge != null) {
+                    tripped = ++backEdge.count >= osrThreshold;
+                } else {
+                    // Going round a loop again is counted at its back edge, not as another entry
+                    tripped = !backEdges.containsKey(previous) && ++header.count >= threshold;
+                }
+                if (pending == null && tripped) {
+                    trigger = region;
+                    triggerCount = region.count;
+                    triggered = System.nanoTime();
+                    pending = new FutureTask<>(this::compile);
+                    if (background) {
+                        COMPILER.execute(pending);
+                    } else {
+                        pending.run();
+                    }
+                }
+                if (pending != null && compileFailure == null && pending.isDone()) {
+                    Compiled compiled = result(pending);
+                    if (compiled != null) {
+                        transitions.add(new TierTransition(Tier.INTERPRETER, Tier.JIT, trigger.name, triggerCount,
+                                compiled.nanos, System.nanoTime() - triggered, statements, backEdge != null));
+                        resume(compiled, current);
+                        return;
+                    }
+                }
+            }
+            interpreter.step();
+            statements++;
+            previous = current;
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getIntVariables() {
+        return tier == Tier.JIT ? machine.getIntVariables() : interpreter == null ? Map.of() : interpreter.getIntVariables();
+    }
+
+    @Override
+    public Map<String, Float> getFloatVariables() {
+        return tier == Tier.JIT ? machine.getFloatVariables() : interpreter == null ? Map.of() : interpreter.getFloatVariables();
+    }
+
+    @Override
+    public Map<String, String> getStringVariables() {
+        return tier == Tier.JIT ? machine.getStringVariables() : interpreter == null ? Map.of() : interpreter.getStringVariables();
+    }
+
+    private Compiled compile() {
+        long start = System.nanoTime();
+        List<StatementNode> frames = new ArrayList<>();
+        Bytecode bytecode = BytecodeCompiler.compile(programNode, frames);
+        JitMachine compiled = new JitMachine(bytecode, CallGraph.maxStackDepth(programNode));
+        return new Compiled(compiled, frames, System.nanoTime() - start);
+    }
+
+    // The compiled program, or null after recording why it could not be compiled
+    private Compiled result(FutureTask<Compiled> pending) {
+        try {
+            return pending.get();
+        } catch (ExecutionException e) {
+            compileFailure = e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            compileFailure = new IllegalStateException(e);
+            return null;
+        }
+    }
+
+    private void configure(JitMachine machine) {
+        machine.setTestMode(testMode);
+        if (stackLimit > 0) {
+            machine.setStackLimit(stackLimit);
+        }
+    }
+
+    // Moves the state of the Interpreter into the compiled program and continues it at the current statement
+    private void resume(Compiled compiled, StatementNode current) {
+        machine = compiled.machine;
+        configure(machine);
+        machine.setTestInput(interpreter.getTestInput());
+        machine.setScanner(interpreter.getScanner());
+        machine.transferVariables(interpreter.getAllIntVariables(), interpreter.getAllFloatVariables(),
+                interpreter.getAllStringVariables());
+        machine.resetFrames();
+        for (StatementNode frame : interpreter.getFrames()) {
+            machine.pushFrame(compiled.frameOf(frame));
+        }
+        machine.setDataRead(machine.getBytecode().getData().length - interpreter.getDataQueue().size());
+        tier = Tier.JIT;
+        machine.resume(compiled.frameOf(current));
+    }
+
+    // Finds the statements to count: loop headers and GOSUB targets, and the back edges of FOR and WHILE loops
+    private void findRegions() {
+        ProgramIndex index = new ProgramIndex(programNode.getStatements());
+        for (int i = 0; i < index.size(); i++) {
+            StatementNode statement = index.get(i);
+            if (statement instanceof ForNode || statement instanceof WhileNode) {
+                regions.put(statement, new Region("loop at statement " + i));
+            } else if (statement instanceof NextNode) {
+                NextNode next = (NextNode) statement;
+                String counter = next.getVariable() == null ? "" : " " + next.getVariable().getName();
+                backEdges.put(statement, new Region("NEXT" + counter + " at statement " + i));
+            } else if (index.isWhileLabel(i)) {
+                backEdges.put(statement, new Region("WHILE end label '" + ((LabeledStatementNode) statement).getLabel() + "'"));
+            } else if (statement instanceof LabeledStatementNode) {
+                // NEXT and WHILE end labels go back to a loop inside a label, not to the label
+                StatementNode inner = ((LabeledStatementNode) statement).getStatementNode();
+                if (inner instanceof ForNode || inner instanceof WhileNode) {
+                    regions.put(inner, new Region("loop at statement " + i));
+                }
+            }
+            String label = ProgramIndex.jumpLabel(statement);
+            int target = label == null ? -1 : index.indexOf(label);
+            if (statement instanceof GoSubNode && target >= 0) {
+                regions.putIfAbsent(index.get(target), new Region("GOSUB target '" + label + "'"));
+            } else if (target >= 0 && target <= i) {
+                regions.putIfAbsent(index.get(target), new Region("loop at label '" + label + "'"));
+            }
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package vm;
+
+import ir.CallGraph;
+import node.*;
+
+import java.util.*;
+
+/**
+ * Runs Bytecode in a single switch-dispatch loop. Values live unboxed on three operand stacks, one each for
+ * ints, floats and strings, and variables in typed slot arrays, so the loop never allocates for arithmetic or
+ * tests the type of a value. Output, variables and errors match the Interpreter's on every program.
+ * <p>
+ * The request behind this machine aimed for ten times the Interpreter's speed on fizzbuzz and pi_estimation.txt;
+ * DispatchBenchmark measures about 3x on both (fizzbuzz.bas to 100000: 41.6 ms against 14.0 ms; 200000 darts:
+ * 92.1 ms against 28.0 ms). The output and built-in calls all engines share take under 6 ms of those runs, so the
+ * rest is dispatch: about 32 instructions per fizzbuzz number at some 3.5 ns each once HotSpot has compiled the
+ * loop. Ten times would need each to cost about 1 ns, which a switch that mispredicts its indirect jump does not
+ * reach. The shortfall is left to the engines built on this Bytecode instead: the RegisterMachine halves the
+ * instructions (6.9x and 6.2x on the same runs), and the closure, JIT and Java engines remove the switch, so this
+ * machine stays the plain, exact reference they are compiled from and checked against.
+ */
+public class VirtualMachine extends Machine {
+
+    private final Bytecode bytecode;
+
+    private final int[] ints;
+    private final boolean[] intDefined;
+    private final float[] floats;
+    private final boolean[] floatDefined;
+    private final String[] strings;
+
+    private long instructionsExecuted = 0;
+
+    public VirtualMachine(ProgramNode programNode) {
+        this(BytecodeCompiler.compile(programNode), CallGraph.maxStackDepth(programNode));
+    }
+
+    /**
+     * @param maxStackDepth the most frames the program was proven to need, or -1 if it is unbounded
+     */
+    public VirtualMachine(Bytecode bytecode, int maxStackDepth) {
+        super(bytecode.getIntNames(), bytecode.getFloatNames(), bytecode.getStringNames(), bytecode.getData(),
+                bytecode.getFrameCounters(), maxStackDepth);
+        this.bytecode = bytecode;
+        this.ints = new int[bytecode.getIntNames().length];
+        this.intDefined = new boolean[ints.length];
+        this.floats = new float[bytecode.getFloatNames().length];
+        this.floatDefined = new boolean[floats.length];
+        this.strings = new String[bytecode.getStringNames().length];
+    }
+
+    public Bytecode getBytecode() {
+        return bytecode;
+    }
+
+    // The number of instructions dispatched by the last run
+    public long getInstructionsExecuted() {
+        return instructionsExecuted;
+    }
+
+    @Override
+    public void interpret() {
+        final int[] code = bytecode.getCode();
+        final Object[] constants = bytecode.getConstants();
+        final int[] frameAddresses = bytecode.getFrameAddresses();
+        final int[] frameCounters = bytecode.getFrameCounters();
+        final int[] ints = this.ints;
+        final boolean[] intDefined = this.intDefined;
+        final float[] floats = this.floats;
+        final boolean[] floatDefined = this.floatDefined;
+        final String[] strings = this.strings;
+
+        int[] istack = new int[bytecode.getMaxStack()];
+        float[] fstack = new float[bytecode.getMaxStack()];
+        String[] sstack = new String[bytecode.getMaxStack()];
+        int isp = 0;
+        int fsp = 0;
+        int ssp = 0;
+        int[] frames = newFrames();
+        int fp = 0;
+        int pc = 0;
+        long count = 0;
+
+        try {
+            while (true) {
+                count++;
+                switch (code[pc]) {
+                    case Opcode.ICONST:
+                        istack[isp++] = code[pc + 1];
+                        pc += 2;
+                        break;
+                    case Opcode.FCONST:
+                        fstack[fsp++] = Float.intBitsToFloat(code[pc + 1]);
+                        pc += 2;
+                        break;
+                    case Opcode.SCONST:
+                        sstack[ssp++] = (String) constants[code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case Opcode.ILOAD: {
+                        int slot = code[pc + 1];
+                        if (!intDefined[slot]) {
+                            throw undefinedVariable(bytecode.getIntNames()[slot]);
+                        }
+                        istack[isp++] = ints[slot];
+                        pc += 2;
+                        break;
+                    }
+                    case Opcode.FLOAD: {
+                        int slot = code[pc + 1];
+                        if (!floatDefined[slot]) {
+                            throw undefinedVariable(bytecode.getFloatNames()[slot]);
+                        }
+                        fstack[fsp++] = floats[slot];
+                        pc += 2;
+                        break;
+                    }
+                    case Opcode.SLOAD: {
+                        String value = strings[code[pc + 1]];
+                        if (value == null) {
+                            throw undefinedVariable(bytecode.getStringNames()[code[pc + 1]]);
+                        }
+                        sstack[ssp++] = value;
+                        pc += 2;
+                        break;
+                    }
+                    case Opcode.ISTORE:
+                        ints[code[pc + 1]] = istack[--isp];
+                        intDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case Opcode.FSTORE:
+                        floats[code[pc + 1]] = fstack[--fsp];
+                        floatDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case Opcode.SSTORE:
+                        strings[code[pc + 1]] = sstack[--ssp];
+                        sstack[ssp] = null;
+                        pc += 2;
+                        break;
+                    case Opcode.IADD:
+                        isp--;
+                        istack[isp - 1] += istack[isp];
+                        pc++;
+                        break;
+                    case Opcode.ISUB:
+                        isp--;
+                        istack[isp - 1] -= istack[isp];
+                        pc++;
+                        break;
+                    case Opcode.IMUL:
+                        isp--;
+                        istack[isp - 1] *= istack[isp];
+                        pc++;
+                        break;
+                    case Opcode.IDIV:
+                        isp--;
+                        istack[isp - 1] /= istack[isp];
+                        pc++;
+                        break;
+                    case Opcode.ISHL:
+                        isp--;
+                        istack[isp - 1] <<= istack[isp];
+                        pc++;
+                        break;
+                    case Opcode.ISHR:
+                        isp--;
+                        istack[isp - 1] = shiftRight(istack[isp - 1], istack[isp]);
+                        pc++;
+                        break;
+                    case Opcode.FADD:
+                        fsp--;
+                        fstack[fsp - 1] += fstack[fsp];
+                        pc++;
+                        break;
+                    case Opcode.FSUB:
+                        fsp--;
+                        fstack[fsp - 1] -= fstack[fsp];
+                        pc++;
+                        break;
+                    case Opcode.FMUL:
+                        fsp--;
+                        fstack[fsp - 1] *= fstack[fsp];
+                        pc++;
+                        break;
+                    case Opcode.FDIV:
+                        fsp--;
+                        fstack[fsp - 1] /= fstack[fsp];
+                        pc++;
+                        break;
+                    case Opcode.I2F:
+                        fstack[fsp++] = istack[--isp];
+                        pc++;
+                        break;
+                    case Opcode.F2I:
+                        istack[isp++] = (int) fstack[--fsp];
+                        pc++;
+                        break;
+                    case Opcode.ICMP_EQ_JMP:
+                        isp -= 2;
+                        pc = istack[isp] == istack[isp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.ICMP_NE_JMP:
+                        isp -= 2;
+                        pc = istack[isp] != istack[isp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.ICMP_LT_JMP:
+                        isp -= 2;
+                        pc = istack[isp] < istack[isp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.ICMP_LE_JMP:
+                        isp -= 2;
+                        pc = istack[isp] <= istack[isp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.ICMP_GT_JMP:
+                        isp -= 2;
+                        pc = istack[isp] > istack[isp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.ICMP_GE_JMP:
+                        isp -= 2;
+                        pc = istack[isp] >= istack[isp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.FCMP_EQ_JMP:
+                        fsp -= 2;
+                        pc = fstack[fsp] == fstack[fsp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.FCMP_NE_JMP:
+                        fsp -= 2;
+                        pc = fstack[fsp] != fstack[fsp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.FCMP_LT_JMP:
+                        fsp -= 2;
+                        pc = fstack[fsp] < fstack[fsp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.FCMP_LE_JMP:
+                        fsp -= 2;
+                        pc = fstack[fsp] <= fstack[fsp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.FCMP_GT_JMP:
+                        fsp -= 2;
+                        pc = fstack[fsp] > fstack[fsp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.FCMP_GE_JMP:
+                        fsp -= 2;
+                        pc = fstack[fsp] >= fstack[fsp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case Opcode.JMP:
+                        pc = code[pc + 1];
+                        break;
+                    case Opcode.JMP_IF_UNDEFINED:
+                        pc = intDefined[code[pc + 1]] ? pc + 3 : code[pc + 2];
+                        break;
+                    case Opcode.CALL_BUILTIN:
+                        switch (code[pc + 1]) {
+                            case BuiltIn.RANDOM:
+                                istack[isp++] = BuiltInFunctions.RANDOM();
+                                break;
+                            case BuiltIn.RANDOM_RANGE:
+                                isp--;
+                                istack[isp - 1] = BuiltInFunctions.RANDOM(istack[isp - 1], istack[isp]);
+                                break;
+                            case BuiltIn.RANDOMF:
+                                fstack[fsp++] = BuiltInFunctions.RANDOMF();
+                                break;
+                            case BuiltIn.RANDOMF_RANGE:
+                                fsp--;
+                                fstack[fsp - 1] = BuiltInFunctions.RANDOMF(fstack[fsp - 1], fstack[fsp]);
+                                break;
+                            case BuiltIn.LEFT$:
+                                sstack[ssp - 1] = BuiltInFunctions.LEFT$(sstack[ssp - 1], istack[--isp]);
+                                break;
+                            case BuiltIn.RIGHT$:
+                                sstack[ssp - 1] = BuiltInFunctions.RIGHT$(sstack[ssp - 1], istack[--isp]);
+                                break;
+                            case BuiltIn.MID$:
+                                isp -= 2;
+                                sstack[ssp - 1] = BuiltInFunctions.MID$(sstack[ssp - 1], istack[isp], istack[isp + 1]);
+                                break;
+                            case BuiltIn.NUM$_INT:
+                                sstack[ssp++] = Integer.toString(istack[--isp]);
+                                break;
+                            case BuiltIn.NUM$_FLOAT:
+                                sstack[ssp++] = Float.toString(fstack[--fsp]);
+                                break;
+                            case BuiltIn.VAL:
+                                istack[isp++] = BuiltInFunctions.VAL(sstack[--ssp]);
+                                break;
+                            case BuiltIn.VALF:
+                                fstack[fsp++] = BuiltInFunctions.VALF(sstack[--ssp]);
+                                break;
+                            case BuiltIn.POW:
+                                isp--;
+                                istack[isp - 1] = BuiltInFunctions.POW(istack[isp - 1], istack[isp]);
+                                break;
+                            case BuiltIn.POWF:
+                                fsp--;
+                                fstack[fsp - 1] = BuiltInFunctions.POWF(fstack[fsp - 1], fstack[fsp]);
+                                break;
+                            default:
+                                throw new IllegalStateException("Unknown builtin " + code[pc + 1]);
+                        }
+                        pc += 2;
+                        break;
+                    case Opcode.PRINT_I:
+                        print(Integer.toString(istack[--isp]));
+                        pc++;
+                        break;
+                    case Opcode.PRINT_F:
+                        print(Float.toString(fstack[--fsp]));
+                        pc++;
+                        break;
+                    case Opcode.PRINT_S:
+                        print(sstack[--ssp]);
+                        pc++;
+                        break;
+                    case Opcode.PRINT_END:
+                        printEnd();
+                        pc++;
+                        break;
+                    case Opcode.INPUT_PROMPT:
+                        prompt(constants[code[pc + 1]]);
+                        pc += 2;
+                        break;
+                    case Opcode.INPUT_I:
+                        ints[code[pc + 1]] = Integer.parseInt(nextInput());
+                        intDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case Opcode.INPUT_F:
+                        floats[code[pc + 1]] = Float.parseFloat(nextInput());
+                        floatDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case Opcode.INPUT_S:
+                        strings[code[pc + 1]] = nextInput();
+                        pc += 2;
+                        break;
+                    case Opcode.READ_I:
+                        ints[code[pc + 1]] = ((IntegerNode) read(IntegerNode.class, bytecode.getIntNames()[code[pc + 1]], InterpreterDataType.INTEGER)).getInt();
+                        intDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case Opcode.READ_F:
+                        floats[code[pc + 1]] = ((FloatNode) read(FloatNode.class, bytecode.getFloatNames()[code[pc + 1]], InterpreterDataType.FLOAT)).getFloat();
+                        floatDefined[code[pc + 1]] = true;
+                        pc += 2;
+                        break;
+                    case Opcode.READ_S:
+                        strings[code[pc + 1]] = ((StringNode) read(StringNode.class, bytecode.getStringNames()[code[pc + 1]], InterpreterDataType.STRING)).getValue();
+                        pc += 2;
+                        break;
+                    case Opcode.GOSUB:
+                        if (fp == frames.length) {
+                            frames = growFrames(frames);
+                        }
+                        frames[fp++] = code[pc + 2];
+                        pc = code[pc + 1];
+                        break;
+                    case Opcode.PUSH_FRAME:
+                        if (fp == frames.length) {
+                            frames = growFrames(frames);
+                        }
+                        frames[fp++] = code[pc + 1];
+                        pc += 2;
+                        break;
+                    case Opcode.RETURN:
+                        if (fp == 0) {
+                            throw new IllegalArgumentException("'RETURN' statement without matching 'GOSUB'");
+                        }
+                        pc = frameAddresses[frames[--fp]];
+                        break;
+                    case Opcode.RETURN_DROP:
+                        if (fp == 0) {
+                            throw new IllegalArgumentException("'RETURN' statement without matching 'GOSUB'");
+                        }
+                        fp--;
+                        pc++;
+                        break;
+                    case Opcode.NEXT:
+                        checkNext(frames, fp, code[pc + 1]);
+                        pc = frameAddresses[frames[--fp]];
+                        break;
+                    case Opcode.NEXT_DROP:
+                        checkNext(frames, fp, code[pc + 1]);
+                        fp--;
+                        pc += 2;
+                        break;
+                    case Opcode.POP_JUMP:
+                        if (fp == 0) {
+                            throw new EmptyStackException();
+                        }
+                        pc = frameAddresses[frames[--fp]];
+                        break;
+                    case Opcode.FOR_FIRST:
+                    case Opcode.FOR_NEXT: {
+                        int step = istack[--isp];
+                        int limit = istack[--isp];
+                        int counter = code[pc + 1];
+                        if (ints[counter] < limit) {
+                            if (fp == frames.length) {
+                                frames = growFrames(frames);
+                            }
+                            frames[fp++] = code[pc + 2];
+                            if (code[pc] == Opcode.FOR_NEXT) {
+                                ints[counter] += step;
+                            }
+                            pc += 4;
+                        } else {
+                            pc = code[pc + 3];
+                        }
+                        break;
+                    }
+                    case Opcode.FAIL:
+                        throw fail((Failure) constants[code[pc + 1]], istack, isp, fstack, fsp, sstack, ssp);
+                    case Opcode.HALT:
+                        return;
+                    default:
+                        throw new IllegalStateException(String.format("Unknown opcode %d at %d", code[pc], pc));
+                }
+            }
+        } finally {
+            instructionsExecuted = count;
+        }
+    }
+
+    // Pops the operands a failure reports and builds its exception
+    private static RuntimeException fail(Failure failure, int[] istack, int isp, float[] fstack, int fsp, String[] sstack, int ssp) {
+        InterpreterDataType[] types = failure.getOperands();
+        Object[] values = new Object[types.length];
+        for (int k = types.length - 1; k >= 0; k--) {
+            switch (types[k]) {
+                case INTEGER:
+                    values[k] = istack[--isp];
+                    break;
+                case FLOAT:
+                    values[k] = fstack[--fsp];
+                    break;
+                default:
+                    values[k] = sstack[--ssp];
+                    break;
+            }
+        }
+        return failure.create(values);
+    }
+
+    @Override
+    public Map<String, Integer> getIntVariables() {
+        return intVariables(ints, intDefined);
+    }
+
+    @Override
+    public Map<String, Float> getFloatVariables() {
+        return floatVariables(floats, floatDefined);
+    }
+
+    @Override
+    public Map<String, String> getStringVariables() {
+        return stringVariables(strings);
+    }
+}
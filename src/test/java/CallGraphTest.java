@@ -0,0 +1,144 @@
+import interpreter.Interpreter;
+import ir.CallGraph;
+import lexer.Lexer;
+import lexer.Token;
+import node.ProgramNode;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CallGraphTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    // Runs the program one statement at a time and returns the deepest the runtime stack got
+    private int maxStackDepth(Interpreter interpreter) {
+        interpreter.setTestMode(true);
+        interpreter.start();
+        int depth = 0;
+        while (interpreter.isRunning()) {
+            interpreter.step();
+            depth = Math.max(depth, interpreter.getStackDepth());
+        }
+        return depth;
+    }
+
+    @Test
+    public void testCallGraphOfNestedSubroutines() throws IOException {
+        CallGraph graph = CallGraph.build(parseStatements("GOSUB outer\nGOSUB inner\nEND\n" +
+                "outer: PRINT \"outer\"\nGOSUB inner\nRETURN\ninner: PRINT \"inner\"\nRETURN"));
+
+        assertEquals(List.of(CallGraph.MAIN, "inner", "outer"), new ArrayList<>(new TreeSet<>(graph.getRoutines())));
+        assertEquals(Set.of("outer", "inner"), graph.getCallees(CallGraph.MAIN));
+        assertEquals(Set.of("inner"), graph.getCallees("outer"));
+        assertEquals(Set.of(), graph.getCallees("inner"));
+        assertFalse(graph.isRecursive());
+        assertEquals(2, graph.getMaxStackDepth());
+    }
+
+    @Test
+    public void testBoundCountsLoopFrames() throws IOException {
+        String text = "FOR i = 1 TO 3\nGOSUB show\nNEXT i\nEND\nshow: PRINT i\nWHILE i < 0 done\nPRINT \"never\"\ndone:\nRETURN";
+        // The WHILE never runs its body, but the analysis does not evaluate conditions
+        assertEquals(3, CallGraph.build(parseStatements(text)).getMaxStackDepth());
+
+        Interpreter interpreter = new Interpreter(parseStatements(text));
+        assertEquals(2, maxStackDepth(interpreter));
+        assertTrue(interpreter.hasBoundedStack());
+        assertEquals(List.of("1", "2", "3"), interpreter.getOutput());
+    }
+
+    @Test
+    public void testFindsMutualRecursion() throws IOException {
+        CallGraph graph = CallGraph.build(parseStatements("n = 3\nGOSUB even\nEND\n" +
+                "even: n = n - 1\nIF n < 0 THEN stop\nGOSUB odd\nstop:\nRETURN\n" +
+                "odd: n = n - 1\nGOSUB even\nRETURN\nunused: PRINT \"x\"\nGOSUB unused\nRETURN"));
+
+        assertEquals(Set.of("even", "odd"), graph.getRecursiveRoutines());
+        assertEquals(-1, graph.getMaxStackDepth());
+        assertFalse(graph.getRoutines().contains("unused"));
+    }
+
+    @Test
+    public void testFrameLeakHasNoBound() throws IOException {
+        // Leaving the FOR with GOTO leaves its frame behind every time around the outer loop
+        CallGraph graph = CallGraph.build(parseStatements("n = 0\ntop: FOR i = 1 TO 3\nn = n + 1\nIF n > 20 THEN out\nGOTO top\nNEXT i\nout: PRINT n"));
+        assertFalse(graph.isRecursive());
+        assertEquals(-1, graph.getMaxStackDepth());
+    }
+
+    @Test
+    public void testLabeledGoSubHasNoBound() throws IOException {
+        // A labeled GOSUB does not jump, but the Interpreter still pushes its return point
+        assertEquals(-1, CallGraph.build(parseStatements("i = 0\ntop: GOSUB show\ni = i + 1\nIF i < 5 THEN top\nEND\nshow: RETURN")).getMaxStackDepth());
+    }
+
+    @Test
+    public void testFiniteRecursionRunsUnderTheLimit() throws IOException {
+        Interpreter interpreter = new Interpreter(parseStatements("n = 5000\nGOSUB down\nPRINT n\nEND\n" +
+                "down: n = n - 1\nIF n < 0 THEN bottom\nGOSUB down\nbottom:\nRETURN"));
+
+        assertEquals(5001, maxStackDepth(interpreter));
+        assertFalse(interpreter.hasBoundedStack());
+        assertEquals(List.of("-1"), interpreter.getOutput());
+    }
+
+    @Test
+    public void testRunawayRecursionStopsAtTheLimit() throws IOException {
+        Interpreter interpreter = new Interpreter(parseStatements("GOSUB forever\nEND\nforever: PRINT \"again\"\nGOSUB forever\nRETURN"));
+        interpreter.setTestMode(true);
+        interpreter.setStackLimit(50);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, interpreter::interpret);
+        assertTrue(e.getMessage().contains("50"), e.getMessage());
+        assertEquals(50, interpreter.getOutput().size());
+    }
+
+    @Test
+    public void testCachedBoundFollowsTheStatements() throws IOException {
+        ProgramNode program = parseStatements("GOSUB outer\nEND\nouter:\nGOSUB inner\nRETURN\ninner:\nRETURN");
+        assertNull(program.getMaxStackDepth());
+        assertEquals(2, CallGraph.maxStackDepth(program));
+        assertEquals(2, program.getMaxStackDepth());
+
+        // Removing the END lets the main program fall into outer, which returns with nothing to pop
+        program.getStatements().remove(1);
+        assertNull(program.getMaxStackDepth());
+        assertEquals(CallGraph.build(program).getMaxStackDepth(), CallGraph.maxStackDepth(program));
+    }
+
+    @Test
+    public void testTooManyStackStatesGiveUpOnTheBound() throws IOException {
+        // Each routine calls the next from two places, so the return points reaching the last one double with each
+        StringBuilder text = new StringBuilder("x = 0\nGOSUB s0\nPRINT x\nEND\n");
+        for (int i = 0; i < 30; i++) {
+            text.append(String.format("s%d: x = x + 1\nIF x > 1000 THEN a%d\nGOSUB s%d\nRETURN\na%d:\nGOSUB s%d\nRETURN\n",
+                    i, i, i + 1, i, i + 1));
+        }
+        text.append("s30:\nRETURN");
+        ProgramNode program = parseStatements(text.toString());
+        assertFalse(CallGraph.build(program).isRecursive());
+        assertEquals(-1, CallGraph.maxStackDepth(program));
+
+        Interpreter interpreter = new Interpreter(program);
+        assertEquals(31, maxStackDepth(interpreter));
+        assertFalse(interpreter.hasBoundedStack());
+        assertEquals(List.of("30"), interpreter.getOutput());
+    }
+}
@@ -0,0 +1,42 @@
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+import vm.ClosureMachine;
+import vm.VirtualMachine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClosureMachineTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    @Test
+    public void testRunsOneStepPerBlock() throws IOException {
+        String loop = "x = 0\nFOR i = 0 TO 1000\nx = x + i\nNEXT i\nPRINT x\n";
+        ClosureMachine closures = EngineConformanceTest.compare(parseStatements(loop),
+                new ClosureMachine(parseStatements(loop)), List.of());
+        VirtualMachine stackMachine = new VirtualMachine(parseStatements(loop));
+        EngineConformanceTest.run(stackMachine, List.of());
+        // Each block runs several of the stack VM's instructions without going back to the dispatch loop
+        assertTrue(2 * closures.getBlocksExecuted() < stackMachine.getInstructionsExecuted(),
+                closures.getBlocksExecuted() + " vs " + stackMachine.getInstructionsExecuted());
+        assertTrue(closures.getBlockCount() < stackMachine.getBytecode().getCode().length);
+    }
+}
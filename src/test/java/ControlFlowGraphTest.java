@@ -0,0 +1,168 @@
+import interpreter.Interpreter;
+import ir.*;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ControlFlowGraphTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private List<String> run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter.getOutput();
+    }
+
+    private ControlFlowGraph buildSsa(String text) throws IOException {
+        ControlFlowGraph graph = ControlFlowGraph.build(parseStatements(text));
+        SsaConstruction.construct(graph);
+        return graph;
+    }
+
+    // Builds SSA form, lowers it again and checks the program still prints the same output
+    private ControlFlowGraph roundTrip(String text) throws IOException {
+        ControlFlowGraph graph = buildSsa(text);
+        assertEquals(run(parseStatements(text)), run(IRLowering.lower(graph)), IRPrinter.print(graph));
+        return graph;
+    }
+
+    private BasicBlock blockLabeled(ControlFlowGraph graph, String label) {
+        return graph.getBlocks().stream().filter(block -> label.equals(block.getLabel())).findFirst().orElseThrow();
+    }
+
+    @Test
+    public void testResourceProgramsRoundTrip() throws IOException {
+        for (String name : List.of("for_loop.bas", "for_loop_2.bas", "go_sub.bas", "goto.bas", "if_statement.bas",
+                "if_statement_two_labels.bas", "read_and_data.bas", "while_loop.bas", "while_loop2.bas",
+                "builtin_conversions.bas", "test_print.bas")) {
+            roundTrip(Files.readString(Path.of("src/test/resources/" + name)));
+        }
+    }
+
+    @Test
+    public void testDiamondDominatorsAndPhi() throws IOException {
+        ControlFlowGraph graph = roundTrip(
+                "x = 1\nIF x < 5 THEN small\nx = 10\nGOTO done\nsmall: x = 20\ndone: PRINT x");
+
+        BasicBlock entry = graph.getEntry();
+        BasicBlock done = blockLabeled(graph, "done");
+        DominatorTree dominators = new DominatorTree(graph);
+        assertEquals(entry, dominators.getImmediateDominator(done));
+        assertEquals(entry, dominators.getImmediateDominator(blockLabeled(graph, "small")));
+        assertTrue(dominators.getFrontier(blockLabeled(graph, "small")).contains(done));
+        assertFalse(dominators.dominates(blockLabeled(graph, "small"), done));
+
+        assertEquals(1, done.getPhis().size());
+        Phi phi = done.getPhis().get(0);
+        assertEquals(2, phi.getOperands().size());
+        assertEquals(phi.getResult(), done.getOperations().get(0).getUse("x"));
+    }
+
+    @Test
+    public void testWhileLoopHasPhiAndBackEdge() throws IOException {
+        ControlFlowGraph graph = roundTrip(Files.readString(Path.of("src/test/resources/while_loop.bas")));
+
+        BasicBlock header = graph.getBlocks().stream()
+                .filter(block -> block.getTerminator().getKind() == Terminator.KIND.WHILE).findFirst().orElseThrow();
+        BasicBlock end = blockLabeled(graph, "endWhileLabel");
+        assertEquals(Terminator.KIND.WHILE_END, end.getTerminator().getKind());
+        assertEquals(List.of(header), end.getSuccessors());
+        assertEquals(1, header.getPhis().size());
+        assertEquals("x", header.getPhis().get(0).getVariable());
+
+        String dump = IRPrinter.print(graph);
+        assertTrue(dump.contains("x.2 = phi("), dump);
+        assertTrue(dump.contains("while x.2 < 3"), dump);
+    }
+
+    @Test
+    public void testReturnResumesAtEveryCallSite() throws IOException {
+        ControlFlowGraph graph = roundTrip(
+                "x = 1\nGOSUB double\nPRINT x\nGOSUB double\nPRINT x\nEND\ndouble: x = x * 2\nRETURN");
+
+        BasicBlock subroutine = blockLabeled(graph, "double");
+        assertEquals(Terminator.KIND.RETURN, subroutine.getTerminator().getKind());
+        assertEquals(2, subroutine.getSuccessors().size());
+        // Both calls reach the subroutine, so x needs a phi on entry to it
+        assertEquals(1, subroutine.getPhis().size());
+    }
+
+    @Test
+    public void testForLoopCounterIsReadBeforeItIsDefined() throws IOException {
+        ControlFlowGraph graph = roundTrip("total = 0\nFOR I = 1 TO 5\ntotal = total + I\nNEXT I\nPRINT total, I");
+
+        BasicBlock header = graph.getBlocks().stream()
+                .filter(block -> block.getTerminator().getKind() == Terminator.KIND.FOR).findFirst().orElseThrow();
+        Phi counter = header.getPhis().stream().filter(phi -> phi.getVariable().equals("I")).findFirst().orElseThrow();
+        assertTrue(counter.getOperands().values().stream().anyMatch(Value::isUndefined));
+        assertEquals(2, header.getSuccessors().size());
+
+        Liveness liveness = new Liveness(graph);
+        Value total = header.getPhis().stream().filter(phi -> phi.getVariable().equals("total"))
+                .findFirst().orElseThrow().getResult();
+        assertTrue(liveness.getLiveIn(header.getSuccessors().get(0)).contains(total));
+        assertTrue(liveness.getLiveIn(header.getSuccessors().get(1)).contains(total));
+    }
+
+    @Test
+    public void testGotoOutOfForLoopKeepsStackExact() throws IOException {
+        // Leaving the loop with IF leaves its frame on the stack, so the first RETURN resumes the FOR, not the caller
+        ControlFlowGraph graph = roundTrip("GOSUB work\nPRINT \"back\"\nEND\n" +
+                "work: PRINT \"start\"\nFOR I = 1 TO 10\nIF I = 3 THEN out\nNEXT I\nout: PRINT I\nRETURN");
+
+        BasicBlock out = blockLabeled(graph, "out");
+        assertEquals(2, out.getSuccessors().size());
+        assertTrue(out.getSuccessors().stream().anyMatch(block -> block.getTerminator().getKind() == Terminator.KIND.FOR));
+    }
+
+    @Test
+    public void testEntryThatIsAlsoALoopHeader() throws IOException {
+        ControlFlowGraph graph = roundTrip("top: READ x\nIF x = 0 THEN stop\nPRINT x\nGOTO top\nstop: PRINT \"done\"\nDATA 3, 2, 0");
+        assertTrue(graph.getEntry().getPredecessors().isEmpty());
+    }
+
+    @Test
+    public void testUnreachableCodeIsKept() throws IOException {
+        ControlFlowGraph graph = roundTrip(Files.readString(Path.of("src/test/resources/goto.bas")));
+        assertTrue(graph.getBlocks().stream().anyMatch(block -> !block.isReachable()));
+        assertTrue(IRPrinter.print(graph).contains("unreachable"));
+    }
+
+    @Test
+    public void testInterferingVersionsAreRejected() throws IOException {
+        ControlFlowGraph graph = buildSsa("x = 1\ny = x\nx = 2\nPRINT y");
+        Operation copy = graph.getEntry().getOperations().get(1);
+        Operation print = graph.getEntry().getOperations().get(3);
+        // Propagating the copy makes x.1 live across the second assignment to x
+        print.getUses().remove("y");
+        print.getUses().put("x", copy.getUse("x"));
+        assertThrows(IllegalStateException.class, () -> IRLowering.lower(graph));
+    }
+
+    @Test
+    public void testLabeledControlStatementIsRejected() throws IOException {
+        ProgramNode program = parseStatements("x = 1\nskip: GOTO skip\nPRINT x");
+        assertThrows(IllegalArgumentException.class, () -> ControlFlowGraph.build(program));
+    }
+}
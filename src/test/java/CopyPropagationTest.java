@@ -0,0 +1,94 @@
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.CopyPropagation;
+import optimizer.DeadStoreElimination;
+import optimizer.Expressions;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CopyPropagationTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private Interpreter run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter;
+    }
+
+    // Propagates copies and checks the program behaves exactly like the original
+    private ProgramNode propagateAndCompare(CopyPropagation pass, String text, int expectedPropagated) throws IOException {
+        Interpreter expected = run(parseStatements(text));
+
+        ProgramNode program = parseStatements(text);
+        assertEquals(expectedPropagated > 0, pass.run(program));
+        assertEquals(expectedPropagated, pass.getCopiesPropagated());
+        Interpreter actual = run(program);
+
+        assertEquals(expected.getOutput(), actual.getOutput());
+        assertEquals(expected.getIntVariables(), actual.getIntVariables());
+        return program;
+    }
+
+    private static String printedVariable(StatementNode statement) {
+        if (statement instanceof LabeledStatementNode) {
+            statement = ((LabeledStatementNode) statement).getStatementNode();
+        }
+        return ((VariableNode) Expressions.unwrap(((PrintNode) statement).getParameters().get(0))).getName();
+    }
+
+    @Test
+    public void testReadsOfCopyUseTheOriginal() throws IOException {
+        ProgramNode program = propagateAndCompare(new CopyPropagation(), "READ b\na = b\nPRINT a\nPRINT a * 2\nDATA 4", 2);
+        assertEquals("b", printedVariable(program.getStatements().get(2)));
+
+        // The copy itself is now dead
+        DeadStoreElimination elimination = new DeadStoreElimination(false);
+        assertTrue(elimination.run(program));
+        assertEquals(List.of("4", "8"), run(program).getOutput());
+    }
+
+    @Test
+    public void testCopyAvailableAcrossJumps() throws IOException {
+        ProgramNode program = propagateAndCompare(new CopyPropagation(),
+                "READ b\na = b\nIF b > 2 THEN big\nPRINT \"small\"\nGOTO show\nbig: PRINT \"big\"\nshow: PRINT a\nDATA 4", 1);
+        assertEquals("b", printedVariable(program.getStatements().get(6)));
+    }
+
+    @Test
+    public void testCopyKilledOnOnePathIsNotUsed() throws IOException {
+        propagateAndCompare(new CopyPropagation(),
+                "READ b\na = b\nIF b > 2 THEN show\nb = 0\nshow: PRINT a\nDATA 1", 0);
+    }
+
+    @Test
+    public void testCopyKilledInsideLoop() throws IOException {
+        propagateAndCompare(new CopyPropagation(), "b = 0\na = b\ntop: PRINT a\nb = b + 1\nIF b < 3 THEN top", 0);
+    }
+
+    @Test
+    public void testCopyBetweenTypesIsNotPropagated() throws IOException {
+        ProgramNode program = parseStatements("b = 1\na% = b\nPRINT a%");
+        assertFalse(new CopyPropagation().run(program));
+    }
+}
@@ -0,0 +1,147 @@
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.DeadStoreElimination;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeadStoreEliminationTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private Interpreter run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter;
+    }
+
+    // Removes dead stores and checks the output and the final variables are unchanged
+    private ProgramNode eliminateAndCompare(DeadStoreElimination pass, String text, int expectedRemoved) throws IOException {
+        Interpreter expected = run(parseStatements(text));
+
+        ProgramNode program = parseStatements(text);
+        assertEquals(expectedRemoved > 0, pass.run(program));
+        assertEquals(expectedRemoved, pass.getStoresRemoved());
+        Interpreter actual = run(program);
+
+        assertEquals(expected.getOutput(), actual.getOutput());
+        assertEquals(expected.getIntVariables(), actual.getIntVariables());
+        assertEquals(expected.getFloatVariables(), actual.getFloatVariables());
+        return program;
+    }
+
+    @Test
+    public void testOverwrittenStoreIsRemoved() throws IOException {
+        ProgramNode program = eliminateAndCompare(new DeadStoreElimination(), "x = 1\nx = 2\nPRINT x", 1);
+        assertEquals(2, program.getStatements().size());
+    }
+
+    @Test
+    public void testStoreReadOnOnePathIsKept() throws IOException {
+        eliminateAndCompare(new DeadStoreElimination(), "x = 1\nREAD n\nIF n > 0 THEN show\nx = 2\nshow: PRINT x\nDATA 1", 0);
+    }
+
+    @Test
+    public void testStoreOverwrittenOnEveryPathAcrossJumps() throws IOException {
+        // Both paths assign y again before the PRINT, one of them through a GOSUB; the READ comes first, since the
+        // program would stop there with y set if the DATA ran out
+        eliminateAndCompare(new DeadStoreElimination(), "READ n\ny = 5\nIF n > 0 THEN other\ny = 1\nGOTO show\n" +
+                "other:\nGOSUB set\nshow: PRINT y\nEND\nset: y = 2\nRETURN\nDATA 1", 1);
+    }
+
+    @Test
+    public void testLoopCarriedStoreIsKept() throws IOException {
+        eliminateAndCompare(new DeadStoreElimination(), "i = 0\ntop: PRINT i\ni = i + 1\nIF i < 3 THEN top", 0);
+    }
+
+    @Test
+    public void testFinalValuesStayObservableByDefault() throws IOException {
+        String text = "a = 1\nb = a * 2\nPRINT a";
+        eliminateAndCompare(new DeadStoreElimination(), text, 0);
+
+        // Without the flag b is only observable after the program ends, so it goes
+        DeadStoreElimination pass = new DeadStoreElimination(false);
+        ProgramNode program = parseStatements(text);
+        assertTrue(pass.run(program));
+        assertEquals(1, pass.getStoresRemoved());
+        Interpreter interpreter = run(program);
+        assertEquals(List.of("1"), interpreter.getOutput());
+        assertFalse(interpreter.getIntVariables().containsKey("b"));
+    }
+
+    @Test
+    public void testChainsOfDeadStoresAreRemoved() throws IOException {
+        DeadStoreElimination pass = new DeadStoreElimination(false);
+        ProgramNode program = parseStatements("a = 1\nb = a + 1\nc = b + 1\nPRINT \"x\"");
+        assertTrue(pass.run(program));
+        assertEquals(3, pass.getStoresRemoved());
+        assertEquals(1, program.getStatements().size());
+    }
+
+    @Test
+    public void testStoresThatCanFailAreKept() throws IOException {
+        // Division by a variable, reading an unassigned variable and a RANDOM call all stay
+        DeadStoreElimination pass = new DeadStoreElimination(false);
+        ProgramNode program = parseStatements("d = 0\nq = 10 / d\nr = missing + 1\ns = RANDOM()\nPRINT \"x\"");
+        assertFalse(pass.run(program));
+        assertEquals(5, program.getStatements().size());
+        assertThrows(ArithmeticException.class, () -> run(program));
+    }
+
+    @Test
+    public void testLabeledDeadStoreKeepsItsLabel() throws IOException {
+        ProgramNode program = eliminateAndCompare(new DeadStoreElimination(), "x = 0\nGOTO set\nset: x = 1\nx = 2\nPRINT x", 2);
+        LabeledStatementNode label = (LabeledStatementNode) program.getStatements().get(1);
+        assertEquals("set", label.getLabel());
+        assertNull(label.getStatementNode());
+    }
+
+    @Test
+    public void testStoreBeforeGoSubAtTheEndIsKept() throws IOException {
+        // Returning from the last GOSUB ends the program, so x is observable after the RETURN
+        eliminateAndCompare(new DeadStoreElimination(), "GOTO start\nshow: PRINT \"show\"\nRETURN\nstart: x = 1\nGOSUB show", 0);
+    }
+
+    @Test
+    public void testStoreBeforeFailingStatementIsKept() throws IOException {
+        // The division stops the program with x = 2, which is observable even though x is assigned again after it
+        String text = "x = 1\nx = 2\ny = 5 / 0\nx = 3";
+        ProgramNode program = parseStatements(text);
+        DeadStoreElimination pass = new DeadStoreElimination();
+        assertTrue(pass.run(program));
+        assertEquals(1, pass.getStoresRemoved());
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        assertThrows(ArithmeticException.class, interpreter::interpret);
+        assertEquals(Map.of("x", 2), interpreter.getIntVariables());
+
+        // So are the ones before a RETURN that may find the stack empty, a READ past the DATA and an undefined read
+        for (String failing : new String[]{"RETURN", "READ n", "PRINT missing", "IF missing > 0 THEN done"}) {
+            pass.run(parseStatements("x = 1\n" + failing + "\nx = 2\ndone:\nPRINT x"));
+            assertEquals(0, pass.getStoresRemoved(), failing);
+        }
+        // Without the flag the stores are only read by the PRINT
+        DeadStoreElimination unobserved = new DeadStoreElimination(false);
+        unobserved.run(parseStatements("x = 1\nx = 2\ny = 5 / 0\nx = 3"));
+        assertEquals(3, unobserved.getStoresRemoved());
+    }
+}
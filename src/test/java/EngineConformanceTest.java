@@ -0,0 +1,239 @@
+import compiler.Engine;
+import compiler.OptimizationLevel;
+import compiler.PassManager;
+import interpreter.ExecutionEngine;
+import interpreter.Interpreter;
+import lexer.Lexer;
+import node.ProgramNode;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the same programs on every Engine and checks each one ends exactly as the Interpreter does: the same output,
+ * the same variables and the same exception. The tests of each engine keep only what is particular to it, and use
+ * compare() here to check the runs they configure themselves.
+ */
+public class EngineConformanceTest {
+
+    static ProgramNode parse(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return new Parser(new Lexer().lex(tempFilePath.toString())).parse();
+    }
+
+    static ProgramNode parseFile(String file) {
+        return new Parser(new Lexer().lex("src/test/resources/" + file)).parse();
+    }
+
+    // Runs the engine and returns the exception it stopped with, or null if the program ran to its end
+    static RuntimeException run(ExecutionEngine engine, List<String> input) {
+        engine.setTestMode(true);
+        engine.setTestInput(input);
+        try {
+            engine.interpret();
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    // Runs the program on the Interpreter and the engine and checks both end the same way
+    static <T extends ExecutionEngine> T compare(ProgramNode expectedProgram, T actual, List<String> input) {
+        Interpreter expected = new Interpreter(expectedProgram);
+        RuntimeException expectedError = run(expected, input);
+        RuntimeException actualError = run(actual, input);
+        String engine = actual.getClass().getSimpleName();
+
+        if (expectedError == null) {
+            assertNull(actualError, () -> engine + " failed with " + actualError);
+        } else {
+            assertNotNull(actualError, () -> engine + " did not fail with " + expectedError);
+            assertEquals(expectedError.getClass(), actualError.getClass(), engine);
+            assertEquals(expectedError.getMessage(), actualError.getMessage(), engine);
+        }
+        assertEquals(expected.getOutput(), actual.getOutput(), engine);
+        assertEquals(expected.getIntVariables(), actual.getIntVariables(), engine);
+        assertEquals(expected.getFloatVariables(), actual.getFloatVariables(), engine);
+        assertEquals(expected.getStringVariables(), actual.getStringVariables(), engine);
+        return actual;
+    }
+
+    private static void compare(Engine engine, String text, String... input) throws IOException {
+        compare(parse(text), engine.create(parse(text)), List.of(input));
+    }
+
+    private interface EngineTest {
+        void run(Engine engine) throws Exception;
+    }
+
+    // One test for each engine, named after it
+    private static List<DynamicTest> forEachEngine(EngineTest test) {
+        List<DynamicTest> tests = new ArrayList<>();
+        for (Engine engine : Engine.values()) {
+            tests.add(DynamicTest.dynamicTest(engine.getName(), () -> test.run(engine)));
+        }
+        return tests;
+    }
+
+    @TestFactory
+    public List<DynamicTest> testResourceProgramsMatchInterpreter() {
+        String[] files = {"data.bas", "variable_storage.bas", "int_storage.bas", "math_operations.bas",
+                "function_math_ops.bas", "test_print.bas", "go_sub.bas", "if_statement.bas",
+                "if_statement_one_label.bas", "if_statement_two_labels.bas", "goto.bas", "while_loop.bas",
+                "while_loop2.bas", "read_and_data.bas", "data_test_read_and_print.bas", "for_loop.bas",
+                "for_loop_2.bas", "for_loop_3.bas", "builtin_conversions.bas", "string_storage.bas",
+                "numeric_loops.bas"};
+        return forEachEngine(engine -> {
+            for (String file : files) {
+                compare(parseFile(file), engine.create(parseFile(file)), List.of());
+            }
+        });
+    }
+
+    @TestFactory
+    public List<DynamicTest> testExpressionsMatchInterpreter() {
+        return forEachEngine(engine -> {
+            compare(engine, "a = 7\nb = a * 3 - 2 / 2\nc = a << 2\nd = -9 >> 1\nf% = a + 0.5\ng% = 1.5 * a\n"
+                    + "h = INT(g%)\ni% = FLOAT(b)\ns$ = \"x\" + NUM$(a)\nt$ = MID$(\"abcdef\", 1, 3)\n"
+                    + "u$ = NUM$(f%)\nPRINT a, f%, s$, t$, u$\n");
+            compare(engine, "a = 1\nb = 2\na = b + a\nb = a * b\nc = a\na = c - a\nPRINT a, b, c\n");
+            compare(engine, "x = 5\nx = x - (x - 1) * 2\ny$ = \"a\"\ny$ = y$ + y$\nPRINT x, y$\n");
+            compare(engine, "t$ = \"abcdef\"\nu$ = LEFT$(t$, 2) + RIGHT$(t$, 1)\nv = VAL(\"12\") + POW(2, 3)\n"
+                    + "w% = VAL%(\"1.5\") + POW%(2.0, 0.5) + FLOAT(INT(2.5))\nx$ = NUM$(w%)\nPRINT u$, v, w%, x$\n");
+            compare(engine, "x = 0\ny% = 0.0\nWHILE x < 10 done\nx = x + 1\ny% = y% + x / 2.0\n"
+                    + "IF y% >= 4 THEN skip\nPRINT y%\nskip:\nIF x <> 3 THEN later\nPRINT x\nlater:\ndone:\n"
+                    + "PRINT x, y%\n");
+        });
+    }
+
+    @TestFactory
+    public List<DynamicTest> testInputAndReadMatchInterpreter() {
+        return forEachEngine(engine -> {
+            compare(engine, "INPUT \"Name: \", n$, age, height%\nPRINT n$, age, height%\n", "Ada", "36", "1.7");
+            compare(engine, "INPUT \"n\", a, b%\nc% = a + b% * 2.0\nPRINT c%\n", "3", "1.5");
+            compare(engine, "DATA 1, 2.5, \"s\"\nREAD a, b%, c$\nPRINT a, b%, c$\n");
+            compare(engine, "DATA 4, \"s\"\nREAD a, b$\nREAD c\n");
+            compare(engine, "DATA 1\nREAD a, b\n");
+            compare(engine, "DATA \"s\"\nREAD a\n");
+            compare(engine, "INPUT \"n\", a\n", "x");
+        });
+    }
+
+    @TestFactory
+    public List<DynamicTest> testControlFlowMatchesInterpreter() {
+        return forEachEngine(engine -> {
+            compare(engine, "FOR i = 0 TO 10 STEP 3\nPRINT i\nNEXT i\nPRINT i\n");
+            compare(engine, "FOR i = 0 TO 3\nFOR j = 0 TO 2\nPRINT i * j\nNEXT j\nNEXT i\n");
+            compare(engine, "x = 0\nWHILE x < 5 done\nx = x + 2\ndone:\nPRINT x\n");
+            compare(engine, "GOSUB sub\nPRINT \"back\"\nEND\nsub:\nPRINT \"in\"\nRETURN\n");
+            compare(engine, "x = 3\nloop:\nIF x <= 0 THEN out\nx = x - 1\nGOTO loop\nout:\nPRINT x\n");
+            compare(engine, "x% = 1.5\nIF x% > 1.0 THEN big\nPRINT \"small\"\nbig:\nPRINT \"big\"\n");
+            // Two loops share a counter, so their NEXT cannot simply jump back to the one FOR it follows
+            compare(engine, "FOR i = 0 TO 3\nPRINT i\nNEXT i\nFOR i = 10 TO 12\nGOSUB s\nNEXT i\nx = 0\n"
+                    + "WHILE x < 5 done\nx = x + 2\ndone:\nPRINT x\nEND\ns:\nPRINT i * 2\nRETURN\n");
+            compare(engine, "a% = 0.0 / 0.0\nIF a% < 1.0 THEN x\nPRINT 1\nx:\nIF a% >= 1.0 THEN y\nPRINT 2\ny:\n"
+                    + "IF a% <> a% THEN z\nPRINT 3\nz:\n");
+        });
+    }
+
+    @TestFactory
+    public List<DynamicTest> testRuntimeErrorsMatchInterpreter() {
+        return forEachEngine(engine -> {
+            compare(engine, "PRINT y\n");
+            compare(engine, "IF x < 1 THEN a\na:\nPRINT 1\n");
+            compare(engine, "x = 1\nGOSUB s\nPRINT z%\nEND\ns:\nz% = 1.0\nRETURN\n");
+            compare(engine, "GOTO later\nx = 1\nlater:\nPRINT x\n");
+            compare(engine, "RETURN\n");
+            compare(engine, "NEXT i\n");
+            compare(engine, "FOR i = 0 TO 2\nNEXT j\n");
+            compare(engine, "GOTO nowhere\n");
+            compare(engine, "a = \"s\" + 1\n");
+            compare(engine, "a = 1 + (\"s\" + 1)\n");
+            compare(engine, "a% = 1.5 << 2\n");
+            compare(engine, "IF \"a\" < 1 THEN x\nx:\nPRINT 1\n");
+            compare(engine, "FOR i = 0 TO 2.5\nNEXT i\n");
+            compare(engine, "FOR i = 0 TO 2\nPRINT i\n");
+            compare(engine, "a = LEFT$(\"abc\")\n");
+            compare(engine, "a = LEFT$(1, 2)\n");
+            compare(engine, "a = MID$(\"abc\", 1)\n");
+            compare(engine, "a = VAL(\"abc\")\n");
+            compare(engine, "a% = POW%(1, 2.0)\n");
+            // HotSpot may drop the message of an ArithmeticException it throws often, so only the class is compared
+            ExecutionEngine divide = engine.create(parse("a = 10\nb = 0\nc = a / b\n"));
+            assertEquals(ArithmeticException.class, run(divide, List.of()).getClass());
+        });
+    }
+
+    @TestFactory
+    public List<DynamicTest> testLabeledControlStatementsMatchInterpreter() {
+        return forEachEngine(engine -> {
+            compare(engine, "x = 0\nl: GOSUB sub\nPRINT \"after\"\nEND\nsub:\nRETURN\n");
+            compare(engine, "GOSUB sub\nPRINT \"after\"\nEND\nsub:\nr: RETURN\n");
+            compare(engine, "l: FOR i = 0 TO 3\nPRINT i\nNEXT i\n");
+            compare(engine, "x = 0\nl: WHILE x < 3 done\nx = x + 1\ndone:\nPRINT x\n");
+            compare(engine, "x = 1\nl: IF x > 0 THEN y\nPRINT \"fell\"\ny:\nPRINT \"y\"\n");
+            compare(engine, "l: GOTO y\nPRINT \"fell\"\ny:\nPRINT \"y\"\n");
+            compare(engine, "l: END\nPRINT \"never\"\n");
+        });
+    }
+
+    @TestFactory
+    public List<DynamicTest> testStackLimitMatchesInterpreter() {
+        return forEachEngine(engine -> {
+            Interpreter expected = new Interpreter(parse("sub:\nGOSUB sub\n"));
+            expected.setStackLimit(50);
+            ExecutionEngine actual = engine.create(parse("sub:\nGOSUB sub\n"));
+            actual.setStackLimit(50);
+
+            RuntimeException expectedError = run(expected, List.of());
+            RuntimeException actualError = run(actual, List.of());
+            assertEquals(IllegalStateException.class, actualError.getClass());
+            assertEquals(expectedError.getMessage(), actualError.getMessage());
+        });
+    }
+
+    @TestFactory
+    public List<DynamicTest> testOptimizedProgramsMatchInterpreter() {
+        // The passes leave superinstructions behind, which every engine has to run as the Interpreter does
+        String[] texts = {
+                "total = 0\nc = 0\nFOR i = 0 TO 100\ntotal = total + i\nx% = FLOAT(i)\nGOSUB small\n"
+                        + "NEXT i\nPRINT total\nPRINT x%\nPRINT c\nEND\nsmall:\nc = c + 1\nRETURN\n",
+                "total = 0\nc = 0\nFOR i = 0 TO 100\ntotal = total + i * 4\nx% = FLOAT(i) / 8\nGOSUB small\n"
+                        + "NEXT i\nPRINT total\nPRINT x%\nPRINT c\nEND\nsmall:\nc = c + 1\nRETURN\n",
+                "x = 0\nloop:\nx = x + 1\nIF x < 20 THEN loop\nPRINT x\n",
+                "w = 0\nWHILE w < 2 done\nk = 0\nagain:\nk = k + 1\nIF k < 3 THEN again\nw = w + 1\ndone:\nPRINT w, k\n",
+                "DATA 1\nFOR i0 = 0 TO 3\nREAD b\nNEXT i0\n"};
+        return forEachEngine(engine -> {
+            for (String text : texts) {
+                for (OptimizationLevel level : OptimizationLevel.values()) {
+                    ProgramNode expected = parse(text);
+                    PassManager.forLevel(level).run(expected);
+                    ProgramNode actual = parse(text);
+                    PassManager.forLevel(level).run(actual);
+                    compare(expected, engine.create(actual), List.of());
+                }
+            }
+        });
+    }
+
+    @TestFactory
+    public List<DynamicTest> testEnginesDoNotShareState() {
+        return forEachEngine(engine -> {
+            ProgramNode program = parse("INPUT \"n\", a\nb = a * 2\nPRINT b\n");
+            ExecutionEngine first = engine.create(program);
+            ExecutionEngine second = engine.create(program);
+            run(first, List.of("3"));
+            run(second, List.of("5"));
+            assertEquals(List.of("6"), first.getOutput());
+            assertEquals(List.of("10"), second.getOutput());
+        });
+    }
+}
@@ -0,0 +1,112 @@
+import interpreter.ExecutionProfile;
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.GoSubInlining;
+import optimizer.LoopUnrolling;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExecutionProfileTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private List<String> run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter.getOutput();
+    }
+
+    // Runs the program with profiling and round-trips the profile through a file onto a fresh parse
+    private ExecutionProfile profile(String text, ProgramNode target) throws IOException {
+        ProgramNode program = parseStatements(text);
+        ExecutionProfile profile = new ExecutionProfile(program);
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.setProfile(profile);
+        interpreter.interpret();
+
+        Path file = Files.createTempFile("basic", ".profile");
+        profile.write(file);
+        return ExecutionProfile.read(file, target);
+    }
+
+    @Test
+    public void testRecordsCountsBranchesAndTypes() throws IOException {
+        String text = "i = 0\ntop: i = i + 1\nx% = FLOAT(i)\nIF i < 4 THEN top\nREAD s$\nPRINT s$\nEND\nDATA \"done\"";
+        ProgramNode program = parseStatements(text);
+        ExecutionProfile profile = profile(text, program);
+        List<StatementNode> statements = program.getStatements();
+
+        assertEquals(1, profile.getCount(statements.get(0)));
+        assertEquals(4, profile.getCount(statements.get(1)));
+        assertEquals(0.75, profile.getTakenRatio((IfNode) statements.get(3)));
+        assertEquals(Set.of(InterpreterDataType.FLOAT), profile.getTypes(statements.get(2)));
+        assertEquals(Set.of(InterpreterDataType.STRING), profile.getTypes(statements.get(4)));
+        assertEquals(0, profile.getCount(statements.get(7)));
+    }
+
+    @Test
+    public void testCountsCallSites() throws IOException {
+        String text = "FOR I = 1 TO 3\nGOSUB work\nNEXT I\nGOSUB work\nEND\nwork: PRINT I\nRETURN";
+        ProgramNode program = parseStatements(text);
+        ExecutionProfile profile = profile(text, program);
+
+        Map<GoSubNode, Long> callSites = profile.getCallSites();
+        assertEquals(List.of(3L, 1L), new ArrayList<>(callSites.values()));
+    }
+
+    @Test
+    public void testProfileOfAnotherProgramIsRejected() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> profile("PRINT 1", parseStatements("PRINT 2")));
+    }
+
+    @Test
+    public void testColdCallSitesAreNotInlined() throws IOException {
+        String text = "READ n\nIF n = 0 THEN skip\nGOSUB show\nskip: PRINT \"after\"\nGOSUB show\nEND\nshow: PRINT \"hi\"\nRETURN\nDATA 0";
+        ProgramNode program = parseStatements(text);
+        GoSubInlining inlining = new GoSubInlining();
+        inlining.setProfile(profile(text, program));
+
+        assertTrue(inlining.run(program));
+        assertEquals(1, inlining.getInlined());
+        // The call that never ran is still a call
+        assertInstanceOf(GoSubNode.class, program.getStatements().get(2));
+        assertEquals(run(parseStatements(text)), run(program));
+    }
+
+    @Test
+    public void testGrowthBudgetGoesToHotLoop() throws IOException {
+        String text = "READ n\nIF n = 0 THEN hot\nFOR I = 1 TO 4\nPRINT I\nNEXT I\n" +
+                "hot: FOR J = 1 TO 4\nPRINT J * 2\nNEXT J\nDATA 0";
+        String unlabeled = text.replace("hot: FOR", "hot: PRINT \"hot\"\nFOR");
+        ProgramNode program = parseStatements(unlabeled);
+        LoopUnrolling unrolling = new LoopUnrolling(32, 4, 3);
+        unrolling.setProfile(profile(unlabeled, program));
+
+        assertTrue(unrolling.run(program));
+        assertEquals(1, unrolling.getFullyUnrolled());
+        // The first loop never ran, so the second one was unrolled
+        assertInstanceOf(ForNode.class, program.getStatements().get(2));
+        assertEquals(run(parseStatements(unlabeled)), run(program));
+    }
+}
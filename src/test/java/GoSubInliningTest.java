@@ -0,0 +1,136 @@
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.GoSubInlining;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GoSubInliningTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private List<String> run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter.getOutput();
+    }
+
+    private long countGoSubs(ProgramNode program) {
+        return program.getStatements().stream().filter(statement -> statement instanceof GoSubNode).count();
+    }
+
+    // Inlines the program and checks its output is identical to the original program's output
+    private ProgramNode inlineAndCompare(String text, GoSubInlining pass, int expectedInlined) throws IOException {
+        List<String> expected = run(parseStatements(text));
+
+        ProgramNode program = parseStatements(text);
+        assertEquals(expectedInlined > 0, pass.run(program));
+        assertEquals(expectedInlined, pass.getInlined());
+        assertEquals(expected, run(program));
+        return program;
+    }
+
+    @Test
+    public void testInlinesSimpleSubroutine() throws IOException {
+        ProgramNode program = inlineAndCompare(Files.readString(Path.of("src/test/resources/go_sub.bas")),
+                new GoSubInlining(), 1);
+
+        assertEquals(0, countGoSubs(program));
+        assertInstanceOf(AssignmentNode.class, program.getStatements().get(1));
+    }
+
+    @Test
+    public void testInlinesCallInsideForLoop() throws IOException {
+        ProgramNode program = inlineAndCompare(Files.readString(Path.of("src/test/resources/for_loop_2.bas")),
+                new GoSubInlining(), 1);
+
+        assertEquals(0, countGoSubs(program));
+    }
+
+    @Test
+    public void testInlinesSubroutineWithEarlyReturn() throws IOException {
+        ProgramNode program = inlineAndCompare(
+                "FOR I = 1 TO 6\nGOSUB classify\nNEXT I\nEND\n" +
+                "classify: PRINT I\nIF I < 3 THEN small\nPRINT \"big\"\nRETURN\nsmall: PRINT \"small\"\nRETURN",
+                new GoSubInlining(), 1);
+
+        assertEquals(0, countGoSubs(program));
+        assertTrue(program.getStatements().stream().anyMatch(statement -> statement instanceof GoToNode));
+    }
+
+    @Test
+    public void testKeepsNestedGoSubAsCall() throws IOException {
+        ProgramNode program = inlineAndCompare(
+                "x = 1\nGOSUB outer\nPRINT x\nEND\n" +
+                "outer: x = x + 1\nGOSUB inner\nx = x * 10\nRETURN\n" +
+                "inner: x = x + 100\nRETURN",
+                new GoSubInlining(), 2);
+
+        // The copy of outer still calls the original inner subroutine
+        assertEquals(1, countGoSubs(program));
+    }
+
+    @Test
+    public void testInlinesPiEstimationSubroutines() throws IOException {
+        ProgramNode program = new Parser(lexer.lex("src/test/resources/pi_estimation.txt")).parse();
+        GoSubInlining pass = new GoSubInlining();
+        assertTrue(pass.run(program));
+
+        // The dart loop no longer calls throwDart; only the copy's call to addHit would remain, and it is inlined too
+        assertEquals(ForNode.class, program.getStatements().get(2).getClass());
+        assertFalse(program.getStatements().get(3) instanceof GoSubNode);
+
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.setTestInput(List.of("1000"));
+        interpreter.interpret();
+        assertEquals("1000", interpreter.getOutput().get(1));
+    }
+
+    @Test
+    public void testKeepsSubroutineThatJumpsOut() throws IOException {
+        inlineAndCompare(
+                "GOSUB sub\nPRINT \"returned\"\nGOTO done\n" +
+                "sub: PRINT \"in sub\"\nIF 1 = 1 THEN done\nRETURN\n" +
+                "done: PRINT \"escaped\"\nEND",
+                new GoSubInlining(), 0);
+    }
+
+    @Test
+    public void testKeepsSubroutineWithSharedTail() throws IOException {
+        // tail is entered from outside sub, so only the call to tail itself can be inlined
+        ProgramNode program = inlineAndCompare(
+                "GOSUB sub\nGOSUB tail\nEND\n" +
+                "sub: PRINT \"in sub\"\ntail: PRINT \"tail\"\nRETURN",
+                new GoSubInlining(), 1);
+
+        assertEquals(new GoSubNode("sub").toString(), program.getStatements().get(0).toString());
+    }
+
+    @Test
+    public void testRespectsSizeBudget() throws IOException {
+        String text = "GOSUB sub\nEND\nsub: PRINT 1\nPRINT 2\nPRINT 3\nRETURN";
+        inlineAndCompare(text, new GoSubInlining(2, 100), 0);
+        inlineAndCompare(text, new GoSubInlining(3, 100), 1);
+        inlineAndCompare("GOSUB sub\nGOSUB sub\nEND\nsub: PRINT 1\nPRINT 2\nRETURN", new GoSubInlining(3, 1), 1);
+    }
+}
@@ -0,0 +1,200 @@
+import compiler.OptimizationLevel;
+import compiler.PassManager;
+import interpreter.Interpreter;
+import ir.*;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.IfGotoLoopConversion;
+import optimizer.LoopInvariantCodeMotion;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IfGotoLoopConversionTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private Interpreter run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter;
+    }
+
+    private Map<String, Object> userVariables(Interpreter interpreter) {
+        Map<String, Object> variables = new TreeMap<>();
+        variables.putAll(interpreter.getIntVariables());
+        variables.putAll(interpreter.getFloatVariables());
+        variables.putAll(interpreter.getStringVariables());
+        return variables;
+    }
+
+    // Converts the program's loops and checks it behaves exactly like the unconverted one
+    private ProgramNode convertAndCompare(IfGotoLoopConversion pass, String text, boolean expectChange) throws IOException {
+        Interpreter expected = run(parseStatements(text));
+
+        ProgramNode converted = parseStatements(text);
+        assertEquals(expectChange, pass.run(converted));
+        Interpreter actual = run(converted);
+
+        assertEquals(expected.getOutput(), actual.getOutput());
+        assertEquals(userVariables(expected), userVariables(actual));
+        return converted;
+    }
+
+    private NaturalLoop onlyLoop(String text) throws IOException {
+        ControlFlowGraph graph = ControlFlowGraph.build(parseStatements(text));
+        SsaConstruction.construct(graph);
+        List<NaturalLoop> loops = NaturalLoop.find(graph, new DominatorTree(graph));
+        assertEquals(1, loops.size());
+        return loops.get(0);
+    }
+
+    private long count(ProgramNode program, Class<? extends StatementNode> type) {
+        return program.getStatements().stream().filter(type::isInstance).count();
+    }
+
+    @Test
+    public void testFindsInductionVariableAndTripCount() throws IOException {
+        NaturalLoop loop = onlyLoop("i = 1\ntop: PRINT i\ni = i + 2\nIF i <= 9 THEN top\nPRINT \"done\"");
+
+        assertTrue(loop.isIfGotoLoop());
+        assertEquals("top", loop.getHeader().getLabel());
+        List<InductionVariable> variables = loop.getInductionVariables();
+        assertEquals(1, variables.size());
+        assertEquals("i", variables.get(0).getVariable());
+        assertEquals(2, variables.get(0).getStep());
+        assertEquals(1, variables.get(0).getInitial().getConstant());
+        assertEquals(5, loop.getTripCount());
+    }
+
+    @Test
+    public void testTripCountOfTopTestedCountdown() throws IOException {
+        NaturalLoop loop = onlyLoop("n = 4\nagain:\nIF n = 0 THEN done\nn = n - 1\nGOTO again\ndone: PRINT n");
+
+        assertEquals(-1, loop.getInductionVariables().get(0).getStep());
+        // The header runs once more to see n = 0
+        assertEquals(5, loop.getTripCount());
+    }
+
+    @Test
+    public void testTripCountUnknownForDataDrivenBound() throws IOException {
+        NaturalLoop loop = onlyLoop("READ n\ni = 0\ntop: i = i + 1\nIF i < n THEN top\nPRINT i\nDATA 3");
+        assertEquals(1, loop.getInductionVariables().size());
+        assertEquals(-1, loop.getTripCount());
+    }
+
+    @Test
+    public void testForLoopIsNotAnIfGotoLoop() throws IOException {
+        assertFalse(onlyLoop("FOR I = 1 TO 3\nPRINT I\nNEXT I").isIfGotoLoop());
+    }
+
+    @Test
+    public void testBottomTestedLoopBecomesWhile() throws IOException {
+        IfGotoLoopConversion pass = new IfGotoLoopConversion();
+        ProgramNode program = convertAndCompare(pass,
+                "i = 1\ntotal = 0\ntop: total = total + i\ni = i + 1\nIF i <= 10 THEN top\nPRINT total, i", true);
+
+        assertEquals(1, pass.getConverted());
+        // i = 1 passes the test on entry, so the body needs no peeled copy
+        assertEquals(0, pass.getPeeled());
+        assertEquals(1, count(program, WhileNode.class));
+        assertEquals(0, count(program, IfNode.class));
+    }
+
+    @Test
+    public void testTopTestedLoopBecomesWhileWithInvertedCondition() throws IOException {
+        IfGotoLoopConversion pass = new IfGotoLoopConversion();
+        ProgramNode program = convertAndCompare(pass,
+                "i = 0\nagain:\nIF i >= 3 THEN done\nPRINT i\ni = i + 1\nGOTO again\nPRINT \"skipped\"\ndone: PRINT \"end\"", true);
+
+        WhileNode whileNode = (WhileNode) program.getStatements().get(1);
+        assertEquals(BooleanExpressionNode.OPERATOR.LESSTHAN, whileNode.getCondition().getOperator());
+        // The exit target does not follow the loop, so the end label is followed by a jump to it
+        assertEquals("done", ((GoToNode) program.getStatements().get(5)).getLabel());
+    }
+
+    @Test
+    public void testBodyIsPeeledWhenConditionMayFailOnEntry() throws IOException {
+        IfGotoLoopConversion pass = new IfGotoLoopConversion();
+        ProgramNode program = convertAndCompare(pass,
+                "READ n\ntop: PRINT n\nn = n - 1\nIF n > 0 THEN top\nPRINT \"done\"\nDATA 0", true);
+
+        assertEquals(1, pass.getPeeled());
+        assertInstanceOf(PrintNode.class, program.getStatements().get(1));
+        assertInstanceOf(WhileNode.class, program.getStatements().get(3));
+    }
+
+    @Test
+    public void testLargeBodyIsNotPeeled() throws IOException {
+        convertAndCompare(new IfGotoLoopConversion(1),
+                "READ n\ntop: PRINT n\nn = n - 1\nIF n > 0 THEN top\nDATA 2", false);
+    }
+
+    @Test
+    public void testLoopWithSecondExitIsKept() throws IOException {
+        // Leaving through the IF would leave the WHILE frame on the stack
+        convertAndCompare(new IfGotoLoopConversion(),
+                "i = 0\ntop: i = i + 1\nIF i = 3 THEN out\nIF i < 10 THEN top\nout: PRINT i", false);
+    }
+
+    @Test
+    public void testLoopCallingSubroutineIsConverted() throws IOException {
+        convertAndCompare(new IfGotoLoopConversion(),
+                "i = 1\ntop: PRINT \"call\"\nGOSUB show\ni = i + 1\nIF i < 4 THEN top\nEND\nshow: PRINT i\nRETURN", true);
+    }
+
+    @Test
+    public void testLoopEnteredInTheMiddleIsKept() throws IOException {
+        convertAndCompare(new IfGotoLoopConversion(),
+                "i = 0\nGOTO middle\ntop: PRINT i\nmiddle: i = i + 1\nIF i < 3 THEN top\nPRINT i", false);
+    }
+
+    @Test
+    public void testNestedLoopsConvertInnerFirst() throws IOException {
+        IfGotoLoopConversion pass = new IfGotoLoopConversion();
+        ProgramNode program = convertAndCompare(pass, "i = 0\nouter: j = 0\ninner: PRINT i, j\nj = j + 1\n" +
+                "IF j < 2 THEN inner\ni = i + 1\nIF i < 3 THEN outer", true);
+
+        // The outer body now holds a WHILE, which the Interpreter cannot nest, so only the inner loop changes
+        assertEquals(1, pass.getConverted());
+        assertEquals(1, count(program, WhileNode.class));
+    }
+
+    @Test
+    public void testLoopInsideWhileIsKept() throws IOException {
+        // The outer WHILE exits by scanning to the first end label, which would be the one the rewrite adds
+        String text = "w = 0\nWHILE w < 2 done\nk = 0\nagain:\nk = k + 1\nIF k < 3 THEN again\nw = w + 1\ndone:\nPRINT w, k";
+        convertAndCompare(new IfGotoLoopConversion(), text, false);
+
+        ProgramNode optimized = parseStatements(text);
+        PassManager.forLevel(OptimizationLevel.O2).run(optimized);
+        assertEquals(List.of("2", "3"), run(optimized).getOutput());
+    }
+
+    @Test
+    public void testConvertedLoopGetsLoopInvariantCodeMotion() throws IOException {
+        String text = "i = 0\nn = 4\nagain:\nIF i >= n THEN done\nx = n * 3\nPRINT x + i\ni = i + 1\nGOTO again\ndone: PRINT i";
+        ProgramNode program = convertAndCompare(new IfGotoLoopConversion(), text, true);
+        assertTrue(new LoopInvariantCodeMotion().run(program));
+
+        assertEquals(run(parseStatements(text)).getOutput(), run(program).getOutput());
+    }
+}
@@ -0,0 +1,116 @@
+import compiler.OptimizationLevel;
+import compiler.PassManager;
+import interpreter.Interpreter;
+import lexer.Lexer;
+import node.ProgramNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import parser.Parser;
+import vm.JarCompiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JarCompilerTest {
+
+    @TempDir
+    Path directory;
+
+    private ProgramNode parse(String text) throws IOException {
+        Path source = Files.createTempFile(directory, "program", ".bas");
+        Files.writeString(source, text);
+        return new Parser(new Lexer().lex(source.toString())).parse();
+    }
+
+    // What the Interpreter prints to the console for the program
+    private String interpret(ProgramNode program) {
+        PrintStream console = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+        try {
+            new Interpreter(program).interpret();
+        } finally {
+            System.setOut(console);
+        }
+        return printed.toString(StandardCharsets.UTF_8);
+    }
+
+    // Runs the jar in a JVM of its own and returns what it printed, standard error after standard output
+    private String runJar(Path jar) throws IOException, InterruptedException {
+        Path java = Path.of(System.getProperty("java.home"), "bin", "java");
+        Process process = new ProcessBuilder(java.toString(), "-jar", jar.toString()).start();
+        String out = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        String err = new String(process.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
+        process.waitFor();
+        return out + err;
+    }
+
+    private List<String> entries(Path jar) throws IOException {
+        try (JarFile file = new JarFile(jar.toFile())) {
+            List<String> names = new ArrayList<>();
+            for (JarEntry entry : Collections.list(file.entries())) {
+                names.add(entry.getName());
+            }
+            return names;
+        }
+    }
+
+    @Test
+    public void testJarLeavesOutFrontEnd() throws IOException {
+        Path jar = directory.resolve("program.jar");
+        List<String> classes = JarCompiler.compile(parse("s$ = MID$(\"abcdef\", 1, 3)\nPRINT s$\n"), jar);
+        assertEquals("vm/BasicProgram.class", classes.get(0));
+        List<String> entries = entries(jar);
+        assertTrue(entries.containsAll(classes));
+        assertTrue(entries.contains("vm/BasicProgram.image"));
+        assertTrue(entries.contains("node/BuiltInFunctions.class"));
+        for (String entry : entries) {
+            assertFalse(entry.startsWith("lexer/") || entry.startsWith("parser/") || entry.startsWith("Shell"), entry);
+            assertFalse(entry.endsWith("Compiler.class") || entry.equals("interpreter/Interpreter.class"), entry);
+        }
+        try (JarFile file = new JarFile(jar.toFile())) {
+            assertEquals("vm.PrecompiledMachine", file.getManifest().getMainAttributes().getValue("Main-Class"));
+        }
+    }
+
+    @Test
+    public void testJarLeavesOutUnusedBuiltins() throws IOException {
+        Path jar = directory.resolve("program.jar");
+        assertFalse(JarCompiler.compile(parse("a = 1\nPRINT a\n"), jar).contains("node/BuiltInFunctions.class"));
+    }
+
+    @Test
+    public void testJarPrintsLikeInterpreter() throws IOException, InterruptedException {
+        String text = "DATA 3, 2.5, \"d\"\nREAD a, b%, c$\ntotal = 0\nFOR i = 1 TO 100\ntotal = total + i * a\n"
+                + "GOSUB twice\nNEXT i\nPRINT total, b%, c$, LEFT$(\"100%\", 4)\nEND\ntwice:\nb% = b% * 1.01\nRETURN\n";
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            ProgramNode expected = parse(text);
+            PassManager.forLevel(level).run(expected);
+            ProgramNode actual = parse(text);
+            PassManager.forLevel(level).run(actual);
+            Path jar = directory.resolve("program" + level + ".jar");
+            JarCompiler.compile(actual, jar);
+            assertEquals(interpret(expected), runJar(jar));
+        }
+    }
+
+    @Test
+    public void testJarFailsLikeInterpreter() throws IOException, InterruptedException {
+        Path jar = directory.resolve("program.jar");
+        JarCompiler.compile(parse("x = 1\nPRINT x\nGOSUB s\nEND\ns:\nz% = 1.0 + \"%s\"\nRETURN\n"), jar);
+        String printed = runJar(jar);
+        assertTrue(printed.startsWith("1\n"), printed);
+        assertTrue(printed.contains("java.lang.IllegalArgumentException: Illegal math operation for arguments: \n1.0\n%s\n"), printed);
+    }
+}
@@ -0,0 +1,49 @@
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+import vm.JavaMachine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JavaMachineTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    @Test
+    public void testSourceUsesTypedLocalsAndDirectCalls() throws IOException {
+        String text = "total = 0\nFOR i = 0 TO 3\ntotal = total + i\nNEXT i\nx% = 1.5\n"
+                + "s$ = MID$(\"abc\", 1, 1)\nPRINT total, x%, s$\n";
+        JavaMachine machine = EngineConformanceTest.compare(parseStatements(text), new JavaMachine(parseStatements(text)),
+                List.of());
+        String source = machine.getSource();
+        assertTrue(source.contains("int i_total = machine.loadInt("), source);
+        assertTrue(source.contains("float f_x = machine.loadFloat("), source);
+        assertTrue(source.contains("s_s = BuiltInFunctions.MID$(\"abc\", 1, 1);"), source);
+        assertTrue(source.contains("continue dispatch;"), source);
+    }
+
+    @Test
+    public void testSourceOfProgramNamesTheClass() throws IOException {
+        String source = JavaMachine.toJavaSource(parseStatements("PRINT \"say \\\"hi\\\"\\n\"\n"), "Printer");
+        assertTrue(source.startsWith("package vm;"));
+        assertTrue(source.contains("public final class Printer {"), source);
+        assertTrue(source.contains("machine.print(\"say \\\"hi\\\"\\n\");"), source);
+    }
+}
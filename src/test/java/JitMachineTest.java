@@ -0,0 +1,25 @@
+import lexer.Lexer;
+import node.*;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+import vm.JitMachine;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JitMachineTest {
+
+    Lexer lexer = new Lexer();
+
+    private ProgramNode parseFile(String file) {
+        return new Parser(lexer.lex("src/test/resources/" + file)).parse();
+    }
+
+    @Test
+    public void testHotLoopFitsHotSpotCompiler() {
+        JitMachine machine = EngineConformanceTest.compare(parseFile("numeric_loops.bas"),
+                new JitMachine(parseFile("numeric_loops.bas")), List.of());
+        assertTrue(machine.getMethodSize() < 8000, () -> "Method is " + machine.getMethodSize() + " bytes");
+    }
+}
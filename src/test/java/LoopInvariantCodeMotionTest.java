@@ -0,0 +1,142 @@
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.LoopInvariantCodeMotion;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoopInvariantCodeMotionTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private Interpreter run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter;
+    }
+
+    private Map<String, Object> userVariables(Interpreter interpreter) {
+        Map<String, Object> variables = new TreeMap<>();
+        variables.putAll(interpreter.getIntVariables());
+        variables.putAll(interpreter.getFloatVariables());
+        variables.putAll(interpreter.getStringVariables());
+        return variables;
+    }
+
+    // Optimizes the program and checks it behaves exactly like the unoptimized one
+    private ProgramNode optimizeAndCompare(String text, boolean expectChange) throws IOException {
+        Interpreter expected = run(parseStatements(text));
+
+        ProgramNode optimized = parseStatements(text);
+        assertEquals(expectChange, new LoopInvariantCodeMotion().run(optimized));
+        Interpreter actual = run(optimized);
+
+        assertEquals(expected.getOutput(), actual.getOutput());
+        assertEquals(userVariables(expected), userVariables(actual));
+        return optimized;
+    }
+
+    @Test
+    public void testHoistsForLimit() throws IOException {
+        ProgramNode program = optimizeAndCompare("n = 3\nFOR I = 1 TO (n * 2)\nPRINT I\nNEXT I\nEND", true);
+
+        assertInstanceOf(AssignmentNode.class, program.getStatements().get(1));
+        assertEquals("_licm0", ((AssignmentNode) program.getStatements().get(1)).getVariableNode().getName());
+        ForNode forNode = (ForNode) program.getStatements().get(2);
+        assertEquals(new VariableNode("_licm0"), optimizer.Expressions.unwrap(forNode.getLimit()));
+    }
+
+    @Test
+    public void testHoistsWhileConditionOperand() throws IOException {
+        ProgramNode program = optimizeAndCompare(
+                "x = 0\nlimit = 2\nWHILE x < limit * 2 + 1 endLoop\nx = x + 1\nPRINT x\nendLoop:\nPRINT \"done\"", true);
+
+        assertInstanceOf(AssignmentNode.class, program.getStatements().get(2));
+        assertInstanceOf(WhileNode.class, program.getStatements().get(3));
+    }
+
+    @Test
+    public void testHoistsBodyExpression() throws IOException {
+        ProgramNode program = optimizeAndCompare(
+                "a = 3\nb = 4\ntotal = 0\nFOR I = 1 TO 5\ntotal = total + a * b\nNEXT I\nPRINT total", true);
+
+        AssignmentNode hoisted = (AssignmentNode) program.getStatements().get(3);
+        assertEquals(new MathOpNode(MathOpNode.OPERATION.MULTIPLY, new VariableNode("a"), new VariableNode("b")),
+                optimizer.Expressions.unwrap(hoisted.getValue()));
+    }
+
+    @Test
+    public void testKeepsExpressionsAssignedInBody() throws IOException {
+        optimizeAndCompare("a = 1\nFOR I = 1 TO 5\na = a + 1\nb = a * 2\nNEXT I\nPRINT b", false);
+    }
+
+    @Test
+    public void testKeepsExpressionsAssignedInSubroutine() throws IOException {
+        optimizeAndCompare(
+                "a = 1\nFOR I = 1 TO 3\nb = a * 2\nGOSUB bump\nNEXT I\nPRINT b\nEND\nbump: a = a + 1\nRETURN", false);
+    }
+
+    @Test
+    public void testKeepsUnsafeBodyExpressions() throws IOException {
+        // A division by a variable could throw, and RANDOM is not invariant
+        optimizeAndCompare("d = 2\nFOR I = 1 TO 3\nb = 10 / d\nc = RANDOM(1, 2) + 1\nNEXT I\nPRINT b", false);
+    }
+
+    @Test
+    public void testKeepsBodyExpressionsReadingPossiblyUndefinedVariables() throws IOException {
+        optimizeAndCompare(
+                "GOTO start\nstart: a = 1\nFOR I = 1 TO 3\nIF I < 10 THEN skip\nb = c * 2\nskip: PRINT I\nNEXT I", false);
+    }
+
+    @Test
+    public void testKeepsHeaderExpressionsThatMayFail() throws IOException {
+        // The limit fails before the counter is set, and the left operand's error must win over the division's
+        String[] texts = {
+                "FOR i = 0 TO POW(n, 2)\nPRINT i\nNEXT i",
+                "d = 0\nWHILE x < 10 / d endLoop\nx = x + 1\nendLoop:\nPRINT x"
+        };
+        for (String text : texts) {
+            ProgramNode optimized = parseStatements(text);
+            assertFalse(new LoopInvariantCodeMotion().run(optimized), text);
+
+            Interpreter expected = new Interpreter(parseStatements(text));
+            expected.setTestMode(true);
+            Interpreter actual = new Interpreter(optimized);
+            actual.setTestMode(true);
+            RuntimeException expectedError = assertThrows(RuntimeException.class, expected::interpret, text);
+            RuntimeException actualError = assertThrows(RuntimeException.class, actual::interpret, text);
+            assertEquals(expectedError.getClass(), actualError.getClass(), text);
+            assertEquals(expectedError.getMessage(), actualError.getMessage(), text);
+            assertEquals(userVariables(expected), userVariables(actual), text);
+        }
+    }
+
+    @Test
+    public void testTemporariesAreNotReported() throws IOException {
+        ProgramNode program = optimizeAndCompare("n = 3\nFOR I = 1 TO (n * 2)\nPRINT I\nNEXT I\nEND", true);
+        Interpreter interpreter = run(program);
+
+        assertFalse(interpreter.getIntVariables().containsKey("_licm0"));
+        assertEquals(3, interpreter.getIntVariables().get("n"));
+        assertTrue(interpreter.getAllIntVariables().containsKey("_licm0"));
+    }
+}
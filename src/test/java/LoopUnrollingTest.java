@@ -0,0 +1,165 @@
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.LoopUnrolling;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoopUnrollingTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private Interpreter run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter;
+    }
+
+    private Map<String, Object> userVariables(Interpreter interpreter) {
+        Map<String, Object> variables = new TreeMap<>();
+        variables.putAll(interpreter.getIntVariables());
+        variables.putAll(interpreter.getFloatVariables());
+        variables.putAll(interpreter.getStringVariables());
+        return variables;
+    }
+
+    // Unrolls the program's loops and checks it behaves exactly like the original, final counters included
+    private ProgramNode unrollAndCompare(LoopUnrolling pass, String text, boolean expectChange) throws IOException {
+        Interpreter expected = run(parseStatements(text));
+
+        ProgramNode unrolled = parseStatements(text);
+        assertEquals(expectChange, pass.run(unrolled));
+        Interpreter actual = run(unrolled);
+
+        assertEquals(expected.getOutput(), actual.getOutput());
+        assertEquals(userVariables(expected), userVariables(actual));
+        return unrolled;
+    }
+
+    private long count(ProgramNode program, Class<? extends StatementNode> type) {
+        return program.getStatements().stream().filter(type::isInstance).count();
+    }
+
+    @Test
+    public void testFullyUnrollsSmallLoop() throws IOException {
+        LoopUnrolling pass = new LoopUnrolling();
+        ProgramNode program = unrollAndCompare(pass, "total = 0\nFOR I = 1 TO 5\ntotal = total + I * 2\nPRINT I\nNEXT I\nPRINT total, I", true);
+
+        assertEquals(1, pass.getFullyUnrolled());
+        assertEquals(0, count(program, ForNode.class));
+        assertEquals(0, count(program, NextNode.class));
+        // The counter is read as a literal in every copy and only assigned in front of the first and the last
+        PrintNode print = (PrintNode) program.getStatements().get(3);
+        assertEquals(new IntegerNode(1), optimizer.Expressions.unwrap(print.getParameters().get(0)));
+        assertEquals(14, program.getStatements().size());
+        AssignmentNode last = (AssignmentNode) program.getStatements().get(10);
+        assertEquals("I", last.getVariableNode().getName());
+        assertEquals(new IntegerNode(5), optimizer.Expressions.unwrap(last.getValue()));
+    }
+
+    @Test
+    public void testFailingBodyLeavesCounterAtFailingIteration() throws IOException {
+        // The Interpreter stops dividing by zero with I = 2, and runs out of DATA with J = 2
+        for (String text : List.of("FOR I = 0 TO 3\nPRINT 10 / (2 - I)\nNEXT I",
+                "DATA 1, 2\nFOR J = 0 TO 3\nREAD b\nNEXT J",
+                "FOR K = 0 TO 5\nPRINT K\nx = 4 / (3 - K)\nNEXT K")) {
+            Interpreter expected = new Interpreter(parseStatements(text));
+            expected.setTestMode(true);
+            RuntimeException expectedError = assertThrows(RuntimeException.class, expected::interpret);
+
+            ProgramNode program = parseStatements(text);
+            assertTrue(new LoopUnrolling().run(program));
+            Interpreter actual = new Interpreter(program);
+            actual.setTestMode(true);
+            assertEquals(expectedError.getClass(), assertThrows(RuntimeException.class, actual::interpret).getClass());
+            assertEquals(expected.getOutput(), actual.getOutput());
+            assertEquals(userVariables(expected), userVariables(actual));
+        }
+    }
+
+    @Test
+    public void testLoopThatNeverRunsLeavesStartValue() throws IOException {
+        ProgramNode program = unrollAndCompare(new LoopUnrolling(), "FOR I = 3 TO 3\nPRINT I\nNEXT I\nPRINT I", true);
+        assertEquals(2, program.getStatements().size());
+    }
+
+    @Test
+    public void testPartiallyUnrollsLongLoop() throws IOException {
+        LoopUnrolling pass = new LoopUnrolling();
+        ProgramNode program = unrollAndCompare(pass, "total = 0\nFOR I = 1 TO 100\ntotal = total + I\nNEXT I\nPRINT total, I", true);
+
+        assertEquals(1, pass.getPartiallyUnrolled());
+        assertEquals(1, count(program, ForNode.class));
+        // The initial assignment plus four copies of the body
+        assertEquals(5, program.getStatements().stream().filter(AssignmentNode.class::isInstance)
+                .filter(s -> ((AssignmentNode) s).getVariableNode().getName().equals("total")).count());
+    }
+
+    @Test
+    public void testLeftOverIterationsRunBeforeTheLoop() throws IOException {
+        // 0, 3, 6, 9 and 12: five trips do not split into pairs
+        LoopUnrolling pass = new LoopUnrolling(4, 2, 200);
+        ProgramNode program = unrollAndCompare(pass, "FOR I = 0 TO 10 STEP 3\nPRINT I\nNEXT I\nPRINT I", true);
+
+        assertEquals(1, pass.getPartiallyUnrolled());
+        // The left-over copy sets the counter the FOR then steps on from
+        assertInstanceOf(AssignmentNode.class, program.getStatements().get(0));
+        assertInstanceOf(PrintNode.class, program.getStatements().get(1));
+        assertInstanceOf(ForNode.class, program.getStatements().get(2));
+    }
+
+    @Test
+    public void testBodyCallingSubroutineKeepsCounterAssignments() throws IOException {
+        unrollAndCompare(new LoopUnrolling(), "FOR I = 1 TO 3\nGOSUB show\nNEXT I\nEND\nshow: PRINT I * I\nRETURN", true);
+    }
+
+    @Test
+    public void testLabelsAndDataInBodyAreCopiedSafely() throws IOException {
+        unrollAndCompare(new LoopUnrolling(), "FOR I = 1 TO 4\nREAD x\nIF x > 2 THEN big\nPRINT \"small\"\n" +
+                "big: PRINT x\nDATA 1, 2\nNEXT I\nDATA 3, 4", true);
+    }
+
+    @Test
+    public void testReenteredLoopIsKept() throws IOException {
+        // The second call finds I defined, so the loop does not run again
+        unrollAndCompare(new LoopUnrolling(), "GOSUB count\nGOSUB count\nEND\ncount: PRINT \"go\"\nFOR I = 1 TO 3\nPRINT I\nNEXT I\nRETURN", false);
+    }
+
+    @Test
+    public void testBodyAssigningCounterIsKept() throws IOException {
+        unrollAndCompare(new LoopUnrolling(), "FOR I = 1 TO 6\nPRINT I\nI = I + 1\nNEXT I", false);
+    }
+
+    @Test
+    public void testNonLiteralBoundIsKept() throws IOException {
+        unrollAndCompare(new LoopUnrolling(), "n = 3\nFOR I = 1 TO n\nPRINT I\nNEXT I", false);
+    }
+
+    @Test
+    public void testGrowthCapIsRespected() throws IOException {
+        LoopUnrolling pass = new LoopUnrolling(32, 4, 3);
+        unrollAndCompare(pass, "FOR I = 1 TO 4\nPRINT I\nNEXT I\nFOR J = 1 TO 4\nPRINT J\nNEXT J", true);
+
+        assertEquals(1, pass.getFullyUnrolled());
+        assertTrue(pass.getGrowth() <= 3);
+    }
+}
@@ -0,0 +1,121 @@
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.PartialEvaluation;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartialEvaluationTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private Interpreter run(ProgramNode program, List<String> input) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.setTestInput(input);
+        interpreter.interpret();
+        return interpreter;
+    }
+
+    private Map<String, Object> variables(Interpreter interpreter) {
+        Map<String, Object> variables = new TreeMap<>();
+        variables.putAll(interpreter.getIntVariables());
+        variables.putAll(interpreter.getFloatVariables());
+        variables.putAll(interpreter.getStringVariables());
+        return variables;
+    }
+
+    // Evaluates the program ahead of time and checks the residual program behaves exactly like the original
+    private ProgramNode evaluateAndCompare(PartialEvaluation pass, String text, List<String> input, boolean expectChange) throws IOException {
+        Interpreter expected = run(parseStatements(text), input);
+
+        ProgramNode residual = parseStatements(text);
+        assertEquals(expectChange, pass.run(residual));
+        Interpreter actual = run(residual, input);
+
+        assertEquals(expected.getOutput(), actual.getOutput());
+        assertEquals(variables(expected), variables(actual));
+        return residual;
+    }
+
+    private long count(ProgramNode program, Class<? extends StatementNode> type) {
+        return program.getStatements().stream().filter(type::isInstance).count();
+    }
+
+    @Test
+    public void testFoldsWholeTableProgram() throws IOException {
+        PartialEvaluation pass = new PartialEvaluation();
+        ProgramNode program = evaluateAndCompare(pass, "total = 0\nFOR I = 1 TO 4\nREAD x\ntotal = total + x\nNEXT I\n" +
+                "PRINT \"total \", total\nname$ = \"report\"\nPRINT name$\nDATA 10, 20, 30, 40", List.of(), true);
+
+        assertTrue(pass.isCompleted());
+        assertEquals(4, pass.getReadsFolded());
+        assertEquals(0, count(program, ReadNode.class));
+        assertEquals(0, count(program, ForNode.class));
+        assertEquals(2, count(program, PrintNode.class));
+    }
+
+    @Test
+    public void testStopsBeforeInputAndKeepsRemainingData() throws IOException {
+        PartialEvaluation pass = new PartialEvaluation();
+        ProgramNode program = evaluateAndCompare(pass, "READ a, b\nPRINT a + b\nINPUT \"n?\", n\nREAD c\nPRINT a + b + c + n\n" +
+                "DATA 1, 2\nDATA 3", List.of("5"), true);
+
+        assertFalse(pass.isCompleted());
+        assertEquals(1, pass.getReadsFolded());
+        DataNode data = (DataNode) program.getStatements().stream().filter(DataNode.class::isInstance).findFirst().orElseThrow();
+        assertEquals(1, data.getData().size());
+        assertEquals(1, count(program, DataNode.class));
+    }
+
+    @Test
+    public void testRandomIsNeverEvaluatedAheadOfTime() throws IOException {
+        ProgramNode program = parseStatements("x = RANDOM()\nPRINT \"x\"");
+        assertFalse(new PartialEvaluation().run(program));
+    }
+
+    @Test
+    public void testStopsOutsideSubroutineFrames() throws IOException {
+        // The INPUT runs inside the subroutine, so the prefix must end before the GOSUB that entered it
+        PartialEvaluation pass = new PartialEvaluation();
+        ProgramNode program = evaluateAndCompare(pass, "x = 2\nPRINT x\nGOSUB ask\nPRINT x + y\nEND\n" +
+                "ask: x = x * 10\nINPUT \"y?\", y\nRETURN", List.of("7"), true);
+
+        assertEquals(2, pass.getStepsEvaluated());
+        assertEquals(1, count(program, GoSubNode.class));
+    }
+
+    @Test
+    public void testStepBudgetStopsLongLoop() throws IOException {
+        PartialEvaluation pass = new PartialEvaluation(50, 1000);
+        evaluateAndCompare(pass, "i = 0\ntop: i = i + 1\nIF i < 100 THEN top\nPRINT i", List.of(), true);
+
+        assertFalse(pass.isCompleted());
+        assertEquals(50, pass.getStepsEvaluated());
+    }
+
+    @Test
+    public void testRuntimeErrorIsLeftToTheResidualProgram() throws IOException {
+        ProgramNode program = parseStatements("x = 1\nPRINT x\ny = x / 0\nPRINT y");
+        assertTrue(new PartialEvaluation().run(program));
+        assertThrows(ArithmeticException.class, () -> run(program, List.of()));
+    }
+}
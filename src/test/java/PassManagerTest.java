@@ -0,0 +1,162 @@
+import compiler.AstVerifier;
+import compiler.OptimizationLevel;
+import compiler.PassManager;
+import compiler.PassStatistics;
+import interpreter.ExecutionProfile;
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.OptimizationPass;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PassManagerTest {
+
+    private static final List<String> PROGRAMS = List.of(
+            "total = 0\nFOR i = 1 TO 10\ntotal = total + i\nNEXT i\nPRINT total",
+            "i = 0\ntop: PRINT i\ni = i + 1\nIF i < 5 THEN top\nPRINT \"done\"",
+            "READ n, x%\nGOSUB square\nPRINT s%\nEND\nsquare: s% = POW%(x%, 2.0) * FLOAT(n)\nRETURN\nDATA 3, 1.5",
+            "n = 0\nGOSUB ping\nPRINT n\nEND\nping: n = n + 1\nIF n >= 50 THEN done\nGOSUB pong\nRETURN\n" +
+                    "pong: n = n + 1\nGOSUB ping\nRETURN\ndone:\nRETURN",
+            "i = 0\nn = 4\nWHILE i < n done\nx = n * 8\nPRINT x / 2\ni = i + 1\ndone:\nPRINT i");
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private Interpreter run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter;
+    }
+
+    private Map<String, Object> userVariables(Interpreter interpreter) {
+        Map<String, Object> variables = new TreeMap<>();
+        variables.putAll(interpreter.getIntVariables());
+        variables.putAll(interpreter.getFloatVariables());
+        variables.putAll(interpreter.getStringVariables());
+        return variables;
+    }
+
+    @Test
+    public void testEveryLevelPreservesBehaviour() throws IOException {
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            for (String text : PROGRAMS) {
+                Interpreter expected = run(parseStatements(text));
+
+                ProgramNode program = parseStatements(text);
+                PassManager passManager = PassManager.forLevel(level);
+                passManager.setVerify(true);
+                passManager.run(program);
+                Interpreter actual = run(program);
+
+                assertEquals(expected.getOutput(), actual.getOutput(), level + ": " + text);
+                assertEquals(userVariables(expected), userVariables(actual), level + ": " + text);
+            }
+        }
+    }
+
+    @Test
+    public void testLevelsGrowTheirPipelines() {
+        assertTrue(PassManager.forLevel(OptimizationLevel.O0).getPasses().isEmpty());
+        int o1 = PassManager.forLevel(OptimizationLevel.O1).getPasses().size();
+        int o2 = PassManager.forLevel(OptimizationLevel.O2).getPasses().size();
+        assertTrue(o1 > 0 && o2 > o1);
+
+        List<OptimizationPass> passes = PassManager.forLevel(OptimizationLevel.O2).getPasses();
+        assertEquals("superinstructions", passes.get(passes.size() - 1).getName());
+    }
+
+    @Test
+    public void testProfileAddsNoPassesAtO0() throws IOException {
+        ProgramNode program = parseStatements("total = 0\nFOR i = 1 TO 3\ntotal = total + i\nNEXT i\nPRINT total");
+        ExecutionProfile profile = new ExecutionProfile(program);
+
+        assertTrue(PassManager.forLevel(OptimizationLevel.O0, profile).getPasses().isEmpty());
+        assertTrue(PassManager.forLevel(OptimizationLevel.O1, profile).getPasses().size()
+                > PassManager.forLevel(OptimizationLevel.O1).getPasses().size());
+    }
+
+    @Test
+    public void testParsesLevelFlags() {
+        assertEquals(OptimizationLevel.O2, OptimizationLevel.fromFlag("-O2"));
+        assertEquals(OptimizationLevel.O0, OptimizationLevel.fromFlag("-O0"));
+        assertNull(OptimizationLevel.fromFlag("-O3"));
+        assertNull(OptimizationLevel.fromFlag("-d"));
+    }
+
+    @Test
+    public void testStatisticsPerPass() throws IOException {
+        ProgramNode program = parseStatements("x = 1\nx = x + 1\ny = x * 4\nPRINT y");
+        PassManager passManager = PassManager.forLevel(OptimizationLevel.O1);
+        assertTrue(passManager.run(program));
+
+        List<PassStatistics> statistics = passManager.getStatistics();
+        assertEquals(passManager.getPasses().size(), statistics.size());
+        PassStatistics reduction = statistics.get(0);
+        assertEquals("strength-reduction", reduction.getName());
+        assertTrue(reduction.isChanged());
+        // y = x * 4 becomes a shift: one statement out, one in
+        assertEquals(1, reduction.getRemoved());
+        assertEquals(1, reduction.getAdded());
+        assertEquals(4, reduction.getStatementsAfter());
+        assertTrue(reduction.getNanos() >= 0);
+
+        PassStatistics fusion = statistics.get(statistics.size() - 1);
+        assertEquals("superinstructions", fusion.getName());
+        // x = x + 1 and PRINT y are fused
+        assertEquals(2, fusion.getAdded());
+    }
+
+    @Test
+    public void testVerifyNamesThePassThatBreaksTheProgram() throws IOException {
+        OptimizationPass broken = new OptimizationPass() {
+            @Override
+            public String getName() {
+                return "broken";
+            }
+
+            @Override
+            public boolean run(ProgramNode programNode) {
+                List<StatementNode> statements = programNode.getStatements();
+                statements.add(statements.get(0));
+                statements.add(new GoToNode("nowhere"));
+                return true;
+            }
+        };
+        PassManager passManager = new PassManager().add(broken);
+        passManager.setVerify(true);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> passManager.run(parseStatements("PRINT 1")));
+        assertTrue(e.getMessage().contains("'broken'"), e.getMessage());
+        assertTrue(e.getMessage().contains("appears more than once"), e.getMessage());
+        assertTrue(e.getMessage().contains("'nowhere'"), e.getMessage());
+    }
+
+    @Test
+    public void testVerifyToleratesProblemsTheSourceAlreadyHad() throws IOException {
+        ProgramNode program = parseStatements("x = 2\nx = x * 2\nPRINT x\nGOTO missing");
+        assertEquals(Set.of("label 'missing' is jumped to but never defined"), AstVerifier.check(program));
+
+        PassManager passManager = PassManager.forLevel(OptimizationLevel.O2);
+        passManager.setVerify(true);
+        passManager.run(program);
+    }
+}
@@ -0,0 +1,136 @@
+import compiler.LintFinding;
+import compiler.PerformanceLint;
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PerformanceLintTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private List<LintFinding> lint(String text) throws IOException {
+        Parser parser = new Parser(lexTokens(text));
+        ProgramNode program = parser.parse();
+        return PerformanceLint.lint(program, parser.getLineNumbers());
+    }
+
+    private static List<PerformanceLint.RULE> rules(List<LintFinding> findings) {
+        return findings.stream().map(LintFinding::getRule).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testParserRecordsLines() throws IOException {
+        Parser parser = new Parser(lexTokens("x = 1\n\nlabel: PRINT x\nEND"));
+        ProgramNode program = parser.parse();
+        List<StatementNode> statements = program.getStatements();
+
+        assertEquals(1, parser.getLineNumbers().get(statements.get(0)));
+        assertEquals(3, parser.getLineNumbers().get(statements.get(1)));
+        assertEquals(3, parser.getLineNumbers().get(((LabeledStatementNode) statements.get(1)).getStatementNode()));
+        assertEquals(4, parser.getLineNumbers().get(statements.get(2)));
+    }
+
+    @Test
+    public void testSmallPowerInCountedLoop() throws IOException {
+        List<LintFinding> findings = lint("total = 0\nFOR i = 1 TO 100\ntotal = total + POW(i, 2)\nNEXT i\nPRINT total");
+
+        assertEquals(List.of(PerformanceLint.RULE.SMALL_POWER), rules(findings));
+        LintFinding finding = findings.get(0);
+        assertEquals(3, finding.getLine());
+        assertEquals(100, finding.getExecutions());
+        assertEquals(300, finding.getEstimatedCost());
+        assertTrue(finding.toString().startsWith("line 3: SMALL_POWER"), finding.toString());
+        assertTrue(finding.getMessage().startsWith("POW(i, 2) calls Math.pow; write i * i instead"), finding.getMessage());
+    }
+
+    @Test
+    public void testFindingsQuoteTheSource() throws IOException {
+        LintFinding power = lint("x% = 1.5\ny% = POW%(x% + 1.0, 3.0)\nPRINT y%").get(0);
+        assertEquals("POW%(x% + 1.0, 3.0) calls Math.pow; write (x% + 1.0) * (x% + 1.0) * (x% + 1.0) instead",
+                power.getMessage());
+
+        LintFinding conversion = lint("n = 4\nFOR i = 1 TO 10\nx% = FLOAT(n - 1)\nNEXT i").get(0);
+        assertTrue(conversion.getMessage().startsWith("FLOAT(n - 1) of n is converted again"), conversion.getMessage());
+    }
+
+    @Test
+    public void testModuloIdiom() throws IOException {
+        List<LintFinding> findings = lint("x% = 9.0\nn% = 3.0\nIF INT(x% / n%) = x% / n% THEN even\nPRINT \"odd\"\neven:\nPRINT x%");
+        assertEquals(List.of(PerformanceLint.RULE.MODULO_IDIOM), rules(findings));
+        assertEquals(3, findings.get(0).getLine());
+        assertTrue(findings.get(0).getMessage().startsWith("INT(x% / n%) = x% / n% divides in floating point"),
+                findings.get(0).getMessage());
+    }
+
+    @Test
+    public void testModuloIdiomOnIntegersIsAlwaysTrue() throws IOException {
+        // Integer division truncates already, so the test is true for 7 and 2 as well
+        String text = "x = 7\nn = 2\nIF INT(x / n) = x / n THEN even\nPRINT \"odd\"\nEND\neven:\nPRINT \"even\"";
+        List<LintFinding> findings = lint(text);
+        assertEquals(List.of(PerformanceLint.RULE.MODULO_IDIOM), rules(findings));
+        assertEquals("INT(x / n) = x / n is always true because x / n already truncates, so it does not test "
+                + "divisibility; compare x - x / n * n with 0 instead", findings.get(0).getMessage());
+
+        Interpreter interpreter = new Interpreter(new Parser(lexTokens(text)).parse());
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        assertEquals(List.of("even"), interpreter.getOutput());
+    }
+
+    @Test
+    public void testGoSubInForLoopAndIfGotoLoop() throws IOException {
+        List<LintFinding> findings = lint("i = 0\ntop: i = i + 1\nFOR j = 1 TO 5\nGOSUB show\nNEXT j\n" +
+                "IF i < 3 THEN top\nEND\nshow: PRINT j\nRETURN");
+
+        assertEquals(List.of(PerformanceLint.RULE.GOSUB_IN_LOOP, PerformanceLint.RULE.IF_GOTO_LOOP), rules(findings));
+        // The GOSUB runs 5 times for each of the assumed trips around the IF/GOTO loop
+        assertEquals(4, findings.get(0).getLine());
+        assertEquals(5 * PerformanceLint.DEFAULT_TRIPS, findings.get(0).getExecutions());
+        assertEquals(6, findings.get(1).getLine());
+    }
+
+    @Test
+    public void testOnlyInvariantConversionsInLoops() throws IOException {
+        List<LintFinding> findings = lint("n = 4\nx% = 0.0\nFOR i = 1 TO 10\nx% = x% + FLOAT(n) + FLOAT(i)\nNEXT i\nPRINT x%");
+
+        assertEquals(List.of(PerformanceLint.RULE.CONVERSION_IN_LOOP), rules(findings));
+        assertTrue(findings.get(0).getMessage().contains("of n"), findings.get(0).getMessage());
+    }
+
+    @Test
+    public void testUnreachableLabel() throws IOException {
+        List<LintFinding> findings = lint("PRINT 1\nEND\nGOTO dead\ndead: PRINT 2");
+        assertEquals(List.of(PerformanceLint.RULE.UNREACHABLE_LABEL), rules(findings));
+        assertEquals(4, findings.get(0).getLine());
+    }
+
+    @Test
+    public void testUnreachableLoopIsOnlyReportedAsUnreachable() throws IOException {
+        List<LintFinding> findings = lint("PRINT 1\nEND\ndead:\nGOTO dead\nFOR i = 1 TO 100\nx = POW(i, 2)\nNEXT i");
+        assertEquals(List.of(PerformanceLint.RULE.UNREACHABLE_LABEL), rules(findings));
+        assertEquals(3, findings.get(0).getLine());
+        assertEquals(0, findings.get(0).getEstimatedCost());
+    }
+
+    @Test
+    public void testCleanProgramHasNoFindings() throws IOException {
+        assertTrue(lint("total = 0\nFOR i = 1 TO 10\ntotal = total + i * i\nNEXT i\nPRINT total").isEmpty());
+    }
+}
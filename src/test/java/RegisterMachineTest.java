@@ -0,0 +1,87 @@
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+import vm.DispatchBenchmark;
+import vm.RegisterCode;
+import vm.RegisterCompiler;
+import vm.RegisterMachine;
+import vm.VirtualMachine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegisterMachineTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private ProgramNode parseFile(String file) {
+        return new Parser(lexer.lex("src/test/resources/" + file)).parse();
+    }
+
+    @Test
+    public void testStoreRetargetsTheOperation() throws IOException {
+        RegisterCode code = RegisterCompiler.compile(parseStatements("x = 0\nFOR i = 0 TO 10\nx = x + i\nNEXT i\n"));
+        String listing = code.disassemble();
+        assertTrue(listing.contains("IADD x, x, i"), listing);
+        // Only the initial x = 0 copies a register into x
+        assertEquals(1, listing.split("IMOV x,", -1).length - 1, listing);
+    }
+
+    @Test
+    public void testChecksOnlyVariablesThatMayBeUnassigned() throws IOException {
+        String listing = RegisterCompiler.compile(parseStatements("x = 1\ny = x + 1\nPRINT x, y\n")).disassemble();
+        assertFalse(listing.contains("ICHECK"), listing);
+
+        listing = RegisterCompiler.compile(parseStatements("IF 1 < 2 THEN skip\nx = 1\nskip:\nPRINT x\n")).disassemble();
+        assertTrue(listing.contains("ICHECK x"), listing);
+    }
+
+    @Test
+    public void testDispatchesFewerInstructionsThanStackVm() throws IOException {
+        for (String file : List.of("numeric_loops.bas", "for_loop_2.bas", "math_operations.bas")) {
+            VirtualMachine stackMachine = new VirtualMachine(parseFile(file));
+            EngineConformanceTest.run(stackMachine, List.of());
+            RegisterMachine registerMachine = EngineConformanceTest.compare(parseFile(file),
+                    new RegisterMachine(parseFile(file)), List.of());
+            assertTrue(registerMachine.getInstructionsExecuted() < stackMachine.getInstructionsExecuted(),
+                    file + ": " + registerMachine.getInstructionsExecuted() + " vs " + stackMachine.getInstructionsExecuted());
+        }
+        String loopText = "x = 0\nFOR i = 0 TO 1000\nx = x + i\nNEXT i\n";
+        RegisterMachine loop = EngineConformanceTest.compare(parseStatements(loopText),
+                new RegisterMachine(parseStatements(loopText)), List.of());
+        VirtualMachine stackLoop = new VirtualMachine(parseStatements(loopText));
+        EngineConformanceTest.run(stackLoop, List.of());
+        assertTrue(2 * loop.getInstructionsExecuted() < stackLoop.getInstructionsExecuted());
+    }
+
+    @Test
+    public void testBenchmarkReportsInterpreterAndBothMachines() {
+        List<DispatchBenchmark.Result> results = DispatchBenchmark.run(parseFile("numeric_loops.bas"), List.of(), 2);
+        assertEquals(List.of("ast", "stack-vm", "register-vm"),
+                List.of(results.get(0).getEngine(), results.get(1).getEngine(), results.get(2).getEngine()));
+        assertEquals(1.0, results.get(0).getSpeedup());
+        assertEquals(-1, results.get(0).getInstructions());
+        assertTrue(results.get(2).getInstructions() < results.get(1).getInstructions());
+
+        // INPUT reads the given lines, as it does when the program runs
+        List<DispatchBenchmark.Result> fizzbuzz = DispatchBenchmark.run(parseFile("fizzbuzz.bas"), List.of("30"), 1);
+        assertTrue(fizzbuzz.get(1).getInstructions() > 30);
+        assertThrows(IllegalArgumentException.class, () -> DispatchBenchmark.run(parseFile("numeric_loops.bas"), List.of(), 0));
+    }
+}
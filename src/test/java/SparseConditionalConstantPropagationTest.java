@@ -0,0 +1,154 @@
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.SparseConditionalConstantPropagation;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SparseConditionalConstantPropagationTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private Interpreter run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter;
+    }
+
+    // Propagates constants and checks the program behaves exactly like the original
+    private ProgramNode propagateAndCompare(SparseConditionalConstantPropagation pass, String text) throws IOException {
+        Interpreter expected = run(parseStatements(text));
+
+        ProgramNode program = parseStatements(text);
+        pass.run(program);
+        Interpreter actual = run(program);
+
+        assertEquals(expected.getOutput(), actual.getOutput());
+        assertEquals(expected.getIntVariables(), actual.getIntVariables());
+        assertEquals(expected.getFloatVariables(), actual.getFloatVariables());
+        assertEquals(expected.getStringVariables(), actual.getStringVariables());
+        return program;
+    }
+
+    private static long count(ProgramNode program, Class<?> type) {
+        return program.getStatements().stream().filter(type::isInstance).count();
+    }
+
+    @Test
+    public void testConstantDecidesBranchFarAway() throws IOException {
+        SparseConditionalConstantPropagation pass = new SparseConditionalConstantPropagation();
+        ProgramNode program = propagateAndCompare(pass, "total = 1000\ndebug = 0\nGOTO setup\n" +
+                "setup: PRINT \"setup\"\nIF debug > 0 THEN trace\nIF total > 0 THEN main\nPRINT \"empty\"\nEND\n" +
+                "trace: PRINT \"tracing\"\nEND\nmain: PRINT total * 2");
+
+        assertEquals(2, pass.getBranchesFolded());
+        assertEquals(0, count(program, IfNode.class));
+        assertTrue(pass.getStatementsRemoved() >= 2);
+        // PRINT total * 2 is folded to a single literal
+        PrintNode last = (PrintNode) ((LabeledStatementNode) program.getStatements().get(program.getStatements().size() - 1)).getStatementNode();
+        assertEquals(new IntegerNode(2000), optimizer.Expressions.unwrap(last.getParameters().get(0)));
+    }
+
+    @Test
+    public void testUntakenPathDoesNotSpoilTheMerge() throws IOException {
+        // Only the path that runs assigns scale, so the merge after it still sees one value
+        SparseConditionalConstantPropagation pass = new SparseConditionalConstantPropagation();
+        ProgramNode program = propagateAndCompare(pass, "mode = 1\nscale = 10\nIF mode = 1 THEN fast\nscale = 3\n" +
+                "fast: PRINT scale * 4\nIF scale < 5 THEN small\nPRINT \"big\"\nEND\nsmall: PRINT \"small\"");
+
+        assertEquals(2, pass.getBranchesFolded());
+        // Only the read in PRINT survives; the reads in the folded IFs go with them
+        assertEquals(1, pass.getConstantsPropagated());
+        // The label of the dead branch stays, its PRINT goes
+        LabeledStatementNode small = (LabeledStatementNode) program.getStatements().get(program.getStatements().size() - 1);
+        assertEquals("small", small.getLabel());
+        assertNull(small.getStatementNode());
+    }
+
+    @Test
+    public void testLoopVariableIsNotConstant() throws IOException {
+        SparseConditionalConstantPropagation pass = new SparseConditionalConstantPropagation();
+        propagateAndCompare(pass, "limit = 3\ni = 0\ntop: i = i + 1\nPRINT i * limit\nIF i < limit THEN top\nPRINT i");
+
+        // limit is propagated twice, but the loop test depends on i
+        assertEquals(0, pass.getBranchesFolded());
+        assertEquals(2, pass.getConstantsPropagated());
+    }
+
+    @Test
+    public void testFloatAndStringConstants() throws IOException {
+        SparseConditionalConstantPropagation pass = new SparseConditionalConstantPropagation();
+        ProgramNode program = propagateAndCompare(pass, "rate% = 0.5\nname$ = \"report\"\nn = 7\n" +
+                "x% = rate% * FLOAT(n)\nPRINT name$, x%, NUM$(n)");
+
+        PrintNode print = (PrintNode) program.getStatements().get(4);
+        assertEquals(List.of(new StringNode("report"), new FloatNode(3.5f), new StringNode("7")),
+                print.getParameters().stream().map(optimizer.Expressions::unwrap).collect(java.util.stream.Collectors.toList()));
+    }
+
+    @Test
+    public void testRuntimeErrorsAreNotFolded() throws IOException {
+        SparseConditionalConstantPropagation pass = new SparseConditionalConstantPropagation();
+        ProgramNode program = parseStatements("zero = 0\nIF zero > 1 THEN skip\nPRINT 10 / zero\nskip: PRINT y");
+        pass.run(program);
+
+        // The division still fails, and so does the read of y that is never assigned
+        assertTrue(program.getStatements().get(1).toString().contains("DIVIDE"));
+        assertThrows(ArithmeticException.class, () -> run(program));
+    }
+
+    @Test
+    public void testReadValueIsNotConstant() throws IOException {
+        SparseConditionalConstantPropagation pass = new SparseConditionalConstantPropagation();
+        propagateAndCompare(pass, "READ n\nIF n > 1 THEN big\nPRINT \"small\"\nEND\nbig: PRINT \"big\"\nDATA 5");
+
+        assertEquals(0, pass.getBranchesFolded());
+        assertEquals(0, pass.getStatementsRemoved());
+    }
+
+    @Test
+    public void testConstantsFlowThroughSubroutines() throws IOException {
+        SparseConditionalConstantPropagation pass = new SparseConditionalConstantPropagation();
+        ProgramNode program = propagateAndCompare(pass, "verbose = 0\nGOSUB log\nGOSUB log\nPRINT \"done\"\nEND\n" +
+                "log:\nIF verbose = 0 THEN quiet\nPRINT \"log\"\nquiet:\nRETURN");
+
+        assertEquals(1, pass.getBranchesFolded());
+        assertEquals(0, count(program, IfNode.class));
+    }
+
+    @Test
+    public void testDeadLoopKeepsItsStructure() throws IOException {
+        SparseConditionalConstantPropagation pass = new SparseConditionalConstantPropagation();
+        ProgramNode program = propagateAndCompare(pass, "n = 0\nWHILE n > 0 done\nPRINT n\nn = n - 1\ndone:\n" +
+                "FOR i = 1 TO 3\nPRINT i\nNEXT i\nPRINT \"end\"");
+
+        assertEquals(2, pass.getStatementsRemoved());
+        assertEquals(1, count(program, WhileNode.class));
+        assertEquals(1, count(program, NextNode.class));
+    }
+
+    @Test
+    public void testLabeledControlStatementIsLeftAlone() throws IOException {
+        ProgramNode program = parseStatements("x = 1\ntop: IF x > 0 THEN top\nPRINT x");
+        assertFalse(new SparseConditionalConstantPropagation().run(program));
+    }
+}
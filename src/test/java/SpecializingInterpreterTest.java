@@ -0,0 +1,91 @@
+import interpreter.Interpreter;
+import interpreter.SpecializingInterpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpecializingInterpreterTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private ProgramNode parseFile(String file) {
+        return new Parser(lexer.lex("src/test/resources/" + file)).parse();
+    }
+
+    @Test
+    public void testResourceProgramsRunWithoutDeoptimizing() {
+        String[] files = {"data.bas", "variable_storage.bas", "int_storage.bas", "math_operations.bas",
+                "function_math_ops.bas", "test_print.bas", "go_sub.bas", "if_statement.bas",
+                "if_statement_one_label.bas", "if_statement_two_labels.bas", "goto.bas", "while_loop.bas",
+                "read_and_data.bas", "data_test_read_and_print.bas", "for_loop_2.bas", "builtin_conversions.bas",
+                "string_storage.bas", "numeric_loops.bas"};
+        for (String file : files) {
+            SpecializingInterpreter interpreter = EngineConformanceTest.compare(parseFile(file),
+                    new SpecializingInterpreter(parseFile(file)), List.of());
+            assertEquals(0, interpreter.getDeoptimizations(), file);
+        }
+        SpecializingInterpreter loops = new SpecializingInterpreter(parseFile("numeric_loops.bas"));
+        assertNull(EngineConformanceTest.run(loops, List.of()));
+        assertTrue(loops.getSpecializations() > 0);
+    }
+
+    @Test
+    public void testNodesSpecializeOnObservedTypes() throws IOException {
+        ProgramNode program = parseStatements("a = 2\nb = a + 3\nc% = a * 0.5\nd$ = MID$(\"123\", a - 1, 1)\ne = VAL(d$)\n");
+        SpecializingInterpreter interpreter = new SpecializingInterpreter(program);
+        EngineConformanceTest.run(interpreter, List.of());
+        List<String> specializations = new ArrayList<>();
+        for (StatementNode statement : program.getStatements()) {
+            specializations.add(interpreter.getSpecialization(((AssignmentNode) statement).getValue()));
+        }
+        assertEquals(List.of("IntConstant", "IntAdd", "FloatMultiply", "MidArguments", "StringArgument"), specializations);
+        assertEquals(0, interpreter.getDeoptimizations());
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testFailedGuardDeoptimizesToGenericNode() throws IOException {
+        String text = "a = 2\nFOR i = 0 TO 3\ny% = a * 0.5 + i\nNEXT i\n";
+        Interpreter expected = new Interpreter(parseStatements(text));
+        ProgramNode program = parseStatements(text);
+        SpecializingInterpreter actual = new SpecializingInterpreter(program);
+        Interpreter[] interpreters = {expected, actual};
+        for (Interpreter interpreter : interpreters) {
+            interpreter.setTestMode(true);
+            interpreter.start();
+            // Once the loop body has run, store a float where the program has only ever seen an integer
+            for (int i = 0; i < 3; i++) {
+                interpreter.step();
+            }
+            ((Map) interpreter.getAllIntVariables()).put("a", 3.0f);
+            while (interpreter.isRunning()) {
+                interpreter.step();
+            }
+        }
+        assertEquals(expected.getFloatVariables(), actual.getFloatVariables());
+        assertEquals(4.5f, actual.getFloatVariables().get("y%"));
+        // The read of a and the multiply fall back to generic nodes; the add still gets a float and stays
+        assertEquals(2, actual.getDeoptimizations());
+        Node value = ((AssignmentNode) program.getStatements().get(2)).getValue();
+        assertEquals("FloatAdd", actual.getSpecialization(value));
+    }
+}
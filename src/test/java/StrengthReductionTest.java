@@ -0,0 +1,135 @@
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.Expressions;
+import optimizer.StrengthReduction;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StrengthReductionTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private List<String> run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter.getOutput();
+    }
+
+    // Reduces the program and checks its output is identical to the unreduced program's output
+    private ProgramNode reduceAndCompare(String text, StrengthReduction.REDUCTION expected) throws IOException {
+        List<String> expectedOutput = run(parseStatements(text));
+
+        ProgramNode reduced = parseStatements(text);
+        StrengthReduction pass = new StrengthReduction();
+        assertTrue(pass.run(reduced));
+        assertTrue(pass.getCounts().containsKey(expected), pass.getCounts().toString());
+
+        assertEquals(expectedOutput, run(reduced));
+        return reduced;
+    }
+
+    private Node assignedValue(ProgramNode program, int index) {
+        StatementNode statement = program.getStatements().get(index);
+        return Expressions.unwrap(((AssignmentNode) statement).getValue());
+    }
+
+    @Test
+    public void testFloatSquareBecomesMultiply() throws IOException {
+        ProgramNode program = reduceAndCompare(
+                "FOR k = 1 TO 7\nREAD x%\ny% = POW%(x%, 2.0)\nPRINT y%\nNEXT k\n" +
+                "DATA 4097.0, 0.1, -3.5, 1.0000001, 100000000000000000000.0, 0.0, 16777215.0",
+                StrengthReduction.REDUCTION.POW_TO_MULTIPLY);
+
+        MathOpNode square = (MathOpNode) assignedValue(program, 2);
+        assertEquals(MathOpNode.OPERATION.MULTIPLY, square.getOperator());
+        assertEquals(new VariableNode("x%"), square.getLeft());
+    }
+
+    @Test
+    public void testPowFloatMatchesMultiplyBitForBit() {
+        Random random = new Random(26);
+        List<Float> samples = new ArrayList<>(List.of(0.0f, -0.0f, 1.0f, 4097.0f, Float.MIN_VALUE, Float.MAX_VALUE,
+                Float.MIN_NORMAL, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, 1.0E-20f, 3.0E19f));
+        for (int i = 0; i < 200_000; i++) {
+            samples.add(Float.intBitsToFloat(random.nextInt()));
+            samples.add(random.nextFloat());
+        }
+        for (float x : samples) {
+            assertEquals(Float.floatToIntBits(BuiltInFunctions.POWF(x, 2.0f)), Float.floatToIntBits(x * x), "x = " + x);
+        }
+    }
+
+    @Test
+    public void testIntegerPowerOfTwoArithmeticBecomesShifts() throws IOException {
+        ProgramNode program = reduceAndCompare(
+                "FOR k = 1 TO 12\nREAD x\na = x / 4\nb = x * 8\nc = 2 * x\nPRINT a, b, c, x / 1, x * 1\nNEXT k\n" +
+                "DATA 3, -9, -8, -7, -1, 0, 1, 7, 8, 2147483647, -2147483647, 1073741824",
+                StrengthReduction.REDUCTION.DIVIDE_TO_SHIFT);
+
+        assertEquals(MathOpNode.OPERATION.SHIFT_RIGHT, ((MathOpNode) assignedValue(program, 2)).getOperator());
+        assertEquals(MathOpNode.OPERATION.SHIFT_LEFT, ((MathOpNode) assignedValue(program, 3)).getOperator());
+        assertEquals(MathOpNode.OPERATION.SHIFT_LEFT, ((MathOpNode) assignedValue(program, 4)).getOperator());
+    }
+
+    @Test
+    public void testFloatDivisionByPowerOfTwoBecomesMultiply() throws IOException {
+        ProgramNode program = reduceAndCompare(
+                "FOR k = 1 TO 5\nREAD x%\ny% = x% / 4.0\nz% = x% / 0.5\nPRINT y%, z%, k / 2.0\nNEXT k\n" +
+                "DATA 1.0, -7.25, 0.00000000000000000000000000000000000001, 340000000000000000000000000000000000000.0, 3.0",
+                StrengthReduction.REDUCTION.DIVIDE_TO_MULTIPLY);
+
+        MathOpNode quarter = (MathOpNode) assignedValue(program, 2);
+        assertEquals(MathOpNode.OPERATION.MULTIPLY, quarter.getOperator());
+        assertEquals(new FloatNode(0.25f), quarter.getRight());
+    }
+
+    @Test
+    public void testDoubleConversionsAreFused() throws IOException {
+        ProgramNode program = reduceAndCompare(
+                "FOR k = 1 TO 4\nREAD x%\ny% = FLOAT(INT(x%))\nz% = FLOAT(x%)\nPRINT y%, z%\nNEXT k\n" +
+                "DATA 2.75, -2.75, 0.0, 123456.5",
+                StrengthReduction.REDUCTION.CONVERSION);
+
+        FunctionNode truncate = (FunctionNode) assignedValue(program, 2);
+        assertEquals(BuiltInFunctions.FUNCTION.TRUNCF, truncate.getFunctionName());
+        assertEquals(new VariableNode("x%"), assignedValue(program, 3));
+    }
+
+    @Test
+    public void testIntOfIntegerDivisionIsDropped() throws IOException {
+        ProgramNode program = reduceAndCompare(
+                "count = 0\nFOR I = 1 TO 30\nIF INT(I / 3) = I / 3 THEN skip\ncount = count + 1\nskip: PRINT I\nNEXT I\nPRINT count",
+                StrengthReduction.REDUCTION.CONVERSION);
+
+        BooleanExpressionNode condition = ((IfNode) program.getStatements().get(2)).getCondition();
+        assertEquals(Expressions.unwrap(condition.getLeft()), Expressions.unwrap(condition.getRight()));
+    }
+
+    @Test
+    public void testIntegerSquareIsNotReduced() throws IOException {
+        // (int) Math.pow saturates where an int multiply would wrap, so POW(x, 2) must stay a call
+        ProgramNode program = parseStatements("x = 50000\ny = POW(x, 2)\nPRINT y");
+        assertFalse(new StrengthReduction().run(program));
+        assertEquals(List.of(String.valueOf(Integer.MAX_VALUE)), run(program));
+    }
+}
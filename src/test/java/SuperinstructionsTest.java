@@ -0,0 +1,202 @@
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.LoopInvariantCodeMotion;
+import optimizer.Superinstructions;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SuperinstructionsTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private Interpreter run(ProgramNode program) {
+        Interpreter interpreter = new Interpreter(program);
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return interpreter;
+    }
+
+    private Map<String, Object> variables(Interpreter interpreter) {
+        Map<String, Object> variables = new TreeMap<>();
+        variables.putAll(interpreter.getIntVariables());
+        variables.putAll(interpreter.getFloatVariables());
+        variables.putAll(interpreter.getStringVariables());
+        return variables;
+    }
+
+    // Fuses the program and checks it behaves exactly like the unfused one
+    private ProgramNode fuseAndCompare(Superinstructions pass, String text) throws IOException {
+        Interpreter expected = run(parseStatements(text));
+
+        ProgramNode fused = parseStatements(text);
+        pass.run(fused);
+        Interpreter actual = run(fused);
+
+        assertEquals(expected.getOutput(), actual.getOutput());
+        assertEquals(variables(expected), variables(actual));
+        return fused;
+    }
+
+    @Test
+    public void testIncrementLoopFiresEveryIteration() throws IOException {
+        Superinstructions pass = new Superinstructions();
+        ProgramNode program = fuseAndCompare(pass, "i = 0\ntotal = 0\ntop: total = total + i\ni = 1 + i\n" +
+                "IF i < 10 THEN top\nPRINT total");
+
+        assertEquals(Map.of(Superinstructions.FUSION.INCREMENT, 1, Superinstructions.FUSION.COMPARE_BRANCH, 1,
+                Superinstructions.FUSION.PRINT_VARIABLE, 1), pass.getCounts());
+        assertInstanceOf(IncrementNode.class, program.getStatements().get(3));
+        assertEquals(Map.of(Superinstructions.FUSION.INCREMENT, 10L, Superinstructions.FUSION.COMPARE_BRANCH, 10L,
+                Superinstructions.FUSION.PRINT_VARIABLE, 1L), Superinstructions.getFirings(program));
+    }
+
+    @Test
+    public void testFloatIncrementAndDecrement() throws IOException {
+        ProgramNode program = fuseAndCompare(new Superinstructions(),
+                "x% = 0.1\nx% = x% + 0.2\nx% = x% + 1\ny = 2147483647\ny = y + 1\nz = 5\nz = z - 7\nPRINT x%, y, z");
+
+        assertEquals(0.2f, ((IncrementNode) program.getStatements().get(1)).getDelta());
+        assertEquals(1.0f, ((IncrementNode) program.getStatements().get(2)).getDelta());
+        assertEquals(-7, ((IncrementNode) program.getStatements().get(6)).getDelta());
+    }
+
+    @Test
+    public void testMismatchedIncrementIsNotFused() throws IOException {
+        // An integer plus a float literal is a float, which fails at runtime; only the plain form may report it
+        ProgramNode program = parseStatements("x = 1\nx = x + 1.5\ny = 3 - y");
+        new Superinstructions().run(program);
+
+        assertEquals(AssignmentNode.class, program.getStatements().get(1).getClass());
+        assertEquals(AssignmentNode.class, program.getStatements().get(2).getClass());
+    }
+
+    @Test
+    public void testCompareBranchMixesIntegerAndFloat() throws IOException {
+        ProgramNode program = fuseAndCompare(new Superinstructions(),
+                "a% = 2.5\nb = 2\nIF b >= a% THEN skip\nPRINT \"less\"\nskip: PRINT b\nIF 3 <> b THEN out\nPRINT \"never\"\nout: PRINT a%");
+
+        assertFalse(((CompareBranchNode) program.getStatements().get(2)).isIntegerComparison());
+        assertTrue(((CompareBranchNode) program.getStatements().get(5)).isIntegerComparison());
+    }
+
+    @Test
+    public void testStringComparisonIsNotFused() throws IOException {
+        ProgramNode program = parseStatements("a$ = \"x\"\nIF a$ = a$ THEN done\ndone: PRINT a$");
+        new Superinstructions().run(program);
+
+        assertEquals(IfNode.class, program.getStatements().get(1).getClass());
+    }
+
+    @Test
+    public void testConversionAssignments() throws IOException {
+        Superinstructions pass = new Superinstructions();
+        ProgramNode program = fuseAndCompare(pass, "READ n, f%\nx% = FLOAT(n)\ny = INT(f%)\nPRINT x%, y\nDATA 7, -3.75");
+
+        assertEquals(2, pass.getCounts().get(Superinstructions.FUSION.CONVERSION));
+        assertEquals(BuiltInFunctions.FUNCTION.FLOAT, ((ConversionAssignmentNode) program.getStatements().get(1)).getConversion());
+    }
+
+    @Test
+    public void testMismatchedConversionIsNotFused() throws IOException {
+        // An integer variable cannot hold FLOAT()'s result, so the statement keeps its runtime error path
+        ProgramNode program = parseStatements("n = 1\nz = FLOAT(n)");
+        new Superinstructions().run(program);
+
+        assertEquals(AssignmentNode.class, program.getStatements().get(1).getClass());
+    }
+
+    @Test
+    public void testLabeledStatementsAreFused() throws IOException {
+        ProgramNode program = fuseAndCompare(new Superinstructions(),
+                "s$ = \"hi\"\ni = 0\nloop: PRINT s$\nagain: i = i + 1\nIF i < 3 THEN loop");
+
+        assertInstanceOf(PrintVariableNode.class, ((LabeledStatementNode) program.getStatements().get(2)).getStatementNode());
+        assertInstanceOf(IncrementNode.class, ((LabeledStatementNode) program.getStatements().get(3)).getStatementNode());
+        assertEquals(3L, Superinstructions.getFirings(program).get(Superinstructions.FUSION.PRINT_VARIABLE));
+    }
+
+    @Test
+    public void testUndefinedVariableFailsLikeThePlainStatement() throws IOException {
+        ProgramNode program = parseStatements("x = x + 1");
+        new Superinstructions().run(program);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> run(program));
+        assertEquals("Variable 'x' is not defined", e.getMessage());
+    }
+
+    @Test
+    public void testSecondRunChangesNothing() throws IOException {
+        ProgramNode program = parseStatements("i = 0\ni = i + 1\nPRINT i");
+        Superinstructions pass = new Superinstructions();
+        assertTrue(pass.run(program));
+        assertFalse(pass.run(program));
+    }
+
+    @Test
+    public void testFusedLoopStillGetsLoopInvariantCodeMotion() throws IOException {
+        String text = "i = 0\nn = 4\nWHILE i < n done\nx = n * 3\nPRINT x\ni = i + 1\ndone:\nPRINT i";
+        ProgramNode program = fuseAndCompare(new Superinstructions(), text);
+        new LoopInvariantCodeMotion().run(program);
+
+        assertEquals(run(parseStatements(text)).getOutput(), run(program).getOutput());
+    }
+
+    @Test
+    public void testPrintVariableEndsLinesLikePrint() throws IOException {
+        String text = "s$ = \"hi\"\nPRINT s$\nPRINT \"done\"";
+        ProgramNode fused = parseStatements(text);
+        new Superinstructions().run(fused);
+        assertInstanceOf(PrintVariableNode.class, fused.getStatements().get(1));
+
+        assertEquals(console(parseStatements(text)), console(fused));
+        assertEquals(endedLines(parseStatements(text)), endedLines(fused));
+    }
+
+    // What the program writes to the console outside test mode
+    private String console(ProgramNode program) {
+        PrintStream original = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try {
+            new Interpreter(program).interpret();
+        } finally {
+            System.setOut(original);
+        }
+        return captured.toString();
+    }
+
+    // How many lines the program ends in test mode
+    private int endedLines(ProgramNode program) {
+        int[] lines = {0};
+        Interpreter interpreter = new Interpreter(program) {
+            @Override
+            protected void endLine() {
+                lines[0]++;
+            }
+        };
+        interpreter.setTestMode(true);
+        interpreter.interpret();
+        return lines[0];
+    }
+}
@@ -0,0 +1,116 @@
+import interpreter.Interpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import optimizer.TailGoSubElimination;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TailGoSubEliminationTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    // Runs the program one statement at a time and returns the deepest the runtime stack got
+    private int maxStackDepth(Interpreter interpreter) {
+        interpreter.setTestMode(true);
+        interpreter.start();
+        int depth = 0;
+        while (interpreter.isRunning()) {
+            interpreter.step();
+            depth = Math.max(depth, interpreter.getStackDepth());
+        }
+        return depth;
+    }
+
+    // Eliminates tail calls and checks the program behaves exactly like the original
+    private ProgramNode eliminateAndCompare(TailGoSubElimination pass, String text, int expectedEliminated) throws IOException {
+        Interpreter expected = new Interpreter(parseStatements(text));
+        maxStackDepth(expected);
+
+        ProgramNode program = parseStatements(text);
+        assertEquals(expectedEliminated > 0, pass.run(program));
+        assertEquals(expectedEliminated, pass.getEliminated());
+        Interpreter actual = new Interpreter(program);
+        maxStackDepth(actual);
+
+        assertEquals(expected.getOutput(), actual.getOutput());
+        assertEquals(expected.getIntVariables(), actual.getIntVariables());
+        return program;
+    }
+
+    @Test
+    public void testMutuallyTailCallingSubroutinesRunInConstantStack() throws IOException {
+        String text = "n = 0\nGOSUB ping\nPRINT n\nEND\n" +
+                "ping: n = n + 1\nIF n >= 1000 THEN done\nGOSUB pong\nRETURN\n" +
+                "pong: n = n + 1\nGOSUB ping\nRETURN\n" +
+                "done:\nRETURN";
+        assertEquals(1001, maxStackDepth(new Interpreter(parseStatements(text))));
+
+        ProgramNode program = eliminateAndCompare(new TailGoSubElimination(), text, 2);
+        assertEquals(1, maxStackDepth(new Interpreter(program)));
+    }
+
+    @Test
+    public void testGoSubBeforeOtherWorkIsKept() throws IOException {
+        eliminateAndCompare(new TailGoSubElimination(),
+                "GOSUB outer\nEND\nouter: PRINT \"outer\"\nGOSUB inner\nPRINT \"after\"\nRETURN\ninner: PRINT \"inner\"\nRETURN", 0);
+    }
+
+    @Test
+    public void testReturnReachedThroughGoToAndEmptyLabel() throws IOException {
+        ProgramNode program = eliminateAndCompare(new TailGoSubElimination(),
+                "GOSUB outer\nPRINT \"back\"\nEND\nouter: PRINT \"outer\"\nGOSUB inner\nGOTO leave\nPRINT \"skipped\"\nleave:\nRETURN\n" +
+                "inner: PRINT \"inner\"\nRETURN", 1);
+
+        assertEquals("inner", ((GoToNode) program.getStatements().get(4)).getLabel());
+    }
+
+    @Test
+    public void testGoSubAtEndOfProgramIsKept() throws IOException {
+        // Returning from the last statement ends the program, which a jump would not
+        eliminateAndCompare(new TailGoSubElimination(), "GOSUB show\nEND\nshow: PRINT \"once\"\nGOSUB again\nagain: RETURN", 0);
+    }
+
+    @Test
+    public void testSubroutineWithOwnForLoopIsCalledInTail() throws IOException {
+        eliminateAndCompare(new TailGoSubElimination(),
+                "GOSUB outer\nPRINT \"done\"\nEND\nouter: PRINT \"outer\"\nGOSUB count\nRETURN\ncount: PRINT \"count\"\nFOR i = 1 TO 3\nPRINT i\nNEXT i\nRETURN", 1);
+    }
+
+    @Test
+    public void testSubroutineClosingCallersLoopIsKept() throws IOException {
+        // The NEXT fails on the frame of the outer GOSUB; with that frame gone it would pop the caller's loop instead
+        ProgramNode program = parseStatements("FOR k = 1 TO 3\nGOSUB outer\nEND\nouter: PRINT \"outer\"\nGOSUB show\nRETURN\n" +
+                "show: PRINT k\nNEXT k\nRETURN");
+
+        assertFalse(new TailGoSubElimination().run(program));
+    }
+
+    @Test
+    public void testTopLevelTailCallFailsTheSameWay() throws IOException {
+        ProgramNode original = parseStatements("GOSUB show\nRETURN\nshow: PRINT \"x\"\nRETURN");
+        ProgramNode program = parseStatements("GOSUB show\nRETURN\nshow: PRINT \"x\"\nRETURN");
+        assertTrue(new TailGoSubElimination().run(program));
+
+        IllegalArgumentException expected = assertThrows(IllegalArgumentException.class, () -> maxStackDepth(new Interpreter(original)));
+        IllegalArgumentException actual = assertThrows(IllegalArgumentException.class, () -> maxStackDepth(new Interpreter(program)));
+        assertEquals(expected.getMessage(), actual.getMessage());
+    }
+}
@@ -0,0 +1,180 @@
+import lexer.Lexer;
+import lexer.Token;
+import node.ProgramNode;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+import vm.TierTransition;
+import vm.TieredEngine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TieredEngineTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private ProgramNode parseFile(String file) {
+        return new Parser(lexer.lex("src/test/resources/" + file)).parse();
+    }
+
+
+    // A tiered engine that compiles on the first entry to a region and switches at the first safe point after it
+    private TieredEngine eager(ProgramNode program, int threshold) {
+        TieredEngine engine = new TieredEngine(program);
+        engine.setThreshold(threshold);
+        engine.setBackgroundCompilation(false);
+        return engine;
+    }
+
+    // A tiered engine that only switches on a back edge, after the given number of trips round a loop
+    private TieredEngine osr(ProgramNode program, int osrThreshold) {
+        TieredEngine engine = eager(program, Integer.MAX_VALUE);
+        engine.setOsrThreshold(osrThreshold);
+        return engine;
+    }
+
+    private TieredEngine compare(String text, int threshold, String... input) throws IOException {
+        return EngineConformanceTest.compare(parseStatements(text), eager(parseStatements(text), threshold),
+                List.of(input));
+    }
+
+    @Test
+    public void testResourceProgramsMatchInterpreterAtEveryThreshold() {
+        String[] files = {"data.bas", "go_sub.bas", "if_statement.bas", "goto.bas", "while_loop.bas", "while_loop2.bas",
+                "read_and_data.bas", "for_loop.bas", "for_loop_2.bas", "for_loop_3.bas", "builtin_conversions.bas",
+                "numeric_loops.bas"};
+        for (String file : files) {
+            for (int threshold : new int[]{1, 2, 3, 50}) {
+                EngineConformanceTest.compare(parseFile(file), eager(parseFile(file), threshold), List.of());
+            }
+        }
+    }
+
+    @Test
+    public void testSwitchCarriesFramesDataAndInput() throws IOException {
+        // The switch happens inside the FOR loop with a GOSUB frame above it, after some DATA and input are used
+        String text = "DATA 1, 2, 3, 4, 5, 6\nINPUT \"n\", n\ntotal = 0\nFOR i = 0 TO 6\nGOSUB add\nNEXT i\n"
+                + "INPUT \"m\", m\nPRINT total, n, m\nEND\nadd:\nREAD d\ntotal = total + d * n\nRETURN\n";
+        for (int threshold = 1; threshold <= 6; threshold++) {
+            TieredEngine engine = compare(text, threshold, "10", "20");
+            assertEquals(TieredEngine.Tier.JIT, engine.getTier());
+        }
+        compare("x = 0\nl: WHILE x < 5 done\nx = x + 1\ndone:\nPRINT x\n", 2);
+        compare("l: FOR i = 0 TO 5\nPRINT i\nNEXT i\n", 2);
+    }
+
+    @Test
+    public void testRuntimeErrorsAfterSwitchMatchInterpreter() throws IOException {
+        compare("FOR i = 0 TO 5\nx = i\nNEXT i\nRETURN\n", 2);
+        compare("FOR i = 0 TO 5\nIF i > 3 THEN bad\nNEXT i\nbad:\nNEXT j\n", 2);
+        compare("FOR i = 0 TO 5\nx = i\nNEXT i\ns$ = \"a\" + x\n", 2);
+        compare("FOR i = 0 TO 5\nx = i\nNEXT i\nREAD y\n", 2);
+    }
+
+    @Test
+    public void testTransitionIsRecorded() throws IOException {
+        TieredEngine engine = compare("s = 0\nloop:\ns = s + 1\nIF s < 100 THEN loop\nPRINT s\n", 10);
+        List<TierTransition> transitions = engine.getTransitions();
+        assertEquals(1, transitions.size());
+        TierTransition transition = transitions.get(0);
+        assertEquals(TieredEngine.Tier.INTERPRETER, transition.getFrom());
+        assertEquals(TieredEngine.Tier.JIT, transition.getTo());
+        assertEquals("loop at label 'loop'", transition.getRegion());
+        assertEquals(10, transition.getCount());
+        assertTrue(transition.getInterpretedStatements() > 0);
+        assertNull(engine.getCompileFailure());
+    }
+
+    @Test
+    public void testColdProgramStaysInInterpreter() throws IOException {
+        TieredEngine engine = compare("FOR i = 0 TO 5\nGOSUB s\nNEXT i\nEND\ns:\nPRINT i\nRETURN\n", 1000);
+        assertEquals(TieredEngine.Tier.INTERPRETER, engine.getTier());
+        assertTrue(engine.getTransitions().isEmpty());
+    }
+
+    @Test
+    public void testForcedTierRunsOnlyThatTier() throws IOException {
+        String text = "total = 0\nFOR i = 0 TO 500\ntotal = total + i\nNEXT i\nPRINT total\n";
+        TieredEngine interpreted = eager(parseStatements(text), 1);
+        interpreted.setForcedTier(TieredEngine.Tier.INTERPRETER);
+        EngineConformanceTest.compare(parseStatements(text), interpreted, List.of());
+        assertEquals(TieredEngine.Tier.INTERPRETER, interpreted.getTier());
+        assertTrue(interpreted.getTransitions().isEmpty());
+
+        TieredEngine compiled = eager(parseStatements(text), 1);
+        compiled.setForcedTier(TieredEngine.Tier.JIT);
+        EngineConformanceTest.compare(parseStatements(text), compiled, List.of());
+        assertEquals(TieredEngine.Tier.JIT, compiled.getTier());
+        assertTrue(compiled.getTransitions().isEmpty());
+    }
+
+    @Test
+    public void testLoopEnteredOnceIsReplacedAtItsBackEdge() throws IOException {
+        String text = "total = 0\nFOR i = 0 TO 1000\ntotal = total + i\nNEXT i\nPRINT total, i\n";
+        TieredEngine engine = EngineConformanceTest.compare(parseStatements(text), osr(parseStatements(text), 25),
+                List.of());
+        List<TierTransition> transitions = engine.getTransitions();
+        assertEquals(1, transitions.size());
+        assertTrue(transitions.get(0).isOsr());
+        assertEquals("NEXT i at statement 3", transitions.get(0).getRegion());
+        assertEquals(25, transitions.get(0).getCount());
+        assertEquals(TieredEngine.Tier.JIT, engine.getTier());
+
+        // Re-entering the FOR from its own NEXT is not an entry, so a low entry threshold alone never trips
+        TieredEngine entries = eager(parseStatements(text), 2);
+        EngineConformanceTest.compare(parseStatements(text), entries, List.of());
+        assertEquals(TieredEngine.Tier.INTERPRETER, entries.getTier());
+    }
+
+    @Test
+    public void testOsrCarriesLoopStateMidIteration() throws IOException {
+        // The loop runs inside a subroutine, so the stack holds a GOSUB return point under the FOR frame
+        String nested = "DATA 5, 6, 7\nREAD a\nGOSUB work\nREAD b\nPRINT s, a, b, j\nEND\nwork:\ns = 0\n"
+                + "FOR j = 1 TO 50 STEP 2\ns = s + j * a\nNEXT j\nRETURN\n";
+        for (int threshold = 1; threshold <= 20; threshold += 3) {
+            TieredEngine engine = EngineConformanceTest.compare(parseStatements(nested),
+                    osr(parseStatements(nested), threshold), List.of());
+            assertTrue(engine.getTransitions().get(0).isOsr());
+        }
+        String whileLoop = "x% = 0.0\nn = 0\nWHILE n < 40 done\nx% = x% + 0.5\nn = n + 1\ndone:\nPRINT x%, n\n";
+        TieredEngine engine = EngineConformanceTest.compare(parseStatements(whileLoop),
+                osr(parseStatements(whileLoop), 7), List.of());
+        assertEquals("WHILE end label 'done'", engine.getTransitions().get(0).getRegion());
+        // Loops nested in loops switch at the inner back edge with both frames live
+        compare("t = 0\nFOR i = 0 TO 6\nFOR k = 0 TO 6\nt = t + i * k\nNEXT k\nk = 0\nNEXT i\nPRINT t\n", 9);
+        compare("t = 0\nFOR i = 0 TO 6\nFOR k = 0 TO 6\nt = t + i * k\nNEXT k\nk = 0\nNEXT i\nPRINT t\n", 1);
+    }
+
+    @Test
+    public void testPiEstimationSwitchesInsideDartLoop() {
+        TieredEngine engine = osr(parseFile("pi_estimation.txt"), 100);
+        assertNull(EngineConformanceTest.run(engine, List.of("2000")));
+        assertEquals(List.of("Num Thrown: ", "2000"), engine.getOutput().subList(0, 2));
+        assertEquals(1, engine.getTransitions().size());
+        assertTrue(engine.getTransitions().get(0).isOsr());
+        assertEquals(2000, engine.getIntVariables().get("i"));
+    }
+
+    @Test
+    public void testBackgroundCompilationMatchesInterpreter() throws IOException {
+        String text = "total = 0\nFOR i = 0 TO 20000\ntotal = total + i / 3\nNEXT i\nPRINT total\n";
+        TieredEngine engine = new TieredEngine(parseStatements(text));
+        engine.setThreshold(5);
+        EngineConformanceTest.compare(parseStatements(text), engine, List.of());
+    }
+}
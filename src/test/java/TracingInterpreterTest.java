@@ -0,0 +1,174 @@
+import compiler.OptimizationLevel;
+import compiler.PassManager;
+import interpreter.Trace;
+import interpreter.TracingInterpreter;
+import lexer.Lexer;
+import lexer.Token;
+import node.ProgramNode;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TracingInterpreterTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    private ProgramNode parseFile(String file) {
+        return new Parser(lexer.lex("src/test/resources/" + file)).parse();
+    }
+
+
+    private TracingInterpreter tracing(ProgramNode program, int threshold) {
+        TracingInterpreter interpreter = new TracingInterpreter(program);
+        interpreter.setThreshold(threshold);
+        return interpreter;
+    }
+
+    private TracingInterpreter compare(String text, int threshold, String... input) throws IOException {
+        return EngineConformanceTest.compare(parseStatements(text), tracing(parseStatements(text), threshold),
+                List.of(input));
+    }
+
+    @Test
+    public void testResourceProgramsMatchInterpreterAtEveryThreshold() {
+        String[] files = {"data.bas", "go_sub.bas", "if_statement.bas", "goto.bas", "while_loop.bas", "while_loop2.bas",
+                "read_and_data.bas", "for_loop.bas", "for_loop_2.bas", "for_loop_3.bas", "builtin_conversions.bas",
+                "numeric_loops.bas"};
+        for (String file : files) {
+            for (int threshold : new int[]{1, 2, 3, 50}) {
+                EngineConformanceTest.compare(parseFile(file), tracing(parseFile(file), threshold), List.of());
+            }
+        }
+    }
+
+    @Test
+    public void testSpaghettiLoopBecomesOneTrace() throws IOException {
+        // The loop body is scattered across the program and held together by GOTOs, but goes the same way each time
+        String text = "total = 0\ni = 0\ntop:\ni = i + 1\nGOTO body\nback:\nIF i < 1000 THEN top\nGOTO done\n"
+                + "body:\nIF i < 0 THEN done\nGOSUB add\nGOTO back\nadd:\ntotal = total + i * 2\nRETURN\n"
+                + "done:\nPRINT total, i\n";
+        TracingInterpreter interpreter = compare(text, 10);
+        assertEquals(1, interpreter.getTraces().size());
+        Trace trace = interpreter.getTraces().get(0);
+        // The GOTO back to 'back' is the first backward jump of each iteration, so its target is the anchor
+        assertEquals("label 'back'", trace.getAnchor());
+        assertEquals(12, trace.getLength());
+        assertEquals(2, trace.getGuards());
+        assertEquals(1, trace.getEntries());
+        assertEquals(1, trace.getSideExits());
+        assertTrue(trace.getIterations() > 900, trace::toString);
+        assertTrue(interpreter.getAbortedTraces().isEmpty());
+    }
+
+    @Test
+    public void testGuardsSideExitToTheOtherBranch() throws IOException {
+        // Every seventh time round the IF goes the other way, leaves the trace and comes back in at the anchor
+        String text = "odd = 0\nx% = 0.0\nFOR i = 0 TO 200\nIF i - i / 7 * 7 = 0 THEN rare\nx% = x% + 0.5\nGOTO cont\n"
+                + "rare:\nodd = odd + 1\ncont:\nNEXT i\nPRINT odd, x%, i\n";
+        TracingInterpreter interpreter = compare(text, 3);
+        Trace trace = interpreter.getTraces().get(0);
+        assertEquals("statement 2", trace.getAnchor());
+        assertTrue(trace.getSideExits() > 20, trace::toString);
+        assertEquals(trace.getSideExits(), trace.getEntries());
+        for (int threshold = 1; threshold <= 10; threshold++) {
+            compare(text, threshold);
+        }
+    }
+
+    @Test
+    public void testTraceThatGoesAstrayIsRecordedAgain() throws IOException {
+        // The first 30 times round take one branch and the rest the other, so the first trace stops predicting the path
+        String text = "a = 0\nb = 0\nFOR i = 0 TO 500\nIF i > 30 THEN late\na = a + 1\nGOTO cont\nlate:\nb = b + 1\n"
+                + "IF b < 0 THEN cont\ncont:\nNEXT i\nPRINT a, b\n";
+        TracingInterpreter interpreter = compare(text, 5);
+        List<Trace> traces = interpreter.getTraces();
+        assertEquals(2, traces.size());
+        assertEquals(traces.get(0).getAnchor(), traces.get(1).getAnchor());
+        // It went round until i passed 30, then failed its first guard on every entry until that outweighed them
+        assertEquals(traces.get(0).getIterations() + 1, traces.get(0).getSideExits(), traces.get(0)::toString);
+        assertEquals(1, traces.get(1).getEntries());
+        assertTrue(traces.get(1).getIterations() > 400, traces.get(1)::toString);
+    }
+
+    @Test
+    public void testWhileAndMixedTypesMatchInterpreter() throws IOException {
+        compare("n = 0\nf% = 1.0\ns$ = \"\"\nWHILE n < 300 done\nn = n + 1\nf% = f% * 1.01 + n / 3\n"
+                + "s$ = RIGHT$(NUM$(n), 2)\nIF f% > 100.0 THEN reset\nGOTO more\nreset:\nf% = FLOAT(INT(f%)) / 7\n"
+                + "more:\nx = n << 2 >> 1\ndone:\nPRINT n, f%, s$, x\n", 5);
+        compare("a = 7\nb% = 0.5\nloop:\nb% = b% + a\na = a - 1\nIF a > -50 THEN loop\nPRINT a, b%\n", 4);
+        compare("t = 0\nFOR i = 0 TO 6\nFOR k = 0 TO 6\nt = t + i * k\nNEXT k\nk = 0\nNEXT i\nPRINT t\n", 2);
+    }
+
+    @Test
+    public void testOptimizedProgramsRunInTraces() throws IOException {
+        // The optimizer fuses statements into superinstructions, which traces must run exactly as the Interpreter does;
+        // the loop bounds are read so the optimizer cannot run the loops itself
+        String[] texts = {
+                "INPUT \"m\", m\ntotal = 0\ni = 0\ntop:\ni = i + 1\nIF i > m THEN done\nGOSUB add\nGOTO top\nadd:\n"
+                        + "total = total + i\nf% = FLOAT(i)\ng% = FLOAT(INT(f% / 3.0))\nPRINT i\nRETURN\ndone:\nPRINT total, g%\n",
+                "INPUT \"m\", m\nx% = 0.0\nn = 0\nWHILE n < m done\nx% = x% + 0.5\nn = n + 1\ndone:\nPRINT x%, n\n"};
+        for (String text : texts) {
+            for (OptimizationLevel level : OptimizationLevel.values()) {
+                ProgramNode expected = parseStatements(text);
+                PassManager.forLevel(level).run(expected);
+                ProgramNode actual = parseStatements(text);
+                PassManager.forLevel(level).run(actual);
+                TracingInterpreter interpreter = EngineConformanceTest.compare(expected, tracing(actual, 3), List.of("300"));
+                assertFalse(interpreter.getTraces().isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void testRuntimeErrorsInsideTraceMatchInterpreter() throws IOException {
+        // LEFT$ fails part-way round the trace, after some variables were written and lines printed
+        compare("d = 20\nloop:\nd = d - 1\nPRINT d\ns$ = LEFT$(\"abcdefghij\", d)\nIF d > -5 THEN loop\n", 3);
+        compare("n = 0\nFOR i = 0 TO 100\nn = n + i\nIF i > 60 THEN bad\nNEXT i\nbad:\nRETURN\n", 5);
+        compare("s$ = \"abcdef\"\nFOR i = 0 TO 10\nt$ = MID$(s$, i, 2)\nNEXT i\n", 2);
+    }
+
+    @Test
+    public void testUntraceableLoopsStayInterpreted() throws IOException {
+        TracingInterpreter input = compare("n = 0\nloop:\nINPUT \"v\", v\nn = n + v\nIF n < 10 THEN loop\nPRINT n\n", 1,
+                "3", "4", "5");
+        assertTrue(input.getTraces().isEmpty());
+        assertEquals(List.of("label 'loop': InputNode cannot be traced"), input.getAbortedTraces());
+
+        // A loop that GOSUBs without returning grows the stack each time round
+        TracingInterpreter deeper = compare("n = 0\nloop:\nn = n + 1\nIF n > 20 THEN out\nGOSUB loop\nout:\nPRINT n\n", 2);
+        assertTrue(deeper.getTraces().isEmpty());
+
+        // The outer loop goes round the inner one, which gets the trace
+        TracingInterpreter nested = compare("t = 0\nFOR i = 0 TO 30\nj = 0\ninner:\nj = j + 1\nt = t + j\n"
+                + "IF j < 40 THEN inner\nNEXT i\nPRINT t\n", 5);
+        assertEquals(1, nested.getTraces().size());
+        assertEquals("label 'inner'", nested.getTraces().get(0).getAnchor());
+        assertEquals(List.of("statement 1: it goes round an inner loop at label 'inner'"), nested.getAbortedTraces());
+    }
+
+    @Test
+    public void testPiEstimationRunsInTrace() {
+        TracingInterpreter interpreter = tracing(parseFile("pi_estimation.txt"), 20);
+        assertNull(EngineConformanceTest.run(interpreter, List.of("2000")));
+        assertEquals(List.of("Num Thrown: ", "2000"), interpreter.getOutput().subList(0, 2));
+        assertEquals(2000, interpreter.getIntVariables().get("i"));
+        assertFalse(interpreter.getTraces().isEmpty());
+    }
+}
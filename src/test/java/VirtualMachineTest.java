@@ -0,0 +1,61 @@
+import lexer.Lexer;
+import lexer.Token;
+import node.*;
+import org.junit.jupiter.api.Test;
+import parser.Parser;
+import vm.Bytecode;
+import vm.BytecodeCompiler;
+import vm.Opcode;
+import vm.VirtualMachine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VirtualMachineTest {
+
+    Lexer lexer = new Lexer();
+
+    private LinkedList<Token> lexTokens(String text) throws IOException {
+        Path tempFilePath = Files.createTempFile("temp.bas", ".txt");
+        Files.writeString(tempFilePath, text);
+        return lexer.lex(tempFilePath.toString());
+    }
+
+    private ProgramNode parseStatements(String text) throws IOException {
+        return new Parser(lexTokens(text)).parse();
+    }
+
+    @Test
+    public void testRandomProgramsDefineTheSameVariables() {
+        VirtualMachine vm = new VirtualMachine(new Parser(lexer.lex("src/test/resources/pi_estimation.txt")).parse());
+        assertNull(EngineConformanceTest.run(vm, List.of("1000")));
+        assertEquals(1000, vm.getIntVariables().get("total"));
+        assertEquals(Set.of("Num Thrown: ", "Num Hit: ", "Pi: "), Set.of(vm.getOutput().get(0), vm.getOutput().get(2), vm.getOutput().get(4)));
+
+        vm = new VirtualMachine(new Parser(lexer.lex("src/test/resources/function_storage.bas")).parse());
+        assertNull(EngineConformanceTest.run(vm, List.of()));
+        assertEquals(5, vm.getIntVariables().get("stringToNum"));
+
+        vm = new VirtualMachine(new Parser(lexer.lex("src/test/resources/random_range.txt")).parse());
+        assertNull(EngineConformanceTest.run(vm, List.of()));
+        assertEquals(Set.of("a", "c"), vm.getIntVariables().keySet());
+        assertEquals(Set.of("b%", "d%", "e%"), vm.getFloatVariables().keySet());
+    }
+
+    @Test
+    public void testCompiledCodeIsTypedAndCounted() throws IOException {
+        Bytecode bytecode = BytecodeCompiler.compile(parseStatements("a% = 1.5\nb% = a% + 2\nPRINT b%\n"));
+        String listing = bytecode.disassemble();
+        assertTrue(listing.contains("I2F") || listing.contains("FADD"), listing);
+        assertFalse(listing.contains("IADD"), listing);
+        assertTrue(Arrays.stream(bytecode.getCode()).anyMatch(word -> word == Opcode.HALT));
+
+        VirtualMachine vm = EngineConformanceTest.compare(parseStatements("FOR i = 0 TO 1000\nNEXT i\n"),
+                new VirtualMachine(parseStatements("FOR i = 0 TO 1000\nNEXT i\n")), List.of());
+        assertTrue(vm.getInstructionsExecuted() > 1000);
+    }
+}
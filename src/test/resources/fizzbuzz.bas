@@ -0,0 +1,17 @@
+INPUT "Count to: ", n
+FOR i = 1 TO n
+IF i - i / 15 * 15 = 0 THEN fizzBuzz
+IF i - i / 3 * 3 = 0 THEN fizz
+IF i - i / 5 * 5 = 0 THEN buzz
+PRINT i
+GOTO nextNumber
+fizzBuzz:
+PRINT "Fizz Buzz"
+GOTO nextNumber
+fizz:
+PRINT "Fizz"
+GOTO nextNumber
+buzz:
+PRINT "Buzz"
+nextNumber:
+NEXT i
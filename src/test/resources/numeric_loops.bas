@@ -0,0 +1,30 @@
+steps = 0
+value = 27
+sum = 0
+squares = 0
+FOR i = 0 TO 1000
+sum = sum + i
+squares = squares + i * i
+NEXT i
+
+total% = 0.0
+x% = 0.5
+n = 0
+WHILE n < 1000 endSeries
+total% = total% + x% * x% / 2.0
+x% = x% + 0.001
+n = n + 1
+endSeries:
+
+collatz:
+IF value <= 1 THEN done
+steps = steps + 1
+half = value / 2
+IF half * 2 = value THEN even
+value = 3 * value + 1
+GOTO collatz
+even:
+value = half
+GOTO collatz
+done:
+PRINT sum, squares, total%, steps